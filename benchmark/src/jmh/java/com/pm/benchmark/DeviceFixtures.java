@@ -0,0 +1,119 @@
+package com.pm.benchmark;
+
+import android.util.Size;
+
+/**
+ * Output size lists and view configurations typical of three device classes, so the benchmarks
+ * see inputs of realistic length and aspect ratio mix. Sizes are listed largest first, the way
+ * {@code StreamConfigurationMap} usually reports them.
+ *
+ * @author pm
+ */
+final class DeviceFixtures {
+    static final String LOW_END = "lowEnd";
+    static final String MID_RANGE = "midRange";
+    static final String FLAGSHIP = "flagship";
+
+    private DeviceFixtures() {
+    }
+
+    /**
+     * LEGACY hardware level, 8 MP 4:3 sensor, 720p screen
+     */
+    private static final int[][] LOW_END_JPEG = {
+            {3264, 2448}, {3264, 1836}, {2592, 1944}, {2048, 1536}, {1920, 1080}, {1600, 1200},
+            {1280, 960}, {1280, 720}, {1024, 768}, {800, 600}, {640, 480}, {320, 240},
+    };
+    private static final int[][] LOW_END_PREVIEW = {
+            {1920, 1080}, {1280, 960}, {1280, 720}, {960, 720}, {800, 480}, {720, 480},
+            {768, 432}, {640, 480}, {352, 288}, {320, 240}, {176, 144},
+    };
+
+    /**
+     * FULL hardware level, 12 MP sensor, 1080p screen
+     */
+    private static final int[][] MID_RANGE_JPEG = {
+            {4032, 3024}, {4032, 2268}, {3984, 2988}, {3264, 2448}, {3264, 1836}, {3024, 3024},
+            {2976, 2976}, {2880, 2160}, {2592, 1944}, {2560, 1440}, {2160, 2160}, {2048, 1536},
+            {2048, 1152}, {1920, 1080}, {1440, 1080}, {1280, 960}, {1280, 720}, {960, 720},
+            {720, 480}, {640, 480}, {320, 240}, {176, 144},
+    };
+    private static final int[][] MID_RANGE_PREVIEW = {
+            {4032, 3024}, {4032, 2268}, {3264, 2448}, {2880, 2160}, {2560, 1440}, {2160, 2160},
+            {2048, 1536}, {2048, 1152}, {1920, 1440}, {1920, 1080}, {1920, 960}, {1440, 1080},
+            {1280, 960}, {1280, 720}, {1088, 1088}, {960, 720}, {864, 480}, {800, 600},
+            {720, 480}, {640, 480}, {352, 288}, {320, 240}, {256, 144}, {176, 144},
+    };
+
+    /**
+     * LEVEL_3 hardware level, 48 MP quad bayer sensor, 1440p 20:9 screen
+     */
+    private static final int[][] FLAGSHIP_JPEG = {
+            {8000, 6000}, {8000, 4500}, {8000, 3600}, {6000, 6000}, {4000, 3000}, {4000, 2250},
+            {4000, 1800}, {3840, 2160}, {3648, 2736}, {3648, 2052}, {3264, 2448}, {3264, 1836},
+            {3024, 3024}, {2976, 2976}, {2880, 2160}, {2592, 1944}, {2560, 1440}, {2400, 1080},
+            {2340, 1080}, {2160, 2160}, {2048, 1536}, {2048, 1152}, {1920, 1440}, {1920, 1080},
+            {1600, 1200}, {1440, 1080}, {1280, 960}, {1280, 720}, {1024, 768}, {960, 720},
+            {800, 600}, {720, 480}, {640, 480}, {352, 288}, {320, 240}, {176, 144},
+    };
+    private static final int[][] FLAGSHIP_PREVIEW = {
+            {4000, 3000}, {4000, 2250}, {4000, 1800}, {3840, 2160}, {3264, 2448}, {3264, 1836},
+            {2880, 2160}, {2560, 1440}, {2400, 1080}, {2340, 1080}, {2160, 2160}, {2048, 1536},
+            {1920, 1440}, {1920, 1080}, {1920, 864}, {1600, 1200}, {1600, 720}, {1440, 1080},
+            {1280, 960}, {1280, 720}, {1088, 1088}, {1024, 768}, {960, 720}, {960, 540},
+            {864, 480}, {800, 600}, {720, 720}, {720, 480}, {640, 480}, {640, 360},
+            {352, 288}, {320, 240}, {256, 144}, {176, 144},
+    };
+
+    static Size[] jpegSizes(String device) {
+        return toSizes(select(device, LOW_END_JPEG, MID_RANGE_JPEG, FLAGSHIP_JPEG));
+    }
+
+    static Size[] previewSizes(String device) {
+        return toSizes(select(device, LOW_END_PREVIEW, MID_RANGE_PREVIEW, FLAGSHIP_PREVIEW));
+    }
+
+    /**
+     * @return the TextureView size in sensor orientation, i.e. already swapped for a portrait UI
+     */
+    static Size viewSize(String device) {
+        switch (device) {
+            case LOW_END:
+                return new Size(1280, 720);
+            case MID_RANGE:
+                return new Size(1920, 1080);
+            default:
+                return new Size(3040, 1440);
+        }
+    }
+
+    static Size thumbnailSize() {
+        return new Size(320, 240);
+    }
+
+    static Size[] thumbnailSizes() {
+        return toSizes(new int[][]{{0, 0}, {176, 144}, {240, 144}, {256, 144}, {240, 160}, {256, 154},
+                {246, 184}, {240, 240}, {320, 240}, {320, 180}});
+    }
+
+    private static int[][] select(String device, int[][] lowEnd, int[][] midRange, int[][] flagship) {
+        switch (device) {
+            case LOW_END:
+                return lowEnd;
+            case MID_RANGE:
+                return midRange;
+            case FLAGSHIP:
+                return flagship;
+            default:
+                throw new IllegalArgumentException("Unknown device " + device);
+        }
+    }
+
+    private static Size[] toSizes(int[][] values) {
+        Size[] sizes = new Size[values.length];
+        for (int i = 0; i < values.length; i++) {
+            sizes[i] = new Size(values[i][0], values[i][1]);
+        }
+        return sizes;
+    }
+}
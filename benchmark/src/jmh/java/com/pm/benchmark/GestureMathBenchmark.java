@@ -0,0 +1,57 @@
+package com.pm.benchmark;
+
+import com.pm.cameraui.widget.GestureMath;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the per touch event math of {@code PinchImageView.MathUtils}. The two pointer
+ * positions are those of a pinch on a 1080p screen.
+ *
+ * @author pm
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class GestureMathBenchmark {
+    public float x1 = 312.5f;
+    public float y1 = 841.25f;
+    public float x2 = 768.75f;
+    public float y2 = 1190.5f;
+    private final float[] mPoint = new float[2];
+
+    @Benchmark
+    public float distance() {
+        return GestureMath.getDistance(x1, y1, x2, y2);
+    }
+
+    @Benchmark
+    public float[] centerPointInto() {
+        return GestureMath.getCenterPoint(x1, y1, x2, y2, mPoint);
+    }
+
+    /**
+     * What {@code MathUtils.getCenterPoint} does on every move event
+     */
+    @Benchmark
+    public float[] centerPointAllocating() {
+        return GestureMath.getCenterPoint(x1, y1, x2, y2, new float[2]);
+    }
+
+    @Benchmark
+    public float centerCropScale() {
+        return GestureMath.getCenterCropScale(1080f, 1920f, 4032f, 3024f);
+    }
+
+    @Benchmark
+    public float centerInsideScale() {
+        return GestureMath.getCenterInsideScale(1080f, 1920f, 4032f, 3024f);
+    }
+}
@@ -0,0 +1,93 @@
+package com.pm.benchmark;
+
+import com.pm.cameracore.FakeCameraBackend;
+import com.pm.cameracore.FrameState;
+import com.pm.cameracore.ShotTimings;
+import com.pm.cameracore.ShutterStateMachine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the shutter sequence against a {@link FakeCameraBackend}: one operation is a
+ * whole {@code takePicture}, from the AF trigger until the preview runs again.
+ *
+ * @author pm
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ShutterBenchmark {
+    private static final int MAX_FRAMES = 64;
+
+    /**
+     * fastPath: the preview has converged, nothing is triggered;
+     * focus: focus locks after two frames with exposure converged;
+     * precapture: exposure needs the precapture sequence as well
+     */
+    @Param({"fastPath", "focus", "precapture"})
+    public String scene;
+
+    @Param({"1", "10"})
+    public int count;
+
+    private FakeCameraBackend mBackend;
+    private ShutterStateMachine mShutter;
+    private long mJpegBytes;
+
+    @Setup
+    public void setUp() {
+        mBackend = new FakeCameraBackend();
+        mBackend.setFocusSequence(FrameState.AF_ACTIVE_SCAN, FrameState.AF_ACTIVE_SCAN, FrameState.AF_FOCUSED_LOCKED);
+        if ("focus".equals(scene)) {
+            mBackend.setPreviewStates(FrameState.AF_PASSIVE_SCAN, FrameState.AE_CONVERGED);
+        } else if ("precapture".equals(scene)) {
+            mBackend.setPreviewStates(FrameState.AF_PASSIVE_FOCUSED, FrameState.AE_SEARCHING);
+            mBackend.setPrecaptureSequence(FrameState.AE_PRECAPTURE, FrameState.AE_PRECAPTURE, FrameState.AE_CONVERGED);
+        }
+        mBackend.setJpeg(new byte[2 * 1024 * 1024]);
+        mBackend.setJpegOutput((timestamp, jpeg) -> mJpegBytes += consume(jpeg));
+        mShutter = new ShutterStateMachine(mBackend, mBackend.getTimer(), new ShutterStateMachine.Callback() {
+            @Override
+            public void onShutter(long timestamp) {
+            }
+
+            @Override
+            public void onStillFailed() {
+            }
+
+            @Override
+            public void onCompleted(ShotTimings timings) {
+            }
+        });
+        mBackend.startPreview();
+        mBackend.advance();
+    }
+
+    @Benchmark
+    public long takePicture() {
+        mShutter.takePicture(count);
+        for (int i = 0; i < MAX_FRAMES && (i == 0 || !mShutter.isIdle()); i++) {
+            mBackend.advance();
+        }
+        // the next shot sees a fresh preview frame
+        mBackend.advance();
+        return mJpegBytes;
+    }
+
+    /**
+     * Reads the JPEG markers at both ends, as the header parser of the save path would
+     */
+    private static int consume(ByteBuffer jpeg) {
+        return jpeg.remaining() + jpeg.get(0) + jpeg.get(jpeg.limit() - 1);
+    }
+}
@@ -0,0 +1,102 @@
+package com.pm.benchmark;
+
+import android.util.Size;
+
+import com.pm.cameracore.CompareSizesByArea;
+import com.pm.cameracore.SizeSelector;
+import com.pm.cameracore.SizeUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the output size selection that runs on every camera open.
+ *
+ * @author pm
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SizeSelectionBenchmark {
+    private static final Size ASPECT_16_9 = new Size(16, 9);
+    private static final Size MAX_PREVIEW = new Size(1920, 1080);
+    private static final Size VIDEO_TARGET = new Size(1920, 1080);
+
+    @Param({DeviceFixtures.LOW_END, DeviceFixtures.MID_RANGE, DeviceFixtures.FLAGSHIP})
+    public String device;
+
+    private Size[] mJpegSizes;
+    private Size[] mPreviewSizes;
+    private Size[] mThumbnailSizes;
+    private Size mViewSize;
+    private SizeSelector<Size> mJpegSelector;
+    private SizeSelector<Size> mPreviewSelector;
+    private final CompareSizesByArea mComparator = new CompareSizesByArea();
+
+    @Setup
+    public void setUp() {
+        mJpegSizes = DeviceFixtures.jpegSizes(device);
+        mPreviewSizes = DeviceFixtures.previewSizes(device);
+        mThumbnailSizes = DeviceFixtures.thumbnailSizes();
+        mViewSize = DeviceFixtures.viewSize(device);
+        mJpegSelector = SizeUtils.index(mJpegSizes);
+        mPreviewSelector = SizeUtils.index(mPreviewSizes);
+    }
+
+    @Benchmark
+    public SizeSelector<Size> indexJpegSizes() {
+        return SizeUtils.index(mJpegSizes);
+    }
+
+    @Benchmark
+    public Size chooseOptimalPreviewSize() {
+        return SizeUtils.chooseOptimalSize(mPreviewSizes, mViewSize, MAX_PREVIEW, ASPECT_16_9);
+    }
+
+    @Benchmark
+    public Size chooseOptimalPreviewSizeIndexed() {
+        return SizeUtils.chooseOptimalSize(mPreviewSelector, mViewSize, MAX_PREVIEW, ASPECT_16_9);
+    }
+
+    @Benchmark
+    public Size chooseLargestJpegSize() {
+        return SizeUtils.chooseOutputSize(mJpegSizes, VIDEO_TARGET, ASPECT_16_9, true);
+    }
+
+    @Benchmark
+    public Size chooseLargestJpegSizeIndexed() {
+        return SizeUtils.chooseOutputSize(mJpegSelector, VIDEO_TARGET, ASPECT_16_9, true);
+    }
+
+    @Benchmark
+    public Size chooseCoveringVideoSizeIndexed() {
+        return SizeUtils.chooseOutputSize(mPreviewSelector, VIDEO_TARGET, ASPECT_16_9, false);
+    }
+
+    @Benchmark
+    public Size chooseThumbSize() {
+        return SizeUtils.chooseThumbSize(mThumbnailSizes);
+    }
+
+    @Benchmark
+    public Size maxByArea() {
+        return Collections.max(Arrays.asList(mJpegSizes), mComparator);
+    }
+
+    @Benchmark
+    public Size[] sortByArea() {
+        Size[] copy = mJpegSizes.clone();
+        Arrays.sort(copy, mComparator);
+        return copy;
+    }
+}
@@ -0,0 +1,61 @@
+package com.pm.benchmark;
+
+import android.util.Size;
+
+import com.pm.cameracore.CameraTransforms;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the JPEG orientation and preview transform math behind
+ * {@code CaptureDelegate.getOrientation} and {@code CaptureDelegate.configureTransform}.
+ *
+ * @author pm
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TransformBenchmark {
+    /**
+     * Surface.ROTATION_0 .. ROTATION_270
+     */
+    @Param({"0", "1", "2", "3"})
+    public int rotation;
+
+    /**
+     * 90 on most devices, 270 on some (e.g. Nexus 5X)
+     */
+    @Param({"90", "270"})
+    public int sensorOrientation;
+
+    private final float[] mValues = new float[9];
+    private Size mViewSize;
+    private Size mPreviewSize;
+
+    @Setup
+    public void setUp() {
+        mViewSize = DeviceFixtures.viewSize(DeviceFixtures.MID_RANGE);
+        mPreviewSize = new Size(1440, 1080);
+    }
+
+    @Benchmark
+    public int jpegOrientation() {
+        return CameraTransforms.getJpegOrientation(rotation, sensorOrientation);
+    }
+
+    @Benchmark
+    public float[] previewTransform() {
+        CameraTransforms.getPreviewTransform(mViewSize.getWidth(), mViewSize.getHeight(),
+                mPreviewSize.getWidth(), mPreviewSize.getHeight(), rotation, mValues);
+        return mValues;
+    }
+}
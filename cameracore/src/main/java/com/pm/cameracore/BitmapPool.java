@@ -0,0 +1,227 @@
+package com.pm.cameracore;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.TreeMap;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Keeps mutable bitmaps that are no longer shown so review and thumbnail decodes can reuse them
+ * through {@link android.graphics.BitmapFactory.Options#inBitmap}.
+ * <p>
+ * Bitmaps are bucketed by their allocation size. A request is served by the smallest bitmap that is
+ * large enough, but never by one more than {@link #MAX_SIZE_MULTIPLE} times larger than needed, so
+ * a thumbnail does not pin a full screen buffer. When the pool is over its budget the largest
+ * buckets are evicted first. It is also trimmed through {@link ComponentCallbacks2#onTrimMemory(int)}.
+ *
+ * @author pm
+ */
+public class BitmapPool implements ComponentCallbacks2 {
+    private static final String TAG = "BitmapPool";
+
+    /**
+     * Default budget as a fraction of the heap available to the app
+     */
+    private static final float DEFAULT_HEAP_FRACTION = 0.125f;
+
+    /**
+     * A pooled bitmap may be at most this many times larger than the requested allocation
+     */
+    private static final int MAX_SIZE_MULTIPLE = 4;
+
+    private static BitmapPool sInstance;
+
+    private final TreeMap<Integer, ArrayDeque<Bitmap>> mBuckets = new TreeMap<>();
+    private long mMaxSize;
+    private long mCurrentSize;
+
+    private long mHitCount;
+    private long mMissCount;
+    private long mPutCount;
+    private long mEvictionCount;
+
+    /**
+     * @return the process wide pool, registered for memory trim callbacks of the application
+     */
+    public static synchronized BitmapPool get(@NonNull Context context) {
+        if (null == sInstance) {
+            long maxSize = (long) (Runtime.getRuntime().maxMemory() * DEFAULT_HEAP_FRACTION);
+            sInstance = new BitmapPool(maxSize);
+            context.getApplicationContext().registerComponentCallbacks(sInstance);
+        }
+        return sInstance;
+    }
+
+    public BitmapPool(long maxSizeBytes) {
+        mMaxSize = maxSizeBytes;
+    }
+
+    /**
+     * Returns a mutable bitmap with exactly the given size and config, reconfiguring a pooled one
+     * when possible and allocating a new one otherwise.
+     */
+    @NonNull
+    public Bitmap get(int width, int height, @NonNull Bitmap.Config config) {
+        Bitmap bitmap = getReusable(width, height, config);
+        if (null != bitmap) {
+            try {
+                bitmap.reconfigure(width, height, config);
+                return bitmap;
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, "get: failed to reconfigure " + bitmap, e);
+            }
+        }
+        return Bitmap.createBitmap(width, height, config);
+    }
+
+    /**
+     * Takes a bitmap out of the pool that can hold a {@code width x height} picture in {@code config},
+     * for use as {@link android.graphics.BitmapFactory.Options#inBitmap}.
+     *
+     * @return the bitmap or null if there is no suitable one
+     */
+    @Nullable
+    public synchronized Bitmap getReusable(int width, int height, @NonNull Bitmap.Config config) {
+        int required = width * height * bytesPerPixel(config);
+        Map.Entry<Integer, ArrayDeque<Bitmap>> entry = mBuckets.ceilingEntry(required);
+        if (null == entry || entry.getKey() > (long) required * MAX_SIZE_MULTIPLE) {
+            mMissCount++;
+            return null;
+        }
+        ArrayDeque<Bitmap> bucket = entry.getValue();
+        Bitmap bitmap = bucket.poll();
+        if (bucket.isEmpty()) {
+            mBuckets.remove(entry.getKey());
+        }
+        mCurrentSize -= entry.getKey();
+        mHitCount++;
+        return bitmap;
+    }
+
+    /**
+     * Gives a bitmap back. The caller must not draw or reference it afterwards.
+     * Bitmaps that cannot be reused are recycled.
+     */
+    public synchronized void put(@Nullable Bitmap bitmap) {
+        if (null == bitmap || bitmap.isRecycled()) {
+            return;
+        }
+        int size = bitmap.getAllocationByteCount();
+        if (!bitmap.isMutable() || size > mMaxSize) {
+            bitmap.recycle();
+            return;
+        }
+        ArrayDeque<Bitmap> bucket = mBuckets.get(size);
+        if (null == bucket) {
+            bucket = new ArrayDeque<>(2);
+            mBuckets.put(size, bucket);
+        }
+        bucket.offer(bitmap);
+        mCurrentSize += size;
+        mPutCount++;
+        trimToSize(mMaxSize);
+    }
+
+    public synchronized void setMaxSize(long maxSizeBytes) {
+        mMaxSize = maxSizeBytes;
+        trimToSize(maxSizeBytes);
+    }
+
+    public synchronized void clear() {
+        trimToSize(0);
+    }
+
+    private void trimToSize(long size) {
+        while (mCurrentSize > size && !mBuckets.isEmpty()) {
+            Map.Entry<Integer, ArrayDeque<Bitmap>> largest = mBuckets.lastEntry();
+            ArrayDeque<Bitmap> bucket = largest.getValue();
+            Bitmap bitmap = bucket.poll();
+            if (bucket.isEmpty()) {
+                mBuckets.remove(largest.getKey());
+            }
+            if (null != bitmap) {
+                mCurrentSize -= largest.getKey();
+                mEvictionCount++;
+                bitmap.recycle();
+            }
+        }
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_BACKGROUND || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+            clear();
+        } else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            synchronized (this) {
+                trimToSize(mMaxSize / 2);
+            }
+        }
+        Log.d(TAG, "onTrimMemory: level=" + level + " " + this);
+    }
+
+    @Override
+    public void onLowMemory() {
+        clear();
+    }
+
+    @Override
+    public void onConfigurationChanged(@NonNull Configuration newConfig) {
+    }
+
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    public synchronized long getPutCount() {
+        return mPutCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    public synchronized long getCurrentSize() {
+        return mCurrentSize;
+    }
+
+    public synchronized long getMaxSize() {
+        return mMaxSize;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "BitmapPool{size=" + mCurrentSize + "/" + mMaxSize
+                + ", hits=" + mHitCount
+                + ", misses=" + mMissCount
+                + ", puts=" + mPutCount
+                + ", evictions=" + mEvictionCount + "}";
+    }
+
+    private static int bytesPerPixel(Bitmap.Config config) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && config == Bitmap.Config.RGBA_F16) {
+            return 8;
+        }
+        switch (config) {
+            case ALPHA_8:
+                return 1;
+            case RGB_565:
+            case ARGB_4444:
+                return 2;
+            default:
+                return 4;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.pm.cameracore;
+
+import java.util.Locale;
+
+/**
+ * Throughput and save latency of one burst, see {@link CaptureDelegate#takeBurst(int)}.
+ * <p>
+ * All times are in nanoseconds on the same monotonic clock.
+ *
+ * @author pm
+ */
+public class BurstStats {
+    private final int mRequestedFrames;
+    private final long mStartNanos;
+    private final long[] mSaveLatencyNanos;
+    private int mSavedFrames;
+    private int mFailedFrames;
+    private long mLastSavedNanos;
+
+    /**
+     * @param requestedFrames number of still requests in the burst
+     * @param startNanos      when the burst was submitted to the camera
+     */
+    public BurstStats(int requestedFrames, long startNanos) {
+        mRequestedFrames = requestedFrames;
+        mStartNanos = startNanos;
+        mSaveLatencyNanos = new long[requestedFrames];
+    }
+
+    /**
+     * @param nowNanos     when the frame finished saving
+     * @param latencyNanos time from the image being taken off the ImageReader until it was saved
+     * @return the index of the frame in the burst
+     */
+    public synchronized int onFrameSaved(long nowNanos, long latencyNanos) {
+        int index = mSavedFrames + mFailedFrames;
+        if (mSavedFrames < mSaveLatencyNanos.length) {
+            mSaveLatencyNanos[mSavedFrames] = latencyNanos;
+        }
+        mSavedFrames++;
+        mLastSavedNanos = nowNanos;
+        return index;
+    }
+
+    public synchronized void onFrameFailed(long nowNanos) {
+        mFailedFrames++;
+        mLastSavedNanos = nowNanos;
+    }
+
+    public synchronized boolean isComplete() {
+        return mSavedFrames + mFailedFrames >= mRequestedFrames;
+    }
+
+    public int getRequestedFrames() {
+        return mRequestedFrames;
+    }
+
+    public synchronized int getSavedFrames() {
+        return mSavedFrames;
+    }
+
+    public synchronized int getFailedFrames() {
+        return mFailedFrames;
+    }
+
+    /**
+     * @return time from submitting the burst until the last frame was saved
+     */
+    public synchronized long getElapsedNanos() {
+        return mLastSavedNanos - mStartNanos;
+    }
+
+    /**
+     * @return saved frames per second, measured from submission to the last saved frame
+     */
+    public synchronized float getFramesPerSecond() {
+        long elapsed = mLastSavedNanos - mStartNanos;
+        return elapsed <= 0 ? 0 : mSavedFrames * 1e9f / elapsed;
+    }
+
+    public synchronized long getMeanSaveLatencyNanos() {
+        int count = Math.min(mSavedFrames, mSaveLatencyNanos.length);
+        if (count == 0) {
+            return 0;
+        }
+        long sum = 0;
+        for (int i = 0; i < count; i++) {
+            sum += mSaveLatencyNanos[i];
+        }
+        return sum / count;
+    }
+
+    public synchronized long getMaxSaveLatencyNanos() {
+        long max = 0;
+        int count = Math.min(mSavedFrames, mSaveLatencyNanos.length);
+        for (int i = 0; i < count; i++) {
+            max = Math.max(max, mSaveLatencyNanos[i]);
+        }
+        return max;
+    }
+
+    /**
+     * @return the save latency of every saved frame in arrival order
+     */
+    public synchronized long[] getSaveLatencyNanos() {
+        long[] copy = new long[Math.min(mSavedFrames, mSaveLatencyNanos.length)];
+        System.arraycopy(mSaveLatencyNanos, 0, copy, 0, copy.length);
+        return copy;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "BurstStats{saved=%d/%d, failed=%d, elapsed=%.1fms, fps=%.2f, "
+                        + "latency mean=%.1fms max=%.1fms}",
+                mSavedFrames, mRequestedFrames, mFailedFrames, getElapsedNanos() / 1e6,
+                getFramesPerSecond(), getMeanSaveLatencyNanos() / 1e6, getMaxSaveLatencyNanos() / 1e6);
+    }
+}
@@ -0,0 +1,228 @@
+package com.pm.cameracore;
+
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CaptureFailure;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.CaptureResult;
+import android.hardware.camera2.TotalCaptureResult;
+import android.os.Build;
+import android.os.Handler;
+import android.util.Log;
+
+import java.util.Collections;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * {@link CameraBackend} on top of a configured {@link CameraCaptureSession}. The owner opens the
+ * camera, creates the session and hands it over with {@link #setSession(CameraCaptureSession,
+ * CaptureRequest.Builder, Handler)}; still requests are built by the owner as well.
+ * <p>
+ * Camera thread only, the thread of the handler passed to {@link #setSession}. The preview
+ * {@link CaptureRequest.Builder} is shared with the owner and is not thread safe, so the owner
+ * drives {@link ShutterStateMachine} from that thread too.
+ *
+ * @author pm
+ */
+public class Camera2Backend implements CameraBackend {
+    private static final String TAG = "Camera2Backend";
+
+    private final StillRequestFactory mStillRequestFactory;
+    private final ResultListener mResultListener;
+    private Listener mListener;
+    private CameraCaptureSession mSession;
+    private CaptureRequest.Builder mPreviewBuilder;
+    private Handler mHandler;
+
+    private final CameraCaptureSession.CaptureCallback mPreviewCallback = new CameraCaptureSession.CaptureCallback() {
+        @Override
+        public void onCaptureProgressed(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, @NonNull CaptureResult partialResult) {
+            report(partialResult, true);
+        }
+
+        @Override
+        public void onCaptureCompleted(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, @NonNull TotalCaptureResult result) {
+            mResultListener.onPreviewResult(result);
+            report(result, false);
+        }
+    };
+
+    private final CameraCaptureSession.CaptureCallback mStillCallback = new CameraCaptureSession.CaptureCallback() {
+        @Override
+        public void onCaptureStarted(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, long timestamp, long frameNumber) {
+            mListener.onStillStarted(timestamp);
+        }
+
+        @Override
+        public void onCaptureCompleted(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, @NonNull TotalCaptureResult result) {
+            mResultListener.onStillResult(result);
+        }
+
+        @Override
+        public void onCaptureFailed(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, @NonNull CaptureFailure failure) {
+            mListener.onStillFailed();
+        }
+
+        @Override
+        public void onCaptureSequenceCompleted(@NonNull CameraCaptureSession session, int sequenceId, long frameNumber) {
+            mListener.onSequenceCompleted(false);
+        }
+
+        @Override
+        public void onCaptureSequenceAborted(@NonNull CameraCaptureSession session, int sequenceId) {
+            mListener.onSequenceCompleted(true);
+        }
+    };
+
+    public Camera2Backend(@NonNull StillRequestFactory stillRequestFactory, @NonNull ResultListener resultListener) {
+        mStillRequestFactory = stillRequestFactory;
+        mResultListener = resultListener;
+    }
+
+    /**
+     * @param previewBuilder the repeating request, the AF and AE triggers are set on it
+     * @param handler        the camera thread
+     */
+    public void setSession(@Nullable CameraCaptureSession session, @Nullable CaptureRequest.Builder previewBuilder,
+                           @Nullable Handler handler) {
+        mSession = session;
+        mPreviewBuilder = previewBuilder;
+        mHandler = handler;
+    }
+
+    @Nullable
+    public CameraCaptureSession getSession() {
+        return mSession;
+    }
+
+    @Override
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    @Override
+    public void startPreview() {
+        if (null == mSession) {
+            return;
+        }
+        try {
+            mSession.setRepeatingRequest(mPreviewBuilder.build(), mPreviewCallback, mHandler);
+        } catch (CameraAccessException | IllegalStateException e) {
+            Log.w(TAG, "startPreview: ", e);
+        }
+    }
+
+    @Override
+    public void triggerAutoFocus() {
+        // This is how to tell the camera to lock focus.
+        sendTrigger(CaptureRequest.CONTROL_AF_TRIGGER, CaptureRequest.CONTROL_AF_TRIGGER_START,
+                CaptureRequest.CONTROL_AF_TRIGGER_IDLE);
+    }
+
+    @Override
+    public void triggerPrecapture() {
+        // This is how to tell the camera to trigger.
+        sendTrigger(CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER, CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER_START,
+                CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER_IDLE);
+    }
+
+    @Override
+    public void captureStill(int count) {
+        if (null == mSession) {
+            mListener.onSequenceCompleted(true);
+            return;
+        }
+        try {
+            CaptureRequest request = mStillRequestFactory.createStillRequest(count);
+            mSession.stopRepeating();
+            //华为手机不能执行这一句
+//            mSession.abortCaptures();
+            if (count > 1) {
+                mSession.captureBurst(Collections.nCopies(count, request), mStillCallback, mHandler);
+            } else {
+                mSession.capture(request, mStillCallback, mHandler);
+            }
+        } catch (CameraAccessException | IllegalStateException e) {
+            Log.w(TAG, "captureStill: ", e);
+            mListener.onSequenceCompleted(true);
+        }
+    }
+
+    @Override
+    public void cancelAutoFocus() {
+        boolean cancelPrecapture = null != mPreviewBuilder && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M;
+        if (cancelPrecapture) {
+            // 同一个请求里取消 precapture, 否则 AE 会停在 precapture 的结果上
+            mPreviewBuilder.set(CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER,
+                    CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER_CANCEL);
+        }
+        try {
+            // Reset the auto-focus trigger
+            sendTrigger(CaptureRequest.CONTROL_AF_TRIGGER, CaptureRequest.CONTROL_AF_TRIGGER_CANCEL,
+                    CaptureRequest.CONTROL_AF_TRIGGER_IDLE);
+        } finally {
+            if (cancelPrecapture) {
+                mPreviewBuilder.set(CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER,
+                        CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER_IDLE);
+            }
+        }
+        startPreview();
+    }
+
+    @Override
+    public void close() {
+        if (null != mSession) {
+            mSession.close();
+        }
+        setSession(null, null, null);
+    }
+
+    /**
+     * Sends one preview request with {@code key} set to {@code value}. The repeating request must
+     * not keep the trigger, it is reset to {@code idle} afterwards.
+     */
+    private void sendTrigger(CaptureRequest.Key<Integer> key, int value, int idle) {
+        if (null == mSession) {
+            return;
+        }
+        try {
+            mPreviewBuilder.set(key, value);
+            mSession.capture(mPreviewBuilder.build(), mPreviewCallback, mHandler);
+        } catch (CameraAccessException | IllegalStateException e) {
+            Log.w(TAG, "sendTrigger: ", e);
+        } finally {
+            mPreviewBuilder.set(key, idle);
+        }
+    }
+
+    private void report(CaptureResult result, boolean partial) {
+        Integer afState = result.get(CaptureResult.CONTROL_AF_STATE);
+        Integer aeState = result.get(CaptureResult.CONTROL_AE_STATE);
+        if (partial && null == afState && null == aeState) {
+            // this part of the result says nothing about 3A
+            return;
+        }
+        Long timestamp = result.get(CaptureResult.SENSOR_TIMESTAMP);
+        mListener.onFrameState(new FrameState(null == timestamp ? 0 : timestamp,
+                null == afState ? FrameState.UNKNOWN : afState,
+                null == aeState ? FrameState.UNKNOWN : aeState));
+    }
+
+    public interface StillRequestFactory {
+        /**
+         * @param count number of copies of the request that will be submitted
+         */
+        CaptureRequest createStillRequest(int count) throws CameraAccessException;
+    }
+
+    /**
+     * Receives the full results, on the camera thread.
+     */
+    public interface ResultListener {
+        void onPreviewResult(@NonNull TotalCaptureResult result);
+
+        void onStillResult(@NonNull TotalCaptureResult result);
+    }
+}
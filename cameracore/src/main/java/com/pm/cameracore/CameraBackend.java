@@ -0,0 +1,68 @@
+package com.pm.cameracore;
+
+/**
+ * The camera operations the still capture sequence needs, so {@link ShutterStateMachine} can run
+ * against a real camera ({@link Camera2Backend}) or a scripted one ({@code FakeCameraBackend} of
+ * the unit tests).
+ * <p>
+ * Only uses JDK types. Listener methods are delivered on the camera thread.
+ *
+ * @author pm
+ */
+public interface CameraBackend {
+
+    void setListener(Listener listener);
+
+    /**
+     * Starts or restarts the repeating preview request.
+     */
+    void startPreview();
+
+    /**
+     * Sends one request with the auto focus trigger set to start.
+     */
+    void triggerAutoFocus();
+
+    /**
+     * Sends one request with the auto exposure precapture trigger set to start.
+     */
+    void triggerPrecapture();
+
+    /**
+     * Stops the preview and takes {@code count} stills with the current 3A state, as a burst if
+     * there is more than one. {@link Listener#onSequenceCompleted(boolean)} follows the last one.
+     */
+    void captureStill(int count);
+
+    /**
+     * Cancels the auto focus trigger, and a precapture sequence where the camera allows it, and
+     * restarts the preview.
+     */
+    void cancelAutoFocus();
+
+    void close();
+
+    interface Listener {
+        /**
+         * A result of the preview or of a trigger request.
+         */
+        void onFrameState(FrameState state);
+
+        /**
+         * The sensor started exposing a still.
+         */
+        void onStillStarted(long timestamp);
+
+        /**
+         * No image will arrive for one of the stills.
+         */
+        void onStillFailed();
+
+        /**
+         * Every still of the last {@link #captureStill(int)} has completed or failed.
+         *
+         * @param aborted true if the stills were dropped, e.g. because the session was closed
+         */
+        void onSequenceCompleted(boolean aborted);
+    }
+}
@@ -0,0 +1,226 @@
+package com.pm.cameracore;
+
+import android.content.Context;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CameraMetadata;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.Size;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Process wide cache of {@link CameraManager#getCameraIdList()}, the {@link CameraCharacteristics}
+ * of every camera and the output sizes the delegates chose for them, so reopening a camera does
+ * not cost any binder round-trip or size selection.
+ * <p>
+ * Characteristics of a built-in camera never change. The id list is dropped when a camera we have
+ * not seen becomes available, and an external camera is forgotten when it becomes unavailable.
+ * Built-in cameras also become unavailable whenever they are opened, that says nothing about
+ * their characteristics.
+ *
+ * @author pm
+ */
+public final class CameraCharacteristicsCache extends CameraManager.AvailabilityCallback {
+    private static final String TAG = "CharacteristicsCache";
+
+    public static final String KEY_JPEG = "jpeg";
+    public static final String KEY_THUMBNAIL = "thumbnail";
+    public static final String KEY_VIDEO = "video";
+
+    private static CameraCharacteristicsCache sInstance;
+
+    private final CameraManager mCameraManager;
+    private volatile String[] mCameraIds;
+    private final ConcurrentHashMap<String, CameraCharacteristics> mCharacteristics = new ConcurrentHashMap<>();
+    /**
+     * camera id -> (size key -> chosen size)
+     */
+    private final ConcurrentHashMap<String, Map<String, Size>> mSizes = new ConcurrentHashMap<>();
+    /**
+     * "camera id/format" -> indexed output sizes
+     */
+    private final ConcurrentHashMap<String, SizeSelector<Size>> mSelectors = new ConcurrentHashMap<>();
+
+    /**
+     * Counted on the camera threads of both delegates, read from any thread
+     */
+    private final AtomicInteger mHitCount = new AtomicInteger();
+    private final AtomicInteger mMissCount = new AtomicInteger();
+
+    /**
+     * @return the cache of this process, registered for availability changes on the main thread
+     */
+    public static synchronized CameraCharacteristicsCache get(@NonNull Context context) {
+        if (null == sInstance) {
+            CameraManager manager = (CameraManager) context.getApplicationContext()
+                    .getSystemService(Context.CAMERA_SERVICE);
+            sInstance = new CameraCharacteristicsCache(manager);
+            manager.registerAvailabilityCallback(sInstance, new Handler(Looper.getMainLooper()));
+        }
+        return sInstance;
+    }
+
+    private CameraCharacteristicsCache(CameraManager cameraManager) {
+        mCameraManager = cameraManager;
+    }
+
+    public CameraManager getCameraManager() {
+        return mCameraManager;
+    }
+
+    @NonNull
+    public String[] getCameraIdList() throws CameraAccessException {
+        String[] ids = mCameraIds;
+        if (null == ids) {
+            ids = mCameraManager.getCameraIdList();
+            mCameraIds = ids;
+        }
+        return ids;
+    }
+
+    @NonNull
+    public CameraCharacteristics getCharacteristics(@NonNull String cameraId) throws CameraAccessException {
+        CameraCharacteristics characteristics = mCharacteristics.get(cameraId);
+        if (null != characteristics) {
+            mHitCount.incrementAndGet();
+            return characteristics;
+        }
+        mMissCount.incrementAndGet();
+        characteristics = mCameraManager.getCameraCharacteristics(cameraId);
+        mCharacteristics.put(cameraId, characteristics);
+        return characteristics;
+    }
+
+    /**
+     * @return the output sizes of {@code format} indexed for selection
+     * @throws IllegalArgumentException if the camera has no stream configuration map
+     */
+    @NonNull
+    public SizeSelector<Size> getSizeSelector(@NonNull String cameraId, int format) throws CameraAccessException {
+        String key = cameraId + "/" + format;
+        SizeSelector<Size> selector = mSelectors.get(key);
+        if (null == selector) {
+            selector = SizeUtils.index(getStreamConfigurationMap(cameraId).getOutputSizes(format));
+            mSelectors.put(key, selector);
+        }
+        return selector;
+    }
+
+    /**
+     * @param klass an output class such as {@link android.graphics.SurfaceTexture}
+     * @see #getSizeSelector(String, int)
+     */
+    @NonNull
+    public SizeSelector<Size> getSizeSelector(@NonNull String cameraId, @NonNull Class<?> klass) throws CameraAccessException {
+        String key = cameraId + "/" + klass.getName();
+        SizeSelector<Size> selector = mSelectors.get(key);
+        if (null == selector) {
+            selector = SizeUtils.index(getStreamConfigurationMap(cameraId).getOutputSizes(klass));
+            mSelectors.put(key, selector);
+        }
+        return selector;
+    }
+
+    private StreamConfigurationMap getStreamConfigurationMap(String cameraId) throws CameraAccessException {
+        StreamConfigurationMap map = getCharacteristics(cameraId).get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        if (null == map) {
+            throw new IllegalArgumentException("No stream configuration map for camera " + cameraId);
+        }
+        return map;
+    }
+
+    /**
+     * @param key one of {@link #KEY_JPEG}, {@link #KEY_THUMBNAIL}, {@link #KEY_VIDEO}, or a key the
+     *            caller builds from everything the size depends on, e.g. the view size and rotation
+     * @return the size stored with {@link #putSize(String, String, Size)}, null if there is none
+     */
+    @Nullable
+    public Size getSize(@NonNull String cameraId, @NonNull String key) {
+        Map<String, Size> sizes = mSizes.get(cameraId);
+        if (null == sizes) {
+            return null;
+        }
+        synchronized (sizes) {
+            return sizes.get(key);
+        }
+    }
+
+    public void putSize(@NonNull String cameraId, @NonNull String key, @Nullable Size size) {
+        if (null == size) {
+            return;
+        }
+        Map<String, Size> sizes = mSizes.get(cameraId);
+        if (null == sizes) {
+            Map<String, Size> created = new HashMap<>();
+            sizes = mSizes.putIfAbsent(cameraId, created);
+            if (null == sizes) {
+                sizes = created;
+            }
+        }
+        synchronized (sizes) {
+            sizes.put(key, size);
+        }
+    }
+
+    /**
+     * Forgets everything known about one camera.
+     */
+    public void invalidate(@NonNull String cameraId) {
+        mCharacteristics.remove(cameraId);
+        mSizes.remove(cameraId);
+        for (String key : mSelectors.keySet()) {
+            if (key.startsWith(cameraId + "/")) {
+                mSelectors.remove(key);
+            }
+        }
+        mCameraIds = null;
+    }
+
+    public void invalidateAll() {
+        mCharacteristics.clear();
+        mSizes.clear();
+        mSelectors.clear();
+        mCameraIds = null;
+    }
+
+    @Override
+    public void onCameraAvailable(@NonNull String cameraId) {
+        String[] ids = mCameraIds;
+        if (null != ids && !Arrays.asList(ids).contains(cameraId)) {
+            Log.d(TAG, "onCameraAvailable: new camera " + cameraId);
+            mCameraIds = null;
+        }
+    }
+
+    @Override
+    public void onCameraUnavailable(@NonNull String cameraId) {
+        CameraCharacteristics characteristics = mCharacteristics.get(cameraId);
+        if (null == characteristics) {
+            return;
+        }
+        Integer facing = characteristics.get(CameraCharacteristics.LENS_FACING);
+        if (null != facing && facing == CameraMetadata.LENS_FACING_EXTERNAL) {
+            Log.d(TAG, "onCameraUnavailable: external camera " + cameraId + " is gone");
+            invalidate(cameraId);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CameraCharacteristicsCache{cameras=" + mCharacteristics.size()
+                + ", hits=" + mHitCount.get()
+                + ", misses=" + mMissCount.get() + "}";
+    }
+}
@@ -6,8 +6,20 @@ package com.pm.cameracore;
  * @email puming@zdsoft.cn
  */
 public interface CameraDelegate {
-    void openCamera(int width,int height);
-    void closeCamera();
+    /**
+     * Never blocks, the camera is opened on the camera thread.
+     */
+    CameraFuture<Void> openCamera(int width,int height);
+
+    /**
+     * Never blocks, the camera is closed on the camera thread.
+     */
+    CameraFuture<Void> closeCamera();
+
     void startBackgroundThread();
+
+    /**
+     * Never blocks, the threads stop once the camera has closed.
+     */
     void stopBackgroundThread();
 }
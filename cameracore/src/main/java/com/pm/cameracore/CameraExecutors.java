@@ -0,0 +1,365 @@
+package com.pm.cameracore;
+
+import android.annotation.SuppressLint;
+import android.annotation.TargetApi;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.params.InputConfiguration;
+import android.hardware.camera2.params.OutputConfiguration;
+import android.hardware.camera2.params.SessionConfiguration;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+import android.view.Surface;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * The threads of one camera delegate, started with {@link CameraDelegate#startBackgroundThread()}
+ * and stopped, once the camera has closed, with {@link CameraDelegate#stopBackgroundThread()}:
+ * <ul>
+ * <li>camera: device, session and capture callbacks, 3A deadlines</li>
+ * <li>image: {@link android.media.ImageReader} callbacks and the work done right on them</li>
+ * <li>storage: file I/O, a bounded {@link StageExecutor} that rejects work when full</li>
+ * </ul>
+ * From API 28 the camera and its sessions are opened with {@link Executor}s through
+ * {@link SessionConfiguration}, older releases get the {@link Handler}s. Nothing else in a delegate
+ * should start a thread of its own.
+ * <p>
+ * Queue depths count the tasks handed to the executors, including camera callbacks from API 28.
+ * Callbacks the framework posts to a {@link Handler} directly are not counted.
+ *
+ * @author pm
+ */
+public class CameraExecutors {
+    private static final String TAG = "CameraExecutors";
+
+    public static final String THREAD_CAMERA = "CameraBackground";
+    public static final String THREAD_IMAGE = "CameraImage";
+    public static final String THREAD_STORAGE = "CameraStorage";
+
+    private final int mStorageQueueDepth;
+
+    private HandlerThread mCameraThread;
+    private HandlerThread mImageThread;
+    private HandlerExecutor mCameraExecutor;
+    private HandlerExecutor mImageExecutor;
+    private StageExecutor mStorageStage;
+    /**
+     * Identifies the pending {@link #stopWhenDone(CameraFuture)}, null if there is none
+     */
+    private Object mPendingStop;
+
+    /**
+     * @param storageQueueDepth storage tasks that may wait before new ones are rejected
+     */
+    public CameraExecutors(int storageQueueDepth) {
+        mStorageQueueDepth = storageQueueDepth;
+    }
+
+    public synchronized void start() {
+        // 还没停下的线程直接接着用
+        mPendingStop = null;
+        if (isStarted()) {
+            return;
+        }
+        mCameraThread = new HandlerThread(THREAD_CAMERA);
+        mCameraThread.start();
+        mCameraExecutor = new HandlerExecutor(THREAD_CAMERA, new Handler(mCameraThread.getLooper()));
+        mImageThread = new HandlerThread(THREAD_IMAGE);
+        mImageThread.start();
+        mImageExecutor = new HandlerExecutor(THREAD_IMAGE, new Handler(mImageThread.getLooper()));
+        mStorageStage = new StageExecutor(THREAD_STORAGE, mStorageQueueDepth, StageExecutor.Overflow.REJECT);
+    }
+
+    /**
+     * Lets queued work finish and waits for the camera and image threads. Queued storage tasks
+     * still run, but nothing new is accepted.
+     */
+    public void stop() {
+        HandlerThread[] threads = detach();
+        for (HandlerThread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                //线程已在退出, 只是不再等它
+                Log.w(TAG, "stop: interrupted while waiting for " + thread.getName(), e);
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Stops the threads once {@code operations} is done, without waiting for them. A
+     * {@link #start()} before that keeps the threads running.
+     *
+     * @param operations e.g. the close of the camera, which still needs the camera thread
+     */
+    public synchronized void stopWhenDone(@NonNull CameraFuture<?> operations) {
+        if (!isStarted()) {
+            return;
+        }
+        final Object stop = new Object();
+        mPendingStop = stop;
+        operations.addListener(future -> {
+            synchronized (CameraExecutors.this) {
+                if (mPendingStop != stop) {
+                    return;
+                }
+            }
+            // may run on the camera thread itself, so no join
+            detach();
+        }, null);
+    }
+
+    /**
+     * Quits the threads safely, queued work still runs.
+     *
+     * @return the threads that were running
+     */
+    private synchronized HandlerThread[] detach() {
+        mPendingStop = null;
+        if (!isStarted()) {
+            return new HandlerThread[0];
+        }
+        Log.d(TAG, "stop: " + this);
+        HandlerThread[] threads = {mCameraThread, mImageThread};
+        mStorageStage.shutdown();
+        mCameraThread.quitSafely();
+        mImageThread.quitSafely();
+        mCameraThread = null;
+        mImageThread = null;
+        mCameraExecutor = null;
+        mImageExecutor = null;
+        mStorageStage = null;
+        return threads;
+    }
+
+    public synchronized boolean isStarted() {
+        return null != mCameraThread;
+    }
+
+    /**
+     * @return null while stopped
+     */
+    public synchronized Handler getCameraHandler() {
+        return null == mCameraExecutor ? null : mCameraExecutor.getHandler();
+    }
+
+    /**
+     * @return null while stopped
+     */
+    public synchronized HandlerExecutor getCameraExecutor() {
+        return mCameraExecutor;
+    }
+
+    /**
+     * @return null while stopped
+     */
+    public synchronized Handler getImageHandler() {
+        return null == mImageExecutor ? null : mImageExecutor.getHandler();
+    }
+
+    /**
+     * @return null while stopped
+     */
+    public synchronized HandlerExecutor getImageExecutor() {
+        return mImageExecutor;
+    }
+
+    /**
+     * @return null while stopped
+     */
+    public synchronized StageExecutor getStorageStage() {
+        return mStorageStage;
+    }
+
+    /**
+     * Opens the camera with its callbacks on the camera thread.
+     */
+    @SuppressLint("MissingPermission")
+    public void openCamera(@NonNull CameraManager manager, @NonNull String cameraId,
+                           @NonNull CameraDevice.StateCallback callback) throws CameraAccessException {
+        HandlerExecutor executor = requireCameraExecutor();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+            manager.openCamera(cameraId, executor, callback);
+        } else {
+            manager.openCamera(cameraId, callback, executor.getHandler());
+        }
+    }
+
+    /**
+     * Creates a session with its callbacks on the camera thread.
+     *
+     * @param input the reprocessing input, null for a regular session. Needs API 23
+     */
+    public void createCaptureSession(@NonNull CameraDevice device, @NonNull List<Surface> outputs,
+                                     @Nullable InputConfiguration input,
+                                     @NonNull CameraCaptureSession.StateCallback callback) throws CameraAccessException {
+        HandlerExecutor executor = requireCameraExecutor();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+            device.createCaptureSession(createSessionConfiguration(SessionConfiguration.SESSION_REGULAR,
+                    outputs, input, executor, callback));
+        } else if (null != input && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            device.createReprocessableCaptureSession(input, outputs, callback, executor.getHandler());
+        } else {
+            device.createCaptureSession(outputs, callback, executor.getHandler());
+        }
+    }
+
+    /**
+     * Creates a constrained high speed session with its callbacks on the camera thread. Needs API 23.
+     *
+     * @param outputs the preview surface and optionally the encoder surface, both of a high speed size
+     */
+    @TargetApi(Build.VERSION_CODES.M)
+    public void createHighSpeedCaptureSession(@NonNull CameraDevice device, @NonNull List<Surface> outputs,
+                                              @NonNull CameraCaptureSession.StateCallback callback) throws CameraAccessException {
+        HandlerExecutor executor = requireCameraExecutor();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+            device.createCaptureSession(createSessionConfiguration(SessionConfiguration.SESSION_HIGH_SPEED,
+                    outputs, null, executor, callback));
+        } else {
+            device.createConstrainedHighSpeedCaptureSession(outputs, callback, executor.getHandler());
+        }
+    }
+
+    /**
+     * Asks the camera whether it can create a session with {@code outputs}, without creating it.
+     *
+     * @return false if the camera says it cannot, true below API 29 or if it cannot tell
+     */
+    public boolean isSessionSupported(@NonNull CameraDevice device, @NonNull List<Surface> outputs,
+                                      @Nullable InputConfiguration input) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) {
+            return true;
+        }
+        return querySessionSupport(device, createSessionConfiguration(SessionConfiguration.SESSION_REGULAR,
+                outputs, input, requireCameraExecutor(),
+                new CameraCaptureSession.StateCallback() {
+                    @Override
+                    public void onConfigured(@NonNull CameraCaptureSession session) {
+                    }
+
+                    @Override
+                    public void onConfigureFailed(@NonNull CameraCaptureSession session) {
+                    }
+                }));
+    }
+
+    @TargetApi(Build.VERSION_CODES.Q)
+    private static boolean querySessionSupport(CameraDevice device, SessionConfiguration configuration) {
+        try {
+            return device.isSessionConfigurationSupported(configuration);
+        } catch (CameraAccessException | UnsupportedOperationException e) {
+            // the camera cannot tell
+            Log.w(TAG, "isSessionSupported: ", e);
+            return true;
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "isSessionSupported: ", e);
+            return false;
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.P)
+    private static SessionConfiguration createSessionConfiguration(int sessionType, List<Surface> outputs,
+                                                                   InputConfiguration input, Executor executor,
+                                                                   CameraCaptureSession.StateCallback callback) {
+        List<OutputConfiguration> configurations = new ArrayList<>(outputs.size());
+        for (Surface surface : outputs) {
+            configurations.add(new OutputConfiguration(surface));
+        }
+        SessionConfiguration configuration = new SessionConfiguration(sessionType,
+                configurations, executor, callback);
+        if (null != input) {
+            configuration.setInputConfiguration(input);
+        }
+        return configuration;
+    }
+
+    private HandlerExecutor requireCameraExecutor() {
+        HandlerExecutor executor = getCameraExecutor();
+        if (null == executor) {
+            throw new IllegalStateException("startBackgroundThread() has not been called");
+        }
+        return executor;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "CameraExecutors{" + mCameraExecutor
+                + ", " + mImageExecutor
+                + ", " + mStorageStage + "}";
+    }
+
+    /**
+     * Runs tasks on a {@link HandlerThread} and counts how many are waiting.
+     */
+    public static class HandlerExecutor implements Executor {
+        private final String mName;
+        private final Handler mHandler;
+        private final AtomicInteger mQueued = new AtomicInteger();
+        private final AtomicInteger mMaxQueued = new AtomicInteger();
+        private final AtomicLong mExecuted = new AtomicLong();
+
+        HandlerExecutor(String name, Handler handler) {
+            mName = name;
+            mHandler = handler;
+        }
+
+        @Override
+        public void execute(@NonNull Runnable command) {
+            int queued = mQueued.incrementAndGet();
+            if (!mHandler.post(() -> {
+                mQueued.decrementAndGet();
+                mExecuted.incrementAndGet();
+                command.run();
+            })) {
+                mQueued.decrementAndGet();
+                throw new RejectedExecutionException(mName + " has quit");
+            }
+            int max;
+            do {
+                max = mMaxQueued.get();
+            } while (queued > max && !mMaxQueued.compareAndSet(max, queued));
+        }
+
+        public Handler getHandler() {
+            return mHandler;
+        }
+
+        /**
+         * @return tasks posted but not started yet
+         */
+        public int getQueueDepth() {
+            return mQueued.get();
+        }
+
+        public int getMaxQueueDepth() {
+            return mMaxQueued.get();
+        }
+
+        public long getExecutedCount() {
+            return mExecuted.get();
+        }
+
+        @Override
+        public String toString() {
+            return mName + "{queued=" + mQueued.get()
+                    + ", maxQueued=" + mMaxQueued.get()
+                    + ", executed=" + mExecuted.get() + "}";
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.pm.cameracore;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The result of an asynchronous camera operation, completed once by whichever thread finishes the
+ * operation. {@code CompletableFuture} needs API 24, this one only uses what minSdk 21 has.
+ * <p>
+ * Listeners run on the executor they were added with, or right away on the adding thread if the
+ * future is already done and no executor was given. Blocking {@link #get()} is for tests and worker
+ * threads, never for the main thread.
+ *
+ * @param <T> the type of the result
+ * @author pm
+ */
+public class CameraFuture<T> implements Future<T> {
+    private T mValue;
+    private Throwable mFailure;
+    private boolean mDone;
+    private List<Runnable> mListeners;
+
+    public static <T> CameraFuture<T> completed(T value) {
+        CameraFuture<T> future = new CameraFuture<>();
+        future.complete(value);
+        return future;
+    }
+
+    public static <T> CameraFuture<T> failed(Throwable failure) {
+        CameraFuture<T> future = new CameraFuture<>();
+        future.fail(failure);
+        return future;
+    }
+
+    /**
+     * @return false if the future was already done
+     */
+    public boolean complete(T value) {
+        return finish(value, null);
+    }
+
+    /**
+     * @return false if the future was already done
+     */
+    public boolean fail(Throwable failure) {
+        return finish(null, null == failure ? new IllegalArgumentException("null failure") : failure);
+    }
+
+    /**
+     * Fails the future with a {@link CancellationException}. The operation is not interrupted, it
+     * has to check {@link #isDone()} itself.
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return fail(new CancellationException());
+    }
+
+    private boolean finish(T value, Throwable failure) {
+        List<Runnable> listeners;
+        synchronized (this) {
+            if (mDone) {
+                return false;
+            }
+            mValue = value;
+            mFailure = failure;
+            mDone = true;
+            listeners = mListeners;
+            mListeners = null;
+            notifyAll();
+        }
+        if (null != listeners) {
+            for (Runnable listener : listeners) {
+                listener.run();
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return mFailure instanceof CancellationException;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return mDone;
+    }
+
+    /**
+     * @return true if the future completed without failure
+     */
+    public synchronized boolean isSuccessful() {
+        return mDone && null == mFailure;
+    }
+
+    /**
+     * @return the failure, null if the future succeeded or is not done yet
+     */
+    public synchronized Throwable getFailure() {
+        return mFailure;
+    }
+
+    /**
+     * @return the value, null if the future failed or is not done yet
+     */
+    public synchronized T getNow() {
+        return mValue;
+    }
+
+    @Override
+    public synchronized T get() throws InterruptedException, ExecutionException {
+        while (!mDone) {
+            wait();
+        }
+        return result();
+    }
+
+    @Override
+    public synchronized T get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!mDone) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                throw new TimeoutException();
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return result();
+    }
+
+    private T result() throws ExecutionException {
+        if (mFailure instanceof CancellationException) {
+            throw (CancellationException) mFailure;
+        }
+        if (null != mFailure) {
+            throw new ExecutionException(mFailure);
+        }
+        return mValue;
+    }
+
+    /**
+     * @param executor where the listener runs, null to run it on the thread that completes the
+     *                 future. A rejected listener is run on that thread as well
+     */
+    public CameraFuture<T> addListener(final Listener<? super T> listener, final Executor executor) {
+        Runnable notifier = () -> {
+            if (null == executor) {
+                listener.onDone(this);
+                return;
+            }
+            try {
+                executor.execute(() -> listener.onDone(this));
+            } catch (RejectedExecutionException e) {
+                listener.onDone(this);
+            }
+        };
+        synchronized (this) {
+            if (!mDone) {
+                if (null == mListeners) {
+                    mListeners = new ArrayList<>(2);
+                }
+                mListeners.add(notifier);
+                return this;
+            }
+        }
+        notifier.run();
+        return this;
+    }
+
+    /**
+     * Completes {@code target} the same way as this future once it is done.
+     */
+    public CameraFuture<T> forward(final CameraFuture<T> target) {
+        return addListener(future -> {
+            if (future.isSuccessful()) {
+                target.complete(future.getNow());
+            } else {
+                target.fail(future.getFailure());
+            }
+        }, null);
+    }
+
+    @Override
+    public synchronized String toString() {
+        if (!mDone) {
+            return "CameraFuture{pending}";
+        }
+        return null == mFailure ? "CameraFuture{" + mValue + "}" : "CameraFuture{failed: " + mFailure + "}";
+    }
+
+    public interface Listener<T> {
+        void onDone(CameraFuture<? extends T> future);
+    }
+}
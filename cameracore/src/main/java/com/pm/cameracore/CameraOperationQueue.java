@@ -0,0 +1,66 @@
+package com.pm.cameracore;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Runs camera operations such as open, close and record start/stop one after another on the camera
+ * thread, without the caller ever waiting.
+ * <p>
+ * An operation starts once the previous one has completed its future, successfully or not, so an
+ * open that is still waiting for {@code onOpened} holds back the close queued after it. The
+ * operation itself completes its future, right away or later from a callback.
+ *
+ * @author pm
+ */
+public class CameraOperationQueue {
+    private CameraFuture<?> mTail = CameraFuture.completed(null);
+
+    /**
+     * @param executor runs the operation, a rejecting or null executor fails it
+     * @return the future handed to the operation
+     */
+    public synchronized <T> CameraFuture<T> enqueue(final Executor executor, final Operation<T> operation) {
+        final CameraFuture<T> future = new CameraFuture<>();
+        mTail.addListener(previous -> {
+            if (null == executor) {
+                future.fail(new RejectedExecutionException("No executor, the threads are not started"));
+                return;
+            }
+            try {
+                executor.execute(() -> run(operation, future));
+            } catch (RejectedExecutionException e) {
+                future.fail(e);
+            }
+        }, null);
+        mTail = future;
+        return future;
+    }
+
+    private static <T> void run(Operation<T> operation, CameraFuture<T> future) {
+        if (future.isDone()) {
+            // cancelled while waiting
+            return;
+        }
+        try {
+            operation.run(future);
+        } catch (Exception e) {
+            future.fail(e);
+        }
+    }
+
+    /**
+     * @return the future of the last operation queued, done once the queue is empty
+     */
+    public synchronized CameraFuture<?> getTail() {
+        return mTail;
+    }
+
+    public interface Operation<T> {
+        /**
+         * Runs on the executor. Has to complete or fail {@code future} eventually, a thrown
+         * exception fails it.
+         */
+        void run(CameraFuture<T> future) throws Exception;
+    }
+}
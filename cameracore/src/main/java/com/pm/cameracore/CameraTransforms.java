@@ -0,0 +1,102 @@
+package com.pm.cameracore;
+
+/**
+ * Orientation and preview transform math of {@link CaptureDelegate}, kept free of Android types so
+ * it can be measured on the JVM.
+ * <p>
+ * Display rotations are the values of {@code Surface.ROTATION_0} to {@code Surface.ROTATION_270},
+ * i.e. 0 to 3. Transforms are written as the nine values of an {@code android.graphics.Matrix},
+ * ready for {@code Matrix#setValues(float[])}.
+ *
+ * @author pm
+ */
+public final class CameraTransforms {
+    /**
+     * Conversion from screen rotation to JPEG orientation.
+     */
+    private static final int[] ORIENTATIONS = {90, 0, 270, 180};
+
+    private static final int ROTATION_90 = 1;
+    private static final int ROTATION_180 = 2;
+    private static final int ROTATION_270 = 3;
+
+    private CameraTransforms() {
+    }
+
+    /**
+     * Retrieves the JPEG orientation from the specified screen rotation.
+     *
+     * @param rotation          The screen rotation.
+     * @param sensorOrientation {@code CameraCharacteristics#SENSOR_ORIENTATION}
+     * @return The JPEG orientation (one of 0, 90, 180 and 270)
+     */
+    public static int getJpegOrientation(int rotation, int sensorOrientation) {
+        return getJpegOrientation(rotation, sensorOrientation, false);
+    }
+
+    /**
+     * @param frontFacing true for a front camera, its picture is mirrored so the screen rotation
+     *                    counts the other way
+     * @see #getJpegOrientation(int, int)
+     */
+    public static int getJpegOrientation(int rotation, int sensorOrientation, boolean frontFacing) {
+        if (frontFacing) {
+            //前置摄像头是镜像的, 屏幕旋转方向相反
+            return (sensorOrientation + (rotation & 3) * 90) % 360;
+        }
+        // Sensor orientation is 90 for most devices, or 270 for some devices (eg. Nexus 5X)
+        // We have to take that into account and rotate JPEG properly.
+        // For devices with orientation of 90, we simply return our mapping from ORIENTATIONS.
+        // For devices with orientation of 270, we need to rotate the JPEG 180 degrees.
+        return (ORIENTATIONS[rotation & 3] + sensorOrientation + 270) % 360;
+    }
+
+    /**
+     * Computes the transform that fills a {@code viewWidth x viewHeight} TextureView with a
+     * {@code previewWidth x previewHeight} camera buffer, the same as
+     * {@code setRectToRect(view, buffer, FILL)}, {@code postScale} and {@code postRotate} about the
+     * view center. A front camera needs no extra flip, its stream already arrives mirrored.
+     *
+     * @param out receives the nine matrix values
+     */
+    public static void getPreviewTransform(int viewWidth, int viewHeight, int previewWidth, int previewHeight,
+                                           int rotation, float[] out) {
+        float centerX = viewWidth / 2f;
+        float centerY = viewHeight / 2f;
+        if (ROTATION_90 == rotation || ROTATION_270 == rotation) {
+            // the buffer is centered in the view with its sides swapped
+            float scale = Math.max(
+                    (float) viewHeight / previewHeight,
+                    (float) viewWidth / previewWidth);
+            float scaleX = scale * previewHeight / viewWidth;
+            float scaleY = scale * previewWidth / viewHeight;
+            float translateX = -scale * previewHeight / 2f;
+            float translateY = -scale * previewWidth / 2f;
+            // 90 * (rotation - 2) is -90 or 90
+            float sin = ROTATION_90 == rotation ? -1f : 1f;
+            out[0] = 0;
+            out[1] = -sin * scaleY;
+            out[2] = -sin * translateY + centerX;
+            out[3] = sin * scaleX;
+            out[4] = 0;
+            out[5] = sin * translateX + centerY;
+        } else if (ROTATION_180 == rotation) {
+            out[0] = -1;
+            out[1] = 0;
+            out[2] = 2 * centerX;
+            out[3] = 0;
+            out[4] = -1;
+            out[5] = 2 * centerY;
+        } else {
+            out[0] = 1;
+            out[1] = 0;
+            out[2] = 0;
+            out[3] = 0;
+            out[4] = 1;
+            out[5] = 0;
+        }
+        out[6] = 0;
+        out[7] = 0;
+        out[8] = 1;
+    }
+}
@@ -1,16 +1,14 @@
 package com.pm.cameracore;
 
 import android.annotation.SuppressLint;
+import android.annotation.TargetApi;
 import android.app.Activity;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.res.Configuration;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.BitmapRegionDecoder;
 import android.graphics.ImageFormat;
 import android.graphics.Matrix;
-import android.graphics.RectF;
 import android.graphics.SurfaceTexture;
 import android.hardware.camera2.CameraAccessException;
 import android.hardware.camera2.CameraCaptureSession;
@@ -18,40 +16,46 @@ import android.hardware.camera2.CameraCharacteristics;
 import android.hardware.camera2.CameraDevice;
 import android.hardware.camera2.CameraManager;
 import android.hardware.camera2.CameraMetadata;
+import android.hardware.camera2.CaptureFailure;
 import android.hardware.camera2.CaptureRequest;
 import android.hardware.camera2.CaptureResult;
 import android.hardware.camera2.TotalCaptureResult;
+import android.hardware.camera2.params.InputConfiguration;
 import android.hardware.camera2.params.StreamConfigurationMap;
 import android.media.Image;
 import android.media.ImageReader;
+import android.media.ImageWriter;
 import android.media.MediaActionSound;
+import android.media.MediaRecorder;
+import android.os.Build;
 import android.os.Environment;
 import android.os.Handler;
-import android.os.HandlerThread;
 import android.os.Message;
+import android.os.SystemClock;
 import android.provider.MediaStore;
 import android.util.DisplayMetrics;
 import android.util.Log;
+import android.util.Range;
 import android.util.Size;
-import android.util.SparseIntArray;
 import android.view.Surface;
 import android.view.TextureView;
 import android.view.View;
 import android.view.WindowManager;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 import java.util.Locale;
 import java.util.Objects;
-import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.WorkerThread;
@@ -63,7 +67,7 @@ import androidx.fragment.app.FragmentActivity;
  * @date 2019/9/17
  * @email puming@zdsoft.cn
  */
-public class CaptureDelegate {
+public class CaptureDelegate implements CameraDelegate {
     private static final String TAG = "CaptureDelegate";
     /**
      * Max preview width that is guaranteed by Camera2 API
@@ -74,38 +78,62 @@ public class CaptureDelegate {
      * Max preview height that is guaranteed by Camera2 API
      */
     private static final int MAX_PREVIEW_HEIGHT = 1080;
-    private final MediaActionSound mMediaActionSound;
 
     /**
-     * The current state of camera state for taking pictures.
-     *
-     * @see #mCaptureCallback
+     * Captures that may wait for storage before the camera is throttled
      */
-    private State mState = State.STATE_PREVIEW;
+    private static final int PERSIST_QUEUE_DEPTH = 2;
 
     /**
-     * Conversion from screen rotation to JPEG orientation.
+     * Review decodes that may wait, older ones are dropped
      */
-    private static final SparseIntArray ORIENTATIONS = new SparseIntArray();
+    private static final int DECODE_QUEUE_DEPTH = 1;
 
-    static {
-        ORIENTATIONS.append(Surface.ROTATION_0, 90);
-        ORIENTATIONS.append(Surface.ROTATION_90, 0);
-        ORIENTATIONS.append(Surface.ROTATION_180, 270);
-        ORIENTATIONS.append(Surface.ROTATION_270, 180);
-    }
+    /**
+     * Default memory the zero shutter lag frames may use
+     */
+    private static final long DEFAULT_ZSL_MEMORY_LIMIT = 64L * 1024 * 1024;
+
+    /**
+     * Upper bound of buffered zero shutter lag frames regardless of the memory limit
+     */
+    private static final int MAX_ZSL_FRAMES = 6;
+
+    /**
+     * How long {@link #openCamera(int, int)} waits for the device
+     */
+    private static final long OPEN_TIMEOUT_MS = 2500;
+
+    private static final int MSG_CAPTURE_RESULT = 1;
+    private static final int MSG_CAPTURE_THUMBNAIL = 2;
+    private final MediaActionSound mMediaActionSound;
 
     private Context mContext;
     private DelegateCallback mDelegateCallback;
-    private HandlerThread mBackgroundThread;
-    private Handler mBackgroundHandler;
+    private final CameraExecutors mExecutors = new CameraExecutors(PERSIST_QUEUE_DEPTH);
+    /**
+     * Camera thread of {@link #mExecutors}, null while stopped
+     */
+    private volatile Handler mBackgroundHandler;
     private Handler mMainHandler;
 
 
     /**
-     * A {@link Semaphore} to prevent the app from exiting before closing the camera.
+     * Open and close run one after another on the camera thread, the caller never waits
+     */
+    private final CameraOperationQueue mOperations = new CameraOperationQueue();
+    /**
+     * The open waiting for {@link CameraDevice.StateCallback#onOpened(CameraDevice)}, camera thread only
+     */
+    private CameraFuture<Void> mPendingOpen;
+    /**
+     * Fails {@link #mPendingOpen} after {@link #OPEN_TIMEOUT_MS}, camera thread only
+     */
+    private Runnable mOpenTimeout;
+    /**
+     * The shot between {@link #takePicture()} and {@link ShutterStateMachine.Callback#onCompleted(ShotTimings)}
      */
-    private Semaphore mCameraOpenCloseLock = new Semaphore(1);
+    private final AtomicReference<CameraFuture<Void>> mPendingShot = new AtomicReference<>();
     private CameraManager mCameraManager;
     private CameraCharacteristics mCameraCharacteristics;
     private WindowManager mWindowManager;
@@ -115,31 +143,104 @@ public class CaptureDelegate {
     private Size mPreviewSize;
     private boolean mFlashSupported;
     private String mCameraId;
+    private ImageSaver.OnImageSavedListener mOnImageSavedListener;
+    private CaptureMetadataListener mCaptureMetadataListener;
+    private final CapturePipeline mCapturePipeline;
+    private final ReviewDecoder mReviewDecoder;
+    /**
+     * Size of the view the captured picture is reviewed in
+     */
+    private int mReviewWidth;
+    private int mReviewHeight;
+    private boolean mCustomReviewSize;
+    /**
+     * Deliver the EXIF thumbnail first and the sampled picture afterwards
+     */
+    private boolean mProgressiveReview = true;
+    /**
+     * Largest burst the {@link ImageReader} is sized for, 0 disables burst capture
+     */
+    private int mMaxBurstSize;
+    /**
+     * Statistics of the burst in progress, null when no burst is running
+     */
+    private volatile BurstStats mBurstStats;
+    private BurstCallback mBurstCallback;
+    private boolean mZslEnabled;
+    private long mZslMemoryLimit = DEFAULT_ZSL_MEMORY_LIMIT;
+    /**
+     * Full resolution frames of the preview stream, only used with a reprocessable session
+     */
+    private ImageReader mZslReader;
+    private ZslRingBuffer mZslBuffer;
+    private ImageWriter mImageWriter;
+    private ShotTimingListener mShotTimingListener;
+    private boolean mVideoEnabled;
+    /**
+     * Mode of the repeating request, camera thread only
+     */
+    private Mode mMode = Mode.PICTURE;
+    private VideoRecorder mVideoRecorder;
+    /**
+     * Values that replace what {@link VideoQuality} picks, may be null
+     */
+    private volatile VideoConfig mVideoConfigOverride;
+    /**
+     * Applied to the recordings of the open camera, null without video
+     */
+    private volatile VideoConfig mVideoConfig;
+    /**
+     * Preview, JPEG and encoder streams are outputs of one session, switching the mode or starting
+     * a recording only replaces the repeating request
+     */
+    private boolean mSharedSession;
+    /**
+     * Output of {@link #mDelegateCallback}'s SurfaceTexture, kept while the camera is open
+     */
+    private Surface mPreviewSurface;
+    /**
+     * The encoder input in the session, null if the session has none
+     */
+    private Surface mRecordSurface;
+    private volatile boolean mRecording;
 
 
     private CameraDevice mCameraDevice;
     private CaptureRequest.Builder mPreviewBuilder;
     private CameraCaptureSession mCaptureSession;
+    /**
+     * Runs the focus, precapture and capture sequence on {@link #mBackend}
+     */
+    private final ShutterStateMachine mShutter;
+    private final Camera2Backend mBackend;
     private CameraDevice.StateCallback mStateCallback = new CameraDevice.StateCallback() {
         @Override
         public void onOpened(@NonNull CameraDevice cameraDevice) {
             // This method is called when the camera is opened.  We start camera preview here.
-            mCameraOpenCloseLock.release();
+            CameraFuture<Void> open = mPendingOpen;
+            mPendingOpen = null;
+            cancelOpenTimeout();
+            if (null == open || open.isDone()) {
+                // timed out or cancelled, nobody will close it
+                cameraDevice.close();
+                return;
+            }
             mCameraDevice = cameraDevice;
             //step4 开始预览相机
             createCameraPreviewSession();
+            open.complete(null);
         }
 
         @Override
         public void onDisconnected(@NonNull CameraDevice cameraDevice) {
-            mCameraOpenCloseLock.release();
+            failPendingOpen(new IllegalStateException("Camera disconnected"));
             cameraDevice.close();
             mCameraDevice = null;
         }
 
         @Override
         public void onError(@NonNull CameraDevice cameraDevice, int error) {
-            mCameraOpenCloseLock.release();
+            failPendingOpen(new IllegalStateException("Camera error " + error));
             cameraDevice.close();
             mCameraDevice = null;
 //            Activity activity = getActivity();
@@ -149,131 +250,408 @@ public class CaptureDelegate {
         }
     };
 
-    private CameraCaptureSession.CaptureCallback mCaptureCallback = new CameraCaptureSession.CaptureCallback() {
-        @Override
-        public void onCaptureStarted(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, long timestamp, long frameNumber) {
-            super.onCaptureStarted(session, request, timestamp, frameNumber);
-//            Log.d(TAG, "onCaptureStarted: ");
-        }
-
-        @Override
-        public void onCaptureProgressed(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, @NonNull CaptureResult partialResult) {
-            super.onCaptureProgressed(session, request, partialResult);
-            Log.d(TAG, "onCaptureProgressed: ");
-            process(partialResult);
-        }
-
-        @Override
-        public void onCaptureCompleted(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, @NonNull TotalCaptureResult result) {
-            super.onCaptureCompleted(session, request, result);
-//            Log.d(TAG, "onCaptureCompleted: ");
-            process(result);
-        }
-    };
-
     public CaptureDelegate(Context mContext, DelegateCallback callback) {
         this.mContext = mContext;
         this.mDelegateCallback = callback;
         mMediaActionSound = new MediaActionSound();
         mMainHandler = new Handler(mContext.getMainLooper(), msg -> {
-            if(msg.what == 1){
-                if(msg.obj instanceof Bitmap){
+            if (msg.what == MSG_CAPTURE_RESULT) {
+                if (msg.obj instanceof Bitmap) {
                     Bitmap bitmap = (Bitmap) msg.obj;
                     mDelegateCallback.onCaptureResult(bitmap);
                 }
+            } else if (msg.what == MSG_CAPTURE_THUMBNAIL) {
+                if (msg.obj instanceof Bitmap) {
+                    mDelegateCallback.onCaptureThumbnail((Bitmap) msg.obj);
+                }
             }
             return true;
         });
+        mReviewDecoder = new ReviewDecoder(mContext);
+        mBackend = new Camera2Backend(this::createStillRequest, new Camera2Backend.ResultListener() {
+            @Override
+            public void onPreviewResult(@NonNull TotalCaptureResult result) {
+                ZslRingBuffer zslBuffer = mZslBuffer;
+                if (null != zslBuffer) {
+                    zslBuffer.addResult(result);
+                }
+            }
+
+            @Override
+            public void onStillResult(@NonNull TotalCaptureResult result) {
+                mCapturePipeline.onCaptureResult(result);
+            }
+        });
+        ShutterStateMachine.Timer timer = new ShutterStateMachine.Timer() {
+            @Override
+            public long nanoTime() {
+                return SystemClock.elapsedRealtimeNanos();
+            }
+
+            @Override
+            public void schedule(Runnable task, long delayNanos) {
+                Handler handler = mBackgroundHandler;
+                if (null != handler) {
+                    handler.postDelayed(task, TimeUnit.NANOSECONDS.toMillis(delayNanos));
+                }
+            }
+        };
+        mShutter = new ShutterStateMachine(mBackend, timer, new ShutterStateMachine.Callback() {
+            @Override
+            public void onShutter(long timestamp) {
+                mMediaActionSound.play(MediaActionSound.SHUTTER_CLICK);
+            }
+
+            @Override
+            public void onStillFailed() {
+                BurstStats stats = mBurstStats;
+                if (null != stats) {
+                    // no image will arrive for this frame
+                    stats.onFrameFailed(SystemClock.elapsedRealtimeNanos());
+                    checkBurstCompleted(stats);
+                }
+            }
+
+            @Override
+            public void onCompleted(ShotTimings timings) {
+                Log.d(TAG, "onCompleted: " + timings);
+                if (timings.isAborted()) {
+                    mBurstStats = null;
+                }
+                CameraFuture<Void> shot = mPendingShot.getAndSet(null);
+                if (null != shot) {
+                    if (timings.isAborted()) {
+                        shot.fail(new IllegalStateException("Shot aborted"));
+                    } else {
+                        shot.complete(null);
+                    }
+                }
+                ShotTimingListener listener = mShotTimingListener;
+                if (null != listener) {
+                    listener.onShotTiming(timings);
+                }
+            }
+        });
+        mCapturePipeline = new CapturePipeline(PERSIST_QUEUE_DEPTH, DECODE_QUEUE_DEPTH, new CapturePipeline.Callback() {
+            @Override
+            public File createOutputFile(Image image) {
+                File picturesDir = Objects.requireNonNull(mContext).getExternalFilesDir(Environment.DIRECTORY_PICTURES);
+                SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss_SSSS", Locale.getDefault());
+                String dateStr = dateFormat.format(new Date());
+                return new File(picturesDir, dateStr + ".jpg");
+            }
+
+            @Override
+            public void onJpegHeader(ByteBuffer jpeg, JpegInfo info) {
+                if (!mProgressiveReview || null != mBurstStats) {
+                    return;
+                }
+                //先显示EXIF缩略图
+                Bitmap thumbnail = mReviewDecoder.decodeThumbnail(jpeg, info);
+                if (null != thumbnail) {
+                    mMainHandler.obtainMessage(MSG_CAPTURE_THUMBNAIL, thumbnail).sendToTarget();
+                }
+            }
+
+            @Override
+            public boolean onImageSaved(File file, long bytesWritten, long durationNanos, long latencyNanos) {
+                if (null != mOnImageSavedListener) {
+                    mOnImageSavedListener.onImageSaved(file, bytesWritten, durationNanos);
+                }
+                BurstStats stats = mBurstStats;
+                if (null == stats) {
+                    return true;
+                }
+                int index = stats.onFrameSaved(SystemClock.elapsedRealtimeNanos(), latencyNanos);
+                BurstCallback callback = mBurstCallback;
+                if (null != callback) {
+                    mMainHandler.post(() -> callback.onBurstFrameSaved(index, file, latencyNanos));
+                }
+                checkBurstCompleted(stats);
+                //连拍只解码最后一张的回看图
+                return stats.isComplete();
+            }
+
+            @Override
+            public void onImageSaveFailed(File file, IOException e) {
+                if (null != mOnImageSavedListener) {
+                    mOnImageSavedListener.onImageSaveFailed(file, e);
+                }
+                BurstStats stats = mBurstStats;
+                if (null != stats) {
+                    stats.onFrameFailed(SystemClock.elapsedRealtimeNanos());
+                    checkBurstCompleted(stats);
+                }
+            }
+
+            @Override
+            public void onCaptureMetadata(File file, TotalCaptureResult result) {
+                Log.d(TAG, "onCaptureMetadata: " + file.getName()
+                        + " exposure=" + result.get(CaptureResult.SENSOR_EXPOSURE_TIME)
+                        + " iso=" + result.get(CaptureResult.SENSOR_SENSITIVITY)
+                        + " focus=" + result.get(CaptureResult.LENS_FOCUS_DISTANCE));
+                CaptureMetadataListener listener = mCaptureMetadataListener;
+                if (null != listener) {
+                    listener.onCaptureMetadata(file, result);
+                }
+            }
+
+            @Override
+            public void onDecodeForReview(File file, JpegInfo info) {
+                decodeFileToBitmap(file.getAbsolutePath(), info);
+            }
+        });
     }
 
+    /**
+     * Registers a listener that is told the size and write time of every saved picture.
+     */
+    public void setOnImageSavedListener(ImageSaver.OnImageSavedListener listener) {
+        mOnImageSavedListener = listener;
+    }
+
+    /**
+     * @param listener receives the capture result of every saved picture, on the persist thread
+     */
+    public void setCaptureMetadataListener(CaptureMetadataListener listener) {
+        mCaptureMetadataListener = listener;
+    }
+
+    /**
+     * @param listener told where the time of every shot went, on the camera thread
+     */
+    public void setShotTimingListener(ShotTimingListener listener) {
+        mShotTimingListener = listener;
+    }
+
+    /**
+     * Captures right away when the latest preview frame shows converged focus and exposure instead
+     * of locking the focus first. Enabled by default.
+     */
+    public void setShutterFastPath(boolean enabled) {
+        mShutter.setFastPathEnabled(enabled);
+    }
+
+    /**
+     * Sets the size the review bitmap is decoded for. Defaults to the preview view size.
+     */
+    public void setReviewSize(int width, int height) {
+        mReviewWidth = width;
+        mReviewHeight = height;
+        mCustomReviewSize = true;
+    }
+
+    public void setReviewDecodeMode(ReviewDecoder.Mode mode) {
+        mReviewDecoder.setMode(mode);
+    }
+
+    /**
+     * @return the pool review bitmaps are decoded into, give them back once they are not shown anymore
+     */
+    public BitmapPool getBitmapPool() {
+        return mReviewDecoder.getBitmapPool();
+    }
+
+    /**
+     * @param progressive true to post {@link DelegateCallback#onCaptureThumbnail(Bitmap)} from the
+     *                    embedded EXIF thumbnail before {@link DelegateCallback#onCaptureResult(Bitmap)}
+     */
+    public void setProgressiveReview(boolean progressive) {
+        mProgressiveReview = progressive;
+    }
+
+    /**
+     * Takes pictures from a buffer of recent frames instead of running the focus and precapture
+     * sequence first. Devices with private reprocessing reprocess the newest converged frame into a
+     * JPEG, others rely on the fast path of the regular sequence, see {@link #setShutterFastPath(boolean)}.
+     * Takes effect the next time the camera is opened.
+     */
+    public void setZeroShutterLag(boolean enabled) {
+        mZslEnabled = enabled;
+    }
+
+    /**
+     * @param maxBytes memory the buffered zero shutter lag frames may use, decides how many are kept
+     */
+    public void setZslMemoryLimit(long maxBytes) {
+        mZslMemoryLimit = maxBytes;
+    }
+
+    /**
+     * @return true if the open camera reprocesses buffered frames for zero shutter lag
+     */
+    public boolean isZslReprocessing() {
+        return null != mZslReader;
+    }
+
+    /**
+     * Lets the delegate record video besides taking pictures, see {@link #startRecordingVideo()}.
+     * Where the stream combinations of the camera allow it the encoder joins the preview and the
+     * JPEG reader in one session, the JPEG may then be limited to the video size. Turns off zero
+     * shutter lag reprocessing. Takes effect the next time the camera is opened.
+     */
+    public void setVideoEnabled(boolean enabled) {
+        mVideoEnabled = enabled;
+    }
+
+    /**
+     * Takes effect the next time the camera is opened.
+     *
+     * @param override every value other than {@link VideoConfig#AUTO} replaces the one
+     *                 {@link VideoQualityPolicy} picks, null to use the policy
+     */
+    public void setVideoConfig(VideoConfig override) {
+        mVideoConfigOverride = override;
+    }
+
+    /**
+     * @return bitrate, frame rate and fps range used for the open camera, null without video
+     */
+    public VideoConfig getVideoConfig() {
+        return mVideoConfig;
+    }
+
+    /**
+     * @return true if the open camera records without creating its session again
+     */
+    public boolean isSharedSession() {
+        return mSharedSession;
+    }
+
+    /**
+     * Opens the camera on the camera thread once the previous close has finished.
+     *
+     * @return completes when the camera is open and the preview session is being created, fails if
+     * the camera could not be opened within {@link #OPEN_TIMEOUT_MS}
+     */
     @SuppressLint("MissingPermission")
-    public void openCamera(int width, int height) {
-        //step1 选择相机预览的最佳尺寸
-        setupCameraOutputs(width, height);
-        //step2 配置相机预览的方向
-        configureTransform(width, height);
-        try {
-            if (!mCameraOpenCloseLock.tryAcquire(2500, TimeUnit.MILLISECONDS)) {
-                throw new RuntimeException("Time out waiting to lock camera opening.");
+    @Override
+    public CameraFuture<Void> openCamera(final int width, final int height) {
+        if (!mCustomReviewSize) {
+            mReviewWidth = width;
+            mReviewHeight = height;
+        }
+        return mOperations.enqueue(mExecutors.getCameraExecutor(), future -> {
+            //step1 选择相机预览的最佳尺寸
+            setupCameraOutputs(width, height);
+            //step2 配置相机预览的方向
+            configureTransform(width, height);
+            if (null == mCameraId) {
+                throw new IllegalStateException("No camera to open");
             }
+            mPendingOpen = future;
             //step3 打开照相机
-            mCameraManager.openCamera(mCameraId, mStateCallback, mBackgroundHandler);
-        } catch (CameraAccessException e) {
-            e.printStackTrace();
-        } catch (InterruptedException e) {
-            throw new RuntimeException("Interrupted while trying to lock camera opening.", e);
+            mExecutors.openCamera(mCameraManager, mCameraId, mStateCallback);
+            final String cameraId = mCameraId;
+            //只让这一次打开超时, 之后的打开有自己的计时
+            mOpenTimeout = () -> {
+                if (mPendingOpen == future) {
+                    failPendingOpen(new TimeoutException("Time out waiting to open camera " + cameraId));
+                }
+            };
+            mBackgroundHandler.postDelayed(mOpenTimeout, OPEN_TIMEOUT_MS);
+        });
+    }
+
+    private void failPendingOpen(Exception e) {
+        CameraFuture<Void> open = mPendingOpen;
+        mPendingOpen = null;
+        cancelOpenTimeout();
+        if (null != open && open.fail(e)) {
+            Log.w(TAG, "openCamera: ", e);
+        }
+    }
+
+    private void cancelOpenTimeout() {
+        Handler handler = mBackgroundHandler;
+        if (null != mOpenTimeout && null != handler) {
+            handler.removeCallbacks(mOpenTimeout);
         }
+        mOpenTimeout = null;
     }
 
     private void setupCameraOutputs(int width, int height) {
         if (null == mContext) {
             return;
         }
-        mCameraManager = (CameraManager) mContext.getSystemService(Context.CAMERA_SERVICE);
+        CameraCharacteristicsCache cache = CameraCharacteristicsCache.get(mContext);
+        mCameraManager = cache.getCameraManager();
         try {
-            for (String cameraId : mCameraManager.getCameraIdList()) {
-                CameraCharacteristics characteristics = mCameraManager.getCameraCharacteristics(cameraId);
-                mCameraCharacteristics = characteristics;
-                //获取硬件支持等级
-                Integer level = characteristics.get(CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL);
+            String cameraId = null;
+            for (String id : cache.getCameraIdList()) {
+                CameraCharacteristics characteristics = cache.getCharacteristics(id);
                 // We don't use a front facing camera in this sample.
                 Integer facing = characteristics.get(CameraCharacteristics.LENS_FACING);
                 if (facing != null && facing == CameraCharacteristics.LENS_FACING_FRONT) {
                     continue;
                 }
-                StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
-                if (null == map) {
+                if (null == characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP)) {
                     continue;
                 }
-                prepareImageReader(map);
-
+                cameraId = id;
+            }
+            if (null == cameraId) {
+                return;
+            }
+            CameraCharacteristics characteristics = cache.getCharacteristics(cameraId);
+            mCameraCharacteristics = characteristics;
+            StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
 
-                mWindowManager = (WindowManager) mContext.getSystemService(Context.WINDOW_SERVICE);
-                //mSensorOrientation is 90
-                mSensorOrientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
-                //缩略图尺寸
+            mWindowManager = (WindowManager) mContext.getSystemService(Context.WINDOW_SERVICE);
+            //mSensorOrientation is 90
+            mSensorOrientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
+            //缩略图尺寸
+            mThumbSize = cache.getSize(cameraId, CameraCharacteristicsCache.KEY_THUMBNAIL);
+            if (null == mThumbSize) {
                 Size[] thumbnailSizes = characteristics.get(CameraCharacteristics.JPEG_AVAILABLE_THUMBNAIL_SIZES);
-                for (Size size : thumbnailSizes) {
-                    Log.d(TAG, "setupCameraOutputs: thumb size = " + size.toString());
-                }
                 mThumbSize = SizeUtils.chooseThumbSize(thumbnailSizes);
+                cache.putSize(cameraId, CameraCharacteristicsCache.KEY_THUMBNAIL, mThumbSize);
+            }
 
-                //找出相对于相机传感器坐标的最佳预览尺寸
-                //rotation is 0 or 1,2,3
-                int rotation = mWindowManager.getDefaultDisplay().getRotation();
-                boolean swappedDimensions = isSwappedDimen(rotation);
-                DisplayMetrics displayMetrics = new DisplayMetrics();
-                mWindowManager.getDefaultDisplay().getRealMetrics(displayMetrics);
-                int maxPreviewWidth = displayMetrics.widthPixels;
-                int maxPreviewHeight = displayMetrics.heightPixels;
-                if (swappedDimensions) {
-                    width = width ^ height;
-                    height = width ^ height;
-                    width = width ^ height;
-
-                    maxPreviewWidth = maxPreviewWidth ^ maxPreviewHeight;
-                    maxPreviewHeight = maxPreviewWidth ^ maxPreviewHeight;
-                    maxPreviewWidth = maxPreviewWidth ^ maxPreviewHeight;
-                }
-                if (maxPreviewWidth > MAX_PREVIEW_WIDTH) {
-                    maxPreviewWidth = MAX_PREVIEW_WIDTH;
-                }
-                if (maxPreviewHeight > MAX_PREVIEW_HEIGHT) {
-                    maxPreviewHeight = MAX_PREVIEW_HEIGHT;
-                }
+            //找出相对于相机传感器坐标的最佳预览尺寸
+            //rotation is 0 or 1,2,3
+            int rotation = mWindowManager.getDefaultDisplay().getRotation();
+            boolean swappedDimensions = isSwappedDimen(rotation);
+            DisplayMetrics displayMetrics = new DisplayMetrics();
+            mWindowManager.getDefaultDisplay().getRealMetrics(displayMetrics);
+            int maxPreviewWidth = displayMetrics.widthPixels;
+            int maxPreviewHeight = displayMetrics.heightPixels;
+            if (swappedDimensions) {
+                width = width ^ height;
+                height = width ^ height;
+                width = width ^ height;
+
+                maxPreviewWidth = maxPreviewWidth ^ maxPreviewHeight;
+                maxPreviewHeight = maxPreviewWidth ^ maxPreviewHeight;
+                maxPreviewWidth = maxPreviewWidth ^ maxPreviewHeight;
+            }
+            if (maxPreviewWidth > MAX_PREVIEW_WIDTH) {
+                maxPreviewWidth = MAX_PREVIEW_WIDTH;
+            }
+            if (maxPreviewHeight > MAX_PREVIEW_HEIGHT) {
+                maxPreviewHeight = MAX_PREVIEW_HEIGHT;
+            }
 
+            // the preview size only depends on the view and the display configuration
+            String previewKey = "capturePreview:" + width + "x" + height + "/" + maxPreviewWidth + "x" + maxPreviewHeight;
+            mPreviewSize = cache.getSize(cameraId, previewKey);
+            if (null == mPreviewSize) {
                 // Danger, W.R.! Attempting to use too large a preview size could  exceed the camera
                 // bus' bandwidth limitation, resulting in gorgeous previews but the storage of
                 // garbage capture data.
-                Size[] supportedPreviewSizes = map.getOutputSizes(SurfaceTexture.class);
+                SizeSelector<Size> supportedPreviewSizes = cache.getSizeSelector(cameraId, SurfaceTexture.class);
                 Size surfaceSize = new Size(width, height);
                 mPreviewSize = SizeUtils.chooseOptimalSize(supportedPreviewSizes, surfaceSize, new Size(maxPreviewWidth, maxPreviewHeight), new Size(16, 9));
-                changeTextureViewSize();
-                // Check if the flash is supported.
-                Boolean available = characteristics.get(CameraCharacteristics.FLASH_INFO_AVAILABLE);
-                mFlashSupported = available == null ? false : available;
-                mCameraId = cameraId;
+                cache.putSize(cameraId, previewKey, mPreviewSize);
             }
+            Size jpegLimit = prepareVideo(cache, cameraId, characteristics, maxPreviewWidth, maxPreviewHeight);
+            prepareImageReader(cache, cameraId, jpegLimit);
+            prepareZslReader(characteristics, map);
+            changeTextureViewSize();
+            // Check if the flash is supported.
+            Boolean available = characteristics.get(CameraCharacteristics.FLASH_INFO_AVAILABLE);
+            mFlashSupported = available == null ? false : available;
+            mCameraId = cameraId;
         } catch (CameraAccessException e) {
             e.printStackTrace();
         } catch (NullPointerException e) {
@@ -290,28 +668,18 @@ public class CaptureDelegate {
             return;
         }
         int rotation = mWindowManager.getDefaultDisplay().getRotation();
+        float[] values = new float[9];
+        CameraTransforms.getPreviewTransform(viewWidth, viewHeight,
+                mPreviewSize.getWidth(), mPreviewSize.getHeight(), rotation, values);
         Matrix matrix = new Matrix();
-        RectF viewRect = new RectF(0, 0, viewWidth, viewHeight);
-        RectF bufferRect = new RectF(0, 0, mPreviewSize.getHeight(), mPreviewSize.getWidth());
-        float centerX = viewRect.centerX();
-        float centerY = viewRect.centerY();
-        if (Surface.ROTATION_90 == rotation || Surface.ROTATION_270 == rotation) {
-            bufferRect.offset(centerX - bufferRect.centerX(), centerY - bufferRect.centerY());
-            matrix.setRectToRect(viewRect, bufferRect, Matrix.ScaleToFit.FILL);
-            float scale = Math.max(
-                    (float) viewHeight / mPreviewSize.getHeight(),
-                    (float) viewWidth / mPreviewSize.getWidth());
-            matrix.postScale(scale, scale, centerX, centerY);
-            matrix.postRotate(90 * (rotation - 2), centerX, centerY);
-        } else if (Surface.ROTATION_180 == rotation) {
-            matrix.postRotate(180, centerX, centerY);
-        }
-        mDelegateCallback.onTransformView(matrix);
+        matrix.setValues(values);
+        mMainHandler.post(() -> mDelegateCallback.onTransformView(matrix));
     }
 
     private void changeTextureViewSize() {
         // We fit the aspect ratio of TextureView to the size of preview we picked.
-        mDelegateCallback.onChangeViewSize(mPreviewSize);
+        Size previewSize = mPreviewSize;
+        mMainHandler.post(() -> mDelegateCallback.onChangeViewSize(previewSize));
     }
 
     /**
@@ -349,14 +717,13 @@ public class CaptureDelegate {
         // We configure the size of default buffer to be the size of camera preview we want.
         texture.setDefaultBufferSize(mPreviewSize.getWidth(), mPreviewSize.getHeight());
 
-        Surface surface = new Surface(texture);
+        if (null == mPreviewSurface) {
+            mPreviewSurface = new Surface(texture);
+        }
         Surface readerSurface = mImageReader.getSurface();
-//        List<Surface> surfaces = Collections.singletonList(surface);
         try {
             // We set up a CaptureRequest.Builder with the output Surface.
-            mPreviewBuilder = mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
-            mPreviewBuilder.addTarget(surface);
-            mCameraDevice.createCaptureSession(Arrays.asList(surface, readerSurface), new CameraCaptureSession.StateCallback() {
+            CameraCaptureSession.StateCallback stateCallback = new CameraCaptureSession.StateCallback() {
                 @Override
                 public void onConfigured(@NonNull CameraCaptureSession session) {
                     // The camera is already closed
@@ -365,14 +732,12 @@ public class CaptureDelegate {
                     }
                     // When the session is ready, we start displaying the preview.
                     mCaptureSession = session;
-                    // Auto focus should be continuous for camera preview.
-                    mPreviewBuilder.set(CaptureRequest.CONTROL_AF_MODE, CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
-                    // Flash is automatically enabled when necessary.
-                    setAutoFlash(mPreviewBuilder);
+                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M && session.isReprocessable()) {
+                        mImageWriter = ImageWriter.newInstance(session.getInputSurface(), 2);
+                    }
                     // Finally, we start displaying the camera preview.
-//                    mPreviewRequest = mPreviewBuilder.build();
                     try {
-                        session.setRepeatingRequest(mPreviewBuilder.build(), mCaptureCallback, mBackgroundHandler);
+                        startRepeating();
                     } catch (CameraAccessException e) {
                         e.printStackTrace();
                     }
@@ -384,89 +749,256 @@ public class CaptureDelegate {
 
                 @Override
                 public void onConfigureFailed(@NonNull CameraCaptureSession session) {
+                    if (mSharedSession && null != mCameraDevice) {
+                        //三路输出不行, 退回到录像时重建会话
+                        Log.w(TAG, "onConfigureFailed: shared session, recording will reconfigure");
+                        mSharedSession = false;
+                        mRecordSurface = null;
+                        createCameraPreviewSession();
+                    }
 //                    showToast("失败");
                     // TODO: 2019/9/19  
                 }
-            }, mBackgroundHandler);
+            };
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M && null != mZslReader) {
+                createZslSession(mPreviewSurface, readerSurface, stateCallback);
+            } else {
+                List<Surface> outputs = new ArrayList<>(3);
+                outputs.add(mPreviewSurface);
+                outputs.add(readerSurface);
+                if (mSharedSession) {
+                    addRecordSurface(outputs);
+                }
+                mExecutors.createCaptureSession(mCameraDevice, outputs, null, stateCallback);
+            }
         } catch (CameraAccessException e) {
             e.printStackTrace();
         }
 
     }
 
-    private void prepareImageReader(StreamConfigurationMap map) {
+    /**
+     * Adds the prepared encoder surface to the session outputs, or gives up the shared session if
+     * the recorder cannot be prepared or the camera says it cannot stream all three.
+     */
+    private void addRecordSurface(List<Surface> outputs) {
+        try {
+            // the persistent surface only gets its size once a recorder is prepared with it
+            Surface recordSurface = mVideoRecorder.prepare();
+            outputs.add(recordSurface);
+            if (mExecutors.isSessionSupported(mCameraDevice, outputs, null)) {
+                mRecordSurface = recordSurface;
+                return;
+            }
+            outputs.remove(recordSurface);
+            Log.w(TAG, "addRecordSurface: the camera cannot share the session");
+        } catch (IOException | IllegalStateException e) {
+            Log.w(TAG, "addRecordSurface: ", e);
+        }
+        mSharedSession = false;
+    }
+
+    /**
+     * The repeating request of the current mode, filling the encoder as well while recording.
+     */
+    private CaptureRequest.Builder createRepeatingBuilder() throws CameraAccessException {
+        CaptureRequest.Builder builder;
+        if (mRecording || Mode.VIDEO == mMode) {
+            builder = mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_RECORD);
+            builder.set(CaptureRequest.CONTROL_AF_MODE, CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_VIDEO);
+            VideoConfig config = mVideoConfig;
+            if (null != config && config.hasFpsRange()) {
+                builder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE,
+                        new Range<>(config.getMinFps(), config.getMaxFps()));
+            }
+            if (mRecording) {
+                builder.addTarget(mRecordSurface);
+            }
+        } else {
+            if (null != mZslReader) {
+                builder = mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_ZERO_SHUTTER_LAG);
+                builder.addTarget(mZslReader.getSurface());
+            } else {
+                builder = mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+            }
+            // Auto focus should be continuous for camera preview.
+            builder.set(CaptureRequest.CONTROL_AF_MODE, CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
+            // Flash is automatically enabled when necessary.
+            setAutoFlash(builder);
+        }
+        builder.addTarget(mPreviewSurface);
+        return builder;
+    }
+
+    /**
+     * Replaces the repeating request of {@link #mCaptureSession} with the one of the current mode.
+     */
+    private void startRepeating() throws CameraAccessException {
+        mPreviewBuilder = createRepeatingBuilder();
+        mBackend.setSession(mCaptureSession, mPreviewBuilder, mBackgroundHandler);
+        mBackend.startPreview();
+    }
+
+    /**
+     * @param jpegLimit largest JPEG size the session allows, null for no limit
+     */
+    private void prepareImageReader(CameraCharacteristicsCache cache, String cameraId, Size jpegLimit) throws CameraAccessException {
         if (mImageReader != null) {
             mImageReader.close();
         }
-        // For still image captures, we use the largest available size.
-        Size[] outputPictureSizes = map.getOutputSizes(ImageFormat.JPEG);
-        Size largest = Collections.max(Arrays.asList(outputPictureSizes), new CompareSizesByArea());
-        for (Size size : outputPictureSizes) {
-            Log.d(TAG, "prepareImageReader: largest=" + size.toString());
-        }
-        Size outputSize = SizeUtils.chooseOutputSize(outputPictureSizes, new Size(1920, 1080), new Size(16, 9), true);
-        mImageReader = ImageReader.newInstance(outputSize.getWidth(), outputSize.getHeight(), ImageFormat.JPEG, 2);
-        mImageReader.setOnImageAvailableListener(reader -> {
-            //step7 保存图片到外部存储私有目录
-            File picturesDir = Objects.requireNonNull(mContext).getExternalFilesDir(Environment.DIRECTORY_PICTURES);
-            SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss_SSSS", Locale.getDefault());
-            String dateStr = dateFormat.format(new Date());
-            Image image = reader.acquireNextImage();
-            ByteBuffer buffer = image.getPlanes()[0].getBuffer();
-            byte[] data = new byte[buffer.remaining()];
-            buffer.get(data);
-            File file = new File(picturesDir, dateStr + ".jpg");
-
-            //decode and show
-            decodeByteToBitmap(data,file.getAbsolutePath());
-            //save image
-            mBackgroundHandler.post(() -> {
-                FileOutputStream fos = null;
-                try {
-                    fos = new FileOutputStream(file);
-                    fos.write(data);
-                } catch (FileNotFoundException e) {
-                    e.printStackTrace();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                } finally {
-                    image.close();
-                    if (null != fos) {
-                        try {
-                            fos.close();
-                        } catch (IOException e) {
-                            e.printStackTrace();
-                        }
-                    }
-                }
-            });
-        }, mBackgroundHandler);
+        String key = null == jpegLimit ? CameraCharacteristicsCache.KEY_JPEG
+                : CameraCharacteristicsCache.KEY_JPEG + ":" + jpegLimit.getWidth() + "x" + jpegLimit.getHeight();
+        Size outputSize = cache.getSize(cameraId, key);
+        if (null == outputSize) {
+            SizeSelector<Size> jpegSizes = cache.getSizeSelector(cameraId, ImageFormat.JPEG);
+            // For still image captures, we use the largest available size.
+            outputSize = null == jpegLimit
+                    ? SizeUtils.chooseOutputSize(jpegSizes, new Size(1920, 1080), new Size(16, 9), true)
+                    //和录像共用会话时不超过录像尺寸
+                    : jpegSizes.selectLargest(jpegLimit.getWidth(), jpegLimit.getHeight(),
+                    jpegLimit.getWidth(), jpegLimit.getHeight());
+            cache.putSize(cameraId, key, outputSize);
+            Log.d(TAG, "prepareImageReader: jpeg size=" + outputSize);
+        }
+        mImageReader = ImageReader.newInstance(outputSize.getWidth(), outputSize.getHeight(), ImageFormat.JPEG,
+                Math.max(mCapturePipeline.getRequiredMaxImages(), mMaxBurstSize + 1));
+        //step7 保存图片到外部存储私有目录
+        mImageReader.setOnImageAvailableListener(mCapturePipeline, mCapturePipeline.getAcquireHandler());
     }
 
-    @WorkerThread
-    private void decodeByteToBitmap(byte[] data,String absolutePath) {
-        if (mContext == null) {
+    /**
+     * Chooses the video size and whether preview, JPEG and encoder can share one session, see
+     * {@link StreamCombinations}. The persistent encoder surface needs API 23.
+     *
+     * @return largest JPEG size the shared session allows, null for no limit
+     */
+    private Size prepareVideo(CameraCharacteristicsCache cache, String cameraId, CameraCharacteristics characteristics,
+                              int maxPreviewWidth, int maxPreviewHeight) throws CameraAccessException {
+        releaseVideoRecorder();
+        mSharedSession = false;
+        mVideoConfig = null;
+        if (!mVideoEnabled) {
+            return null;
+        }
+        Size videoSize = cache.getSize(cameraId, CameraCharacteristicsCache.KEY_VIDEO);
+        if (null == videoSize) {
+            SizeSelector<Size> outputSizes = cache.getSizeSelector(cameraId, MediaRecorder.class);
+            videoSize = SizeUtils.chooseOutputSize(outputSizes, new Size(1920, 1080), new Size(16, 9), false);
+            cache.putSize(cameraId, CameraCharacteristicsCache.KEY_VIDEO, videoSize);
+        }
+        mVideoConfig = VideoQuality.choose(mContext, characteristics, cameraId, videoSize, new VideoQualityPolicy(),
+                mVideoConfigOverride);
+        mVideoRecorder = new VideoRecorder(mContext);
+        mVideoRecorder.configure(videoSize, getOrientation(mWindowManager.getDefaultDisplay().getRotation()),
+                mVideoConfig);
+        Integer level = characteristics.get(CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL);
+        int jpegLimit = StreamCombinations.sharedJpegLimit(null == level ? StreamCombinations.LEVEL_LEGACY : level,
+                videoSize.getWidth(), videoSize.getHeight(), maxPreviewWidth, maxPreviewHeight);
+        mSharedSession = VideoRecorder.isPersistentSurfaceSupported() && StreamCombinations.JPEG_NONE != jpegLimit;
+        Log.d(TAG, "prepareVideo: " + videoSize + " level=" + level + " shared=" + mSharedSession);
+        return mSharedSession && StreamCombinations.JPEG_RECORD == jpegLimit ? videoSize : null;
+    }
+
+    /**
+     * @return the file of a recording that was still running
+     */
+    private String releaseVideoRecorder() {
+        mRecording = false;
+        mRecordSurface = null;
+        if (null == mVideoRecorder) {
+            return null;
+        }
+        String path = mVideoRecorder.release();
+        mVideoRecorder = null;
+        return path;
+    }
+
+    /**
+     * Creates the full resolution {@link ImageFormat#PRIVATE} stream for zero shutter lag when it is
+     * enabled and the camera can reprocess it. Its depth follows {@link #setZslMemoryLimit(long)}.
+     * A fourth stream next to the encoder is not guaranteed, so video turns it off.
+     */
+    private void prepareZslReader(CameraCharacteristics characteristics, StreamConfigurationMap map) {
+        closeZslReader();
+        if (!mZslEnabled || mVideoEnabled || Build.VERSION.SDK_INT < Build.VERSION_CODES.M
+                || !isPrivateReprocessingSupported(characteristics)) {
             return;
         }
-        //decode byte to bitmap
-        try {
-            BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance(data, 0, data.length, true);
-            int decoderWidth = decoder.getWidth();
-            int decoderHeight = decoder.getHeight();
-            Log.d(TAG, "decodeByteToBitmap: decoderWidth=" + decoderWidth);
-            Log.d(TAG, "decodeByteToBitmap: decoderHeight=" + decoderHeight);
-        } catch (IOException e) {
-            e.printStackTrace();
+        Size[] inputSizes = map.getInputSizes(ImageFormat.PRIVATE);
+        if (null == inputSizes || inputSizes.length == 0) {
+            return;
         }
+        Size size = Collections.max(Arrays.asList(inputSizes), new CompareSizesByArea());
+        // a private frame is about as large as a YUV 4:2:0 one
+        long bytesPerFrame = (long) size.getWidth() * size.getHeight() * 3 / 2;
+        mZslBuffer = new ZslRingBuffer(ZslRingBuffer.capacityFor(mZslMemoryLimit, bytesPerFrame, MAX_ZSL_FRAMES));
+        mZslReader = ImageReader.newInstance(size.getWidth(), size.getHeight(), ImageFormat.PRIVATE,
+                mZslBuffer.getRequiredMaxImages());
+        mZslReader.setOnImageAvailableListener(mZslBuffer, mExecutors.getImageHandler());
+        Log.d(TAG, "prepareZslReader: " + size + " frames=" + mZslBuffer.getCapacity());
+    }
 
-        Bitmap bitmap = BitmapFactory.decodeByteArray(data, 0, data.length);
-        Matrix matrix = new Matrix();
-//                bitmap = createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+    private static boolean isPrivateReprocessingSupported(CameraCharacteristics characteristics) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            return false;
+        }
+        int[] capabilities = characteristics.get(CameraCharacteristics.REQUEST_AVAILABLE_CAPABILITIES);
+        if (null == capabilities) {
+            return false;
+        }
+        for (int capability : capabilities) {
+            if (capability == CameraMetadata.REQUEST_AVAILABLE_CAPABILITIES_PRIVATE_REPROCESSING) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The preview request also fills the ZSL reader, buffered frames are fed back through
+     * {@link #mImageWriter}.
+     */
+    @TargetApi(Build.VERSION_CODES.M)
+    private void createZslSession(Surface surface, Surface readerSurface,
+                                  CameraCaptureSession.StateCallback stateCallback) throws CameraAccessException {
+        Surface zslSurface = mZslReader.getSurface();
+        InputConfiguration input = new InputConfiguration(mZslReader.getWidth(), mZslReader.getHeight(),
+                ImageFormat.PRIVATE);
+        mExecutors.createCaptureSession(mCameraDevice, Arrays.asList(surface, readerSurface, zslSurface), input,
+                stateCallback);
+    }
+
+    private void closeZslReader() {
+        if (null != mImageWriter) {
+            mImageWriter.close();
+            mImageWriter = null;
+        }
+        if (null != mZslBuffer) {
+            mZslBuffer.clear();
+            mZslBuffer = null;
+        }
+        if (null != mZslReader) {
+            mZslReader.close();
+            mZslReader = null;
+        }
+    }
 
+    @WorkerThread
+    private void decodeFileToBitmap(String absolutePath, JpegInfo info) {
+        if (mContext == null) {
+            return;
+        }
+        //decode file to bitmap, sampled to the size of the review view
+        Bitmap bitmap = null == info || !info.hasSize()
+                ? mReviewDecoder.decode(absolutePath, mReviewWidth, mReviewHeight)
+                : mReviewDecoder.decode(absolutePath, mReviewWidth, mReviewHeight, info.getRotationDegrees());
+        if (null == bitmap) {
+            return;
+        }
 
         Message message = mMainHandler.obtainMessage();
         message.obj = bitmap;
-        message.what = 1;
+        message.what = MSG_CAPTURE_RESULT;
         mMainHandler.sendMessage(message);
         /*activity.runOnUiThread(() -> {
             mImageView.setVisibility(View.VISIBLE);
@@ -476,138 +1008,206 @@ public class CaptureDelegate {
     }
 
 
-    public void takePicture() {
-        lockFocus();
+    /**
+     * Starts focusing and metering when the shutter button goes down, so that {@link #takePicture()}
+     * on release has less or nothing to wait for. Either {@link #takePicture()} or
+     * {@link #cancelPreparePicture()} has to follow. Runs on the camera thread, like the rest of
+     * the shutter sequence.
+     */
+    public void preparePicture() {
+        mOperations.enqueue(mExecutors.getCameraExecutor(), future -> {
+            if (null != mCaptureSession && !mRecording && !(mZslEnabled && null != mImageWriter)) {
+                // the buffered frames are taken as they are, an AF scan now would only spoil them
+                mShutter.prefocus();
+            }
+            future.complete(null);
+        });
     }
 
     /**
-     * Lock the focus as the first step for a still image capture.
+     * The shutter button was let go without taking a picture, e.g. it was slid off or became a
+     * video recording. Unlocks focus and exposure.
      */
-    private void lockFocus() {
-        try {
-            //step5 预拍照
-            // This is how to tell the camera to lock focus.
-            mPreviewBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER, CameraMetadata.CONTROL_AF_TRIGGER_START);
-            // Tell #mCaptureCallback to wait for the lock.
-            mState = State.STATE_WAITING_LOCK;
-            mCaptureSession.capture(mPreviewBuilder.build(), mCaptureCallback, mBackgroundHandler);
-        } catch (CameraAccessException e) {
-            e.printStackTrace();
-        }
+    public void cancelPreparePicture() {
+        mOperations.enqueue(mExecutors.getCameraExecutor(), future -> {
+            mShutter.cancelPrefocus();
+            future.complete(null);
+        });
     }
 
-    private void process(CaptureResult result) {
-        Integer af = result.get(CaptureResult.CONTROL_AF_STATE);
-        Integer ae = result.get(CaptureResult.CONTROL_AE_STATE);
-//        Log.d(TAG, "process: afState=" + af + "\taeState=" + ae);
-        switch (mState) {
-            case STATE_PREVIEW:
-                // We have nothing to do when the camera preview is working normally.
-                break;
-            case STATE_WAITING_LOCK:
-                capturePicture(result);
-                break;
-            case STATE_WAITING_PRECAPTURE: {
-                Integer aeState = result.get(CaptureResult.CONTROL_AE_STATE);
-                if (aeState == null || aeState == CaptureResult.CONTROL_AE_STATE_PRECAPTURE ||
-                        aeState == CaptureResult.CONTROL_AE_STATE_FLASH_REQUIRED) {
-                    mState = State.STATE_WAITING_NON_PRECAPTURE;
-                }
-            }
-            break;
-            case STATE_WAITING_NON_PRECAPTURE: {
-                Integer aeState = result.get(CaptureResult.CONTROL_AE_STATE);
-                if (aeState == null || aeState != CaptureResult.CONTROL_AE_STATE_PRECAPTURE) {
-                    mState = State.STATE_PICTURE_TAKEN;
-                    captureStillPicture();
-                }
+    /**
+     * Runs on the camera thread after the operations queued before it, like open and close.
+     *
+     * @return completes when the camera has captured the picture, before it is saved. Fails if
+     * another shot or a recording is running, the camera is closed or the shot was aborted
+     */
+    public CameraFuture<Void> takePicture() {
+        return mOperations.enqueue(mExecutors.getCameraExecutor(), future -> {
+            if (mZslEnabled && takeZslPicture(future)) {
+                mShutter.cancelPrefocus();
+                return;
             }
-            break;
-            case STATE_PICTURE_TAKEN:
-                break;
-            default:
-                break;
-        }
+            //step5 预拍照
+            startShot(1, future);
+        });
     }
 
-    private void capturePicture(CaptureResult result) {
-        Integer afState = result.get(CaptureResult.CONTROL_AF_STATE);
-        if (null == afState) {
-            captureStillPicture();
-        } else if (afState == CaptureResult.CONTROL_AF_STATE_FOCUSED_LOCKED ||
-                afState == CaptureResult.CONTROL_AF_STATE_NOT_FOCUSED_LOCKED) {
-            // CONTROL_AE_STATE can be null on some devices
-            Integer aeState = result.get(CaptureResult.CONTROL_AE_STATE);
-            if (aeState == null || aeState == CaptureResult.CONTROL_AE_STATE_CONVERGED) {
-                mState = State.STATE_PICTURE_TAKEN;
-                captureStillPicture();
-            } else {
-                runPreCaptureSequence();
-            }
+    /**
+     * Camera thread
+     */
+    private void startShot(int count, CameraFuture<Void> future) {
+        if (null == mCameraDevice || null == mCaptureSession) {
+            throw new IllegalStateException("The camera is closed");
         }
-    }
-
-    private void runPreCaptureSequence() {
-        // This is how to tell the camera to trigger.
-        mPreviewBuilder.set(CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER, CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER_START);
-        mState = State.STATE_WAITING_PRECAPTURE;
-        try {
-            mCaptureSession.capture(mPreviewBuilder.build(), mCaptureCallback, mBackgroundHandler);
-        } catch (CameraAccessException e) {
-            e.printStackTrace();
+        if (mRecording) {
+            // 拍照会停掉重复请求, 录像会断帧
+            throw new IllegalStateException("Recording");
+        }
+        if (!mPendingShot.compareAndSet(null, future)) {
+            throw new IllegalStateException("A shot is running");
+        }
+        if (!mShutter.takePicture(count)) {
+            mPendingShot.compareAndSet(future, null);
+            throw new IllegalStateException("A shot is running");
         }
-
     }
 
     /**
-     * Capture a still picture. This method should be called when we get a response in
-     * {@link #mCaptureCallback} from both {@link #lockFocus()}.
+     * Camera thread
+     *
+     * @return false if no buffered frame was available and the regular sequence must run
      */
-    private void captureStillPicture() {
-        if (null == mContext || null == mCameraDevice) {
-            return;
+    private boolean takeZslPicture(CameraFuture<Void> future) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M && null != mImageWriter && null != mZslBuffer
+                && null != mCameraDevice && null != mCaptureSession && null != mImageReader) {
+            ZslRingBuffer.Frame frame = mZslBuffer.takeBestFrame();
+            return null != frame && reprocess(frame, future);
         }
+        return false;
+    }
 
+    /**
+     * Encodes a buffered frame into {@link #mImageReader} with the settings it was captured with.
+     * The frame's image is handed to the camera or closed.
+     */
+    @TargetApi(Build.VERSION_CODES.M)
+    private boolean reprocess(ZslRingBuffer.Frame frame, CameraFuture<Void> future) {
+        boolean queued = false;
         try {
-            // This is the CaptureRequest.Builder that we use to take a picture.
-            CaptureRequest.Builder captureBuilder = mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_STILL_CAPTURE);
-            captureBuilder.addTarget(mImageReader.getSurface());
-
-            // Use the same AE and AF modes as the preview.
-            // 设置对焦模式
-            captureBuilder.set(CaptureRequest.CONTROL_AF_MODE, CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
-            captureBuilder.set(CaptureRequest.FLASH_MODE,CameraMetadata.FLASH_MODE_TORCH);
-            setAutoFlash(captureBuilder);
-            // Orientation
-            int rotation = mWindowManager.getDefaultDisplay().getRotation();
-//            captureBuilder.set(CaptureRequest.JPEG_ORIENTATION, getOrientation(rotation));
-            captureBuilder.set(CaptureRequest.JPEG_ORIENTATION, getOrientation(rotation));
-            captureBuilder.set(CaptureRequest.JPEG_QUALITY, (byte) 98);
-            //thumb size
-//            captureBuilder.set(CaptureRequest.JPEG_THUMBNAIL_SIZE, mThumbSize);
-            CameraCaptureSession.CaptureCallback captureCallback = new CameraCaptureSession.CaptureCallback() {
+            CaptureRequest.Builder builder = mCameraDevice.createReprocessCaptureRequest(frame.result);
+            builder.addTarget(mImageReader.getSurface());
+            applyJpegSettings(builder);
+            mImageWriter.queueInputImage(frame.image);
+            queued = true;
+            mCaptureSession.capture(builder.build(), new CameraCaptureSession.CaptureCallback() {
                 @Override
                 public void onCaptureStarted(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, long timestamp, long frameNumber) {
-                    super.onCaptureStarted(session, request, timestamp, frameNumber);
                     mMediaActionSound.play(MediaActionSound.SHUTTER_CLICK);
                 }
 
                 @Override
-                public void onCaptureCompleted(@NonNull CameraCaptureSession session,
-                                               @NonNull CaptureRequest request,
-                                               @NonNull TotalCaptureResult result) {
-                    // TODO: 2019/9/18
-//                    showToast("拍照成功");
-                    unlockFocus();
+                public void onCaptureCompleted(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, @NonNull TotalCaptureResult result) {
+                    mCapturePipeline.onCaptureResult(result);
+                    future.complete(null);
                 }
-            };
-            mCaptureSession.stopRepeating();
-            //华为手机不能执行这一句
-//            mCaptureSession.abortCaptures();
-            //step6 正着拍照
-            mCaptureSession.capture(captureBuilder.build(), captureCallback, mBackgroundHandler);
-        } catch (CameraAccessException e) {
-            e.printStackTrace();
+
+                @Override
+                public void onCaptureFailed(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, @NonNull CaptureFailure failure) {
+                    future.fail(new IllegalStateException("Reprocess failed: " + failure.getReason()));
+                }
+
+                @Override
+                public void onCaptureSequenceAborted(@NonNull CameraCaptureSession session, int sequenceId) {
+                    //会话关闭时不会再有结果, 不能让后面的操作一直等
+                    future.fail(new IllegalStateException("Reprocess aborted"));
+                }
+            }, mBackgroundHandler);
+            return true;
+        } catch (CameraAccessException | IllegalStateException e) {
+            Log.w(TAG, "reprocess: ", e);
+            if (!queued) {
+                frame.image.close();
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Sizes the {@link ImageReader} for bursts of up to {@code maxBurstSize} stills. Takes effect
+     * the next time the camera is opened. Every image slot costs a full size JPEG buffer.
+     */
+    public void setMaxBurstSize(int maxBurstSize) {
+        mMaxBurstSize = Math.max(0, maxBurstSize);
+    }
+
+    public void setBurstCallback(BurstCallback callback) {
+        mBurstCallback = callback;
+    }
+
+    /**
+     * Locks 3A once and then takes {@code count} stills with a single
+     * {@link CameraCaptureSession#captureBurst(List, CameraCaptureSession.CaptureCallback, Handler)}.
+     * Each picture is saved as soon as it arrives, see {@link BurstCallback}. Only the picture
+     * that completes the burst is decoded for review.
+     *
+     * @param count number of stills, limited to {@link #setMaxBurstSize(int)}
+     * @return completes when the last still was captured, see {@link #takePicture()}
+     */
+    public CameraFuture<Void> takeBurst(int count) {
+        if (count > mMaxBurstSize) {
+            Log.w(TAG, "takeBurst: " + count + " exceeds the max burst size " + mMaxBurstSize);
+        }
+        final int burstSize = Math.max(1, Math.min(count, mMaxBurstSize));
+        return mOperations.enqueue(mExecutors.getCameraExecutor(), future -> startShot(burstSize, future));
+    }
+
+    private void checkBurstCompleted(BurstStats stats) {
+        if (!stats.isComplete() || mBurstStats != stats) {
+            return;
+        }
+        mBurstStats = null;
+        Log.d(TAG, "checkBurstCompleted: " + stats + " " + mCapturePipeline.getPersistStage());
+        BurstCallback callback = mBurstCallback;
+        if (null != callback) {
+            mMainHandler.post(() -> callback.onBurstCompleted(stats));
+        }
+    }
+
+    /**
+     * Builds the still request for {@link #mBackend}, called when focus and exposure are ready.
+     *
+     * @param count number of stills taken with the request, more than one starts a burst
+     */
+    private CaptureRequest createStillRequest(int count) throws CameraAccessException {
+        if (null == mCameraDevice) {
+            throw new IllegalStateException("The camera is closed");
+        }
+        // This is the CaptureRequest.Builder that we use to take a picture.
+        CaptureRequest.Builder captureBuilder = mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_STILL_CAPTURE);
+        captureBuilder.addTarget(mImageReader.getSurface());
+
+        // Use the same AE and AF modes as the preview.
+        // 设置对焦模式
+        captureBuilder.set(CaptureRequest.CONTROL_AF_MODE, CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
+        captureBuilder.set(CaptureRequest.FLASH_MODE,CameraMetadata.FLASH_MODE_TORCH);
+        setAutoFlash(captureBuilder);
+        applyJpegSettings(captureBuilder);
+        if (count > 1) {
+            // 3A stays locked until the whole burst has completed
+            mBurstStats = new BurstStats(count, SystemClock.elapsedRealtimeNanos());
+        }
+        //step6 正着拍照
+        return captureBuilder.build();
+    }
+
+    private void applyJpegSettings(CaptureRequest.Builder captureBuilder) {
+        // Orientation
+        int rotation = mWindowManager.getDefaultDisplay().getRotation();
+        captureBuilder.set(CaptureRequest.JPEG_ORIENTATION, getOrientation(rotation));
+        captureBuilder.set(CaptureRequest.JPEG_QUALITY, (byte) 98);
+        //thumb size, shown before the full picture is decoded
+        if (mProgressiveReview && null != mThumbSize) {
+            captureBuilder.set(CaptureRequest.JPEG_THUMBNAIL_SIZE, mThumbSize);
         }
     }
 
@@ -618,11 +1218,7 @@ public class CaptureDelegate {
      * @return The JPEG orientation (one of 0, 90, 270, and 360)
      */
     private int getOrientation(int rotation) {
-        // Sensor orientation is 90 for most devices, or 270 for some devices (eg. Nexus 5X)
-        // We have to take that into account and rotate JPEG properly.
-        // For devices with orientation of 90, we simply return our mapping from ORIENTATIONS.
-        // For devices with orientation of 270, we need to rotate the JPEG 180 degrees.
-        return (ORIENTATIONS.get(rotation) + mSensorOrientation + 270) % 360;
+        return CameraTransforms.getJpegOrientation(rotation, mSensorOrientation);
     }
 
     private void setAutoFlash(CaptureRequest.Builder requestBuilder) {
@@ -634,90 +1230,254 @@ public class CaptureDelegate {
     }
 
     /**
-     * Unlock the focus. This method should be called when still image capture sequence is
-     * finished.
+     * Switches the repeating request between photo and video, the session stays as it is.
+     * {@link Mode#VIDEO} needs {@link #setVideoEnabled(boolean)}.
+     *
+     * @return completes once the new request is repeating, after a shot queued before it
      */
-    private void unlockFocus() {
-        try {
-            // Reset the auto-focus trigger
-            mPreviewBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER,
-                    CameraMetadata.CONTROL_AF_TRIGGER_CANCEL);
-            setAutoFlash(mPreviewBuilder);
-            mCaptureSession.capture(mPreviewBuilder.build(), mCaptureCallback,
-                    mBackgroundHandler);
-            // After this, the camera will go back to the normal state of preview.
-            mState = State.STATE_PREVIEW;
-            mCaptureSession.setRepeatingRequest(mPreviewBuilder.build(), mCaptureCallback, mBackgroundHandler);
-        } catch (CameraAccessException e) {
-            e.printStackTrace();
+    public CameraFuture<Void> setMode(final Mode mode) {
+        return mOperations.enqueue(mExecutors.getCameraExecutor(), future -> {
+            if (Mode.VIDEO == mode && !mVideoEnabled) {
+                throw new IllegalStateException("Video is not enabled");
+            }
+            if (mMode != mode) {
+                if (null != mPendingShot.get()) {
+                    throw new IllegalStateException("A shot is running");
+                }
+                mShutter.cancelPrefocus();
+                mMode = mode;
+                if (null != mCaptureSession && !mRecording) {
+                    startRepeating();
+                }
+            }
+            future.complete(null);
+        });
+    }
+
+    /**
+     * Starts recording on the camera thread. In a shared session the encoder only joins the
+     * repeating request, otherwise the session is created again with the encoder in place of the
+     * JPEG reader.
+     *
+     * @return completes once the recorder has started
+     */
+    public CameraFuture<Void> startRecordingVideo() {
+        return mOperations.enqueue(mExecutors.getCameraExecutor(), this::startRecording);
+    }
+
+    private void startRecording(final CameraFuture<Void> future) throws IOException, CameraAccessException {
+        if (null == mVideoRecorder || null == mCaptureSession) {
+            throw new IllegalStateException("Video is not enabled or the camera is not open");
+        }
+        if (mRecording) {
+            throw new IllegalStateException("Recording");
         }
+        if (null != mPendingShot.get()) {
+            throw new IllegalStateException("A shot is running");
+        }
+        mShutter.cancelPrefocus();
+        if (mSharedSession) {
+            if (!mVideoRecorder.isPrepared()) {
+                mVideoRecorder.prepare();
+            }
+            mVideoRecorder.start();
+            mRecording = true;
+            //只换重复请求, 下一帧就进编码器
+            startRepeating();
+            future.complete(null);
+            return;
+        }
+        mRecordSurface = mVideoRecorder.prepare();
+        mBackend.close();
+        mCaptureSession = null;
+        mExecutors.createCaptureSession(mCameraDevice, Arrays.asList(mPreviewSurface, mRecordSurface), null,
+                new CameraCaptureSession.StateCallback() {
+                    @Override
+                    public void onConfigured(@NonNull CameraCaptureSession session) {
+                        if (null == mCameraDevice) {
+                            future.fail(new IllegalStateException("Camera closed"));
+                            return;
+                        }
+                        mCaptureSession = session;
+                        try {
+                            mVideoRecorder.start();
+                            mRecording = true;
+                            startRepeating();
+                            future.complete(null);
+                        } catch (CameraAccessException | RuntimeException e) {
+                            future.fail(e);
+                            stopSplitRecording();
+                        }
+                    }
+
+                    @Override
+                    public void onConfigureFailed(@NonNull CameraCaptureSession session) {
+                        future.fail(new IllegalStateException("Record session configuration failed"));
+                        if (null != mCameraDevice) {
+                            stopSplitRecording();
+                        }
+                    }
+                });
     }
 
-    public void closeCamera() {
-        try {
-            mCameraOpenCloseLock.acquire();
-            if (null != mCaptureSession) {
-                mCaptureSession.close();
-                mCaptureSession = null;
+    /**
+     * Stops the recording on the camera thread and goes back to the repeating request of the
+     * current mode. {@link DelegateCallback#onRecordResult(Bitmap, String)} follows on the main thread.
+     *
+     * @return the recorded file, null if nothing was recorded
+     */
+    public CameraFuture<String> stopRecordingVideo() {
+        return mOperations.enqueue(mExecutors.getCameraExecutor(), future -> {
+            if (!mRecording) {
+                future.complete(null);
+                return;
+            }
+            final String path;
+            if (mSharedSession) {
+                mRecording = false;
+                startRepeating();
+                path = mVideoRecorder.stop();
+                try {
+                    //提前准备好下一次录像
+                    mVideoRecorder.prepare();
+                } catch (IOException | IllegalStateException e) {
+                    Log.w(TAG, "stopRecordingVideo: ", e);
+                }
+            } else {
+                path = stopSplitRecording();
+            }
+            Log.d(TAG, "Video saved: " + path);
+            mMainHandler.post(() -> mDelegateCallback.onRecordResult(null, path));
+            future.complete(path);
+        });
+    }
+
+    /**
+     * Stops the recorder of a session without the JPEG reader and creates the photo session again.
+     *
+     * @return the recorded file
+     */
+    private String stopSplitRecording() {
+        mRecording = false;
+        String path = mVideoRecorder.stop();
+        mRecordSurface = null;
+        mBackend.close();
+        mCaptureSession = null;
+        createCameraPreviewSession();
+        return path;
+    }
+
+    /**
+     * Closes the camera on the camera thread after the open before it, a slow HAL close or pending
+     * writes never hold up the caller.
+     *
+     * @return completes once the device is closed and the pending pictures are written
+     */
+    @Override
+    public CameraFuture<Void> closeCamera() {
+        return mOperations.enqueue(mExecutors.getCameraExecutor(), future -> {
+            cancelOpenTimeout();
+            mBackend.close();
+            mCaptureSession = null;
+            mShutter.reset();
+            CameraFuture<Void> shot = mPendingShot.getAndSet(null);
+            if (null != shot) {
+                shot.fail(new IllegalStateException("Camera closed"));
             }
             if (null != mCameraDevice) {
                 mCameraDevice.close();
                 mCameraDevice = null;
             }
+            closeZslReader();
             if (null != mImageReader) {
+                mCapturePipeline.flush();
                 mImageReader.close();
                 mImageReader = null;
             }
-        } catch (InterruptedException e) {
-            throw new RuntimeException("Interrupted while trying to lock camera closing.", e);
-        } finally {
-            mCameraOpenCloseLock.release();
-        }
+            final String path = releaseVideoRecorder();
+            if (null != path) {
+                mMainHandler.post(() -> mDelegateCallback.onRecordResult(null, path));
+            }
+            if (null != mPreviewSurface) {
+                mPreviewSurface.release();
+                mPreviewSurface = null;
+            }
+            future.complete(null);
+        });
     }
 
     /**
-     * Starts a background thread and its {@link Handler}.
+     * Starts the camera, image and storage threads, see {@link CameraExecutors}. Threads still
+     * closing the camera after {@link #stopBackgroundThread()} are kept.
      */
+    @Override
     public void startBackgroundThread() {
-        mBackgroundThread = new HandlerThread("CameraBackground");
-        mBackgroundThread.start();
-        mBackgroundHandler = new Handler(mBackgroundThread.getLooper());
+        mExecutors.start();
+        mOperations.enqueue(mExecutors.getCameraExecutor(), future -> {
+            mBackgroundHandler = mExecutors.getCameraHandler();
+            mCapturePipeline.start(mExecutors);
+            future.complete(null);
+        });
     }
 
     /**
-     * Stops the background thread and its {@link Handler}.
+     * Stops the threads started by {@link #startBackgroundThread()} once everything queued before,
+     * usually {@link #closeCamera()}, is done. Returns right away.
      */
+    @Override
     public void stopBackgroundThread() {
-        mBackgroundThread.quitSafely();
-        try {
-            mBackgroundThread.join();
+        CameraFuture<Void> stopped = mOperations.enqueue(mExecutors.getCameraExecutor(), future -> {
+            mCapturePipeline.stop();
             mBackgroundHandler = null;
-            mBackgroundThread = null;
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
+            future.complete(null);
+        });
+        mExecutors.stopWhenDone(stopped);
     }
 
-    enum State {
-        /**
-         * Camera state: Showing camera preview.
-         */
-        STATE_PREVIEW,
-        /**
-         * Camera state: Waiting for the focus to be locked.
-         */
-        STATE_WAITING_LOCK,
+    /**
+     * @return the threads of this delegate and their queue depths
+     */
+    public CameraExecutors getExecutors() {
+        return mExecutors;
+    }
+
+    public enum Mode {
         /**
-         * Camera state: Waiting for the exposure to be precapture state.
+         * 拍照, 预览请求
          */
-        STATE_WAITING_PRECAPTURE,
+        PICTURE,
         /**
-         * Camera state: Waiting for the exposure state to be something other than precapture.
+         * 录像, 录像模板的请求, 录制时再加上编码器
          */
-        STATE_WAITING_NON_PRECAPTURE,
+        VIDEO
+    }
+
+    /**
+     * Reports the progress of {@link #takeBurst(int)} on the main thread.
+     */
+    public interface BurstCallback {
         /**
-         * Camera state: Picture was taken.
+         * @param index            position of the frame in the burst
+         * @param saveLatencyNanos time from the image leaving the reader until it was saved
          */
-        STATE_PICTURE_TAKEN
+        void onBurstFrameSaved(int index, File file, long saveLatencyNanos);
+
+        void onBurstCompleted(BurstStats stats);
+    }
+
+    /**
+     * Receives the {@link ShotTimings} of every picture or burst.
+     */
+    public interface ShotTimingListener {
+        @WorkerThread
+        void onShotTiming(ShotTimings timings);
+    }
+
+    /**
+     * Receives the {@link TotalCaptureResult} a saved picture was captured with.
+     */
+    public interface CaptureMetadataListener {
+        @WorkerThread
+        void onCaptureMetadata(File file, TotalCaptureResult result);
     }
 }
@@ -0,0 +1,377 @@
+package com.pm.cameracore;
+
+import android.hardware.camera2.TotalCaptureResult;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+/**
+ * Moves still captures out of the camera callback thread.
+ * <p>
+ * A capture goes through four stages, each on its own thread:
+ * <ol>
+ * <li>acquire: the {@link ImageReader} callback takes the next {@link Image} off the reader on the
+ * image thread of {@link CameraExecutors}</li>
+ * <li>hand-off: the image is paired with its {@link TotalCaptureResult} by an
+ * {@link ImageResultMatcher}, then the JPEG bytes, still owned by the {@link Image}, are queued for
+ * the persist stage. An image takes a slot of that queue before it leaves the reader, when there is
+ * none it stays in the reader, which throttles the camera instead of blocking any thread. An image whose result does not show up within
+ * {@link #RESULT_TIMEOUT_MS} is saved without it. The hand-off may run on the camera callback
+ * thread, so it does not touch the file system</li>
+ * <li>persist: the output file is named and {@link ImageSaver} writes the bytes to storage and
+ * closes the image, on the storage stage of {@link CameraExecutors}</li>
+ * <li>decode: the review bitmap is decoded from the saved file. Only the newest review matters,
+ * so older decodes are dropped when the queue is full</li>
+ * </ol>
+ *
+ * @author pm
+ */
+public class CapturePipeline implements ImageReader.OnImageAvailableListener {
+    private static final String TAG = "CapturePipeline";
+    /**
+     * How long {@link #flush()} waits for pending writes before the reader is closed
+     */
+    private static final long FLUSH_TIMEOUT_MS = 1500;
+    /**
+     * How long an image waits for its capture result before it is saved without
+     */
+    private static final long RESULT_TIMEOUT_MS = 500;
+    /**
+     * Captures waiting for their other half, results of captures whose image was dropped included
+     */
+    private static final int MATCHER_CAPACITY = 16;
+
+    /**
+     * Captures that may wait for storage, at most the depth of the storage stage
+     */
+    private final int mPersistQueueDepth;
+    private final int mDecodeQueueDepth;
+    private final Callback mCallback;
+
+    private Handler mAcquireHandler;
+    private StageExecutor mPersistStage;
+    private StageExecutor mDecodeStage;
+    /**
+     * Reader that still holds images we had no room for
+     */
+    private volatile ImageReader mPendingReader;
+    private final Runnable mDrainRunnable = this::drainPendingImages;
+    private final ImageResultMatcher mMatcher;
+    /**
+     * Images taken off the reader and not yet saved, waiting for their result, queued or being
+     * written. Taken before {@link ImageReader#acquireNextImage()}, given back once the persist task
+     * is done or the image was refused.
+     */
+    private final AtomicInteger mReserved = new AtomicInteger();
+
+    public CapturePipeline(int persistQueueDepth, int decodeQueueDepth, @NonNull Callback callback) {
+        mPersistQueueDepth = persistQueueDepth;
+        mDecodeQueueDepth = decodeQueueDepth;
+        mCallback = callback;
+        mMatcher = new ImageResultMatcher(MATCHER_CAPACITY, new ImageResultMatcher.Listener() {
+            @Override
+            public void onMatched(@NonNull Image image, @NonNull TotalCaptureResult result) {
+                handOff(image, result);
+            }
+
+            @Override
+            public void onImageOrphaned(@NonNull Image image) {
+                Log.w(TAG, "onImageOrphaned: no capture result for " + image.getTimestamp());
+                handOff(image, null);
+            }
+        });
+    }
+
+    /**
+     * @param executors started threads of the delegate, acquire runs on the image thread and persist
+     *                  on the storage stage
+     */
+    public void start(@NonNull CameraExecutors executors) {
+        mAcquireHandler = executors.getImageHandler();
+        mPersistStage = executors.getStorageStage();
+        if (null == mAcquireHandler || null == mPersistStage) {
+            throw new IllegalStateException("CameraExecutors not started");
+        }
+        if (mPersistStage.getQueueDepth() < mPersistQueueDepth) {
+            // a hand-off the stage rejects would lose the image
+            throw new IllegalArgumentException("storage stage holds " + mPersistStage.getQueueDepth()
+                    + " tasks, the pipeline needs " + mPersistQueueDepth);
+        }
+        mDecodeStage = new StageExecutor("CaptureDecode", mDecodeQueueDepth, StageExecutor.Overflow.DROP_OLDEST);
+    }
+
+    /**
+     * Must be called before the {@link CameraExecutors} are stopped.
+     */
+    public void stop() {
+        if (null == mAcquireHandler) {
+            return;
+        }
+        mMatcher.clear();
+        mDecodeStage.shutdown();
+        mAcquireHandler.removeCallbacks(mDrainRunnable);
+        Log.d(TAG, "stop: " + mPersistStage + " " + mDecodeStage + " " + mMatcher);
+        mAcquireHandler = null;
+        mPendingReader = null;
+    }
+
+    /**
+     * @return the handler the {@link ImageReader} listener has to be registered with
+     */
+    public Handler getAcquireHandler() {
+        return mAcquireHandler;
+    }
+
+    /**
+     * Number of images the {@link ImageReader} must be able to hold so that the pipeline never
+     * stalls on {@link ImageReader#acquireNextImage()}.
+     */
+    public int getRequiredMaxImages() {
+        // queued writes, the one being written and the one just delivered by the camera
+        return mPersistQueueDepth + 2;
+    }
+
+    /**
+     * Waits for pending writes. Must be called before the {@link ImageReader} is closed because
+     * closing the reader invalidates every image it handed out.
+     */
+    public void flush() {
+        if (null != mAcquireHandler) {
+            mAcquireHandler.removeCallbacks(mDrainRunnable);
+        }
+        mPendingReader = null;
+        // save what is still waiting for a result
+        mMatcher.clear();
+        if (null != mPersistStage && !mPersistStage.awaitIdle(FLUSH_TIMEOUT_MS)) {
+            Log.w(TAG, "flush: timed out, " + mPersistStage);
+        }
+    }
+
+    public StageExecutor getPersistStage() {
+        return mPersistStage;
+    }
+
+    public StageExecutor getDecodeStage() {
+        return mDecodeStage;
+    }
+
+    public ImageResultMatcher getMatcher() {
+        return mMatcher;
+    }
+
+    /**
+     * Feeds the result of a capture that targets the pipeline's reader. Results of other requests
+     * must not be passed in, they would only end up as orphans.
+     */
+    public void onCaptureResult(@NonNull TotalCaptureResult result) {
+        mMatcher.onResult(result);
+    }
+
+    /**
+     * Acquire stage.
+     */
+    @Override
+    public void onImageAvailable(ImageReader reader) {
+        mPendingReader = reader;
+        drainPendingImages();
+    }
+
+    private void drainPendingImages() {
+        ImageReader reader = mPendingReader;
+        if (null == reader) {
+            return;
+        }
+        while (reserve()) {
+            Image image;
+            try {
+                image = reader.acquireNextImage();
+            } catch (IllegalStateException e) {
+                mReserved.decrementAndGet();
+                if (isMaxImagesAcquired(e)) {
+                    //读取器里的图都被拿走了, 等有图存完再取
+                    Log.w(TAG, "drainPendingImages: " + e.getMessage());
+                    return;
+                }
+                // the reader was closed underneath us
+                mPendingReader = null;
+                return;
+            }
+            if (null == image) {
+                mReserved.decrementAndGet();
+                mPendingReader = null;
+                return;
+            }
+            final long timestamp = image.getTimestamp();
+            mMatcher.onImage(image);
+            mAcquireHandler.postDelayed(() -> mMatcher.expire(timestamp), RESULT_TIMEOUT_MS);
+        }
+        Log.d(TAG, "drainPendingImages: persist stage full, holding images in the reader");
+    }
+
+    /**
+     * @return true if a slot was taken for one more image, the queued writes plus the one being written
+     */
+    private boolean reserve() {
+        while (true) {
+            int reserved = mReserved.get();
+            if (reserved >= mPersistQueueDepth + 1) {
+                return false;
+            }
+            if (mReserved.compareAndSet(reserved, reserved + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Gives back the slot of an image that is saved or dropped, any thread
+     */
+    private void releaseReservation() {
+        mReserved.decrementAndGet();
+        Handler handler = mAcquireHandler;
+        if (null != handler && null != mPendingReader) {
+            handler.post(mDrainRunnable);
+        }
+    }
+
+    /**
+     * {@link ImageReader#acquireNextImage()} throws the same exception when the reader is closed
+     */
+    private static boolean isMaxImagesAcquired(IllegalStateException e) {
+        String message = e.getMessage();
+        return null != message && message.contains("maxImages");
+    }
+
+    /**
+     * Hand-off stage, called on whichever thread completed the pair.
+     *
+     * @param result null if the result did not arrive in time
+     */
+    private void handOff(Image image, @Nullable TotalCaptureResult result) {
+        CaptureJob job = new CaptureJob(SystemClock.elapsedRealtimeNanos(), result);
+        boolean submitted = mPersistStage.trySubmit(() -> {
+            try {
+                job.persist(image);
+            } finally {
+                releaseReservation();
+            }
+        });
+        if (!submitted) {
+            //存储线程满了或已停止, 这张照片存不了
+            Log.w(TAG, "handOff: dropped image " + image.getTimestamp() + ", " + mPersistStage);
+            image.close();
+            releaseReservation();
+            mCallback.onImageSaveFailed(null, new IOException("Storage stage rejected the image"));
+        }
+    }
+
+    /**
+     * Follows one capture through the persist and decode stages.
+     */
+    private class CaptureJob implements ImageSaver.OnHeaderParsedListener, ImageSaver.OnImageSavedListener {
+        private final long mHandOffNanos;
+        private final TotalCaptureResult mResult;
+        private JpegInfo mJpegInfo;
+
+        CaptureJob(long handOffNanos, TotalCaptureResult result) {
+            mHandOffNanos = handOffNanos;
+            mResult = result;
+        }
+
+        /**
+         * Persist stage
+         */
+        void persist(Image image) {
+            //文件在存储线程上创建, 不占用相机回调线程
+            File file = mCallback.createOutputFile(image);
+            ImageSaver saver = new ImageSaver(image, file, this);
+            saver.setOnHeaderParsedListener(this);
+            saver.run();
+        }
+
+        @Override
+        public void onHeaderParsed(ByteBuffer jpeg, JpegInfo info) {
+            mJpegInfo = info;
+            mCallback.onJpegHeader(jpeg, info);
+        }
+
+        @Override
+        public void onImageSaved(File file, long bytesWritten, long durationNanos) {
+            long latencyNanos = SystemClock.elapsedRealtimeNanos() - mHandOffNanos;
+            boolean review = mCallback.onImageSaved(file, bytesWritten, durationNanos, latencyNanos);
+            if (null != mResult) {
+                mCallback.onCaptureMetadata(file, mResult);
+            }
+            if (review) {
+                final JpegInfo info = mJpegInfo;
+                mDecodeStage.trySubmit(() -> mCallback.onDecodeForReview(file, info));
+            }
+        }
+
+        @Override
+        public void onImageSaveFailed(File file, IOException e) {
+            mCallback.onImageSaveFailed(file, e);
+        }
+    }
+
+    public interface Callback {
+        /**
+         * Called on the persist thread once the image has been paired with its result, or has given
+         * up waiting, to name the file of a new capture.
+         */
+        File createOutputFile(Image image);
+
+        /**
+         * Called on the persist thread before the picture is written, while the image is still open.
+         *
+         * @see ImageSaver.OnHeaderParsedListener
+         */
+        @WorkerThread
+        void onJpegHeader(ByteBuffer jpeg, JpegInfo info);
+
+        /**
+         * @param durationNanos time spent writing the file
+         * @param latencyNanos  time from the image being taken off the reader until it was saved
+         * @return true to decode a review of the picture, false to skip it, e.g. for all but the
+         * last picture of a burst
+         */
+        @WorkerThread
+        boolean onImageSaved(File file, long bytesWritten, long durationNanos, long latencyNanos);
+
+        /**
+         * Called on the persist thread, or on the hand-off thread with a null file if the storage
+         * stage refused the image.
+         *
+         * @param file null if the image was dropped before it was given a file
+         */
+        @WorkerThread
+        void onImageSaveFailed(@Nullable File file, IOException e);
+
+        /**
+         * Called on the persist thread after {@link #onImageSaved} with the result the picture was
+         * captured with, e.g. for exposure, ISO and focus data. Not called for orphaned images.
+         */
+        @WorkerThread
+        void onCaptureMetadata(File file, TotalCaptureResult result);
+
+        /**
+         * Called on the decode thread for every saved capture that asked for a review and was not
+         * superseded by a newer one.
+         *
+         * @param info the header of the saved picture, null if it could not be read
+         */
+        @WorkerThread
+        void onDecodeForReview(File file, JpegInfo info);
+    }
+}
@@ -0,0 +1,213 @@
+package com.pm.cameracore;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.Size;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+/**
+ * The H.264 and HEVC encoders of the device, from {@link MediaCodecList} once per build.
+ * <p>
+ * Enumerating the codecs takes up to a few hundred milliseconds. The result is kept for the
+ * process and in {@link SharedPreferences} under {@link Build#FINGERPRINT}, a system update
+ * probes again.
+ *
+ * @author pm
+ */
+public final class CodecProbe {
+    private static final String TAG = "CodecProbe";
+    private static final String PREFS_NAME = "com.pm.cameracore.codecs";
+    private static final String KEY_FINGERPRINT = "fingerprint";
+    private static final String KEY_VERSION = "version";
+    private static final String KEY_ENCODERS = "encoders";
+    /**
+     * Bump when {@link EncoderInfo#encode()} changes
+     */
+    private static final int VERSION = 1;
+    /**
+     * Sizes the pixel rate of an encoder is measured at
+     */
+    private static final Size[] RATE_SIZES = {
+            new Size(3840, 2160), new Size(1920, 1080), new Size(1280, 720),
+    };
+
+    private static CodecProbe sInstance;
+
+    private final List<EncoderInfo> mEncoders;
+
+    /**
+     * Reads the stored probe or probes the codecs, call it on a background thread.
+     */
+    @WorkerThread
+    public static synchronized CodecProbe get(@NonNull Context context) {
+        if (null == sInstance) {
+            sInstance = new CodecProbe(load(context.getApplicationContext()));
+        }
+        return sInstance;
+    }
+
+    private CodecProbe(List<EncoderInfo> encoders) {
+        mEncoders = Collections.unmodifiableList(encoders);
+    }
+
+    /**
+     * @return the encoders in the order the platform prefers them
+     */
+    @NonNull
+    public List<EncoderInfo> getEncoders() {
+        return mEncoders;
+    }
+
+    /**
+     * HEVC only from API 24, {@link android.media.MediaRecorder} cannot record it before.
+     *
+     * @see EncoderInfo#selectBest(List, int, int, int)
+     */
+    public EncoderInfo selectBest(int width, int height, int frameRate) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            return EncoderInfo.selectBest(mEncoders, width, height, frameRate);
+        }
+        List<EncoderInfo> avc = new ArrayList<>(mEncoders.size());
+        for (EncoderInfo encoder : mEncoders) {
+            if (EncoderInfo.MIME_AVC.equals(encoder.getMimeType())) {
+                avc.add(encoder);
+            }
+        }
+        return EncoderInfo.selectBest(avc, width, height, frameRate);
+    }
+
+    private static List<EncoderInfo> load(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        if (Build.FINGERPRINT.equals(prefs.getString(KEY_FINGERPRINT, null))
+                && VERSION == prefs.getInt(KEY_VERSION, 0)) {
+            List<EncoderInfo> encoders = decode(prefs.getString(KEY_ENCODERS, ""));
+            if (null != encoders) {
+                return encoders;
+            }
+        }
+        long start = SystemClock.elapsedRealtimeNanos();
+        List<EncoderInfo> encoders = probe();
+        Log.d(TAG, "probe: " + TimeUnit.NANOSECONDS.toMillis(SystemClock.elapsedRealtimeNanos() - start)
+                + "ms " + encoders);
+        StringBuilder builder = new StringBuilder();
+        for (EncoderInfo encoder : encoders) {
+            builder.append(encoder.encode()).append('\n');
+        }
+        prefs.edit()
+                .putString(KEY_FINGERPRINT, Build.FINGERPRINT)
+                .putInt(KEY_VERSION, VERSION)
+                .putString(KEY_ENCODERS, builder.toString())
+                .apply();
+        return encoders;
+    }
+
+    /**
+     * @return null if any line is damaged
+     */
+    private static List<EncoderInfo> decode(String value) {
+        List<EncoderInfo> encoders = new ArrayList<>();
+        for (String line : value.split("\n")) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            EncoderInfo encoder = EncoderInfo.decode(line);
+            if (null == encoder) {
+                return null;
+            }
+            encoders.add(encoder);
+        }
+        return encoders;
+    }
+
+    private static List<EncoderInfo> probe() {
+        List<EncoderInfo> encoders = new ArrayList<>();
+        for (MediaCodecInfo info : new MediaCodecList(MediaCodecList.REGULAR_CODECS).getCodecInfos()) {
+            if (!info.isEncoder()) {
+                continue;
+            }
+            for (String type : info.getSupportedTypes()) {
+                String mimeType = type.toLowerCase(Locale.ROOT);
+                if (!EncoderInfo.MIME_AVC.equals(mimeType) && !EncoderInfo.MIME_HEVC.equals(mimeType)) {
+                    continue;
+                }
+                try {
+                    encoders.add(describe(info, mimeType));
+                } catch (RuntimeException e) {
+                    //个别编码器的能力查询会抛异常, 跳过
+                    Log.w(TAG, "probe: " + info.getName(), e);
+                }
+            }
+        }
+        return encoders;
+    }
+
+    private static EncoderInfo describe(MediaCodecInfo info, String mimeType) {
+        MediaCodecInfo.CodecCapabilities capabilities = info.getCapabilitiesForType(mimeType);
+        MediaCodecInfo.VideoCapabilities video = capabilities.getVideoCapabilities();
+        int maxWidth = video.getSupportedWidths().getUpper();
+        int maxHeight = video.getSupportedHeights().getUpper();
+        long maxPixelRate = 0;
+        for (Size size : RATE_SIZES) {
+            if (video.isSizeSupported(size.getWidth(), size.getHeight())) {
+                double fps = video.getSupportedFrameRatesFor(size.getWidth(), size.getHeight()).getUpper();
+                maxPixelRate = Math.max(maxPixelRate, (long) (fps * size.getWidth() * size.getHeight()));
+            }
+        }
+        int[] profileLevel = chooseProfile(mimeType, capabilities.profileLevels);
+        return new EncoderInfo(info.getName(), mimeType, isHardware(info), profileLevel[0], profileLevel[1],
+                maxWidth, maxHeight, video.getWidthAlignment(), video.getHeightAlignment(),
+                video.getSupportedFrameRates().getUpper(), maxPixelRate, video.getBitrateRange().getUpper());
+    }
+
+    /**
+     * High for H.264, Main for HEVC, the camera only produces 8 bit frames.
+     *
+     * @return {profile, highest level}, {@link VideoConfig#AUTO} if the encoder lists none of them
+     */
+    private static int[] chooseProfile(String mimeType, MediaCodecInfo.CodecProfileLevel[] profileLevels) {
+        int[] preferred = EncoderInfo.MIME_HEVC.equals(mimeType)
+                ? new int[]{MediaCodecInfo.CodecProfileLevel.HEVCProfileMain}
+                : new int[]{MediaCodecInfo.CodecProfileLevel.AVCProfileHigh,
+                MediaCodecInfo.CodecProfileLevel.AVCProfileMain};
+        for (int profile : preferred) {
+            int level = VideoConfig.AUTO;
+            for (MediaCodecInfo.CodecProfileLevel profileLevel : profileLevels) {
+                if (profileLevel.profile == profile) {
+                    level = Math.max(level, profileLevel.level);
+                }
+            }
+            if (VideoConfig.AUTO != level) {
+                return new int[]{profile, level};
+            }
+        }
+        return new int[]{VideoConfig.AUTO, VideoConfig.AUTO};
+    }
+
+    private static boolean isHardware(MediaCodecInfo info) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            return isHardwareAccelerated(info);
+        }
+        String name = info.getName().toLowerCase(Locale.ROOT);
+        return !name.startsWith("omx.google.") && !name.startsWith("c2.android.")
+                && !name.contains(".sw.") && !name.endsWith(".sw");
+    }
+
+    @TargetApi(Build.VERSION_CODES.Q)
+    private static boolean isHardwareAccelerated(MediaCodecInfo info) {
+        return info.isHardwareAccelerated();
+    }
+}
@@ -0,0 +1,1005 @@
+package com.pm.cameracore;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.media.MediaRecorder;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Environment;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.Size;
+import android.view.Surface;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * A {@link RecordingEngine} that drives a {@link MediaCodec} video encoder fed by the camera, an AAC
+ * encoder fed by its own {@link AudioRecord} thread, and writes both into a {@link MediaMuxer}.
+ * <p>
+ * The encoder, H.264 or HEVC, is the one {@link VideoConfig} names. Compared to {@link VideoRecorder}
+ * it can be chosen by name, the key frame interval and bitrate mode can be set, and every
+ * encoded frame is counted into {@link RecordingStats}: encode latency, dropped frames and the
+ * bitrate the encoder actually produced.
+ * <p>
+ * Both tracks are timed on {@link SystemClock#elapsedRealtimeNanos()}: video by the camera
+ * timestamps, moved there if the camera uses another clock, audio by the number of samples read
+ * since the microphone started. Every file starts with a video key frame at zero and both tracks
+ * are moved by the same amount, so audio and video stay in sync. Audio from before that key frame
+ * is left out.
+ * <p>
+ * With a pre-roll, see {@link #setPreRoll(long, long)}, the encoders already run once prepared and
+ * their output is kept in a {@link PreRollBuffer}. {@link #start()} writes it to the file ahead of
+ * what follows, so the recording starts a few seconds before the tap.
+ * <p>
+ * With a {@link SegmentPolicy} the muxer is switched to a new file on the first key frame after a
+ * limit is reached, a key frame is asked for right then. Both tracks go on in the new file, no
+ * video frame is lost between the files. The finished file is stopped on a thread of its own, the
+ * encoders do not wait for its index to be written.
+ * <p>
+ * Not thread safe, used on the camera thread. The encoders are drained on threads of their own.
+ *
+ * @author pm
+ */
+public class CodecRecorder implements RecordingEngine {
+    private static final String TAG = "CodecRecorder";
+    private static final int VIDEO_BIT_RATE = 10000000;
+    private static final int VIDEO_FRAME_RATE = 30;
+    /**
+     * Seconds between key frames
+     */
+    private static final int I_FRAME_INTERVAL = 1;
+    private static final int AUDIO_SAMPLE_RATE = 44100;
+    private static final int AUDIO_BIT_RATE = 128000;
+    private static final long TIMEOUT_US = 10000;
+    /**
+     * How long {@link #stop()} waits for the encoders to drain
+     */
+    private static final long STOP_TIMEOUT_MS = 1000;
+    /**
+     * Finished segments waiting to be stopped, more are stopped on the video thread
+     */
+    private static final int SEGMENT_QUEUE_DEPTH = 2;
+
+    private final Context mContext;
+    private Size mVideoSize;
+    private int mOrientationHint;
+    private VideoConfig mConfig;
+    private int mVideoBitRate = VIDEO_BIT_RATE;
+    private int mFrameRate = VIDEO_FRAME_RATE;
+    private int mKeyFrameInterval = I_FRAME_INTERVAL;
+    private int mBitrateMode = MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_VBR;
+    /**
+     * Persistent input surface, null below API 23
+     */
+    private Surface mPersistentSurface;
+    /**
+     * Input surface of the prepared encoder, the persistent one from API 23
+     */
+    private Surface mInputSurface;
+    private MediaCodec mVideoCodec;
+    private MediaCodec mAudioCodec;
+    private AudioRecord mAudioRecord;
+    private Muxer mMuxer;
+    private Thread mVideoThread;
+    private Thread mAudioThread;
+    private volatile boolean mAudioRunning;
+    /**
+     * Set when the encoders did not drain in time, the threads give up
+     */
+    private volatile boolean mAbort;
+    private volatile RecordingStats mStats;
+    private SegmentPolicy mSegmentPolicy;
+    private SegmentListener mSegmentListener;
+    /**
+     * Stops and releases the muxers of finished segments, null until a recording uses segments
+     */
+    private StageExecutor mSegmentStage;
+    private long mPreRollUs;
+    private long mPreRollMaxBytes;
+    /**
+     * What the encoders produced since {@link #prepare()}, null without pre-roll or once
+     * {@link #start()} flushed it. The encoder threads add to it while holding its lock, the lock
+     * is not held while the pre-roll is written to the file.
+     */
+    private PreRollBuffer mPreRoll;
+    /**
+     * The encoder threads write into the muxer instead of the pre-roll
+     */
+    private volatile boolean mMuxing;
+    /**
+     * File the prepared encoders write to, moved on by the video thread when a segment is finished
+     */
+    private String mOutputPath;
+    private boolean mPrepared;
+    private boolean mRecording;
+
+    public CodecRecorder(@NonNull Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    @Override
+    public boolean supportsPersistentSurface() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.M;
+    }
+
+    @Override
+    public void configure(@NonNull Size videoSize, int orientationHint, @NonNull VideoConfig config) {
+        mVideoSize = videoSize;
+        mOrientationHint = orientationHint;
+        mConfig = config;
+        mVideoBitRate = VideoConfig.AUTO != config.getBitRate() ? config.getBitRate() : VIDEO_BIT_RATE;
+        mFrameRate = VideoConfig.AUTO != config.getFrameRate() ? config.getFrameRate() : VIDEO_FRAME_RATE;
+    }
+
+    @Override
+    public Size getVideoSize() {
+        return mVideoSize;
+    }
+
+    /**
+     * The listener is called on the thread that finishes the segments.
+     */
+    @Override
+    public void setSegmentPolicy(@Nullable SegmentPolicy policy, @Nullable SegmentListener listener) {
+        mSegmentPolicy = policy;
+        mSegmentListener = listener;
+    }
+
+    /**
+     * Needs the persistent surface, so the camera can target it before a recording. The pre-roll
+     * starts on a key frame, it reaches back at most one key frame interval further.
+     */
+    @Override
+    public void setPreRoll(long durationMs, long maxBytes) {
+        mPreRollUs = TimeUnit.MILLISECONDS.toMicros(durationMs);
+        mPreRollMaxBytes = maxBytes;
+    }
+
+    /**
+     * Applies to the next {@link #prepare()}.
+     *
+     * @param seconds between key frames, 0 for key frames only
+     */
+    public void setKeyFrameInterval(int seconds) {
+        mKeyFrameInterval = seconds;
+    }
+
+    /**
+     * Applies to the next {@link #prepare()}, falls back to the encoder default if not supported.
+     *
+     * @param bitrateMode one of {@code MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_*}
+     */
+    public void setBitrateMode(int bitrateMode) {
+        mBitrateMode = bitrateMode;
+    }
+
+    @NonNull
+    @Override
+    public Surface prepare() throws IOException {
+        if (mRecording) {
+            throw new IllegalStateException("Recording");
+        }
+        if (null == mVideoSize) {
+            throw new IllegalStateException("configure() has not been called");
+        }
+        discardPrepared();
+        mOutputPath = createVideoFilePath();
+        try {
+            mVideoCodec = createVideoCodecOrDefault();
+            mAudioCodec = createAudioCodec();
+            mAudioRecord = createAudioRecord();
+            MediaMuxer muxer = new MediaMuxer(mOutputPath, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+            muxer.setOrientationHint(mOrientationHint);
+            mMuxer = new Muxer(muxer);
+        } catch (IOException | RuntimeException e) {
+            releaseCodecs();
+            deleteOutput();
+            throw e instanceof IOException ? (IOException) e : new IOException(e);
+        }
+        mPrepared = true;
+        if (mPreRollUs > 0) {
+            try {
+                startPreRoll();
+            } catch (RuntimeException e) {
+                discardPrepared();
+                throw new IOException(e);
+            }
+        }
+        return mInputSurface;
+    }
+
+    private MediaCodec createVideoCodecOrDefault() throws IOException {
+        try {
+            return createVideoCodec();
+        } catch (IOException | RuntimeException e) {
+            if (null == mConfig.getEncoderName() && VideoConfig.AUTO == mConfig.getProfile()) {
+                throw e;
+            }
+            //指定的编码器或 profile 不行时退回默认 H.264
+            Log.w(TAG, "prepare: " + mConfig + ", retrying with H.264", e);
+            mConfig = mConfig.withDefaultEncoder();
+            if (VideoConfig.AUTO != mConfig.getBitRate()) {
+                //HEVC 的码率对 H.264 不够
+                mVideoBitRate = mConfig.getBitRate();
+            }
+            return createVideoCodec();
+        }
+    }
+
+    private MediaCodec createVideoCodec() throws IOException {
+        String mimeType = mConfig.getMimeType();
+        MediaFormat format = MediaFormat.createVideoFormat(mimeType,
+                mVideoSize.getWidth(), mVideoSize.getHeight());
+        format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, mVideoBitRate);
+        format.setInteger(MediaFormat.KEY_FRAME_RATE, mFrameRate);
+        format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, mKeyFrameInterval);
+        if (VideoConfig.AUTO != mConfig.getProfile() && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            //API 23 之前只设 profile 不设 level 会被忽略
+            format.setInteger(MediaFormat.KEY_PROFILE, mConfig.getProfile());
+            format.setInteger(MediaFormat.KEY_LEVEL, mConfig.getLevel());
+        }
+        if (mFrameRate > VIDEO_FRAME_RATE && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            //高帧率录制时编码器要按这个速率运行, 否则会丢帧
+            format.setInteger(MediaFormat.KEY_OPERATING_RATE, mFrameRate);
+        }
+        MediaCodec codec = null != mConfig.getEncoderName()
+                ? MediaCodec.createByCodecName(mConfig.getEncoderName())
+                : MediaCodec.createEncoderByType(mimeType);
+        if (codec.getCodecInfo().getCapabilitiesForType(mimeType)
+                .getEncoderCapabilities().isBitrateModeSupported(mBitrateMode)) {
+            format.setInteger(MediaFormat.KEY_BITRATE_MODE, mBitrateMode);
+        }
+        try {
+            codec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+            if (supportsPersistentSurface()) {
+                setInputSurface(codec);
+            } else {
+                mInputSurface = codec.createInputSurface();
+            }
+        } catch (RuntimeException e) {
+            codec.release();
+            throw e;
+        }
+        return codec;
+    }
+
+    @TargetApi(Build.VERSION_CODES.M)
+    private void setInputSurface(MediaCodec codec) {
+        if (null == mPersistentSurface) {
+            mPersistentSurface = MediaCodec.createPersistentInputSurface();
+        }
+        codec.setInputSurface(mPersistentSurface);
+        mInputSurface = mPersistentSurface;
+    }
+
+    private MediaCodec createAudioCodec() throws IOException {
+        MediaFormat format = MediaFormat.createAudioFormat(MediaFormat.MIMETYPE_AUDIO_AAC, AUDIO_SAMPLE_RATE, 1);
+        format.setInteger(MediaFormat.KEY_AAC_PROFILE, MediaCodecInfo.CodecProfileLevel.AACObjectLC);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, AUDIO_BIT_RATE);
+        MediaCodec codec = MediaCodec.createEncoderByType(MediaFormat.MIMETYPE_AUDIO_AAC);
+        try {
+            codec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+        } catch (RuntimeException e) {
+            codec.release();
+            throw e;
+        }
+        return codec;
+    }
+
+    private AudioRecord createAudioRecord() throws IOException {
+        int minBufferSize = AudioRecord.getMinBufferSize(AUDIO_SAMPLE_RATE,
+                AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT);
+        AudioRecord record = new AudioRecord(MediaRecorder.AudioSource.MIC, AUDIO_SAMPLE_RATE,
+                AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT, Math.max(minBufferSize, 4096) * 2);
+        if (record.getState() != AudioRecord.STATE_INITIALIZED) {
+            record.release();
+            throw new IOException("AudioRecord could not be initialized");
+        }
+        return record;
+    }
+
+    @Nullable
+    @Override
+    public Surface getInputSurface() {
+        return mPersistentSurface;
+    }
+
+    @Override
+    public boolean isPrepared() {
+        return mPrepared;
+    }
+
+    @Override
+    public boolean isRecording() {
+        return mRecording;
+    }
+
+    @Override
+    public boolean isPreRolling() {
+        return mPrepared && null != mPreRoll;
+    }
+
+    /**
+     * Starts the prepared engine. With a pre-roll the file begins with what is in memory.
+     */
+    @Override
+    public void start() {
+        if (!mPrepared) {
+            throw new IllegalStateException("prepare() has not been called");
+        }
+        mPrepared = false;
+        if (null != mPreRoll) {
+            flushPreRoll();
+        } else {
+            mStats = new RecordingStats(mFrameRate);
+            mMuxing = true;
+            startEncoding(null);
+        }
+        mRecording = true;
+    }
+
+    private void startPreRoll() {
+        mPreRoll = new PreRollBuffer(mPreRollUs, mPreRollMaxBytes);
+        mStats = null;
+        mMuxing = false;
+        startEncoding(mPreRoll);
+    }
+
+    /**
+     * Camera thread. Takes the pre-roll out under its lock and writes it into the muxer after
+     * releasing it. The encoder threads go on in the muxer, which holds their samples back until
+     * the pre-roll is written.
+     */
+    private void flushPreRoll() {
+        PreRollBuffer preRoll = mPreRoll;
+        mPreRoll = null;
+        RecordingStats stats = new RecordingStats(mFrameRate);
+        List<PreRollBuffer.Sample> samples;
+        synchronized (preRoll) {
+            Log.d(TAG, "start: " + preRoll);
+            long durationUs = preRoll.getDurationUs();
+            long peakBytes = preRoll.getPeakBytes();
+            samples = preRoll.drain();
+            for (PreRollBuffer.Sample sample : samples) {
+                if (sample.video) {
+                    stats.onVideoFrame(sample.ptsUs, sample.getSize(), -1, sample.keyFrame);
+                } else {
+                    stats.onAudioFrame(sample.getSize());
+                }
+            }
+            stats.onPreRoll(durationUs, peakBytes);
+            mStats = stats;
+            mMuxer.holdSamples();
+            mMuxing = true;
+        }
+        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        for (PreRollBuffer.Sample sample : samples) {
+            info.set(0, sample.getSize(), sample.ptsUs, sample.flags);
+            mMuxer.writeAhead(sample.video, sample.getData(), info);
+        }
+        mMuxer.releaseSamples();
+    }
+
+    /**
+     * @param preRoll where the encoders write until {@link #mMuxing}, null to write into the muxer
+     */
+    private void startEncoding(PreRollBuffer preRoll) {
+        mAbort = false;
+        mVideoCodec.start();
+        mAudioCodec.start();
+        mAudioRecord.startRecording();
+        mAudioRunning = true;
+        final MediaCodec videoCodec = mVideoCodec;
+        final MediaCodec audioCodec = mAudioCodec;
+        final AudioRecord audioRecord = mAudioRecord;
+        final Muxer muxer = mMuxer;
+        final SegmentPolicy segmentPolicy = mSegmentPolicy;
+        if (null != segmentPolicy && null == mSegmentStage) {
+            mSegmentStage = new StageExecutor("CodecSegments", SEGMENT_QUEUE_DEPTH, StageExecutor.Overflow.REJECT);
+        }
+        final StageExecutor segmentStage = mSegmentStage;
+        mVideoThread = new Thread(() -> drainVideo(videoCodec, muxer, preRoll, segmentPolicy, segmentStage),
+                "CodecVideo");
+        mAudioThread = new Thread(() -> encodeAudio(audioCodec, audioRecord, muxer, preRoll), "CodecAudio");
+        mVideoThread.start();
+        mAudioThread.start();
+    }
+
+    /**
+     * Encoder threads. Into the pre-roll until {@link #start()}, then into the muxer.
+     */
+    private void writeSample(Muxer muxer, PreRollBuffer preRoll, boolean video, ByteBuffer data,
+                             MediaCodec.BufferInfo info, boolean keyFrame) {
+        if (null != preRoll && !mMuxing) {
+            synchronized (preRoll) {
+                if (!mMuxing) {
+                    if (null != data) {
+                        data.position(info.offset);
+                        data.limit(info.offset + info.size);
+                        preRoll.add(video, data, info.presentationTimeUs, info.flags, keyFrame);
+                    }
+                    return;
+                }
+            }
+        }
+        muxer.writeSample(video, data, info);
+    }
+
+    /**
+     * Video encoder thread
+     *
+     * @param preRoll       see {@link #startEncoding(PreRollBuffer)}
+     * @param segmentPolicy null to record one file
+     * @param segmentStage  finishes the segments, set with {@code segmentPolicy}
+     */
+    private void drainVideo(MediaCodec codec, Muxer muxer, PreRollBuffer preRoll, SegmentPolicy segmentPolicy,
+                            StageExecutor segmentStage) {
+        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        //相机时间戳可能是 elapsedRealtime 也可能是 nanoTime, 第一帧时选近的那个
+        int clock = 0;
+        boolean syncFrameRequested = false;
+        while (!mAbort) {
+            int index = codec.dequeueOutputBuffer(info, TIMEOUT_US);
+            if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                muxer.addTrack(true, codec.getOutputFormat());
+                continue;
+            }
+            if (index < 0) {
+                continue;
+            }
+            boolean endOfStream = (info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+            if ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) == 0 && info.size > 0) {
+                long ptsNanos = TimeUnit.MICROSECONDS.toNanos(info.presentationTimeUs);
+                if (0 == clock) {
+                    clock = Math.abs(SystemClock.elapsedRealtimeNanos() - ptsNanos)
+                            < Math.abs(System.nanoTime() - ptsNanos) ? 1 : 2;
+                }
+                long now = 1 == clock ? SystemClock.elapsedRealtimeNanos() : System.nanoTime();
+                if (2 == clock) {
+                    //换到音频所用的 elapsedRealtime
+                    info.presentationTimeUs += TimeUnit.NANOSECONDS.toMicros(
+                            SystemClock.elapsedRealtimeNanos() - System.nanoTime());
+                }
+                boolean keyFrame = (info.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0;
+                RecordingStats stats = mStats;
+                if (null != stats) {
+                    stats.onVideoFrame(info.presentationTimeUs, info.size, now - ptsNanos, keyFrame);
+                }
+                if (null != segmentPolicy && muxer.isSegmentDue(segmentPolicy, info.presentationTimeUs)) {
+                    if (keyFrame) {
+                        //新文件从这个关键帧开始
+                        rollOver(muxer, segmentStage);
+                        syncFrameRequested = false;
+                    } else if (!syncFrameRequested) {
+                        requestSyncFrame(codec);
+                        syncFrameRequested = true;
+                    }
+                }
+                writeSample(muxer, preRoll, true, codec.getOutputBuffer(index), info, keyFrame);
+            }
+            codec.releaseOutputBuffer(index, false);
+            if (endOfStream) {
+                break;
+            }
+        }
+    }
+
+    private static void requestSyncFrame(MediaCodec codec) {
+        Bundle params = new Bundle();
+        params.putInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, 0);
+        try {
+            codec.setParameters(params);
+        } catch (IllegalStateException e) {
+            Log.w(TAG, "requestSyncFrame: ", e);
+        }
+    }
+
+    /**
+     * Video encoder thread. Writes both tracks to a new file from here on, the current one is
+     * finished on {@code segmentStage}.
+     */
+    private void rollOver(Muxer muxer, StageExecutor segmentStage) {
+        String path = createVideoFilePath();
+        MediaMuxer next = null;
+        FinishedSegment finished;
+        try {
+            next = new MediaMuxer(path, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+            next.setOrientationHint(mOrientationHint);
+            finished = muxer.switchTo(next);
+        } catch (IOException | RuntimeException e) {
+            //写不了新文件就继续写当前的, 下一个关键帧再试
+            Log.w(TAG, "rollOver: ", e);
+            if (null != next) {
+                next.release();
+            }
+            deleteFile(path);
+            return;
+        }
+        final String finishedPath = mOutputPath;
+        mOutputPath = path;
+        if (!segmentStage.trySubmit(() -> finishSegment(finished, finishedPath))) {
+            //前面的段还没写完, 在这里等
+            finishSegment(finished, finishedPath);
+        }
+    }
+
+    /**
+     * Stops and releases the muxer of a finished segment, hands the file to the listener
+     */
+    private void finishSegment(FinishedSegment finished, String path) {
+        boolean written = finished.written;
+        try {
+            finished.muxer.stop();
+        } catch (IllegalStateException e) {
+            Log.w(TAG, "finishSegment: ", e);
+            written = false;
+        }
+        finished.muxer.release();
+        if (!written) {
+            deleteFile(path);
+            return;
+        }
+        SegmentListener listener = mSegmentListener;
+        if (null != listener) {
+            listener.onSegmentFinished(path);
+        }
+    }
+
+    /**
+     * Audio capture thread, reads the microphone into the encoder and drains it
+     */
+    private void encodeAudio(MediaCodec codec, AudioRecord record, Muxer muxer, PreRollBuffer preRoll) {
+        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        long startUs = TimeUnit.NANOSECONDS.toMicros(SystemClock.elapsedRealtimeNanos());
+        long samples = 0;
+        boolean inputDone = false;
+        while (!mAbort) {
+            if (!inputDone) {
+                int index = codec.dequeueInputBuffer(TIMEOUT_US);
+                if (index >= 0) {
+                    ByteBuffer buffer = codec.getInputBuffer(index);
+                    boolean last = !mAudioRunning;
+                    int read = 0;
+                    if (!last && null != buffer) {
+                        buffer.clear();
+                        read = Math.max(0, record.read(buffer, buffer.capacity()));
+                    }
+                    long ptsUs = startUs + samples * TimeUnit.SECONDS.toMicros(1) / AUDIO_SAMPLE_RATE;
+                    //16位单声道
+                    samples += read / 2;
+                    codec.queueInputBuffer(index, 0, read, ptsUs, last ? MediaCodec.BUFFER_FLAG_END_OF_STREAM : 0);
+                    inputDone = last;
+                }
+            }
+            int index = codec.dequeueOutputBuffer(info, inputDone ? TIMEOUT_US : 0);
+            if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                muxer.addTrack(false, codec.getOutputFormat());
+                continue;
+            }
+            if (index < 0) {
+                continue;
+            }
+            boolean endOfStream = (info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+            if ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) == 0 && info.size > 0) {
+                RecordingStats stats = mStats;
+                if (null != stats) {
+                    stats.onAudioFrame(info.size);
+                }
+                writeSample(muxer, preRoll, false, codec.getOutputBuffer(index), info, false);
+            }
+            codec.releaseOutputBuffer(index, false);
+            if (endOfStream) {
+                break;
+            }
+        }
+    }
+
+    @Nullable
+    @Override
+    public String stop() {
+        if (!mRecording) {
+            return null;
+        }
+        mRecording = false;
+        stopEncoding();
+        //前面的段先交出去
+        if (null != mSegmentStage && !mSegmentStage.awaitIdle(STOP_TIMEOUT_MS)) {
+            Log.w(TAG, "stop: segments not finished in " + STOP_TIMEOUT_MS + "ms");
+        }
+        String path = mOutputPath;
+        if (!mMuxer.stop()) {
+            // no valid data was recorded
+            deleteOutput();
+            path = null;
+        }
+        releaseCodecs();
+        mOutputPath = null;
+        Log.d(TAG, "stop: " + mStats);
+        return path;
+    }
+
+    /**
+     * Ends both streams and waits for the encoder threads to write what is left
+     */
+    private void stopEncoding() {
+        try {
+            mVideoCodec.signalEndOfInputStream();
+        } catch (IllegalStateException e) {
+            Log.w(TAG, "stop: ", e);
+        }
+        mAudioRunning = false;
+        if (!join(mVideoThread) | !join(mAudioThread)) {
+            //编码器没有按时结束, 放弃剩下的帧
+            Log.w(TAG, "stop: encoders did not drain in " + STOP_TIMEOUT_MS + "ms");
+            mAbort = true;
+            joinQuietly(mVideoThread);
+            joinQuietly(mAudioThread);
+        }
+        mVideoThread = null;
+        mAudioThread = null;
+        try {
+            mAudioRecord.stop();
+        } catch (IllegalStateException e) {
+            Log.w(TAG, "stop: ", e);
+        }
+    }
+
+    private static boolean join(Thread thread) {
+        try {
+            thread.join(STOP_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return !thread.isAlive();
+    }
+
+    private static void joinQuietly(Thread thread) {
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Nullable
+    @Override
+    public String release() {
+        String path = stop();
+        discardPrepared();
+        if (null != mSegmentStage) {
+            mSegmentStage.shutdown();
+            mSegmentStage = null;
+        }
+        if (null != mPersistentSurface) {
+            mPersistentSurface.release();
+            mPersistentSurface = null;
+        }
+        return path;
+    }
+
+    @Nullable
+    @Override
+    public RecordingStats getStats() {
+        return mStats;
+    }
+
+    /**
+     * A prepared muxer has already created its file
+     */
+    private void discardPrepared() {
+        if (!mPrepared) {
+            return;
+        }
+        mPrepared = false;
+        if (null != mVideoThread) {
+            //预录中, 先停下编码线程
+            mAbort = true;
+            stopEncoding();
+        }
+        mPreRoll = null;
+        mMuxer.stop();
+        releaseCodecs();
+        deleteOutput();
+    }
+
+    private void releaseCodecs() {
+        if (null != mVideoCodec) {
+            mVideoCodec.release();
+            mVideoCodec = null;
+        }
+        if (null != mInputSurface && mInputSurface != mPersistentSurface) {
+            mInputSurface.release();
+        }
+        mInputSurface = null;
+        if (null != mAudioCodec) {
+            mAudioCodec.release();
+            mAudioCodec = null;
+        }
+        if (null != mAudioRecord) {
+            mAudioRecord.release();
+            mAudioRecord = null;
+        }
+        if (null != mMuxer) {
+            mMuxer.release();
+            mMuxer = null;
+        }
+    }
+
+    private void deleteOutput() {
+        if (null != mOutputPath) {
+            deleteFile(mOutputPath);
+        }
+        mOutputPath = null;
+    }
+
+    private static void deleteFile(String path) {
+        File file = new File(path);
+        if (file.exists() && !file.delete()) {
+            Log.w(TAG, "Could not delete " + path);
+        }
+    }
+
+    private String createVideoFilePath() {
+        final File dir = mContext.getExternalFilesDir(Environment.DIRECTORY_MOVIES);
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss_SSSS", Locale.getDefault());
+        String dateStr = dateFormat.format(new Date());
+        return (dir == null ? "" : (dir.getAbsolutePath() + "/"))
+                + dateStr + ".mp4";
+    }
+
+    /**
+     * Starts the {@link MediaMuxer} once both tracks are known, samples that come earlier wait in
+     * memory. Every file starts at its first video key frame, both tracks are moved so it is at
+     * zero. Audio waits for that key frame too, audio from before it is dropped.
+     */
+    private static class Muxer {
+        private MediaMuxer mMuxer;
+        private MediaFormat mVideoFormat;
+        private MediaFormat mAudioFormat;
+        private int mVideoTrack = -1;
+        private int mAudioTrack = -1;
+        private boolean mStarted;
+        private boolean mWritten;
+        /**
+         * Time of the first video key frame in the current file, -1 until it is written
+         */
+        private long mBaseUs = -1;
+        /**
+         * Bytes written to the current file
+         */
+        private long mBytes;
+        private final List<PendingSample> mPending = new ArrayList<>();
+        /**
+         * Samples of the encoder threads while the pre-roll is written ahead of them, null otherwise
+         */
+        private List<PendingSample> mHeld;
+
+        Muxer(MediaMuxer muxer) {
+            mMuxer = muxer;
+        }
+
+        synchronized void addTrack(boolean video, MediaFormat format) {
+            if (mStarted) {
+                Log.w(TAG, "addTrack: format changed after start, " + format);
+                return;
+            }
+            if (video) {
+                mVideoFormat = format;
+                mVideoTrack = mMuxer.addTrack(format);
+            } else {
+                mAudioFormat = format;
+                mAudioTrack = mMuxer.addTrack(format);
+            }
+            if (mVideoTrack < 0 || mAudioTrack < 0) {
+                return;
+            }
+            mMuxer.start();
+            mStarted = true;
+            writePending();
+        }
+
+        synchronized void writeSample(boolean video, ByteBuffer data, MediaCodec.BufferInfo info) {
+            if (null == data) {
+                return;
+            }
+            data.position(info.offset);
+            data.limit(info.offset + info.size);
+            if (null != mHeld) {
+                mHeld.add(copy(video, data, info));
+                return;
+            }
+            writeOrHold(video, data, info);
+        }
+
+        /**
+         * {@link #writeSample} keeps copies from now on, until {@link #releaseSamples()}
+         */
+        synchronized void holdSamples() {
+            mHeld = new ArrayList<>();
+        }
+
+        /**
+         * Writes ahead of the samples held since {@link #holdSamples()}
+         */
+        synchronized void writeAhead(boolean video, ByteBuffer data, MediaCodec.BufferInfo info) {
+            data.position(info.offset);
+            data.limit(info.offset + info.size);
+            writeOrHold(video, data, info);
+        }
+
+        /**
+         * Writes the held samples, {@link #writeSample} writes again from now on
+         */
+        synchronized void releaseSamples() {
+            List<PendingSample> held = mHeld;
+            mHeld = null;
+            if (null == held) {
+                return;
+            }
+            for (PendingSample sample : held) {
+                writeOrHold(sample.video, sample.data, sample.info);
+            }
+        }
+
+        /**
+         * Writes the sample, or keeps a copy until the muxer is started and, for audio, until the
+         * file has its first key frame
+         */
+        private void writeOrHold(boolean video, ByteBuffer data, MediaCodec.BufferInfo info) {
+            if (!mStarted || !video && mBaseUs < 0) {
+                hold(video, data, info);
+                return;
+            }
+            if (mBaseUs < 0) {
+                if ((info.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) == 0) {
+                    //文件要从关键帧开始
+                    return;
+                }
+                mBaseUs = info.presentationTimeUs;
+                write(true, data, info);
+                writePending();
+                return;
+            }
+            write(video, data, info);
+        }
+
+        private void hold(boolean video, ByteBuffer data, MediaCodec.BufferInfo info) {
+            mPending.add(copy(video, data, info));
+        }
+
+        private static PendingSample copy(boolean video, ByteBuffer data, MediaCodec.BufferInfo info) {
+            ByteBuffer copy = ByteBuffer.allocateDirect(info.size);
+            copy.put(data);
+            copy.flip();
+            MediaCodec.BufferInfo copyInfo = new MediaCodec.BufferInfo();
+            copyInfo.set(0, info.size, info.presentationTimeUs, info.flags);
+            return new PendingSample(video, copy, copyInfo);
+        }
+
+        private void writePending() {
+            if (mPending.isEmpty()) {
+                return;
+            }
+            List<PendingSample> pending = new ArrayList<>(mPending);
+            mPending.clear();
+            for (PendingSample sample : pending) {
+                if (!sample.video && mBaseUs < 0) {
+                    mPending.add(sample);
+                } else {
+                    writeOrHold(sample.video, sample.data, sample.info);
+                }
+            }
+        }
+
+        private void write(boolean video, ByteBuffer data, MediaCodec.BufferInfo info) {
+            long ptsUs = info.presentationTimeUs - mBaseUs;
+            if (ptsUs < 0 && !video) {
+                //视频起点之前的音频不要
+                return;
+            }
+            MediaCodec.BufferInfo sampleInfo = new MediaCodec.BufferInfo();
+            sampleInfo.set(info.offset, info.size, Math.max(0, ptsUs), info.flags);
+            mMuxer.writeSampleData(video ? mVideoTrack : mAudioTrack, data, sampleInfo);
+            mWritten = true;
+            mBytes += info.size;
+        }
+
+        /**
+         * @param ptsUs the video frame about to be written
+         * @return true if the current file has reached a limit of {@code policy}
+         */
+        synchronized boolean isSegmentDue(SegmentPolicy policy, long ptsUs) {
+            if (!mStarted || mBaseUs < 0 || null != mHeld) {
+                //预录写完之前不换文件
+                return false;
+            }
+            return policy.isDue(ptsUs - mBaseUs, mBytes);
+        }
+
+        /**
+         * Starts {@code next} with the same tracks and goes on in it. The current file is left to
+         * the caller to stop, that writes its index and may take a while.
+         *
+         * @return the muxer of the current file, still started
+         */
+        synchronized FinishedSegment switchTo(MediaMuxer next) {
+            int videoTrack = next.addTrack(mVideoFormat);
+            int audioTrack = next.addTrack(mAudioFormat);
+            next.start();
+            FinishedSegment finished = new FinishedSegment(mMuxer, mWritten);
+            mMuxer = next;
+            mVideoTrack = videoTrack;
+            mAudioTrack = audioTrack;
+            mStarted = true;
+            mWritten = false;
+            mBaseUs = -1;
+            mBytes = 0;
+            return finished;
+        }
+
+        /**
+         * @return true if the file holds any samples
+         */
+        synchronized boolean stop() {
+            if (!mStarted) {
+                return false;
+            }
+            mStarted = false;
+            try {
+                mMuxer.stop();
+            } catch (IllegalStateException e) {
+                Log.w(TAG, "stop: ", e);
+                return false;
+            }
+            return mWritten;
+        }
+
+        synchronized void release() {
+            mMuxer.release();
+        }
+    }
+
+    private static class FinishedSegment {
+        final MediaMuxer muxer;
+        /**
+         * The file holds any samples
+         */
+        final boolean written;
+
+        FinishedSegment(MediaMuxer muxer, boolean written) {
+            this.muxer = muxer;
+            this.written = written;
+        }
+    }
+
+    private static class PendingSample {
+        final boolean video;
+        final ByteBuffer data;
+        final MediaCodec.BufferInfo info;
+
+        PendingSample(boolean video, ByteBuffer data, MediaCodec.BufferInfo info) {
+            this.video = video;
+            this.data = data;
+            this.info = info;
+        }
+    }
+}
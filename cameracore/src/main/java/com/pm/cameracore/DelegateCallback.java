@@ -14,6 +14,11 @@ public interface DelegateCallback {
     void onChangeViewSize(Size size);
     void onTransformView(Matrix matrix);
     SurfaceTexture getSurfaceTexture();
+    /**
+     * Early, low resolution review decoded from the EXIF thumbnail of the picture.
+     * {@link #onCaptureResult(Bitmap)} follows with the screen sized picture.
+     */
+    void onCaptureThumbnail(Bitmap thumbnail);
     void onCaptureResult(Bitmap bitmap);
     void onRecordResult(Bitmap coverBitmap,String videoAbsolutePath);
 }
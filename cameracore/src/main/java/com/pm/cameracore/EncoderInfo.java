@@ -0,0 +1,171 @@
+package com.pm.cameracore;
+
+import java.util.List;
+
+/**
+ * What {@link CodecProbe} found out about one video encoder, small enough to be kept per device
+ * build and to pick an encoder without asking {@code MediaCodecList} again.
+ * <p>
+ * Immutable.
+ *
+ * @author pm
+ */
+public final class EncoderInfo {
+    public static final String MIME_AVC = "video/avc";
+    public static final String MIME_HEVC = "video/hevc";
+
+    private static final String SEPARATOR = "|";
+    private static final int FIELD_COUNT = 12;
+
+    private final String mName;
+    private final String mMimeType;
+    private final boolean mHardware;
+    private final int mProfile;
+    private final int mLevel;
+    private final int mMaxWidth;
+    private final int mMaxHeight;
+    private final int mWidthAlignment;
+    private final int mHeightAlignment;
+    private final int mMaxFrameRate;
+    /**
+     * Pixels per second the encoder keeps up with, 0 if unknown
+     */
+    private final long mMaxPixelRate;
+    private final int mMaxBitRate;
+
+    /**
+     * @param profile best profile of the encoder, {@link VideoConfig#AUTO} for the encoder default
+     * @param level   highest level of that profile
+     */
+    public EncoderInfo(String name, String mimeType, boolean hardware, int profile, int level,
+                       int maxWidth, int maxHeight, int widthAlignment, int heightAlignment,
+                       int maxFrameRate, long maxPixelRate, int maxBitRate) {
+        mName = name;
+        mMimeType = mimeType;
+        mHardware = hardware;
+        mProfile = profile;
+        mLevel = level;
+        mMaxWidth = maxWidth;
+        mMaxHeight = maxHeight;
+        mWidthAlignment = Math.max(1, widthAlignment);
+        mHeightAlignment = Math.max(1, heightAlignment);
+        mMaxFrameRate = maxFrameRate;
+        mMaxPixelRate = maxPixelRate;
+        mMaxBitRate = maxBitRate;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public String getMimeType() {
+        return mMimeType;
+    }
+
+    public boolean isHardware() {
+        return mHardware;
+    }
+
+    public int getProfile() {
+        return mProfile;
+    }
+
+    public int getLevel() {
+        return mLevel;
+    }
+
+    public int getMaxBitRate() {
+        return mMaxBitRate;
+    }
+
+    /**
+     * @return true if the encoder takes {@code width x height} at all
+     */
+    public boolean supportsSize(int width, int height) {
+        return width <= mMaxWidth && height <= mMaxHeight
+                && width % mWidthAlignment == 0 && height % mHeightAlignment == 0;
+    }
+
+    /**
+     * @return highest frame rate at {@code width x height}, 0 if the size is not supported
+     */
+    public int getMaxFrameRate(int width, int height) {
+        if (!supportsSize(width, height)) {
+            return 0;
+        }
+        if (mMaxPixelRate <= 0) {
+            return mMaxFrameRate;
+        }
+        return (int) Math.min(mMaxFrameRate, mMaxPixelRate / ((long) width * height));
+    }
+
+    public boolean supports(int width, int height, int frameRate) {
+        return getMaxFrameRate(width, height) >= frameRate;
+    }
+
+    /**
+     * Hardware HEVC first, it needs about half the bitrate of H.264 for the same picture, then
+     * hardware H.264, then software H.264. Software HEVC is too slow to record with. Within each
+     * group the order of {@code encoders} is kept, which is the order the platform prefers.
+     *
+     * @return the best encoder for the size and frame rate, null if none fits
+     */
+    public static EncoderInfo selectBest(List<EncoderInfo> encoders, int width, int height, int frameRate) {
+        EncoderInfo result = select(encoders, MIME_HEVC, true, width, height, frameRate);
+        if (null == result) {
+            result = select(encoders, MIME_AVC, true, width, height, frameRate);
+        }
+        if (null == result) {
+            result = select(encoders, MIME_AVC, false, width, height, frameRate);
+        }
+        return result;
+    }
+
+    private static EncoderInfo select(List<EncoderInfo> encoders, String mimeType, boolean hardware,
+                                      int width, int height, int frameRate) {
+        for (EncoderInfo encoder : encoders) {
+            if (encoder.mHardware == hardware && mimeType.equals(encoder.mMimeType)
+                    && encoder.supports(width, height, frameRate)) {
+                return encoder;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return one line, read back by {@link #decode(String)}
+     */
+    public String encode() {
+        return mName + SEPARATOR + mMimeType + SEPARATOR + (mHardware ? 1 : 0)
+                + SEPARATOR + mProfile + SEPARATOR + mLevel
+                + SEPARATOR + mMaxWidth + SEPARATOR + mMaxHeight
+                + SEPARATOR + mWidthAlignment + SEPARATOR + mHeightAlignment
+                + SEPARATOR + mMaxFrameRate + SEPARATOR + mMaxPixelRate + SEPARATOR + mMaxBitRate;
+    }
+
+    /**
+     * @return null if {@code line} was not written by {@link #encode()}
+     */
+    public static EncoderInfo decode(String line) {
+        String[] fields = line.split("\\" + SEPARATOR);
+        if (fields.length != FIELD_COUNT) {
+            return null;
+        }
+        try {
+            return new EncoderInfo(fields[0], fields[1], "1".equals(fields[2]),
+                    Integer.parseInt(fields[3]), Integer.parseInt(fields[4]),
+                    Integer.parseInt(fields[5]), Integer.parseInt(fields[6]),
+                    Integer.parseInt(fields[7]), Integer.parseInt(fields[8]),
+                    Integer.parseInt(fields[9]), Long.parseLong(fields[10]), Integer.parseInt(fields[11]));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "EncoderInfo{" + mName + ", " + mMimeType + (mHardware ? ", hardware" : ", software")
+                + ", profile=" + mProfile + ", level=" + mLevel
+                + ", max=" + mMaxWidth + "x" + mMaxHeight + "@" + mMaxFrameRate + "}";
+    }
+}
@@ -0,0 +1,53 @@
+package com.pm.cameracore;
+
+/**
+ * The auto focus and auto exposure state of one frame, as reported by a {@link CameraBackend}.
+ * <p>
+ * The state values are those of {@code CaptureResult.CONTROL_AF_STATE} and
+ * {@code CaptureResult.CONTROL_AE_STATE}, repeated here so the class does not depend on Android.
+ *
+ * @author pm
+ */
+public final class FrameState {
+    /**
+     * The result did not contain the state
+     */
+    public static final int UNKNOWN = -1;
+
+    public static final int AF_INACTIVE = 0;
+    public static final int AF_PASSIVE_SCAN = 1;
+    public static final int AF_PASSIVE_FOCUSED = 2;
+    public static final int AF_ACTIVE_SCAN = 3;
+    public static final int AF_FOCUSED_LOCKED = 4;
+    public static final int AF_NOT_FOCUSED_LOCKED = 5;
+    public static final int AF_PASSIVE_UNFOCUSED = 6;
+
+    public static final int AE_INACTIVE = 0;
+    public static final int AE_SEARCHING = 1;
+    public static final int AE_CONVERGED = 2;
+    public static final int AE_LOCKED = 3;
+    public static final int AE_FLASH_REQUIRED = 4;
+    public static final int AE_PRECAPTURE = 5;
+
+    /**
+     * Sensor timestamp in nanoseconds
+     */
+    public final long timestamp;
+    public final int afState;
+    public final int aeState;
+
+    public FrameState(long timestamp, int afState, int aeState) {
+        this.timestamp = timestamp;
+        this.afState = afState;
+        this.aeState = aeState;
+    }
+
+    public boolean isFocusLocked() {
+        return afState == AF_FOCUSED_LOCKED || afState == AF_NOT_FOCUSED_LOCKED;
+    }
+
+    @Override
+    public String toString() {
+        return "FrameState{timestamp=" + timestamp + ", af=" + afState + ", ae=" + aeState + "}";
+    }
+}
@@ -0,0 +1,120 @@
+package com.pm.cameracore;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One size and fps range of a constrained high speed session, from
+ * {@code StreamConfigurationMap.getHighSpeedVideoSizes()} and
+ * {@code getHighSpeedVideoFpsRangesFor(size)}.
+ * <p>
+ * A recording needs a fixed range, e.g. [120, 120]. Preview and video surfaces both have to be
+ * exactly this size.
+ * <p>
+ * Immutable.
+ *
+ * @author pm
+ */
+public final class HighSpeedMode {
+    public static final int FRAME_RATE_120 = 120;
+    public static final int FRAME_RATE_240 = 240;
+
+    private final int mWidth;
+    private final int mHeight;
+    private final int mMinFps;
+    private final int mMaxFps;
+
+    public HighSpeedMode(int width, int height, int minFps, int maxFps) {
+        mWidth = width;
+        mHeight = height;
+        mMinFps = minFps;
+        mMaxFps = maxFps;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getMinFps() {
+        return mMinFps;
+    }
+
+    public int getMaxFps() {
+        return mMaxFps;
+    }
+
+    /**
+     * @return true if the range can be used while recording
+     */
+    public boolean isFixed() {
+        return mMinFps == mMaxFps;
+    }
+
+    /**
+     * The fixed modes that fit within {@code maxWidth x maxHeight} in either orientation, best first:
+     * closest to {@code frameRate}, the higher one on a tie, then the larger size.
+     *
+     * @return empty if there is no fixed mode within the size
+     */
+    public static List<HighSpeedMode> rank(List<HighSpeedMode> modes, final int frameRate,
+                                           int maxWidth, int maxHeight) {
+        List<HighSpeedMode> result = new ArrayList<>(modes.size());
+        for (HighSpeedMode mode : modes) {
+            if (mode.isFixed() && StreamCombinations.fitsWithin(mode.mWidth, mode.mHeight, maxWidth, maxHeight)) {
+                result.add(mode);
+            }
+        }
+        Collections.sort(result, (a, b) -> {
+            int distance = Integer.compare(Math.abs(a.mMaxFps - frameRate), Math.abs(b.mMaxFps - frameRate));
+            if (0 != distance) {
+                return distance;
+            }
+            if (a.mMaxFps != b.mMaxFps) {
+                return Integer.compare(b.mMaxFps, a.mMaxFps);
+            }
+            return Long.compare((long) b.mWidth * b.mHeight, (long) a.mWidth * a.mHeight);
+        });
+        return result;
+    }
+
+    /**
+     * @return highest fixed frame rate of {@code modes}, 0 if there is none
+     */
+    public static int getMaxFrameRate(List<HighSpeedMode> modes) {
+        int result = 0;
+        for (HighSpeedMode mode : modes) {
+            if (mode.isFixed()) {
+                result = Math.max(result, mode.mMaxFps);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof HighSpeedMode)) {
+            return false;
+        }
+        HighSpeedMode that = (HighSpeedMode) o;
+        return mWidth == that.mWidth && mHeight == that.mHeight
+                && mMinFps == that.mMinFps && mMaxFps == that.mMaxFps;
+    }
+
+    @Override
+    public int hashCode() {
+        return ((mWidth * 31 + mHeight) * 31 + mMinFps) * 31 + mMaxFps;
+    }
+
+    @Override
+    public String toString() {
+        return "HighSpeedMode{" + mWidth + "x" + mHeight + "@[" + mMinFps + ", " + mMaxFps + "]}";
+    }
+}
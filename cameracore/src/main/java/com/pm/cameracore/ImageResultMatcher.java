@@ -0,0 +1,237 @@
+package com.pm.cameracore;
+
+import android.hardware.camera2.CaptureResult;
+import android.hardware.camera2.TotalCaptureResult;
+import android.media.Image;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Pairs every {@link Image} with the {@link TotalCaptureResult} that produced it, matching
+ * {@link Image#getTimestamp()} against {@link CaptureResult#SENSOR_TIMESTAMP}.
+ * <p>
+ * Images arrive on the reader thread and results on the camera callback thread, in either order.
+ * Neither side takes a lock: a pending capture is one entry in a concurrent map whose halves are
+ * published with compare-and-set, and whichever side completes the entry reports the pair. At most
+ * {@code capacity} captures are pending, the oldest one is evicted when a new one arrives. An evicted
+ * or expired image is handed to {@link Listener#onImageOrphaned(Image)} so it is never lost.
+ *
+ * @author pm
+ */
+public class ImageResultMatcher {
+    private static final int HAS_IMAGE = 1;
+    private static final int HAS_RESULT = 1 << 1;
+    private static final int MATCHED = HAS_IMAGE | HAS_RESULT;
+    private static final int CLAIMED = 1 << 2;
+
+    private final int mCapacity;
+    private final Listener mListener;
+    private final ConcurrentHashMap<Long, Entry> mPending;
+    /**
+     * Pending entries in arrival order, the head is evicted first
+     */
+    private final ConcurrentLinkedQueue<Entry> mArrivalOrder = new ConcurrentLinkedQueue<>();
+
+    private final AtomicLong mMatchedCount = new AtomicLong();
+    private final AtomicLong mOrphanImageCount = new AtomicLong();
+    private final AtomicLong mOrphanResultCount = new AtomicLong();
+
+    /**
+     * @param capacity max number of captures waiting for their other half
+     * @param listener called on the thread that completed, evicted or expired a capture
+     */
+    public ImageResultMatcher(int capacity, @NonNull Listener listener) {
+        mCapacity = Math.max(1, capacity);
+        mListener = listener;
+        mPending = new ConcurrentHashMap<>(mCapacity * 2);
+    }
+
+    public void onImage(@NonNull Image image) {
+        Entry entry = obtainEntry(image.getTimestamp());
+        if (!entry.image.compareAndSet(null, image)) {
+            // a second image with the same timestamp
+            orphanImage(image);
+            return;
+        }
+        publish(entry, HAS_IMAGE);
+    }
+
+    public void onResult(@NonNull TotalCaptureResult result) {
+        Long timestamp = result.get(CaptureResult.SENSOR_TIMESTAMP);
+        if (null == timestamp) {
+            mOrphanResultCount.incrementAndGet();
+            return;
+        }
+        Entry entry = obtainEntry(timestamp);
+        if (!entry.result.compareAndSet(null, result)) {
+            mOrphanResultCount.incrementAndGet();
+            return;
+        }
+        publish(entry, HAS_RESULT);
+    }
+
+    /**
+     * Gives up on the capture with the given timestamp. Its image, if it already arrived, goes to
+     * {@link Listener#onImageOrphaned(Image)}.
+     */
+    public void expire(long timestamp) {
+        Entry entry = mPending.get(timestamp);
+        if (null != entry && mPending.remove(timestamp, entry)) {
+            mArrivalOrder.remove(entry);
+            orphan(entry, entry.claim());
+        }
+    }
+
+    /**
+     * Expires every pending capture.
+     */
+    public void clear() {
+        for (Long timestamp : mPending.keySet()) {
+            expire(timestamp);
+        }
+    }
+
+    public int getPendingCount() {
+        return mPending.size();
+    }
+
+    public long getMatchedCount() {
+        return mMatchedCount.get();
+    }
+
+    /**
+     * @return images that were evicted or expired before their result arrived
+     */
+    public long getOrphanImageCount() {
+        return mOrphanImageCount.get();
+    }
+
+    /**
+     * @return results that were evicted or expired before their image arrived
+     */
+    public long getOrphanResultCount() {
+        return mOrphanResultCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "ImageResultMatcher{pending=" + mPending.size()
+                + ", matched=" + mMatchedCount.get()
+                + ", orphanImages=" + mOrphanImageCount.get()
+                + ", orphanResults=" + mOrphanResultCount.get() + "}";
+    }
+
+    private Entry obtainEntry(long timestamp) {
+        Entry entry = mPending.get(timestamp);
+        if (null != entry) {
+            return entry;
+        }
+        Entry created = new Entry(timestamp);
+        entry = mPending.putIfAbsent(timestamp, created);
+        if (null != entry) {
+            return entry;
+        }
+        mArrivalOrder.offer(created);
+        evictOverflow();
+        return created;
+    }
+
+    private void evictOverflow() {
+        while (mPending.size() > mCapacity) {
+            Entry oldest = mArrivalOrder.poll();
+            if (null == oldest) {
+                return;
+            }
+            if (mPending.remove(oldest.timestamp, oldest)) {
+                orphan(oldest, oldest.claim());
+            }
+        }
+    }
+
+    /**
+     * Marks one half as present. The half itself must already be stored in the entry.
+     */
+    private void publish(Entry entry, int half) {
+        int previous = entry.set(half);
+        if ((previous & CLAIMED) != 0) {
+            // evicted while this half was on its way, the other side did not see it
+            if (half == HAS_IMAGE) {
+                orphanImage(entry.image.get());
+            } else {
+                mOrphanResultCount.incrementAndGet();
+            }
+            return;
+        }
+        if ((previous | half) == MATCHED) {
+            mPending.remove(entry.timestamp, entry);
+            mArrivalOrder.remove(entry);
+            mMatchedCount.incrementAndGet();
+            mListener.onMatched(entry.image.get(), entry.result.get());
+        }
+    }
+
+    /**
+     * @param state the state of the entry before it was claimed
+     */
+    private void orphan(Entry entry, int state) {
+        if ((state & MATCHED) == MATCHED) {
+            // the completing side reports it
+            return;
+        }
+        if ((state & HAS_IMAGE) != 0) {
+            orphanImage(entry.image.get());
+        }
+        if ((state & HAS_RESULT) != 0) {
+            mOrphanResultCount.incrementAndGet();
+        }
+    }
+
+    private void orphanImage(Image image) {
+        mOrphanImageCount.incrementAndGet();
+        mListener.onImageOrphaned(image);
+    }
+
+    private static class Entry {
+        final long timestamp;
+        final AtomicReference<Image> image = new AtomicReference<>();
+        final AtomicReference<TotalCaptureResult> result = new AtomicReference<>();
+        final AtomicInteger state = new AtomicInteger();
+
+        Entry(long timestamp) {
+            this.timestamp = timestamp;
+        }
+
+        /**
+         * @return the state before {@code flag} was added
+         */
+        int set(int flag) {
+            int current;
+            do {
+                current = state.get();
+            } while (!state.compareAndSet(current, current | flag));
+            return current;
+        }
+
+        int claim() {
+            return set(CLAIMED);
+        }
+    }
+
+    public interface Listener {
+        /**
+         * The listener owns the image and has to close it.
+         */
+        void onMatched(@NonNull Image image, @NonNull TotalCaptureResult result);
+
+        /**
+         * No result arrived for this image in time. The listener owns the image and has to close it.
+         */
+        void onImageOrphaned(@NonNull Image image);
+    }
+}
@@ -0,0 +1,152 @@
+package com.pm.cameracore;
+
+import android.media.Image;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+/**
+ * Saves a JPEG {@link Image} into the specified {@link File}.
+ * <p>
+ * The plane buffer of a JPEG image is a direct {@link ByteBuffer}, so it is handed to a
+ * {@link FileChannel} as it is instead of being copied into a {@code byte[]} on the heap first.
+ * The image is closed as soon as the write has finished.
+ *
+ * @author pm
+ */
+public class ImageSaver implements Runnable {
+    private static final String TAG = "ImageSaver";
+
+    /**
+     * The JPEG image
+     */
+    private final Image mImage;
+    /**
+     * The file we save the image into.
+     */
+    private final File mFile;
+    private final OnImageSavedListener mListener;
+    /**
+     * Header of the saved JPEG, read from the plane buffer before it is written
+     */
+    private final JpegInfo mJpegInfo = new JpegInfo();
+    private OnHeaderParsedListener mHeaderListener;
+
+    public ImageSaver(@NonNull Image image, @NonNull File file, OnImageSavedListener listener) {
+        mImage = image;
+        mFile = file;
+        mListener = listener;
+    }
+
+    /**
+     * @param listener told about the JPEG header before the picture is written
+     */
+    public void setOnHeaderParsedListener(OnHeaderParsedListener listener) {
+        mHeaderListener = listener;
+    }
+
+    @WorkerThread
+    @Override
+    public void run() {
+        long startNanos = SystemClock.elapsedRealtimeNanos();
+        long bytesWritten = 0;
+        IOException error = null;
+        FileOutputStream fos = null;
+        try {
+            ByteBuffer buffer = mImage.getPlanes()[0].getBuffer();
+            notifyHeader(buffer);
+            fos = new FileOutputStream(mFile);
+            FileChannel channel = fos.getChannel();
+            while (buffer.hasRemaining()) {
+                bytesWritten += channel.write(buffer);
+            }
+        } catch (IOException e) {
+            error = e;
+        } finally {
+            mImage.close();
+            if (null != fos) {
+                try {
+                    fos.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        long durationNanos = SystemClock.elapsedRealtimeNanos() - startNanos;
+        if (null != error) {
+            Log.e(TAG, "run: failed to save " + mFile, error);
+            if (null != mListener) {
+                mListener.onImageSaveFailed(mFile, error);
+            }
+            return;
+        }
+        Log.d(TAG, "run: saved " + bytesWritten + " bytes in " + durationNanos / 1000000f + "ms to " + mFile
+                + " " + mJpegInfo);
+        if (null != mListener) {
+            mListener.onImageSaved(mFile, bytesWritten, durationNanos);
+        }
+    }
+
+    /**
+     * A header that cannot be read must not keep the picture from being written
+     */
+    private void notifyHeader(ByteBuffer buffer) {
+        int position = buffer.position();
+        int limit = buffer.limit();
+        try {
+            JpegHeaderParser.parse(buffer, mJpegInfo);
+            if (null != mHeaderListener) {
+                mHeaderListener.onHeaderParsed(buffer, mJpegInfo);
+            }
+        } catch (RuntimeException e) {
+            Log.w(TAG, "run: bad JPEG header, " + mFile, e);
+            mJpegInfo.reset();
+        }
+        //监听器出错时也要写出整个 JPEG
+        buffer.limit(limit);
+        buffer.position(position);
+    }
+
+    /**
+     * @return the header of the JPEG, valid once {@link #run()} has returned
+     */
+    public JpegInfo getJpegInfo() {
+        return mJpegInfo;
+    }
+
+    public interface OnHeaderParsedListener {
+        /**
+         * Called on the saving thread while the image is still open.
+         *
+         * @param jpeg the plane buffer, its position and limit must be left as they are
+         * @param info the parsed header
+         */
+        @WorkerThread
+        void onHeaderParsed(ByteBuffer jpeg, JpegInfo info);
+    }
+
+    /**
+     * Reports the result of every saved capture.
+     */
+    public interface OnImageSavedListener {
+        /**
+         * @param file          the saved JPEG file
+         * @param bytesWritten  number of bytes written to the file
+         * @param durationNanos time spent writing, including opening and closing the file
+         */
+        void onImageSaved(File file, long bytesWritten, long durationNanos);
+
+        /**
+         * @param file null if the capture was dropped before it was given a file
+         */
+        void onImageSaveFailed(File file, IOException e);
+    }
+}
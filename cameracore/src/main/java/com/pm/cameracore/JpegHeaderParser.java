@@ -0,0 +1,221 @@
+package com.pm.cameracore;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads the size, the EXIF orientation and the location of the embedded thumbnail from a JPEG
+ * without decoding any pixels.
+ * <p>
+ * Only the segment headers up to the first SOS marker are looked at, the buffer is read with
+ * absolute gets so its position and limit are left alone, and nothing is allocated. The class only
+ * depends on the JDK so it can be exercised on the JVM.
+ *
+ * @author pm
+ */
+public final class JpegHeaderParser {
+
+    private static final int MARKER_PREFIX = 0xFF;
+    private static final int MARKER_SOI = 0xD8;
+    private static final int MARKER_EOI = 0xD9;
+    private static final int MARKER_SOS = 0xDA;
+    private static final int MARKER_APP1 = 0xE1;
+    private static final int MARKER_TEM = 0x01;
+    private static final int MARKER_RST0 = 0xD0;
+    private static final int MARKER_RST7 = 0xD7;
+
+    /**
+     * "Exif\0\0"
+     */
+    private static final int EXIF_HEADER_HIGH = 0x45786966;
+    private static final int EXIF_HEADER_LOW = 0x0000;
+    private static final int EXIF_HEADER_LENGTH = 6;
+
+    private static final int TIFF_LITTLE_ENDIAN = 0x4949;
+    private static final int TIFF_BIG_ENDIAN = 0x4D4D;
+    private static final int TIFF_MAGIC = 0x002A;
+
+    private static final int TAG_ORIENTATION = 0x0112;
+    private static final int TAG_JPEG_INTERCHANGE_FORMAT = 0x0201;
+    private static final int TAG_JPEG_INTERCHANGE_FORMAT_LENGTH = 0x0202;
+    private static final int IFD_ENTRY_SIZE = 12;
+
+    private JpegHeaderParser() {
+    }
+
+    /**
+     * Parses the JPEG between {@code jpeg.position()} and {@code jpeg.limit()}.
+     *
+     * @param jpeg the encoded picture, not modified
+     * @param out  receives the result, reset first
+     * @return false if the data does not start with a JPEG SOI marker
+     */
+    public static boolean parse(ByteBuffer jpeg, JpegInfo out) {
+        out.reset();
+        final int base = jpeg.position();
+        final int end = jpeg.limit();
+        if (end - base < 4 || u8(jpeg, base) != MARKER_PREFIX || u8(jpeg, base + 1) != MARKER_SOI) {
+            return false;
+        }
+        boolean exifParsed = false;
+        int index = base + 2;
+        while (index + 1 < end) {
+            if (u8(jpeg, index) != MARKER_PREFIX) {
+                // not at a marker, the file is corrupt
+                break;
+            }
+            int marker = u8(jpeg, index + 1);
+            if (marker == MARKER_PREFIX) {
+                // fill byte
+                index++;
+                continue;
+            }
+            index += 2;
+            if (marker == MARKER_SOS || marker == MARKER_EOI) {
+                break;
+            }
+            if (marker == MARKER_TEM || (marker >= MARKER_RST0 && marker <= MARKER_RST7)) {
+                // stand alone markers carry no length
+                continue;
+            }
+            if (index + 2 > end) {
+                break;
+            }
+            int length = u16(jpeg, index, false);
+            int segmentEnd = index + length;
+            if (length < 2 || segmentEnd > end) {
+                break;
+            }
+            if (isStartOfFrame(marker) && length >= 7) {
+                out.height = u16(jpeg, index + 3, false);
+                out.width = u16(jpeg, index + 5, false);
+            } else if (marker == MARKER_APP1 && !exifParsed) {
+                exifParsed = parseExif(jpeg, index + 2, segmentEnd, base, out);
+            }
+            if (out.hasSize() && exifParsed) {
+                break;
+            }
+            index = segmentEnd;
+        }
+        return true;
+    }
+
+    /**
+     * SOF0..SOF15, except DHT (C4), JPG (C8) and DAC (CC) which share the range.
+     */
+    private static boolean isStartOfFrame(int marker) {
+        return marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+    }
+
+    /**
+     * @return true if the segment was an EXIF segment, whether or not it had the tags we want
+     */
+    private static boolean parseExif(ByteBuffer jpeg, int start, int end, int base, JpegInfo out) {
+        if (end - start < EXIF_HEADER_LENGTH + 8
+                || s32(jpeg, start, false) != EXIF_HEADER_HIGH
+                || u16(jpeg, start + 4, false) != EXIF_HEADER_LOW) {
+            return false;
+        }
+        final int tiff = start + EXIF_HEADER_LENGTH;
+        final boolean little;
+        int byteOrder = u16(jpeg, tiff, false);
+        if (byteOrder == TIFF_LITTLE_ENDIAN) {
+            little = true;
+        } else if (byteOrder == TIFF_BIG_ENDIAN) {
+            little = false;
+        } else {
+            return true;
+        }
+        if (u16(jpeg, tiff + 2, little) != TIFF_MAGIC) {
+            return true;
+        }
+        // IFD0 holds the orientation of the main picture
+        int ifd0 = locate(tiff, s32(jpeg, tiff + 4, little), 2, end);
+        int ifd0Count = readIfdCount(jpeg, ifd0, end, little);
+        if (ifd0Count < 0) {
+            return true;
+        }
+        for (int i = 0; i < ifd0Count; i++) {
+            int entry = ifd0 + 2 + i * IFD_ENTRY_SIZE;
+            if (u16(jpeg, entry, little) == TAG_ORIENTATION) {
+                out.orientation = u16(jpeg, entry + 8, little);
+            }
+        }
+        // IFD1 describes the thumbnail
+        int nextOffsetIndex = ifd0 + 2 + ifd0Count * IFD_ENTRY_SIZE;
+        if (nextOffsetIndex + 4 > end) {
+            return true;
+        }
+        int nextOffset = s32(jpeg, nextOffsetIndex, little);
+        if (nextOffset == 0) {
+            return true;
+        }
+        int ifd1 = locate(tiff, nextOffset, 2, end);
+        int ifd1Count = readIfdCount(jpeg, ifd1, end, little);
+        int thumbnailOffset = 0;
+        int thumbnailLength = 0;
+        for (int i = 0; i < ifd1Count; i++) {
+            int entry = ifd1 + 2 + i * IFD_ENTRY_SIZE;
+            int tag = u16(jpeg, entry, little);
+            if (tag == TAG_JPEG_INTERCHANGE_FORMAT) {
+                thumbnailOffset = s32(jpeg, entry + 8, little);
+            } else if (tag == TAG_JPEG_INTERCHANGE_FORMAT_LENGTH) {
+                thumbnailLength = s32(jpeg, entry + 8, little);
+            }
+        }
+        int thumbnailStart = locate(tiff, thumbnailOffset, thumbnailLength, end);
+        if (thumbnailOffset != 0 && thumbnailStart >= 0) {
+            out.thumbnailOffset = thumbnailStart - base;
+            out.thumbnailLength = thumbnailLength;
+        }
+        return true;
+    }
+
+    /**
+     * Offsets and lengths come from the file, they are checked in {@code long} so a corrupt value
+     * cannot wrap around.
+     *
+     * @param offset unsigned offset from the TIFF header
+     * @param length bytes that have to follow, positive
+     * @return the index of {@code offset} in the buffer, -1 if the range does not fit the segment
+     */
+    private static int locate(int tiff, int offset, int length, int end) {
+        if (length <= 0) {
+            return -1;
+        }
+        long start = tiff + (offset & 0xFFFFFFFFL);
+        if (start + length > end) {
+            return -1;
+        }
+        return (int) start;
+    }
+
+    /**
+     * @return the number of entries of the IFD at {@code ifd}, or -1 if it does not fit the segment
+     */
+    private static int readIfdCount(ByteBuffer jpeg, int ifd, int end, boolean little) {
+        if (ifd < 0) {
+            return -1;
+        }
+        int count = u16(jpeg, ifd, little);
+        if ((long) ifd + 2 + (long) count * IFD_ENTRY_SIZE > end) {
+            return -1;
+        }
+        return count;
+    }
+
+    private static int u8(ByteBuffer buffer, int index) {
+        return buffer.get(index) & 0xFF;
+    }
+
+    private static int u16(ByteBuffer buffer, int index, boolean little) {
+        int b0 = u8(buffer, index);
+        int b1 = u8(buffer, index + 1);
+        return little ? (b1 << 8) | b0 : (b0 << 8) | b1;
+    }
+
+    private static int s32(ByteBuffer buffer, int index, boolean little) {
+        int hi = u16(buffer, index, little);
+        int lo = u16(buffer, index + 2, little);
+        return little ? (lo << 16) | hi : (hi << 16) | lo;
+    }
+}
@@ -0,0 +1,79 @@
+package com.pm.cameracore;
+
+/**
+ * Header fields of a JPEG, filled in by {@link JpegHeaderParser}.
+ * <p>
+ * Instances are meant to be reused between captures, call {@link #reset()} or let the parser do it.
+ *
+ * @author pm
+ */
+public final class JpegInfo {
+    /**
+     * EXIF orientation value used when the tag is missing
+     */
+    public static final int ORIENTATION_UNDEFINED = 0;
+    public static final int ORIENTATION_NORMAL = 1;
+    public static final int ORIENTATION_ROTATE_180 = 3;
+    public static final int ORIENTATION_ROTATE_90 = 6;
+    public static final int ORIENTATION_ROTATE_270 = 8;
+
+    /**
+     * Width from the SOF segment, 0 if not found
+     */
+    public int width;
+    /**
+     * Height from the SOF segment, 0 if not found
+     */
+    public int height;
+    /**
+     * Value of the EXIF orientation tag (1-8), {@link #ORIENTATION_UNDEFINED} if there is none
+     */
+    public int orientation;
+    /**
+     * Offset of the embedded JPEG thumbnail, relative to the position the parsed buffer started at
+     */
+    public int thumbnailOffset;
+    /**
+     * Length of the embedded JPEG thumbnail, 0 if there is none
+     */
+    public int thumbnailLength;
+
+    public void reset() {
+        width = 0;
+        height = 0;
+        orientation = ORIENTATION_UNDEFINED;
+        thumbnailOffset = 0;
+        thumbnailLength = 0;
+    }
+
+    public boolean hasSize() {
+        return width > 0 && height > 0;
+    }
+
+    public boolean hasThumbnail() {
+        return thumbnailLength > 0;
+    }
+
+    /**
+     * @return the clockwise rotation needed to show the picture upright
+     */
+    public int getRotationDegrees() {
+        switch (orientation) {
+            case ORIENTATION_ROTATE_90:
+                return 90;
+            case ORIENTATION_ROTATE_180:
+                return 180;
+            case ORIENTATION_ROTATE_270:
+                return 270;
+            default:
+                return 0;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "JpegInfo{" + width + "x" + height
+                + ", orientation=" + orientation
+                + ", thumbnail=[" + thumbnailOffset + ", +" + thumbnailLength + "]}";
+    }
+}
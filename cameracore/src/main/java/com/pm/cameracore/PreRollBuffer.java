@@ -0,0 +1,257 @@
+package com.pm.cameracore;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * The last seconds of encoded video and audio, kept in memory until a recording starts.
+ * <p>
+ * The buffer always starts with a video key frame, so it can be written to a file as it is. The
+ * oldest group of pictures is dropped once the next key frame alone covers the window, so the
+ * buffer holds at least the window, plus up to one key frame interval. A group is also dropped,
+ * even the only one, when the memory would exceed the cap. Until the next key frame nothing is kept
+ * then.
+ * <p>
+ * Arrays of dropped samples are reused for new samples that fill at least 1/{@link #MAX_OVERSIZE}
+ * of them. The cap counts the whole arrays, of the samples held and of the free ones, free arrays
+ * are let go first.
+ * Timestamps of both tracks have to be on the same clock.
+ * <p>
+ * Not thread safe.
+ *
+ * @author pm
+ */
+public final class PreRollBuffer {
+    /**
+     * Arrays of dropped samples kept for reuse
+     */
+    private static final int MAX_FREE_ARRAYS = 16;
+    /**
+     * A free array is reused for a sample at least this fraction of its length
+     */
+    private static final int MAX_OVERSIZE = 2;
+
+    private final long mDurationUs;
+    private final long mMaxBytes;
+    private final ArrayDeque<Sample> mSamples = new ArrayDeque<>();
+    /**
+     * The video key frames of {@link #mSamples}, oldest first
+     */
+    private final ArrayDeque<Sample> mKeyFrames = new ArrayDeque<>();
+    private final ArrayDeque<byte[]> mFreeArrays = new ArrayDeque<>();
+    private long mLatestVideoUs = -1;
+    /**
+     * Encoded bytes of {@link #mSamples}
+     */
+    private long mBytes;
+    /**
+     * Length of every array held, of {@link #mSamples} and {@link #mFreeArrays}
+     */
+    private long mFootprint;
+    private long mPeakBytes;
+    private int mDroppedGroups;
+
+    /**
+     * @param durationUs how far back a recording should start
+     * @param maxBytes   cap on the memory held, see {@link #getFootprint()}
+     */
+    public PreRollBuffer(long durationUs, long maxBytes) {
+        if (durationUs <= 0 || maxBytes <= 0) {
+            throw new IllegalArgumentException("durationUs=" + durationUs + " maxBytes=" + maxBytes);
+        }
+        mDurationUs = durationUs;
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Copies the sample from the position to the limit of {@code data}.
+     *
+     * @param flags    kept for the muxer
+     * @param keyFrame for video, true if the frame can be decoded on its own
+     * @return false if the sample was not kept, as it came before the first key frame
+     */
+    public boolean add(boolean video, ByteBuffer data, long ptsUs, int flags, boolean keyFrame) {
+        if (mKeyFrames.isEmpty() && !(video && keyFrame)) {
+            return false;
+        }
+        int size = data.remaining();
+        byte[] array = obtain(size);
+        data.get(array, 0, size);
+        Sample sample = new Sample(video, keyFrame, ptsUs, flags, array, size);
+        mSamples.addLast(sample);
+        if (video) {
+            if (keyFrame) {
+                mKeyFrames.addLast(sample);
+            }
+            mLatestVideoUs = Math.max(mLatestVideoUs, ptsUs);
+        }
+        mBytes += size;
+        trim();
+        mPeakBytes = Math.max(mPeakBytes, mFootprint);
+        return true;
+    }
+
+    private void trim() {
+        while (mFootprint > mMaxBytes) {
+            if (!mFreeArrays.isEmpty()) {
+                mFootprint -= mFreeArrays.pollFirst().length;
+            } else if (!mSamples.isEmpty()) {
+                dropGroup();
+            } else {
+                break;
+            }
+        }
+        //下一个关键帧之后仍够时长时, 丢掉最早的一组
+        while (mKeyFrames.size() > 1) {
+            Iterator<Sample> iterator = mKeyFrames.iterator();
+            iterator.next();
+            if (mLatestVideoUs - iterator.next().ptsUs < mDurationUs) {
+                break;
+            }
+            dropGroup();
+        }
+    }
+
+    /**
+     * Drops the oldest key frame and everything up to the next one
+     */
+    private void dropGroup() {
+        mKeyFrames.pollFirst();
+        Sample next = mKeyFrames.peekFirst();
+        while (!mSamples.isEmpty() && mSamples.peekFirst() != next) {
+            recycle(mSamples.pollFirst());
+        }
+        if (mSamples.isEmpty()) {
+            mLatestVideoUs = -1;
+        }
+        mDroppedGroups++;
+    }
+
+    private byte[] obtain(int size) {
+        Iterator<byte[]> iterator = mFreeArrays.iterator();
+        while (iterator.hasNext()) {
+            byte[] array = iterator.next();
+            //太大的数组留给大的帧
+            if (array.length >= size && array.length <= (long) size * MAX_OVERSIZE) {
+                iterator.remove();
+                return array;
+            }
+        }
+        mFootprint += size;
+        return new byte[size];
+    }
+
+    private void recycle(Sample sample) {
+        mBytes -= sample.mSize;
+        if (mFreeArrays.size() >= MAX_FREE_ARRAYS) {
+            mFootprint -= mFreeArrays.pollFirst().length;
+        }
+        mFreeArrays.addLast(sample.mData);
+    }
+
+    /**
+     * Empties the buffer. Audio from before the first key frame is left out, the file starts with
+     * both tracks at the same moment.
+     *
+     * @return the samples from the first video key frame on, in the order they were added
+     */
+    public List<Sample> drain() {
+        List<Sample> result = new ArrayList<>(mSamples.size());
+        Sample first = mKeyFrames.peekFirst();
+        if (null != first) {
+            for (Sample sample : mSamples) {
+                if (sample.video || sample.ptsUs >= first.ptsUs) {
+                    result.add(sample);
+                }
+            }
+        }
+        mSamples.clear();
+        mKeyFrames.clear();
+        mFreeArrays.clear();
+        mLatestVideoUs = -1;
+        mBytes = 0;
+        mFootprint = 0;
+        return result;
+    }
+
+    /**
+     * @return encoded bytes held now
+     */
+    public long getBytes() {
+        return mBytes;
+    }
+
+    /**
+     * @return memory held now, the arrays of the samples and the free ones
+     */
+    public long getFootprint() {
+        return mFootprint;
+    }
+
+    /**
+     * @return most memory held at once, see {@link #getFootprint()}, never more than the cap
+     */
+    public long getPeakBytes() {
+        return mPeakBytes;
+    }
+
+    /**
+     * @return time from the first key frame to the latest video frame, 0 if empty
+     */
+    public long getDurationUs() {
+        Sample first = mKeyFrames.peekFirst();
+        return null == first ? 0 : mLatestVideoUs - first.ptsUs;
+    }
+
+    /**
+     * @return groups of pictures dropped so far, by age or by the cap
+     */
+    public int getDroppedGroups() {
+        return mDroppedGroups;
+    }
+
+    @Override
+    public String toString() {
+        return "PreRollBuffer{window=" + mDurationUs / 1000 + "ms"
+                + ", duration=" + getDurationUs() / 1000 + "ms"
+                + ", bytes=" + mBytes
+                + ", footprint=" + mFootprint + "/" + mMaxBytes
+                + ", peakBytes=" + mPeakBytes
+                + ", droppedGroups=" + mDroppedGroups + "}";
+    }
+
+    /**
+     * One encoded access unit.
+     */
+    public static final class Sample {
+        public final boolean video;
+        public final boolean keyFrame;
+        public final long ptsUs;
+        public final int flags;
+        private final byte[] mData;
+        private final int mSize;
+
+        Sample(boolean video, boolean keyFrame, long ptsUs, int flags, byte[] data, int size) {
+            this.video = video;
+            this.keyFrame = keyFrame;
+            this.ptsUs = ptsUs;
+            this.flags = flags;
+            mData = data;
+            mSize = size;
+        }
+
+        public int getSize() {
+            return mSize;
+        }
+
+        /**
+         * @return the sample, from position 0
+         */
+        public ByteBuffer getData() {
+            return ByteBuffer.wrap(mData, 0, mSize);
+        }
+    }
+}
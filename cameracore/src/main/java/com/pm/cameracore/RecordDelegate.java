@@ -1,6 +1,7 @@
 package com.pm.cameracore;
 
 import android.annotation.SuppressLint;
+import android.annotation.TargetApi;
 import android.content.Context;
 import android.graphics.Matrix;
 import android.graphics.RectF;
@@ -8,16 +9,19 @@ import android.graphics.SurfaceTexture;
 import android.hardware.camera2.CameraAccessException;
 import android.hardware.camera2.CameraCaptureSession;
 import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraConstrainedHighSpeedCaptureSession;
 import android.hardware.camera2.CameraDevice;
 import android.hardware.camera2.CameraManager;
 import android.hardware.camera2.CameraMetadata;
 import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.TotalCaptureResult;
 import android.hardware.camera2.params.StreamConfigurationMap;
 import android.media.MediaRecorder;
-import android.os.Environment;
+import android.os.Build;
 import android.os.Handler;
-import android.os.HandlerThread;
+import android.os.SystemClock;
 import android.util.Log;
+import android.util.Range;
 import android.util.Size;
 import android.util.SparseIntArray;
 import android.view.Surface;
@@ -26,17 +30,12 @@ import android.widget.Toast;
 
 import java.io.File;
 import java.io.IOException;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Date;
 import java.util.List;
-import java.util.Locale;
-import java.util.Objects;
-import java.util.concurrent.Semaphore;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
 
 import static com.pm.cameracore.BuildConfig.DEBUG;
 
@@ -71,15 +70,27 @@ public class RecordDelegate implements CameraDelegate {
     private CameraManager mCameraManager;
 
     /**
-     * A {@link Semaphore} to prevent the app from exiting before closing the camera.
+     * How long {@link #openCamera(int, int)} waits for the device
      */
-    private Semaphore mCameraOpenCloseLock = new Semaphore(1);
+    private static final long OPEN_TIMEOUT_MS = 2500;
+
+    /**
+     * Open, close and record start/stop run one after another on the camera thread
+     */
+    private final CameraOperationQueue mOperations = new CameraOperationQueue();
+    /**
+     * The open waiting for {@link CameraDevice.StateCallback#onOpened(CameraDevice)}, camera thread only
+     */
+    private CameraFuture<Void> mPendingOpen;
+    /**
+     * Fails {@link #mPendingOpen} after {@link #OPEN_TIMEOUT_MS}, camera thread only
+     */
+    private Runnable mOpenTimeout;
     private Integer mSensorOrientation;
     private Size mVideoSize;
     private Size mPreviewSize;
     private WindowManager mWindowManager;
     private String mCameraId;
-    private String mNextVideoAbsolutePath;
 
     /**
      * {@link CameraDevice.StateCallback} is called when {@link CameraDevice} changes its status.
@@ -89,22 +100,30 @@ public class RecordDelegate implements CameraDelegate {
         @Override
         public void onOpened(@NonNull CameraDevice cameraDevice) {
             //当相机打开时回调。我们在这里开始相机预览
-            mCameraOpenCloseLock.release();
+            CameraFuture<Void> open = mPendingOpen;
+            mPendingOpen = null;
+            cancelOpenTimeout();
+            if (null == open || open.isDone()) {
+                //已经超时或取消
+                cameraDevice.close();
+                return;
+            }
             mCameraDevice = cameraDevice;
             //step4 开始预览
             createCameraPreviewSession(cameraDevice);
+            open.complete(null);
         }
 
         @Override
         public void onDisconnected(@NonNull CameraDevice cameraDevice) {
-            mCameraOpenCloseLock.release();
+            failPendingOpen(new IllegalStateException("Camera disconnected"));
             cameraDevice.close();
             mCameraDevice = null;
         }
 
         @Override
         public void onError(@NonNull CameraDevice cameraDevice, int error) {
-            mCameraOpenCloseLock.release();
+            failPendingOpen(new IllegalStateException("Camera error " + error));
             cameraDevice.close();
             mCameraDevice = null;
             // TODO: 2019/9/19
@@ -112,40 +131,254 @@ public class RecordDelegate implements CameraDelegate {
     };
     private CameraDevice mCameraDevice;
     private CaptureRequest.Builder mPreviewBuilder;
-    private HandlerThread mBackgroundThread;
-    private Handler mBackgroundHandler;
+    /**
+     * Nothing is written through the storage stage, MediaRecorder does its own I/O
+     */
+    private final CameraExecutors mExecutors = new CameraExecutors(1);
+    /**
+     * Camera thread of {@link #mExecutors}, null while stopped
+     */
+    private volatile Handler mBackgroundHandler;
+    private final Handler mMainHandler;
     private CameraCaptureSession mPreviewSession;
-    private MediaRecorder mMediaRecorder;
-    private boolean mIsRecordingVideo;
+    /**
+     * Camera thread only
+     */
+    private final RecordingEngine mRecordingEngine;
+    /**
+     * Reused by every session until the camera is closed
+     */
+    private Surface mPreviewSurface;
+    /**
+     * The recorder surface of the running recording
+     */
+    private Surface mRecordSurface;
+    /**
+     * The session holds the persistent encoder surface, a recording only changes the repeating request
+     */
+    private boolean mPersistentSession;
+    /**
+     * The camera cannot take the encoder surface next to the preview, until it is closed
+     */
+    private boolean mPersistentSurfaceRejected;
+    private volatile boolean mIsRecordingVideo;
+    /**
+     * Timings of the running recording, camera thread only
+     */
+    private RecordTimings mRecordTimings;
+    private RecordTimingListener mRecordTimingListener;
+    private volatile VideoQualityPolicy mQualityPolicy = new VideoQualityPolicy();
+    /**
+     * Values that replace what {@link #mQualityPolicy} picks, may be null
+     */
+    private volatile VideoConfig mVideoConfigOverride;
+    /**
+     * Applied to the recordings of the open camera
+     */
+    private volatile VideoConfig mVideoConfig;
+    /**
+     * Frame rate asked for by {@link #setHighSpeedFrameRate(int)}, 0 for a regular session
+     */
+    private volatile int mHighSpeedFrameRate;
+    /**
+     * The constrained high speed mode of the open camera, null for a regular session
+     */
+    private volatile HighSpeedMode mHighSpeedMode;
+    /**
+     * Highest high speed frame rate of the open camera, 0 if it has none
+     */
+    private volatile int mMaxHighSpeedFrameRate;
+    private volatile SegmentPolicy mSegmentPolicy;
+    private volatile RecordingEngine.SegmentListener mSegmentListener;
+    /**
+     * The policy the engine of the open camera was given, camera thread only
+     */
+    private SegmentPolicy mOpenSegmentPolicy;
+    /**
+     * Finished segments of the running recording, null without segments
+     */
+    private volatile SegmentRetention mSegmentRetention;
+    private volatile long mPreRollMs;
+    private volatile long mPreRollMaxBytes;
+
+    /**
+     * Segments come from a thread of the engine, retention and the listener run on the camera thread
+     */
+    private final RecordingEngine.SegmentListener mEngineSegmentListener = path -> {
+        SegmentRetention retention = mSegmentRetention;
+        if (null != retention) {
+            runOnCameraThread(() -> onSegmentFinished(retention, path));
+        }
+    };
+
+    /**
+     * Tells when the first frame of a recording has reached the encoder
+     */
+    private final CameraCaptureSession.CaptureCallback mRecordCaptureCallback = new CameraCaptureSession.CaptureCallback() {
+        @Override
+        public void onCaptureCompleted(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request,
+                                       @NonNull TotalCaptureResult result) {
+            RecordTimings timings = mRecordTimings;
+            if (null == timings || !timings.onFirstFrame(SystemClock.elapsedRealtimeNanos())) {
+                return;
+            }
+            Log.d(TAG, "onCaptureCompleted: " + timings);
+            RecordTimingListener listener = mRecordTimingListener;
+            if (null != listener) {
+                listener.onRecordTiming(timings);
+            }
+        }
+    };
 
     public RecordDelegate(Context mContext, DelegateCallback mCallback) {
+        this(mContext, mCallback, new VideoRecorder(mContext));
+    }
+
+    /**
+     * @param engine records the video, e.g. {@link CodecRecorder} for frame level statistics
+     */
+    public RecordDelegate(Context mContext, DelegateCallback mCallback, RecordingEngine engine) {
         this.mContext = mContext;
         this.mCallback = mCallback;
+        mMainHandler = new Handler(mContext.getMainLooper());
+        mRecordingEngine = engine;
+    }
+
+    /**
+     * @param listener told how long every recording took to start, on the camera thread
+     */
+    public void setRecordTimingListener(RecordTimingListener listener) {
+        mRecordTimingListener = listener;
     }
 
+    /**
+     * Takes effect the next time the camera is opened.
+     */
+    public void setVideoQualityPolicy(@NonNull VideoQualityPolicy policy) {
+        mQualityPolicy = policy;
+    }
+
+    /**
+     * Takes effect the next time the camera is opened.
+     *
+     * @param override every value other than {@link VideoConfig#AUTO} replaces the chosen one,
+     *                 null to use the policy
+     */
+    public void setVideoConfig(VideoConfig override) {
+        mVideoConfigOverride = override;
+    }
+
+    /**
+     * @return bitrate, frame rate and fps range used for the open camera, null before it was opened
+     */
+    public VideoConfig getVideoConfig() {
+        return mVideoConfig;
+    }
+
+    /**
+     * Records with a constrained high speed session, e.g. at {@link HighSpeedMode#FRAME_RATE_120}.
+     * The mode closest to {@code frameRate} that the camera and an encoder support is used, up to
+     * 1080p, preview and video are both of its size. Without one the camera records as usual.
+     * Takes effect the next time the camera is opened.
+     *
+     * @param frameRate 0 for a regular session
+     */
+    public void setHighSpeedFrameRate(int frameRate) {
+        mHighSpeedFrameRate = frameRate;
+    }
+
+    /**
+     * @return the high speed mode of the open camera, null if it records with a regular session
+     */
+    public HighSpeedMode getHighSpeedMode() {
+        return mHighSpeedMode;
+    }
+
+    /**
+     * @return highest frame rate {@link #setHighSpeedFrameRate(int)} can reach on the open camera,
+     * 0 if it has no high speed modes or before it was opened
+     */
+    public int getMaxHighSpeedFrameRate() {
+        return mMaxHighSpeedFrameRate;
+    }
+
+    /**
+     * Rolls recordings over to a new file at the limits of {@code policy} and deletes the oldest
+     * files beyond its retention. The last file of a recording still goes to
+     * {@link DelegateCallback#onRecordResult}. Takes effect the next time the camera is opened.
+     *
+     * @param policy   null for one file per recording
+     * @param listener told about every finished file, the last one included, on the camera thread.
+     *                 May be null
+     */
+    public void setSegmentPolicy(SegmentPolicy policy, RecordingEngine.SegmentListener listener) {
+        mSegmentPolicy = policy;
+        mSegmentListener = listener;
+    }
+
+    /**
+     * Starts recordings {@code durationMs} before {@link #startRecordingVideo()} was called. Until
+     * then the encoder keeps the last seconds in memory, at most {@code maxBytes}. Only with the
+     * persistent encoder surface, from API 23. Takes effect the next time the camera is opened.
+     *
+     * @param durationMs 0 for no pre-roll
+     */
+    public void setPreRoll(long durationMs, long maxBytes) {
+        mPreRollMs = durationMs;
+        mPreRollMaxBytes = maxBytes;
+    }
+
+    /**
+     * Opens the camera on the camera thread once the previous close has finished.
+     *
+     * @return completes when the camera is open, fails if it could not be opened within
+     * {@link #OPEN_TIMEOUT_MS}
+     */
     @SuppressLint("MissingPermission")
     @Override
-    public void openCamera(int width, int height) {
-        //step1 选择相机预览的最佳尺寸
-        setupCameraOutputs(width, height);
-        //step2 配置相机预览的方向
-        configureTransform(width, height);
-        try {
-            //信号量中尝试获取一个许可
-            if (!mCameraOpenCloseLock.tryAcquire(2500, TimeUnit.MILLISECONDS)) {
-                throw new RuntimeException("Time out waiting to lock camera opening.");
+    public CameraFuture<Void> openCamera(final int width, final int height) {
+        return mOperations.enqueue(mExecutors.getCameraExecutor(), future -> {
+            //step1 选择相机预览的最佳尺寸
+            setupCameraOutputs(width, height);
+            //step2 配置相机预览的方向
+            configureTransform(width, height);
+            if (null == mCameraId) {
+                throw new IllegalStateException("No camera to open");
             }
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-            Log.e(TAG, "openCamera: Interrupted while trying to lock camera opening.");
+            mPendingOpen = future;
+            //step3 打开相机
+            try {
+                mExecutors.openCamera(mCameraManager, mCameraId, mStateCallback);
+            } catch (CameraAccessException e) {
+                mMainHandler.post(() -> Toast.makeText(mContext, "无法访问相机", Toast.LENGTH_SHORT).show());
+                throw e;
+            }
+            final String cameraId = mCameraId;
+            //只让这一次打开超时, 之后的打开有自己的计时
+            mOpenTimeout = () -> {
+                if (mPendingOpen == future) {
+                    failPendingOpen(new TimeoutException("Time out waiting to open camera " + cameraId));
+                }
+            };
+            mBackgroundHandler.postDelayed(mOpenTimeout, OPEN_TIMEOUT_MS);
+        });
+    }
+
+    private void failPendingOpen(Exception e) {
+        CameraFuture<Void> open = mPendingOpen;
+        mPendingOpen = null;
+        cancelOpenTimeout();
+        if (null != open && open.fail(e)) {
+            Log.w(TAG, "openCamera: ", e);
         }
-        //step3 打开相机
-        try {
-            mCameraManager.openCamera(mCameraId, mStateCallback, null);
-        } catch (CameraAccessException e) {
-            e.printStackTrace();
-            Toast.makeText(mContext, "无法访问相机", Toast.LENGTH_SHORT).show();
+    }
+
+    private void cancelOpenTimeout() {
+        Handler handler = mBackgroundHandler;
+        if (null != mOpenTimeout && null != handler) {
+            handler.removeCallbacks(mOpenTimeout);
         }
+        mOpenTimeout = null;
     }
 
     private void setupCameraOutputs(int width, int height) {
@@ -153,43 +386,72 @@ public class RecordDelegate implements CameraDelegate {
             return;
         }
         //setup camera
-        mCameraManager = (CameraManager) mContext.getSystemService(Context.CAMERA_SERVICE);
+        CameraCharacteristicsCache cache = CameraCharacteristicsCache.get(mContext);
+        mCameraManager = cache.getCameraManager();
         try {
-            for (String cameraId : Objects.requireNonNull(mCameraManager).getCameraIdList()) {
-                CameraCharacteristics characteristics = mCameraManager.getCameraCharacteristics(cameraId);
+            String cameraId = null;
+            for (String id : cache.getCameraIdList()) {
+                CameraCharacteristics characteristics = cache.getCharacteristics(id);
                 //录制视频只使用后置摄像头
                 Integer facing = characteristics.get(CameraCharacteristics.LENS_FACING);
                 if (facing != null && facing == CameraCharacteristics.LENS_FACING_FRONT) {
                     continue;
                 }
-                StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
-                if (null == map) {
-                    throw new RuntimeException("Cannot get available preview/video sizes");
-//                    continue;
-                }
-                //选择相机预览和录像的尺寸
-                mSensorOrientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
-                Size[] outputSizes = map.getOutputSizes(MediaRecorder.class);
-                mVideoSize = SizeUtils.chooseOutputSize(outputSizes, new Size(1920, 1080), new Size(16, 9), false);
-                mPreviewSize = chooseOptimalSize(map.getOutputSizes(SurfaceTexture.class), width, height, mVideoSize);
-                if (DEBUG) {
-                    for (Size size : outputSizes) {
-                        Log.d(TAG, "openCamera: size=" + size);
+                cameraId = id;
+            }
+            if (null == cameraId) {
+                return;
+            }
+            CameraCharacteristics characteristics = cache.getCharacteristics(cameraId);
+            StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+            if (null == map) {
+                throw new RuntimeException("Cannot get available preview/video sizes");
+            }
+            //选择相机预览和录像的尺寸
+            mSensorOrientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
+            HighSpeedMode highSpeedMode = chooseHighSpeedMode(characteristics);
+            if (null != highSpeedMode) {
+                //高速会话里预览和录像必须是同一个尺寸
+                mVideoSize = new Size(highSpeedMode.getWidth(), highSpeedMode.getHeight());
+                mPreviewSize = mVideoSize;
+            } else {
+                mVideoSize = cache.getSize(cameraId, CameraCharacteristicsCache.KEY_VIDEO);
+                if (null == mVideoSize) {
+                    SizeSelector<Size> outputSizes = cache.getSizeSelector(cameraId, MediaRecorder.class);
+                    mVideoSize = SizeUtils.chooseOutputSize(outputSizes, new Size(1920, 1080), new Size(16, 9), false);
+                    cache.putSize(cameraId, CameraCharacteristicsCache.KEY_VIDEO, mVideoSize);
+                    if (DEBUG) {
+                        Log.d(TAG, "openCamera: mVideoSize=" + mVideoSize);
                     }
-                    Log.d(TAG, "openCamera: mVideoSize=" + mVideoSize);
                 }
-                mWindowManager = ((WindowManager) mContext.getSystemService(Context.WINDOW_SERVICE));
-                int rotation = mWindowManager.getDefaultDisplay().getRotation();
-                int orientation = mContext.getResources().getConfiguration().orientation;
-                if (DEBUG) {
-                    //摄像头默认方向为90，手机屏幕方向为0
-                    Log.d(TAG, "openCamera: rotation=" + rotation);
-                    Log.d(TAG, "openCamera: orientation=" + orientation);
+                String previewKey = "recordPreview:" + width + "x" + height;
+                mPreviewSize = cache.getSize(cameraId, previewKey);
+                if (null == mPreviewSize) {
+                    mPreviewSize = chooseOptimalSize(cache.getSizeSelector(cameraId, SurfaceTexture.class), width, height, mVideoSize);
+                    cache.putSize(cameraId, previewKey, mPreviewSize);
                 }
-                //根据屏幕方向设置TextureView的宽高
-                changeTextureViewSize();
-                mCameraId = cameraId;
             }
+            mHighSpeedMode = highSpeedMode;
+            mWindowManager = ((WindowManager) mContext.getSystemService(Context.WINDOW_SERVICE));
+            int rotation = mWindowManager.getDefaultDisplay().getRotation();
+            mVideoConfig = null != highSpeedMode
+                    ? VideoQuality.chooseHighSpeed(mContext, cameraId, highSpeedMode, mQualityPolicy, mVideoConfigOverride)
+                    : VideoQuality.choose(mContext, characteristics, cameraId, mVideoSize, mQualityPolicy,
+                    mVideoConfigOverride);
+            mRecordingEngine.configure(mVideoSize, getOrientationHint(rotation), mVideoConfig);
+            mOpenSegmentPolicy = mSegmentPolicy;
+            mRecordingEngine.setSegmentPolicy(mOpenSegmentPolicy,
+                    null != mOpenSegmentPolicy ? mEngineSegmentListener : null);
+            mRecordingEngine.setPreRoll(mPreRollMs, mPreRollMaxBytes);
+            int orientation = mContext.getResources().getConfiguration().orientation;
+            if (DEBUG) {
+                //摄像头默认方向为90，手机屏幕方向为0
+                Log.d(TAG, "openCamera: rotation=" + rotation);
+                Log.d(TAG, "openCamera: orientation=" + orientation);
+            }
+            //根据屏幕方向设置TextureView的宽高
+            changeTextureViewSize();
+            mCameraId = cameraId;
         } catch (NullPointerException e) {
             // Currently an NPE is thrown when the Camera2API is used but not supported on the
             // device this code runs.
@@ -198,8 +460,31 @@ public class RecordDelegate implements CameraDelegate {
             // TODO: 2019/9/19
         } catch (CameraAccessException e) {
             e.printStackTrace();
-            Toast.makeText(mContext, "无法访问相机", Toast.LENGTH_SHORT).show();
+            mMainHandler.post(() -> Toast.makeText(mContext, "无法访问相机", Toast.LENGTH_SHORT).show());
+        }
+    }
+
+    /**
+     * @return the mode closest to {@link #mHighSpeedFrameRate} an encoder keeps up with, null for a
+     * regular session
+     */
+    private HighSpeedMode chooseHighSpeedMode(CameraCharacteristics characteristics) {
+        List<HighSpeedMode> modes = VideoQuality.getHighSpeedModes(characteristics);
+        mMaxHighSpeedFrameRate = HighSpeedMode.getMaxFrameRate(modes);
+        int frameRate = mHighSpeedFrameRate;
+        if (frameRate <= 0 || modes.isEmpty()) {
+            return null;
+        }
+        CodecProbe probe = CodecProbe.get(mContext);
+        for (HighSpeedMode mode : HighSpeedMode.rank(modes, frameRate, 1920, 1080)) {
+            //编码器跟不上的模式跳过
+            if (null != probe.selectBest(mode.getWidth(), mode.getHeight(), mode.getMaxFps())) {
+                Log.d(TAG, "chooseHighSpeedMode: " + mode);
+                return mode;
+            }
         }
+        Log.w(TAG, "chooseHighSpeedMode: no encoder for " + frameRate + " fps in " + modes);
+        return null;
     }
 
     /**
@@ -207,35 +492,19 @@ public class RecordDelegate implements CameraDelegate {
      * width and height are at least as large as the respective requested values, and whose aspect
      * ratio matches with the specified value.
      *
-     * @param choices     The list of sizes that the camera supports for the intended output class
+     * @param choices     The sizes that the camera supports for the intended output class
      * @param width       The minimum desired width
      * @param height      The minimum desired height
      * @param aspectRatio The aspect ratio
-     * @return The optimal {@code Size}, or an arbitrary one if none were big enough
-     */
-    private static Size chooseOptimalSize(Size[] choices, int width, int height, Size aspectRatio) {
-        // Collect the supported resolutions that are at least as big as the preview Surface
-        List<Size> bigEnough = new ArrayList<>();
-        int w = aspectRatio.getWidth();
-        int h = aspectRatio.getHeight();
-        for (Size option : choices) {
-            if (option.getHeight() == option.getWidth() * h / w &&
-                    option.getWidth() >= width && option.getHeight() >= height) {
-                bigEnough.add(option);
-            }
-        }
-
-        // Pick the smallest of those, assuming we found any
-        if (bigEnough.size() > 0) {
-            return Collections.min(bigEnough, new CompareSizesByArea());
-        } else {
-            Log.e(TAG, "Couldn't find any suitable preview size");
-            return choices[0];
-        }
+     * @return The optimal {@code Size}, or the largest one if none were big enough
+     */
+    private static Size chooseOptimalSize(SizeSelector<Size> choices, int width, int height, Size aspectRatio) {
+        return choices.selectCovering(width, height, 0, 0, aspectRatio.getWidth(), aspectRatio.getHeight());
     }
 
     private void changeTextureViewSize() {
-        mCallback.onChangeViewSize(mPreviewSize);
+        Size previewSize = mPreviewSize;
+        mMainHandler.post(() -> mCallback.onChangeViewSize(previewSize));
     }
 
     /**
@@ -265,11 +534,13 @@ public class RecordDelegate implements CameraDelegate {
             matrix.postScale(scale, scale, centerX, centerY);
             matrix.postRotate(90 * (rotation - 2), centerX, centerY);
         }
-        mCallback.onTransformView(matrix);
+        mMainHandler.post(() -> mCallback.onTransformView(matrix));
     }
 
     /**
-     * Start the camera preview.
+     * Start the camera preview. From API 23 the persistent encoder surface is configured as well, so
+     * that {@link #startRecordingVideo()} does not have to create the session again. In a high speed
+     * mode the session is a constrained high speed one.
      */
     private void createCameraPreviewSession(CameraDevice cameraDevice) {
         if (null == cameraDevice || null == mPreviewSize) {
@@ -279,18 +550,17 @@ public class RecordDelegate implements CameraDelegate {
         SurfaceTexture texture = mCallback.getSurfaceTexture();
         assert texture != null;
         texture.setDefaultBufferSize(mPreviewSize.getWidth(), mPreviewSize.getHeight());
+        if (null == mPreviewSurface) {
+            mPreviewSurface = new Surface(texture);
+        }
+        List<Surface> surfaces = new ArrayList<>(2);
+        surfaces.add(mPreviewSurface);
+        mPersistentSession = addPersistentSurface(cameraDevice, surfaces);
         try {
-            //创建CaptureRequestBuilder，TEMPLATE_PREVIEW比表示预览请求
-            mPreviewBuilder = cameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
-            Surface previewSurface = new Surface(texture);
-            //设置Surface作为预览数据的显示界面
-            mPreviewBuilder.addTarget(previewSurface);
-
-            List<Surface> surfaces = Collections.singletonList(previewSurface);
             // 创建相机捕获会话，第一个参数是捕获数据的输出Surface列表，
             // 第二个参数是CameraCaptureSession的状态回调接口，当它创建好后会回调onConfigured方法，
-            // 第三个参数用来确定Callback在哪个线程执行，为null的话就在当前线程执行
-            cameraDevice.createCaptureSession(surfaces, new CameraCaptureSession.StateCallback() {
+            // Callback在相机线程执行
+            createSession(cameraDevice, surfaces, new CameraCaptureSession.StateCallback() {
                 @Override
                 public void onConfigured(@NonNull CameraCaptureSession session) {
                     mPreviewSession = session;
@@ -299,32 +569,111 @@ public class RecordDelegate implements CameraDelegate {
 
                 @Override
                 public void onConfigureFailed(@NonNull CameraCaptureSession session) {
+                    if (mPersistentSession && cameraDevice == mCameraDevice) {
+                        //不支持多一路编码器输出, 录像时再重建会话
+                        Log.w(TAG, "onConfigureFailed: persistent surface, preview only");
+                        rejectPersistentSurface();
+                        createCameraPreviewSession(cameraDevice);
+                    }
                     // TODO: 2019/9/19
                 }
-            }, mBackgroundHandler);
+            });
         } catch (CameraAccessException e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * Adds the persistent encoder surface to {@code surfaces} if the session can take it.
+     *
+     * @return true if it was added
+     */
+    private boolean addPersistentSurface(CameraDevice cameraDevice, List<Surface> surfaces) {
+        if (!mRecordingEngine.supportsPersistentSurface() || mPersistentSurfaceRejected) {
+            return false;
+        }
+        try {
+            if (!mRecordingEngine.isPrepared()) {
+                mRecordingEngine.prepare();
+            }
+        } catch (IOException | IllegalStateException e) {
+            Log.w(TAG, "addPersistentSurface: ", e);
+            return false;
+        }
+        surfaces.add(mRecordingEngine.getInputSurface());
+        //高速会话保证支持预览加录像两路, 查询只针对普通会话
+        if (null != mHighSpeedMode || mExecutors.isSessionSupported(cameraDevice, surfaces, null)) {
+            return true;
+        }
+        surfaces.remove(surfaces.size() - 1);
+        rejectPersistentSurface();
+        return false;
+    }
+
+    private void createSession(CameraDevice cameraDevice, List<Surface> surfaces,
+                               CameraCaptureSession.StateCallback callback) throws CameraAccessException {
+        if (null != mHighSpeedMode) {
+            mExecutors.createHighSpeedCaptureSession(cameraDevice, surfaces, callback);
+        } else {
+            mExecutors.createCaptureSession(cameraDevice, surfaces, null, callback);
+        }
+    }
+
+    /**
+     * Records with a session of its own until the camera is closed
+     */
+    private void rejectPersistentSurface() {
+        mPersistentSurfaceRejected = true;
+        mPersistentSession = false;
+        //丢掉已准备的空文件
+        mRecordingEngine.release();
+    }
+
     /**
      * Update the camera preview. {@link #createCameraPreviewSession(CameraDevice cameraDevice)} needs to be called in advance.
+     * While recording the request also targets the encoder surface.
      */
     private void updatePreview() {
-        if (null == mCameraDevice) {
+        if (null == mCameraDevice || null == mPreviewSession) {
             return;
         }
-        setUpCaptureRequestBuilder(mPreviewBuilder);
-        HandlerThread thread = new HandlerThread("CameraPreview");
-        thread.start();
         try {
+            //会话里有编码器时预览也用录像模板, 开始录像时 3A 不会跳
+            boolean record = mIsRecordingVideo || mPersistentSession;
+            mPreviewBuilder = mCameraDevice.createCaptureRequest(
+                    record ? CameraDevice.TEMPLATE_RECORD : CameraDevice.TEMPLATE_PREVIEW);
+            //设置Surface作为预览数据的显示界面
+            mPreviewBuilder.addTarget(mPreviewSurface);
+            if (mIsRecordingVideo) {
+                mPreviewBuilder.addTarget(mRecordSurface);
+            } else if (mPersistentSession && mRecordingEngine.isPreRolling()) {
+                //预录: 没在录像时编码器也要收帧
+                mPreviewBuilder.addTarget(mRecordingEngine.getInputSurface());
+            }
+            setUpCaptureRequestBuilder(mPreviewBuilder);
+            CameraCaptureSession.CaptureCallback callback = mIsRecordingVideo ? mRecordCaptureCallback : null;
             //设置反复捕获数据的请求，这样预览界面就会一直有数据显示
-            mPreviewSession.setRepeatingRequest(mPreviewBuilder.build(), null, mBackgroundHandler);
+            if (null != mHighSpeedMode) {
+                setRepeatingBurst(mPreviewBuilder.build(), callback);
+            } else {
+                mPreviewSession.setRepeatingRequest(mPreviewBuilder.build(), callback, mBackgroundHandler);
+            }
         } catch (CameraAccessException e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * A high speed session repeats bursts made from {@code request}, one frame per 30 fps preview
+     * interval goes to the preview, all of them to the encoder
+     */
+    @TargetApi(Build.VERSION_CODES.M)
+    private void setRepeatingBurst(CaptureRequest request, CameraCaptureSession.CaptureCallback callback)
+            throws CameraAccessException {
+        CameraConstrainedHighSpeedCaptureSession session = (CameraConstrainedHighSpeedCaptureSession) mPreviewSession;
+        session.setRepeatingBurst(session.createHighSpeedRequestList(request), callback, mBackgroundHandler);
+    }
+
     private void closePreviewSession() {
         if (mPreviewSession != null) {
             mPreviewSession.close();
@@ -334,161 +683,241 @@ public class RecordDelegate implements CameraDelegate {
 
     private void setUpCaptureRequestBuilder(CaptureRequest.Builder builder) {
         builder.set(CaptureRequest.CONTROL_MODE, CameraMetadata.CONTROL_MODE_AUTO);
+        VideoConfig config = mVideoConfig;
+        if (null != config && config.hasFpsRange()) {
+            //预览和录像帧率一致
+            builder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, new Range<>(config.getMinFps(), config.getMaxFps()));
+        }
     }
 
-    public void startRecordingVideo() {
+    /**
+     * Starts recording on the camera thread. With the persistent encoder surface this only changes
+     * the repeating request, otherwise the session is created again with the recorder surface.
+     *
+     * @return completes once the recorder has started, fails if the camera is not open or the
+     * session could not be configured
+     */
+    public CameraFuture<Void> startRecordingVideo() {
+        final long startNanos = SystemClock.elapsedRealtimeNanos();
+        return mOperations.enqueue(mExecutors.getCameraExecutor(), future -> startRecording(future, startNanos));
+    }
+
+    private void startRecording(final CameraFuture<Void> future, long startNanos) throws CameraAccessException, IOException {
         if (null == mCameraDevice || null == mPreviewSize) {
+            throw new IllegalStateException("Camera is not open");
+        }
+        if (mIsRecordingVideo) {
+            future.complete(null);
             return;
         }
+        if (mPersistentSession && null != mPreviewSession) {
+            if (!mRecordingEngine.isPrepared()) {
+                mRecordingEngine.prepare();
+            }
+            mRecordTimings = new RecordTimings(startNanos, false);
+            startSegments();
+            mRecordSurface = mRecordingEngine.getInputSurface();
+            // Start recording, 编码器先开始, 下一帧就会被录下
+            mRecordingEngine.start();
+            mRecordTimings.onRecorderStarted(SystemClock.elapsedRealtimeNanos());
+            mIsRecordingVideo = true;
+            updatePreview();
+            future.complete(null);
+            return;
+        }
+        //准备失败时预览不受影响
+        final Surface recordSurface = mRecordingEngine.prepare();
+        mRecordTimings = new RecordTimings(startNanos, true);
         closePreviewSession();
-        setUpMediaRecorder();
-        SurfaceTexture texture = mCallback.getSurfaceTexture();
-        assert texture != null;
-        texture.setDefaultBufferSize(mPreviewSize.getWidth(), mPreviewSize.getHeight());
-        try {
-            mPreviewBuilder = mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_RECORD);
-            ArrayList<Surface> surfaces = new ArrayList<>(2);
-
-            // Set up Surface for the camera preview
-            Surface previewSurface = new Surface(texture);
-            surfaces.add(previewSurface);
-            mPreviewBuilder.addTarget(previewSurface);
-            // Set up Surface for the MediaRecorder
-            Surface recordSurface = mMediaRecorder.getSurface();
-            surfaces.add(recordSurface);
-            mPreviewBuilder.addTarget(recordSurface);
-            mCameraDevice.createCaptureSession(surfaces, new CameraCaptureSession.StateCallback() {
-                @Override
-                public void onConfigured(@NonNull CameraCaptureSession session) {
-                    mPreviewSession = session;
-                    updatePreview();
-                    mIsRecordingVideo = true;
-
-                    // Start recording
-                    mMediaRecorder.start();
-                    // TODO: 2019/9/19
-                }
+        ArrayList<Surface> surfaces = new ArrayList<>(2);
+        // Set up Surface for the camera preview
+        surfaces.add(mPreviewSurface);
+        // Set up Surface for the MediaRecorder
+        surfaces.add(recordSurface);
+        createSession(mCameraDevice, surfaces, new CameraCaptureSession.StateCallback() {
+            @Override
+            public void onConfigured(@NonNull CameraCaptureSession session) {
+                mPreviewSession = session;
+                mRecordSurface = recordSurface;
+                startSegments();
+                // Start recording
+                mRecordingEngine.start();
+                mRecordTimings.onRecorderStarted(SystemClock.elapsedRealtimeNanos());
+                mIsRecordingVideo = true;
+                updatePreview();
+                future.complete(null);
+                // TODO: 2019/9/19
+            }
 
-                @Override
-                public void onConfigureFailed(@NonNull CameraCaptureSession session) {
-                    Toast.makeText(mContext, "Failed", Toast.LENGTH_SHORT).show();
-                    // TODO: 2019/9/19
-                }
-            }, mBackgroundHandler);
-        } catch (CameraAccessException e) {
-            e.printStackTrace();
-        }
+            @Override
+            public void onConfigureFailed(@NonNull CameraCaptureSession session) {
+                // 回调在相机线程, Toast 要回到主线程
+                mMainHandler.post(() -> Toast.makeText(mContext, "Failed", Toast.LENGTH_SHORT).show());
+                mRecordTimings = null;
+                mRecordingEngine.release();
+                future.fail(new IllegalStateException("Record session configuration failed"));
+                //回到预览
+                createCameraPreviewSession(mCameraDevice);
+                // TODO: 2019/9/19
+            }
+        });
     }
 
     /**
-     * 停止录制
+     * 停止录制, 在相机线程完成
      * @param isQuit true 完全退出 false 没有完全退出，回到预览状态
+     * @return 录像文件路径, 没有在录制时为 null
      */
-    public void stopRecordingVideo(boolean isQuit) {
-        if (!mIsRecordingVideo) {
-            return;
-        }
-        mIsRecordingVideo = false;
-//        mButtonVideo.setText(R.string.record);
-        mMediaRecorder.stop();
-        mMediaRecorder.reset();
-        mMediaRecorder.release();
-        mMediaRecorder = null;
-        mCallback.onRecordResult(null, mNextVideoAbsolutePath);
-        Log.d(TAG, "Video saved: " + mNextVideoAbsolutePath);
-//        mNextVideoAbsolutePath = null;
-        if (isQuit) {
-            return;
-        }
-        createCameraPreviewSession(mCameraDevice);
+    public CameraFuture<String> stopRecordingVideo(final boolean isQuit) {
+        return mOperations.enqueue(mExecutors.getCameraExecutor(), future -> {
+            if (!mIsRecordingVideo) {
+                future.complete(null);
+                return;
+            }
+            mIsRecordingVideo = false;
+//            mButtonVideo.setText(R.string.record);
+            if (mPersistentSession) {
+                //先让相机停止向编码器送帧
+                updatePreview();
+            }
+            final String path = mRecordingEngine.stop();
+            mRecordSurface = null;
+            Log.d(TAG, "stopRecordingVideo: " + mRecordTimings + ", " + mRecordingEngine.getStats());
+            mRecordTimings = null;
+            finishSegments(path);
+            mMainHandler.post(() -> mCallback.onRecordResult(null, path));
+            Log.d(TAG, "Video saved: " + path);
+            if (!isQuit) {
+                if (mPersistentSession) {
+                    //为下一次录制准备, 持久 Surface 不变, 会话不用重建
+                    try {
+                        mRecordingEngine.prepare();
+                    } catch (IOException | IllegalStateException e) {
+                        Log.w(TAG, "stopRecordingVideo: ", e);
+                    }
+                    if (mRecordingEngine.isPreRolling()) {
+                        updatePreview();
+                    }
+                } else {
+                    createCameraPreviewSession(mCameraDevice);
+                }
+            }
+            future.complete(path);
+        });
     }
 
-    private String createVideoFilePath(Context context) {
-        final File dir = context.getExternalFilesDir(Environment.DIRECTORY_MOVIES);
+    private void startSegments() {
+        SegmentPolicy policy = mOpenSegmentPolicy;
+        mSegmentRetention = null != policy ? new SegmentRetention(policy.getMaxSegments()) : null;
+    }
 
-        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss_SSSS", Locale.getDefault());
-        String dateStr = dateFormat.format(new Date());
-        return (dir == null ? "" : (dir.getAbsolutePath() + "/"))
-                + dateStr + ".mp4";
+    /**
+     * The last file of a recording is a segment as well, it is queued after those the engine
+     * finished before
+     */
+    private void finishSegments(String path) {
+        SegmentRetention retention = mSegmentRetention;
+        mSegmentRetention = null;
+        if (null != retention && null != path) {
+            runOnCameraThread(() -> onSegmentFinished(retention, path));
+        }
     }
 
-    private void setUpMediaRecorder() {
-        if (null == mContext) {
-            return;
+    /**
+     * Camera thread
+     */
+    private void onSegmentFinished(SegmentRetention retention, String path) {
+        for (String expired : retention.add(path)) {
+            //只保留最近的几段
+            File file = new File(expired);
+            if (file.exists() && !file.delete()) {
+                Log.w(TAG, "onSegmentFinished: could not delete " + expired);
+            }
         }
-        if (mMediaRecorder == null) {
-            mMediaRecorder = new MediaRecorder();
+        Log.d(TAG, "onSegmentFinished: " + path);
+        RecordingEngine.SegmentListener listener = mSegmentListener;
+        if (null != listener) {
+            listener.onSegmentFinished(path);
         }
-        mMediaRecorder.setAudioSource(MediaRecorder.AudioSource.MIC);
-        mMediaRecorder.setVideoSource(MediaRecorder.VideoSource.SURFACE);
-        mMediaRecorder.setOutputFormat(MediaRecorder.OutputFormat.MPEG_4);
-
+    }
 
-        if (mNextVideoAbsolutePath == null || mNextVideoAbsolutePath.isEmpty()) {
+    private void runOnCameraThread(Runnable task) {
+        Handler handler = mBackgroundHandler;
+        if (null == handler || !handler.post(task)) {
+            task.run();
         }
-        mNextVideoAbsolutePath = createVideoFilePath(mContext);
-        mMediaRecorder.setOutputFile(mNextVideoAbsolutePath);
-        mMediaRecorder.setVideoEncodingBitRate(10000000);
-        //每秒30帧
-        mMediaRecorder.setVideoFrameRate(30);
-        mMediaRecorder.setVideoSize(mVideoSize.getWidth(), mVideoSize.getHeight());
-        mMediaRecorder.setVideoEncoder(MediaRecorder.VideoEncoder.H264);
-        mMediaRecorder.setAudioEncoder(MediaRecorder.AudioEncoder.AAC);
-        int rotation = mWindowManager.getDefaultDisplay().getRotation();
+    }
+
+    /**
+     * Orientation of the recorded video for the display {@code rotation}
+     */
+    private int getOrientationHint(int rotation) {
         switch (mSensorOrientation) {
-            case SENSOR_ORIENTATION_DEFAULT_DEGREES:
-                mMediaRecorder.setOrientationHint(DEFAULT_ORIENTATIONS.get(rotation));
-                break;
             case SENSOR_ORIENTATION_INVERSE_DEGREES:
-                mMediaRecorder.setOrientationHint(INVERSE_ORIENTATIONS.get(rotation));
-                break;
+                return INVERSE_ORIENTATIONS.get(rotation);
+            case SENSOR_ORIENTATION_DEFAULT_DEGREES:
             default:
-                mMediaRecorder.setOrientationHint(DEFAULT_ORIENTATIONS.get(rotation));
-                break;
-        }
-        try {
-            mMediaRecorder.prepare();
-        } catch (IOException e) {
-            e.printStackTrace();
+                return DEFAULT_ORIENTATIONS.get(rotation);
         }
     }
 
+    /**
+     * Closes the camera on the camera thread after everything queued before it.
+     */
     @Override
-    public void closeCamera() {
-        try {
-            mCameraOpenCloseLock.acquire();
+    public CameraFuture<Void> closeCamera() {
+        return mOperations.enqueue(mExecutors.getCameraExecutor(), future -> {
+            cancelOpenTimeout();
             closePreviewSession();
             if (null != mCameraDevice) {
                 mCameraDevice.close();
                 mCameraDevice = null;
             }
-            /*if (null != mMediaRecorder) {
-                mMediaRecorder.release();
-                mMediaRecorder = null;
-            }*/
-        } catch (InterruptedException e) {
-            throw new RuntimeException("Interrupted while trying to lock camera closing.");
-        } finally {
-            mCameraOpenCloseLock.release();
-        }
+            //相机关闭后才能释放编码器的 Surface
+            final String path = mRecordingEngine.release();
+            finishSegments(path);
+            mIsRecordingVideo = false;
+            mPersistentSession = false;
+            mPersistentSurfaceRejected = false;
+            mRecordSurface = null;
+            mRecordTimings = null;
+            if (null != path) {
+                mMainHandler.post(() -> mCallback.onRecordResult(null, path));
+            }
+            if (null != mPreviewSurface) {
+                mPreviewSurface.release();
+                mPreviewSurface = null;
+            }
+            future.complete(null);
+        });
     }
 
     @Override
     public void startBackgroundThread() {
-        mBackgroundThread = new HandlerThread("CameraBackground");
-        mBackgroundThread.start();
-        mBackgroundHandler = new Handler(mBackgroundThread.getLooper());
+        mExecutors.start();
+        mBackgroundHandler = mExecutors.getCameraHandler();
     }
 
+    /**
+     * Returns right away, the threads stop once the queued close is done.
+     */
     @Override
     public void stopBackgroundThread() {
-        mBackgroundThread.quitSafely();
-        try {
-            mBackgroundThread.join();
-            mBackgroundThread = null;
-            mBackgroundHandler = null;
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
+        mExecutors.stopWhenDone(mOperations.getTail());
+    }
+
+    /**
+     * @return the threads of this delegate and their queue depths
+     */
+    public CameraExecutors getExecutors() {
+        return mExecutors;
+    }
+
+    /**
+     * Receives the {@link RecordTimings} of every recording.
+     */
+    public interface RecordTimingListener {
+        @WorkerThread
+        void onRecordTiming(RecordTimings timings);
     }
 }
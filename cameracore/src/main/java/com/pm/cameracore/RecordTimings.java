@@ -0,0 +1,75 @@
+package com.pm.cameracore;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How long a recording took to get going: from the record button until {@link VideoRecorder#start()}
+ * returned, and until the camera handed the first frame to the encoder surface.
+ * <p>
+ * {@link android.media.MediaRecorder} does not report encoded frames, the first completed capture
+ * that targets the encoder surface is the closest point we can observe. The encoder has the frame
+ * from then on.
+ *
+ * @author pm
+ */
+public final class RecordTimings {
+    private final long mStartNanos;
+    private final boolean mReconfigured;
+    private long mRecorderStartNanos = -1;
+    private long mFirstFrameNanos = -1;
+
+    /**
+     * @param reconfigured true if the session had to be created again with the encoder surface
+     */
+    RecordTimings(long startNanos, boolean reconfigured) {
+        mStartNanos = startNanos;
+        mReconfigured = reconfigured;
+    }
+
+    synchronized void onRecorderStarted(long nanos) {
+        mRecorderStartNanos = nanos;
+    }
+
+    /**
+     * @return true for the first frame of the recording
+     */
+    synchronized boolean onFirstFrame(long nanos) {
+        if (mFirstFrameNanos >= 0) {
+            return false;
+        }
+        mFirstFrameNanos = nanos;
+        return true;
+    }
+
+    /**
+     * @return true if the recording had to wait for a new capture session
+     */
+    public synchronized boolean isReconfigured() {
+        return mReconfigured;
+    }
+
+    /**
+     * @return time from the record button until the recorder was started, -1 if it did not start
+     */
+    public synchronized long getRecorderStartNanos() {
+        return mRecorderStartNanos < 0 ? -1 : mRecorderStartNanos - mStartNanos;
+    }
+
+    /**
+     * @return time from the record button until the first frame reached the encoder, -1 if none did
+     */
+    public synchronized long getFirstFrameLatencyNanos() {
+        return mFirstFrameNanos < 0 ? -1 : mFirstFrameNanos - mStartNanos;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "RecordTimings{reconfigured=" + mReconfigured
+                + ", recorderStart=" + millis(getRecorderStartNanos()) + "ms"
+                + ", firstFrame=" + millis(getFirstFrameLatencyNanos()) + "ms}";
+    }
+
+    private static long millis(long nanos) {
+        return nanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+}
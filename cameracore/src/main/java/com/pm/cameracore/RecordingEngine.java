@@ -0,0 +1,119 @@
+package com.pm.cameracore;
+
+import android.util.Size;
+import android.view.Surface;
+
+import java.io.IOException;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+/**
+ * Turns the frames the camera sends to {@link #prepare()}'s surface, and the microphone, into a
+ * video file. {@link VideoRecorder} records through {@link android.media.MediaRecorder},
+ * {@link CodecRecorder} drives {@link android.media.MediaCodec} and
+ * {@link android.media.MediaMuxer} itself and reports {@link RecordingStats}.
+ * <p>
+ * Not thread safe, used on the camera thread.
+ *
+ * @author pm
+ */
+public interface RecordingEngine {
+
+    /**
+     * @return true if {@link #getInputSurface()} outlives a recording, so it can stay an output of
+     * the capture session for as long as the camera is open
+     */
+    boolean supportsPersistentSurface();
+
+    /**
+     * Applies to the next {@link #prepare()}.
+     *
+     * @param orientationHint clockwise rotation of the video, in degrees
+     * @param config          bitrate and frame rate, see {@link VideoQuality}
+     */
+    void configure(@NonNull Size videoSize, int orientationHint, @NonNull VideoConfig config);
+
+    Size getVideoSize();
+
+    /**
+     * Applies to the next {@link #prepare()}.
+     *
+     * @param policy   when to roll over to the next file without losing a frame, null for one file
+     * @param listener told about every file finished while recording, may be null. The last file is
+     *                 returned by {@link #stop()} instead
+     */
+    void setSegmentPolicy(@Nullable SegmentPolicy policy, @Nullable SegmentListener listener);
+
+    /**
+     * Applies to the next {@link #prepare()}. The prepared engine then encodes what the camera sends
+     * into memory, and {@link #start()} begins the file with the last {@code durationMs} of it.
+     *
+     * @param durationMs 0 for no pre-roll
+     * @param maxBytes   cap on the memory the encoded frames take, older frames are dropped first
+     */
+    void setPreRoll(long durationMs, long maxBytes);
+
+    /**
+     * Sets up the engine for a new file. Prepares again if it was prepared before but not started.
+     *
+     * @return the surface the camera has to fill while recording
+     */
+    @NonNull
+    Surface prepare() throws IOException;
+
+    /**
+     * @return the persistent input surface, null if not supported or before the first {@link #prepare()}
+     */
+    @Nullable
+    Surface getInputSurface();
+
+    boolean isPrepared();
+
+    boolean isRecording();
+
+    /**
+     * @return true if the prepared engine already encodes what the camera sends, the camera has to
+     * target {@link #getInputSurface()} before {@link #start()} as well
+     */
+    boolean isPreRolling();
+
+    /**
+     * Starts the prepared engine, frames sent to the surface from now on are recorded.
+     */
+    void start();
+
+    /**
+     * @return the recorded file, null if nothing was recorded
+     */
+    @Nullable
+    String stop();
+
+    /**
+     * Stops a recording still running and frees the engine and the input surface.
+     *
+     * @return the recorded file, see {@link #stop()}
+     */
+    @Nullable
+    String release();
+
+    /**
+     * @return statistics of the running or last recording, null if the engine does not keep any
+     */
+    @Nullable
+    RecordingStats getStats();
+
+    /**
+     * Receives the segments of a recording that uses a {@link SegmentPolicy}.
+     */
+    interface SegmentListener {
+        /**
+         * Called on a thread of the engine, keep it short.
+         *
+         * @param path a complete file, the recording goes on in the next one
+         */
+        @WorkerThread
+        void onSegmentFinished(@NonNull String path);
+    }
+}
@@ -0,0 +1,146 @@
+package com.pm.cameracore;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Frame level statistics of one recording, see {@link CodecRecorder}.
+ * <p>
+ * Frames are counted as they leave the video encoder. A gap between two presentation times of more
+ * than half a frame interval above the target frame rate counts the missing frames as dropped,
+ * whether the camera slowed down, e.g. for a longer exposure, or the encoder skipped them.
+ * <p>
+ * Filled in by the encoder thread and read by anyone, so access is synchronized.
+ *
+ * @author pm
+ */
+public class RecordingStats {
+    private final int mFrameRate;
+    private final long mFrameIntervalUs;
+    private int mVideoFrames;
+    private int mKeyFrames;
+    private int mDroppedFrames;
+    private long mVideoBytes;
+    private long mAudioBytes;
+    private long mFirstPtsUs = -1;
+    private long mLastPtsUs = -1;
+    private int mLatencyFrames;
+    private long mTotalLatencyNanos;
+    private long mMaxLatencyNanos;
+    private long mPreRollUs;
+    private long mPreRollPeakBytes;
+
+    /**
+     * @param frameRate the frame rate the encoder was configured with
+     */
+    public RecordingStats(int frameRate) {
+        mFrameRate = frameRate;
+        mFrameIntervalUs = frameRate > 0 ? TimeUnit.SECONDS.toMicros(1) / frameRate : 0;
+    }
+
+    /**
+     * @param ptsUs        presentation time of the encoded frame
+     * @param bytes        size of the encoded frame
+     * @param latencyNanos time from the camera timestamp of the frame until it left the encoder,
+     *                     negative if unknown
+     */
+    public synchronized void onVideoFrame(long ptsUs, int bytes, long latencyNanos, boolean keyFrame) {
+        if (mLastPtsUs >= 0 && mFrameIntervalUs > 0) {
+            long gapUs = ptsUs - mLastPtsUs;
+            if (gapUs * 2 > mFrameIntervalUs * 3) {
+                mDroppedFrames += (int) ((gapUs + mFrameIntervalUs / 2) / mFrameIntervalUs) - 1;
+            }
+        }
+        if (mFirstPtsUs < 0) {
+            mFirstPtsUs = ptsUs;
+        }
+        mLastPtsUs = Math.max(mLastPtsUs, ptsUs);
+        mVideoFrames++;
+        if (keyFrame) {
+            mKeyFrames++;
+        }
+        mVideoBytes += bytes;
+        if (latencyNanos >= 0) {
+            mLatencyFrames++;
+            mTotalLatencyNanos += latencyNanos;
+            mMaxLatencyNanos = Math.max(mMaxLatencyNanos, latencyNanos);
+        }
+    }
+
+    public synchronized void onAudioFrame(int bytes) {
+        mAudioBytes += bytes;
+    }
+
+    /**
+     * The frames of the pre-roll are counted as video frames as well, without a latency.
+     *
+     * @param durationUs time the pre-roll added in front of the tap
+     * @param peakBytes  most memory the pre-roll held for encoded frames
+     */
+    public synchronized void onPreRoll(long durationUs, long peakBytes) {
+        mPreRollUs = durationUs;
+        mPreRollPeakBytes = peakBytes;
+    }
+
+    public synchronized long getPreRollUs() {
+        return mPreRollUs;
+    }
+
+    public synchronized long getPreRollPeakBytes() {
+        return mPreRollPeakBytes;
+    }
+
+    public int getFrameRate() {
+        return mFrameRate;
+    }
+
+    public synchronized int getVideoFrames() {
+        return mVideoFrames;
+    }
+
+    public synchronized int getKeyFrames() {
+        return mKeyFrames;
+    }
+
+    public synchronized int getDroppedFrames() {
+        return mDroppedFrames;
+    }
+
+    /**
+     * @return time covered by the video, the last frame lasting one frame interval
+     */
+    public synchronized long getDurationUs() {
+        return mFirstPtsUs < 0 ? 0 : mLastPtsUs - mFirstPtsUs + mFrameIntervalUs;
+    }
+
+    /**
+     * @return bits per second the video encoder actually produced
+     */
+    public synchronized long getVideoBitrate() {
+        long durationUs = getDurationUs();
+        return durationUs <= 0 ? 0 : mVideoBytes * 8 * TimeUnit.SECONDS.toMicros(1) / durationUs;
+    }
+
+    public synchronized long getAudioBytes() {
+        return mAudioBytes;
+    }
+
+    public synchronized long getAverageLatencyNanos() {
+        return mLatencyFrames == 0 ? 0 : mTotalLatencyNanos / mLatencyFrames;
+    }
+
+    public synchronized long getMaxLatencyNanos() {
+        return mMaxLatencyNanos;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "RecordingStats{frames=" + mVideoFrames
+                + ", keyFrames=" + mKeyFrames
+                + ", dropped=" + mDroppedFrames
+                + ", bitrate=" + getVideoBitrate() / 1000 + "kbps"
+                + ", latency=" + TimeUnit.NANOSECONDS.toMillis(getAverageLatencyNanos())
+                + "/" + TimeUnit.NANOSECONDS.toMillis(mMaxLatencyNanos) + "ms"
+                + (mPreRollUs > 0 ? ", preRoll=" + TimeUnit.MICROSECONDS.toMillis(mPreRollUs)
+                + "ms/" + mPreRollPeakBytes / 1024 + "KB" : "") + "}";
+    }
+}
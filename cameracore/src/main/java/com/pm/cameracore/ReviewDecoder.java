@@ -0,0 +1,253 @@
+package com.pm.cameracore;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.media.ExifInterface;
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+/**
+ * Decodes a saved JPEG for the review screen.
+ * <p>
+ * The picture is subsampled by the largest power of two that still covers the target view, decoded
+ * as {@link Bitmap.Config#RGB_565} on low memory devices and rotated according to its EXIF orientation.
+ * Decodes write into bitmaps taken from a {@link BitmapPool} whenever one fits.
+ *
+ * @author pm
+ */
+public class ReviewDecoder {
+    private static final String TAG = "ReviewDecoder";
+
+    /**
+     * Devices with a heap class at or below this value (in MB) decode reviews without alpha
+     */
+    private static final int LOW_MEMORY_CLASS_MB = 128;
+
+    public enum Mode {
+        /**
+         * 按目标尺寸采样解码
+         */
+        SAMPLED,
+        /**
+         * 原图解码
+         */
+        FULL_RESOLUTION
+    }
+
+    private final Bitmap.Config mConfig;
+    private final BitmapPool mBitmapPool;
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private Mode mMode = Mode.SAMPLED;
+
+    public ReviewDecoder(Context context) {
+        this(context, BitmapPool.get(context));
+    }
+
+    public ReviewDecoder(Context context, BitmapPool bitmapPool) {
+        mConfig = chooseConfig(context);
+        mBitmapPool = bitmapPool;
+    }
+
+    public BitmapPool getBitmapPool() {
+        return mBitmapPool;
+    }
+
+    public void setMode(Mode mode) {
+        mMode = mode;
+    }
+
+    public Mode getMode() {
+        return mMode;
+    }
+
+    public Bitmap.Config getConfig() {
+        return mConfig;
+    }
+
+    /**
+     * @param path         the saved JPEG
+     * @param targetWidth  width of the view the review is shown in
+     * @param targetHeight height of the view the review is shown in
+     * @return the review bitmap, already upright, or null if the file could not be decoded
+     */
+    @WorkerThread
+    @Nullable
+    public Bitmap decode(String path, int targetWidth, int targetHeight) {
+        return decode(path, targetWidth, targetHeight, readRotationDegrees(path));
+    }
+
+    /**
+     * Same as {@link #decode(String, int, int)} for a picture whose rotation is already known,
+     * e.g. from {@link JpegInfo#getRotationDegrees()}, so the EXIF data is not read again.
+     */
+    @WorkerThread
+    @Nullable
+    public Bitmap decode(String path, int targetWidth, int targetHeight, int degrees) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            Log.e(TAG, "decode: not a picture " + path);
+            return null;
+        }
+        boolean swapped = degrees == 90 || degrees == 270;
+
+        options.inJustDecodeBounds = false;
+        options.inPreferredConfig = mConfig;
+        if (mMode == Mode.SAMPLED && targetWidth > 0 && targetHeight > 0) {
+            // compare against the target as the decoded pixels see it
+            options.inSampleSize = swapped
+                    ? calculateInSampleSize(options.outWidth, options.outHeight, targetHeight, targetWidth)
+                    : calculateInSampleSize(options.outWidth, options.outHeight, targetWidth, targetHeight);
+        }
+        Log.d(TAG, "decode: " + options.outWidth + "x" + options.outHeight
+                + " inSampleSize=" + options.inSampleSize + " rotation=" + degrees);
+        int sampleSize = Math.max(1, options.inSampleSize);
+        prepareReuse(options, ceilDiv(options.outWidth, sampleSize), ceilDiv(options.outHeight, sampleSize));
+        Bitmap bitmap = BitmapFactory.decodeFile(path, options);
+        if (null == bitmap && null != options.inBitmap) {
+            // decodeFile swallows the IllegalArgumentException of a pooled bitmap that did not fit
+            mBitmapPool.put(options.inBitmap);
+            options.inBitmap = null;
+            bitmap = BitmapFactory.decodeFile(path, options);
+        }
+        return rotate(bitmap, degrees);
+    }
+
+    /**
+     * Calculates the largest power of two sample size that keeps both dimensions at least as large
+     * as the requested ones.
+     */
+    public static int calculateInSampleSize(int width, int height, int reqWidth, int reqHeight) {
+        int inSampleSize = 1;
+        if (height > reqHeight || width > reqWidth) {
+            final int halfHeight = height / 2;
+            final int halfWidth = width / 2;
+            while ((halfHeight / inSampleSize) >= reqHeight && (halfWidth / inSampleSize) >= reqWidth) {
+                inSampleSize *= 2;
+            }
+        }
+        return inSampleSize;
+    }
+
+    /**
+     * @return {@link Bitmap.Config#RGB_565} on low memory devices, {@link Bitmap.Config#ARGB_8888} otherwise
+     */
+    public static Bitmap.Config chooseConfig(Context context) {
+        ActivityManager am = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        if (null == am) {
+            return Bitmap.Config.ARGB_8888;
+        }
+        if (am.isLowRamDevice() || am.getMemoryClass() <= LOW_MEMORY_CLASS_MB) {
+            return Bitmap.Config.RGB_565;
+        }
+        return Bitmap.Config.ARGB_8888;
+    }
+
+    /**
+     * @return the clockwise rotation stored in the EXIF orientation tag, 0 if there is none
+     */
+    private static int readRotationDegrees(String path) {
+        try {
+            ExifInterface exif = new ExifInterface(path);
+            int orientation = exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+            switch (orientation) {
+                case ExifInterface.ORIENTATION_ROTATE_90:
+                    return 90;
+                case ExifInterface.ORIENTATION_ROTATE_180:
+                    return 180;
+                case ExifInterface.ORIENTATION_ROTATE_270:
+                    return 270;
+                default:
+                    return 0;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return 0;
+        }
+    }
+
+    /**
+     * Decodes the embedded EXIF thumbnail of a JPEG and turns it upright.
+     *
+     * @param jpeg the encoded picture, its position and limit are left alone
+     * @param info the header of {@code jpeg}
+     * @return the thumbnail or null if the picture has none
+     */
+    @WorkerThread
+    @Nullable
+    public Bitmap decodeThumbnail(ByteBuffer jpeg, JpegInfo info) {
+        if (!info.hasThumbnail()) {
+            return null;
+        }
+        // the thumbnail is only a few kilobytes, copy it out of the (direct) plane buffer
+        byte[] data = new byte[info.thumbnailLength];
+        ByteBuffer source = jpeg.duplicate();
+        source.position(jpeg.position() + info.thumbnailOffset);
+        source.get(data);
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+        options.inJustDecodeBounds = false;
+        options.inPreferredConfig = mConfig;
+        prepareReuse(options, options.outWidth, options.outHeight);
+        Bitmap bitmap;
+        try {
+            bitmap = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        } catch (IllegalArgumentException e) {
+            // the pooled bitmap did not fit after all
+            bitmap = null;
+        }
+        if (null == bitmap && null != options.inBitmap) {
+            mBitmapPool.put(options.inBitmap);
+            options.inBitmap = null;
+            bitmap = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        }
+        return rotate(bitmap, info.getRotationDegrees());
+    }
+
+    /**
+     * Lets the decoder write into a pooled bitmap that can hold {@code width x height} pixels.
+     */
+    private void prepareReuse(BitmapFactory.Options options, int width, int height) {
+        options.inMutable = true;
+        options.inBitmap = mBitmapPool.getReusable(width, height, mConfig);
+    }
+
+    /**
+     * Draws {@code bitmap} rotated into a pooled bitmap and gives the source back to the pool.
+     */
+    private Bitmap rotate(Bitmap bitmap, int degrees) {
+        if (null == bitmap || degrees == 0) {
+            return bitmap;
+        }
+        Matrix matrix = new Matrix();
+        matrix.postRotate(degrees);
+        RectF bounds = new RectF(0, 0, bitmap.getWidth(), bitmap.getHeight());
+        matrix.mapRect(bounds);
+        matrix.postTranslate(-bounds.left, -bounds.top);
+        Bitmap.Config config = null == bitmap.getConfig() ? mConfig : bitmap.getConfig();
+        Bitmap rotated = mBitmapPool.get(Math.round(bounds.width()), Math.round(bounds.height()), config);
+        new Canvas(rotated).drawBitmap(bitmap, matrix, mPaint);
+        mBitmapPool.put(bitmap);
+        return rotated;
+    }
+
+    private static int ceilDiv(int value, int divisor) {
+        return (value + divisor - 1) / divisor;
+    }
+}
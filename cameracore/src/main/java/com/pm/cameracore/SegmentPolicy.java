@@ -0,0 +1,81 @@
+package com.pm.cameracore;
+
+/**
+ * When a recording rolls over to the next file, and how many finished files are kept.
+ * <p>
+ * {@link CodecRecorder} switches the muxer on the first key frame once a limit is reached.
+ * {@link VideoRecorder} only knows a size limit, a duration is turned into a size by the bitrate,
+ * so its segments are only about as long as asked for.
+ * <p>
+ * Immutable.
+ *
+ * @author pm
+ */
+public final class SegmentPolicy {
+    /**
+     * No limit, or for the retention, every segment is kept
+     */
+    public static final int UNLIMITED = 0;
+
+    private final long mMaxDurationMs;
+    private final long mMaxBytes;
+    private final int mMaxSegments;
+
+    /**
+     * @param maxDurationMs length of a segment, {@link #UNLIMITED} to roll by size only
+     * @param maxBytes      size of a segment, {@link #UNLIMITED} to roll by duration only
+     * @param maxSegments   finished segments kept of a recording, the oldest are deleted, the
+     *                      one being written not counted. {@link #UNLIMITED} keeps all
+     */
+    public SegmentPolicy(long maxDurationMs, long maxBytes, int maxSegments) {
+        if (maxDurationMs < 0 || maxBytes < 0 || maxSegments < 0
+                || UNLIMITED == maxDurationMs && UNLIMITED == maxBytes) {
+            throw new IllegalArgumentException("maxDurationMs=" + maxDurationMs + " maxBytes=" + maxBytes
+                    + " maxSegments=" + maxSegments);
+        }
+        mMaxDurationMs = maxDurationMs;
+        mMaxBytes = maxBytes;
+        mMaxSegments = maxSegments;
+    }
+
+    public long getMaxDurationMs() {
+        return mMaxDurationMs;
+    }
+
+    public long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    public int getMaxSegments() {
+        return mMaxSegments;
+    }
+
+    /**
+     * @param durationUs time the segment being written covers
+     * @param bytes      encoded bytes written to it
+     * @return true if the next key frame should start a new segment
+     */
+    public boolean isDue(long durationUs, long bytes) {
+        return UNLIMITED != mMaxDurationMs && durationUs >= mMaxDurationMs * 1000
+                || UNLIMITED != mMaxBytes && bytes >= mMaxBytes;
+    }
+
+    /**
+     * @param bitRate bits per second of all tracks together
+     * @return the size limit that stands in for both limits, {@link #UNLIMITED} if there is none
+     */
+    public long getMaxFileSize(long bitRate) {
+        long result = mMaxBytes;
+        if (UNLIMITED != mMaxDurationMs && bitRate > 0) {
+            long durationBytes = Math.max(1, mMaxDurationMs * bitRate / 8000);
+            result = UNLIMITED == result ? durationBytes : Math.min(result, durationBytes);
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "SegmentPolicy{maxDurationMs=" + mMaxDurationMs + ", maxBytes=" + mMaxBytes
+                + ", maxSegments=" + mMaxSegments + "}";
+    }
+}
@@ -0,0 +1,54 @@
+package com.pm.cameracore;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The finished segments of one recording, within the window of {@link SegmentPolicy#getMaxSegments()},
+ * like a dashcam that keeps the last few minutes.
+ * <p>
+ * Not thread safe, used on the camera thread.
+ *
+ * @author pm
+ */
+public final class SegmentRetention {
+    private final int mMaxSegments;
+    private final ArrayDeque<String> mSegments = new ArrayDeque<>();
+
+    /**
+     * @param maxSegments segments kept, {@link SegmentPolicy#UNLIMITED} for all
+     */
+    public SegmentRetention(int maxSegments) {
+        mMaxSegments = maxSegments;
+    }
+
+    /**
+     * @param path the segment that was just finished
+     * @return the oldest segments that fell out of the window, oldest first, for the caller to delete
+     */
+    public List<String> add(String path) {
+        mSegments.addLast(path);
+        if (SegmentPolicy.UNLIMITED == mMaxSegments || mSegments.size() <= mMaxSegments) {
+            return Collections.emptyList();
+        }
+        List<String> expired = new ArrayList<>(mSegments.size() - mMaxSegments);
+        while (mSegments.size() > mMaxSegments) {
+            expired.add(mSegments.removeFirst());
+        }
+        return expired;
+    }
+
+    /**
+     * @return the kept segments, oldest first
+     */
+    public List<String> getSegments() {
+        return new ArrayList<>(mSegments);
+    }
+
+    @Override
+    public String toString() {
+        return "SegmentRetention{maxSegments=" + mMaxSegments + ", segments=" + mSegments + "}";
+    }
+}
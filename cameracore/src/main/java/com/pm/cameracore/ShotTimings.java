@@ -0,0 +1,154 @@
+package com.pm.cameracore;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Where the time of one shot went: how long {@link ShutterStateMachine} spent in every state, which
+ * states ran into their deadline and how long it took until the shutter opened.
+ * <p>
+ * Filled in by whichever thread moves the shot on, so access is synchronized.
+ *
+ * @author pm
+ */
+public final class ShotTimings {
+    private int mCount;
+    private final long mStartNanos;
+    private long mReleaseNanos;
+    private final long[] mStateNanos = new long[ShutterStateMachine.State.values().length];
+    /**
+     * Bit per state ordinal
+     */
+    private int mTimedOut;
+    private boolean mFastPath;
+    private boolean mPrefocus;
+    private long mShutterNanos = -1;
+    private long mEndNanos = -1;
+    private boolean mAborted;
+
+    ShotTimings(int count, long startNanos) {
+        mCount = count;
+        mStartNanos = startNanos;
+        mReleaseNanos = startNanos;
+    }
+
+    synchronized void addStateTime(ShutterStateMachine.State state, long nanos) {
+        mStateNanos[state.ordinal()] += nanos;
+    }
+
+    synchronized void markTimedOut(ShutterStateMachine.State state) {
+        mTimedOut |= 1 << state.ordinal();
+    }
+
+    synchronized void markFastPath() {
+        mFastPath = true;
+    }
+
+    synchronized void markPrefocus() {
+        mPrefocus = true;
+    }
+
+    /**
+     * The shutter was released after a prefocus.
+     */
+    synchronized void onRelease(int count, long nanos) {
+        mCount = count;
+        mReleaseNanos = nanos;
+    }
+
+    /**
+     * @return true for the first still of the shot
+     */
+    synchronized boolean onShutter(long nanos) {
+        if (mShutterNanos >= 0) {
+            return false;
+        }
+        mShutterNanos = nanos;
+        return true;
+    }
+
+    synchronized void finish(long nanos, boolean aborted) {
+        mEndNanos = nanos;
+        mAborted = aborted;
+    }
+
+    /**
+     * @return number of stills the shot asked for
+     */
+    public synchronized int getCount() {
+        return mCount;
+    }
+
+    /**
+     * @return true if focus and precapture were skipped because the preview had converged
+     */
+    public synchronized boolean isFastPath() {
+        return mFastPath;
+    }
+
+    /**
+     * @return true if 3A was started when the shutter button went down
+     */
+    public synchronized boolean isPrefocus() {
+        return mPrefocus;
+    }
+
+    public synchronized boolean isAborted() {
+        return mAborted;
+    }
+
+    public synchronized long getStateNanos(ShutterStateMachine.State state) {
+        return mStateNanos[state.ordinal()];
+    }
+
+    /**
+     * @return true if the state ran into its deadline and the shot went on without waiting for 3A
+     */
+    public synchronized boolean hasTimedOut(ShutterStateMachine.State state) {
+        return (mTimedOut & 1 << state.ordinal()) != 0;
+    }
+
+    public synchronized boolean hasTimedOut() {
+        return mTimedOut != 0;
+    }
+
+    /**
+     * @return time from the shutter release until the first still started exposing, -1 if none did
+     */
+    public synchronized long getShutterLatencyNanos() {
+        return mShutterNanos < 0 ? -1 : mShutterNanos - mReleaseNanos;
+    }
+
+    /**
+     * @return time from the start of the shot, the shutter press for a prefocus, until the preview
+     * ran again, -1 while the shot is running
+     */
+    public synchronized long getTotalNanos() {
+        return mEndNanos < 0 ? -1 : mEndNanos - mStartNanos;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder("ShotTimings{count=").append(mCount)
+                .append(", fastPath=").append(mFastPath)
+                .append(", prefocus=").append(mPrefocus);
+        for (ShutterStateMachine.State state : ShutterStateMachine.State.values()) {
+            if (state == ShutterStateMachine.State.STATE_PREVIEW) {
+                continue;
+            }
+            builder.append(", ").append(state.name().substring("STATE_".length()).toLowerCase(Locale.ROOT))
+                    .append('=').append(millis(mStateNanos[state.ordinal()])).append("ms");
+            if (hasTimedOut(state)) {
+                builder.append("(timeout)");
+            }
+        }
+        return builder.append(", shutter=").append(millis(getShutterLatencyNanos())).append("ms")
+                .append(", total=").append(millis(getTotalNanos())).append("ms")
+                .append(mAborted ? ", aborted}" : "}")
+                .toString();
+    }
+
+    private static long millis(long nanos) {
+        return nanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+}
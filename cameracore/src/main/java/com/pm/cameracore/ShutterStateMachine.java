@@ -0,0 +1,436 @@
+package com.pm.cameracore;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The focus, precapture and capture sequence of a still picture, driven by the
+ * {@link FrameState}s of a {@link CameraBackend}.
+ * <p>
+ * The current state, the shot it belongs to and its deadline are one immutable {@link Phase} in an
+ * {@link AtomicReference}; a transition only happens if the phase it starts from is still current,
+ * so the shutter button and the camera callbacks can not overwrite each other. Every waiting state
+ * has a deadline, when 3A does not settle in time the shot falls through to the capture. When the
+ * latest preview frame already shows converged 3A the AF trigger and the precapture sequence are
+ * skipped altogether. The time spent in every state is reported with each shot, see
+ * {@link ShotTimings}.
+ * <p>
+ * The phase is safe to read from any thread, but the {@link CameraBackend} calls it makes are not:
+ * call every method on the thread the backend belongs to, for {@link Camera2Backend} the camera thread.
+ * <p>
+ * {@link #prefocus()} runs the same sequence while the shutter button is held down but stops in
+ * {@link State#STATE_READY}; {@link #takePicture(int)} then captures without waiting for 3A, or
+ * lets the sequence capture as soon as it is ready.
+ * <p>
+ * Only uses JDK types so it can be tested and benchmarked on the JVM against a
+ * {@code FakeCameraBackend}.
+ *
+ * @author pm
+ */
+public class ShutterStateMachine implements CameraBackend.Listener {
+    public static final long DEFAULT_LOCK_TIMEOUT_MS = 1000;
+    public static final long DEFAULT_PRECAPTURE_TIMEOUT_MS = 1000;
+    /**
+     * Per still of the shot
+     */
+    public static final long DEFAULT_STILL_TIMEOUT_MS = 3000;
+
+    /**
+     * A preview frame older than this says nothing about the current 3A state
+     */
+    private static final long FAST_PATH_MAX_AGE_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+
+    private static final Phase IDLE = new Phase(State.STATE_PREVIEW, null, 0, Long.MAX_VALUE, false);
+
+    private final CameraBackend mBackend;
+    private final Timer mTimer;
+    private final Callback mCallback;
+    private final AtomicReference<Phase> mPhase = new AtomicReference<>(IDLE);
+    private final long[] mTimeouts = new long[State.values().length];
+    private volatile boolean mFastPathEnabled = true;
+    /**
+     * Latest frame of the preview, for the fast path
+     */
+    private volatile Sample mLastSample;
+    private final Runnable mDeadlineCheck = this::checkDeadline;
+
+    public ShutterStateMachine(CameraBackend backend, Timer timer, Callback callback) {
+        mBackend = backend;
+        mTimer = timer;
+        mCallback = callback;
+        setTimeout(State.STATE_WAITING_LOCK, DEFAULT_LOCK_TIMEOUT_MS);
+        setTimeout(State.STATE_WAITING_PRECAPTURE, DEFAULT_PRECAPTURE_TIMEOUT_MS);
+        setTimeout(State.STATE_WAITING_NON_PRECAPTURE, DEFAULT_PRECAPTURE_TIMEOUT_MS);
+        setTimeout(State.STATE_PICTURE_TAKEN, DEFAULT_STILL_TIMEOUT_MS);
+        backend.setListener(this);
+    }
+
+    /**
+     * @param state  a waiting state, or {@link State#STATE_PICTURE_TAKEN} for the time one still may
+     *               take before the shot is given up
+     * @param millis how long the shot may stay in {@code state}, 0 for no limit
+     */
+    public void setTimeout(State state, long millis) {
+        if (state != State.STATE_PREVIEW) {
+            mTimeouts[state.ordinal()] = TimeUnit.MILLISECONDS.toNanos(millis);
+        }
+    }
+
+    /**
+     * @param enabled true to capture right away when the preview has converged, the default
+     */
+    public void setFastPathEnabled(boolean enabled) {
+        mFastPathEnabled = enabled;
+    }
+
+    public State getState() {
+        return mPhase.get().state;
+    }
+
+    public boolean isIdle() {
+        return mPhase.get().state == State.STATE_PREVIEW;
+    }
+
+    /**
+     * Takes {@code count} stills. Unless the preview has converged the focus is locked and the
+     * precapture sequence runs first if exposure has not converged. After {@link #prefocus()} the
+     * running sequence goes on to the capture.
+     *
+     * @return false if another shot is running
+     */
+    public boolean takePicture(int count) {
+        count = Math.max(1, count);
+        for (; ; ) {
+            Phase current = mPhase.get();
+            long now = mTimer.nanoTime();
+            if (current == IDLE) {
+                if (startShot(current, count, now, true)) {
+                    return true;
+                }
+            } else if (current.release) {
+                return false;
+            } else {
+                // the button was held down, 3A is ready or on its way
+                current.timings.onRelease(count, now);
+                if (current.state == State.STATE_READY) {
+                    if (capture(current, now)) {
+                        return true;
+                    }
+                } else if (mPhase.compareAndSet(current, current.released())) {
+                    return true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts locking focus and exposure for a picture that is about to be taken, e.g. when the
+     * shutter button goes down. Nothing happens if the preview has already converged.
+     *
+     * @return false if no sequence was started
+     */
+    public boolean prefocus() {
+        Phase current = mPhase.get();
+        long now = mTimer.nanoTime();
+        return current == IDLE && !(mFastPathEnabled && isConverged(mLastSample, now))
+                && startShot(current, 1, now, false);
+    }
+
+    /**
+     * Gives up a {@link #prefocus()} that is not followed by {@link #takePicture(int)}, unlocking
+     * focus and exposure again.
+     */
+    public void cancelPrefocus() {
+        Phase current = mPhase.get();
+        if (current != IDLE && !current.release && mPhase.compareAndSet(current, IDLE)) {
+            mBackend.cancelAutoFocus();
+        }
+    }
+
+    /**
+     * @param release true if the shutter was released, false to stop in {@link State#STATE_READY}
+     */
+    private boolean startShot(Phase idle, int count, long now, boolean release) {
+        ShotTimings timings = new ShotTimings(count, now);
+        if (release && mFastPathEnabled && isConverged(mLastSample, now)) {
+            if (!enter(idle, State.STATE_PICTURE_TAKEN, timings, now, true)) {
+                return false;
+            }
+            timings.markFastPath();
+            mBackend.captureStill(count);
+            return true;
+        }
+        if (!release) {
+            timings.markPrefocus();
+        }
+        if (!enter(idle, State.STATE_WAITING_LOCK, timings, now, release)) {
+            return false;
+        }
+        mBackend.triggerAutoFocus();
+        return true;
+    }
+
+    @Override
+    public void onFrameState(FrameState state) {
+        long now = mTimer.nanoTime();
+        mLastSample = new Sample(state, now);
+        Phase phase = mPhase.get();
+        if (phase == IDLE) {
+            // We have nothing to do when the camera preview is working normally.
+            return;
+        }
+        if (now >= phase.deadline) {
+            onDeadline(phase, now);
+            return;
+        }
+        switch (phase.state) {
+            case STATE_WAITING_LOCK:
+                if (state.afState == FrameState.UNKNOWN) {
+                    ready(phase, now);
+                } else if (state.isFocusLocked()) {
+                    // CONTROL_AE_STATE can be null on some devices
+                    if (state.aeState == FrameState.UNKNOWN || state.aeState == FrameState.AE_CONVERGED) {
+                        ready(phase, now);
+                    } else if (enter(phase, State.STATE_WAITING_PRECAPTURE, phase.timings, now, phase.release)) {
+                        mBackend.triggerPrecapture();
+                    }
+                }
+                break;
+            case STATE_WAITING_PRECAPTURE:
+                if (state.aeState == FrameState.UNKNOWN || state.aeState == FrameState.AE_PRECAPTURE
+                        || state.aeState == FrameState.AE_FLASH_REQUIRED) {
+                    enter(phase, State.STATE_WAITING_NON_PRECAPTURE, phase.timings, now, phase.release);
+                }
+                break;
+            case STATE_WAITING_NON_PRECAPTURE:
+                if (state.aeState != FrameState.AE_PRECAPTURE) {
+                    ready(phase, now);
+                }
+                break;
+            case STATE_READY:
+            case STATE_PICTURE_TAKEN:
+            default:
+                break;
+        }
+    }
+
+    @Override
+    public void onStillStarted(long timestamp) {
+        ShotTimings timings = mPhase.get().timings;
+        if (null != timings && timings.onShutter(mTimer.nanoTime())) {
+            mCallback.onShutter(timestamp);
+        }
+    }
+
+    @Override
+    public void onStillFailed() {
+        mCallback.onStillFailed();
+    }
+
+    @Override
+    public void onSequenceCompleted(boolean aborted) {
+        Phase phase = mPhase.get();
+        if (phase.state == State.STATE_PICTURE_TAKEN) {
+            finish(phase, mTimer.nanoTime(), aborted);
+        }
+    }
+
+    /**
+     * Moves the shot on if its current state has run past its deadline. Also runs on every frame,
+     * calling it is only needed when frames may stop arriving.
+     */
+    public void checkDeadline() {
+        Phase phase = mPhase.get();
+        long now = mTimer.nanoTime();
+        if (phase != IDLE && now >= phase.deadline) {
+            onDeadline(phase, now);
+        }
+    }
+
+    /**
+     * Goes back to {@link State#STATE_PREVIEW} without touching the camera, e.g. after it was closed.
+     */
+    public void reset() {
+        mPhase.set(IDLE);
+        mLastSample = null;
+    }
+
+    private void onDeadline(Phase phase, long now) {
+        phase.timings.markTimedOut(phase.state);
+        if (phase.state == State.STATE_PICTURE_TAKEN) {
+            // the stills got lost, give the preview back
+            finish(phase, now, true);
+        } else {
+            ready(phase, now);
+        }
+    }
+
+    /**
+     * 3A is done with, capture if the shutter was released or wait for it.
+     */
+    private void ready(Phase phase, long now) {
+        if (phase.release) {
+            capture(phase, now);
+        } else {
+            enter(phase, State.STATE_READY, phase.timings, now, false);
+        }
+    }
+
+    private boolean capture(Phase phase, long now) {
+        if (!enter(phase, State.STATE_PICTURE_TAKEN, phase.timings, now, true)) {
+            return false;
+        }
+        mBackend.captureStill(phase.timings.getCount());
+        return true;
+    }
+
+    private void finish(Phase phase, long now, boolean aborted) {
+        if (!mPhase.compareAndSet(phase, IDLE)) {
+            return;
+        }
+        ShotTimings timings = phase.timings;
+        timings.addStateTime(phase.state, now - phase.entered);
+        timings.finish(now, aborted);
+        // After this, the camera will go back to the normal state of preview.
+        if (timings.isFastPath()) {
+            // focus was never triggered
+            mBackend.startPreview();
+        } else {
+            mBackend.cancelAutoFocus();
+        }
+        mCallback.onCompleted(timings);
+    }
+
+    /**
+     * @return true if the transition happened, false if {@code from} was not current anymore
+     */
+    private boolean enter(Phase from, State state, ShotTimings timings, long now, boolean release) {
+        long timeout = mTimeouts[state.ordinal()];
+        if (state == State.STATE_PICTURE_TAKEN) {
+            timeout *= timings.getCount();
+        }
+        Phase next = new Phase(state, timings, now, timeout > 0 ? now + timeout : Long.MAX_VALUE, release);
+        if (!mPhase.compareAndSet(from, next)) {
+            return false;
+        }
+        if (from != IDLE) {
+            timings.addStateTime(from.state, now - from.entered);
+        }
+        if (timeout > 0) {
+            mTimer.schedule(mDeadlineCheck, timeout);
+        }
+        return true;
+    }
+
+    /**
+     * AF has settled (or is not available) and AE has converged (or is not reported), the same as
+     * {@link ZslRingBuffer#isConverged(android.hardware.camera2.CaptureResult)}.
+     */
+    private static boolean isConverged(Sample sample, long now) {
+        if (null == sample || now - sample.time > FAST_PATH_MAX_AGE_NANOS) {
+            return false;
+        }
+        int afState = sample.state.afState;
+        int aeState = sample.state.aeState;
+        boolean afReady = afState == FrameState.UNKNOWN
+                || afState == FrameState.AF_INACTIVE
+                || afState == FrameState.AF_PASSIVE_FOCUSED
+                || afState == FrameState.AF_FOCUSED_LOCKED;
+        boolean aeReady = aeState == FrameState.UNKNOWN
+                || aeState == FrameState.AE_CONVERGED
+                || aeState == FrameState.AE_LOCKED;
+        return afReady && aeReady;
+    }
+
+    /**
+     * One state of one shot.
+     */
+    private static final class Phase {
+        final State state;
+        final ShotTimings timings;
+        final long entered;
+        final long deadline;
+        /**
+         * The shutter was released, the sequence ends with the capture
+         */
+        final boolean release;
+
+        Phase(State state, ShotTimings timings, long entered, long deadline, boolean release) {
+            this.state = state;
+            this.timings = timings;
+            this.entered = entered;
+            this.deadline = deadline;
+            this.release = release;
+        }
+
+        Phase released() {
+            return new Phase(state, timings, entered, deadline, true);
+        }
+    }
+
+    private static final class Sample {
+        final FrameState state;
+        /**
+         * {@link Timer#nanoTime()} when the frame arrived
+         */
+        final long time;
+
+        Sample(FrameState state, long time) {
+            this.state = state;
+            this.time = time;
+        }
+    }
+
+    /**
+     * The clock deadlines are measured with and a way to check them when no frame arrives.
+     */
+    public interface Timer {
+        long nanoTime();
+
+        /**
+         * Runs {@code task} on the camera thread after {@code delayNanos}.
+         */
+        void schedule(Runnable task, long delayNanos);
+    }
+
+    public interface Callback {
+        /**
+         * The first still of the shot started exposing.
+         */
+        void onShutter(long timestamp);
+
+        void onStillFailed();
+
+        /**
+         * The preview runs again.
+         */
+        void onCompleted(ShotTimings timings);
+    }
+
+    public enum State {
+        /**
+         * Camera state: Showing camera preview.
+         */
+        STATE_PREVIEW,
+        /**
+         * Camera state: Waiting for the focus to be locked.
+         */
+        STATE_WAITING_LOCK,
+        /**
+         * Camera state: Waiting for the exposure to be precapture state.
+         */
+        STATE_WAITING_PRECAPTURE,
+        /**
+         * Camera state: Waiting for the exposure state to be something other than precapture.
+         */
+        STATE_WAITING_NON_PRECAPTURE,
+        /**
+         * Camera state: Focus and exposure are done, waiting for the shutter release.
+         */
+        STATE_READY,
+        /**
+         * Camera state: Picture was taken.
+         */
+        STATE_PICTURE_TAKEN
+    }
+}
@@ -0,0 +1,234 @@
+package com.pm.cameracore;
+
+import java.util.Arrays;
+
+/**
+ * Picks output sizes out of the sizes a camera supports for one format.
+ * <p>
+ * The sizes are indexed once: sorted into primitive arrays, grouped by their reduced aspect ratio
+ * and ordered by area inside each group. A query skips every group outside the aspect tolerance
+ * and scores the remaining sizes by how well their area fits and how far their aspect ratio is off.
+ * Sizes above the bandwidth cap only win when nothing else is left. Queries never allocate and
+ * never fail on a non-empty index; if no size is within the aspect tolerance the closest aspect
+ * ratio wins.
+ * <p>
+ * Only depends on the JDK, the items are whatever the caller wants back, e.g. {@code android.util.Size}.
+ *
+ * @param <T> the type of the indexed sizes
+ * @author pm
+ */
+public final class SizeSelector<T> {
+    /**
+     * Relative aspect ratio error still treated as a match, 16:9 sizes such as 1920x1088 pass
+     */
+    public static final float DEFAULT_ASPECT_TOLERANCE = 0.01f;
+
+    /**
+     * Weight of the aspect error, at the tolerance it costs as much as doubling the area
+     */
+    private static final float WEIGHT_ASPECT = 1f;
+    /**
+     * Added to sizes smaller than requested, so any size that covers the request beats them
+     */
+    private static final float UNDERSIZE_PENALTY = 64f;
+    /**
+     * Added to sizes above the bandwidth cap, so they lose against everything else
+     */
+    private static final float OVER_CAP_PENALTY = 1024f;
+    private static final float LN_2 = (float) Math.log(2);
+
+    private final T[] mItems;
+    /**
+     * Sorted by group, then by area
+     */
+    private final int[] mWidths;
+    private final int[] mHeights;
+    private final long[] mAreas;
+    /**
+     * Position in {@link #mItems} of every sorted size
+     */
+    private final int[] mItemIndex;
+    private final float[] mGroupRatios;
+    private final int[] mGroupStarts;
+    private final int[] mGroupEnds;
+    private final long mLargestArea;
+    private float mAspectTolerance = DEFAULT_ASPECT_TOLERANCE;
+
+    /**
+     * @param items   the sizes, returned by the queries
+     * @param widths  width of every item
+     * @param heights height of every item
+     */
+    public SizeSelector(T[] items, int[] widths, int[] heights) {
+        mItems = items;
+        int count = 0;
+        for (int i = 0; i < items.length; i++) {
+            if (widths[i] > 0 && heights[i] > 0) {
+                count++;
+            }
+        }
+        // indexing happens once, boxing is fine here
+        Integer[] order = new Integer[count];
+        int k = 0;
+        for (int i = 0; i < items.length; i++) {
+            if (widths[i] > 0 && heights[i] > 0) {
+                order[k++] = i;
+            }
+        }
+        Arrays.sort(order, (ia, ib) -> {
+            int ga = gcd(widths[ia], heights[ia]);
+            int gb = gcd(widths[ib], heights[ib]);
+            // cross multiplication compares the reduced ratios exactly
+            long lhs = (long) (widths[ia] / ga) * (heights[ib] / gb);
+            long rhs = (long) (widths[ib] / gb) * (heights[ia] / ga);
+            if (lhs != rhs) {
+                return lhs < rhs ? -1 : 1;
+            }
+            return Long.compare((long) widths[ia] * heights[ia], (long) widths[ib] * heights[ib]);
+        });
+
+        mWidths = new int[count];
+        mHeights = new int[count];
+        mAreas = new long[count];
+        mItemIndex = new int[count];
+        int[] starts = new int[count];
+        int[] ends = new int[count];
+        float[] ratios = new float[count];
+        int groups = 0;
+        long largest = 0;
+        int lastRatioW = 0;
+        int lastRatioH = 0;
+        for (int i = 0; i < count; i++) {
+            int index = order[i];
+            int w = widths[index];
+            int h = heights[index];
+            int g = gcd(w, h);
+            mWidths[i] = w;
+            mHeights[i] = h;
+            mAreas[i] = (long) w * h;
+            mItemIndex[i] = index;
+            largest = Math.max(largest, mAreas[i]);
+            if (groups == 0 || w / g != lastRatioW || h / g != lastRatioH) {
+                lastRatioW = w / g;
+                lastRatioH = h / g;
+                ratios[groups] = (float) w / h;
+                starts[groups] = i;
+                groups++;
+            }
+            ends[groups - 1] = i + 1;
+        }
+        mGroupRatios = Arrays.copyOf(ratios, groups);
+        mGroupStarts = Arrays.copyOf(starts, groups);
+        mGroupEnds = Arrays.copyOf(ends, groups);
+        mLargestArea = largest;
+    }
+
+    /**
+     * @param tolerance relative aspect ratio error treated as a match
+     */
+    public void setAspectTolerance(float tolerance) {
+        mAspectTolerance = Math.max(1e-6f, tolerance);
+    }
+
+    public int size() {
+        return mWidths.length;
+    }
+
+    /**
+     * @return the number of distinct aspect ratios
+     */
+    public int getGroupCount() {
+        return mGroupRatios.length;
+    }
+
+    /**
+     * Chooses the smallest size that covers {@code minWidth x minHeight}, or the largest one if none
+     * does, keeping within {@code maxWidth x maxHeight}.
+     *
+     * @param maxWidth     bandwidth cap, 0 for none
+     * @param maxHeight    bandwidth cap, 0 for none
+     * @param aspectWidth  wanted aspect ratio, 0 for any
+     * @param aspectHeight wanted aspect ratio, 0 for any
+     * @return the chosen size, null only if there are no sizes
+     */
+    public T selectCovering(int minWidth, int minHeight, int maxWidth, int maxHeight,
+                            int aspectWidth, int aspectHeight) {
+        return itemAt(select(false, minWidth, minHeight, maxWidth, maxHeight, aspectWidth, aspectHeight));
+    }
+
+    /**
+     * Chooses the largest size within {@code maxWidth x maxHeight}.
+     *
+     * @see #selectCovering(int, int, int, int, int, int)
+     */
+    public T selectLargest(int maxWidth, int maxHeight, int aspectWidth, int aspectHeight) {
+        return itemAt(select(true, 0, 0, maxWidth, maxHeight, aspectWidth, aspectHeight));
+    }
+
+    private T itemAt(int sorted) {
+        return sorted < 0 ? null : mItems[mItemIndex[sorted]];
+    }
+
+    private int select(boolean largest, int minWidth, int minHeight, int maxWidth, int maxHeight,
+                       int aspectWidth, int aspectHeight) {
+        float target = aspectWidth > 0 && aspectHeight > 0 ? (float) aspectWidth / aspectHeight : 0;
+        int best = scan(largest, minWidth, minHeight, maxWidth, maxHeight, target, mAspectTolerance);
+        if (best < 0 && target > 0) {
+            // nothing has the wanted aspect ratio, let the score decide
+            best = scan(largest, minWidth, minHeight, maxWidth, maxHeight, target, Float.MAX_VALUE);
+        }
+        return best;
+    }
+
+    /**
+     * @return the sorted position of the size with the lowest score, -1 if no group qualifies
+     */
+    private int scan(boolean largest, int minWidth, int minHeight, int maxWidth, int maxHeight,
+                     float target, float tolerance) {
+        long minArea = Math.max(1, (long) minWidth * minHeight);
+        int best = -1;
+        float bestScore = Float.MAX_VALUE;
+        for (int g = 0; g < mGroupRatios.length; g++) {
+            float aspectError = target > 0 ? Math.abs(mGroupRatios[g] - target) / target : 0;
+            if (aspectError > tolerance) {
+                continue;
+            }
+            float aspectScore = WEIGHT_ASPECT * aspectError / mAspectTolerance;
+            for (int i = mGroupStarts[g]; i < mGroupEnds[g]; i++) {
+                int w = mWidths[i];
+                int h = mHeights[i];
+                long area = mAreas[i];
+                float score;
+                if ((maxWidth > 0 && w > maxWidth) || (maxHeight > 0 && h > maxHeight)) {
+                    // over the cap, the smallest of them does least harm
+                    score = OVER_CAP_PENALTY + log2(area);
+                } else if (largest) {
+                    score = log2((float) mLargestArea / area);
+                } else if (w >= minWidth && h >= minHeight) {
+                    score = log2((float) area / minArea);
+                } else {
+                    score = UNDERSIZE_PENALTY + log2((float) minArea / area);
+                }
+                score += aspectScore;
+                if (score < bestScore) {
+                    bestScore = score;
+                    best = i;
+                }
+            }
+        }
+        return best;
+    }
+
+    private static float log2(float value) {
+        return (float) Math.log(value) / LN_2;
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+}
@@ -1,19 +1,30 @@
 package com.pm.cameracore;
 
-import android.util.Log;
 import android.util.Size;
-import android.view.Surface;
-
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
 
 /**
+ * Size selection helpers on top of {@link SizeSelector}. Callers that query the same sizes more
+ * than once should keep the selector from {@link #index(Size[])}, e.g. through
+ * {@link CameraCharacteristicsCache#getSizeSelector(String, int)}.
+ *
  * @author pm
  * @date 2019/9/17
  * @email puming@zdsoft.cn
  */
 public class SizeUtils {
+    /**
+     * Indexes the sizes a camera supports for one output format.
+     */
+    public static SizeSelector<Size> index(Size[] sizes) {
+        int[] widths = new int[sizes.length];
+        int[] heights = new int[sizes.length];
+        for (int i = 0; i < sizes.length; i++) {
+            widths[i] = sizes[i].getWidth();
+            heights[i] = sizes[i].getHeight();
+        }
+        return new SizeSelector<>(sizes, widths, heights);
+    }
+
     /**
      * Given {@code choices} of {@code Size}s supported by a camera, choose the smallest one that
      * is at least as large as the respective texture view size, and that is at most as large as the
@@ -26,51 +37,26 @@ public class SizeUtils {
      * @param surfaceSize    The surfaceSize of the texture view relative to sensor coordinate
      * @param maxPreviewSize The maximum maxPreviewSize that can be chosen
      * @param aspectRatio    The aspect ratio
-     * @return The optimal {@code Size}, or an arbitrary one if none were big enough
+     * @return The optimal {@code Size}, or the closest match if none has the aspect ratio
      */
     public static Size chooseOptimalSize(Size[] choices, Size surfaceSize, Size maxPreviewSize, Size aspectRatio) {
+        return chooseOptimalSize(index(choices), surfaceSize, maxPreviewSize, aspectRatio);
+    }
 
-        // Collect the supported resolutions that are at least as big as the preview Surface
-        List<Size> bigEnough = new ArrayList<>();
-        // Collect the supported resolutions that are smaller than the preview Surface
-        List<Size> notBigEnough = new ArrayList<>();
-        int w = aspectRatio.getWidth();
-        int h = aspectRatio.getHeight();
-        for (Size option : choices) {
-            boolean isRange = option.getWidth() <= maxPreviewSize.getWidth() && option.getHeight() <= maxPreviewSize.getHeight();
-            if (isRange && option.getHeight() == option.getWidth() * h / w) {
-                if (option.getWidth() >= surfaceSize.getWidth() &&
-                        option.getHeight() >= surfaceSize.getHeight()) {
-                    bigEnough.add(option);
-                } else {
-                    notBigEnough.add(option);
-                }
-            }
-        }
-
-        // Pick the smallest of those big enough. If there is no one big enough, pick the
-        // largest of those not big enough.
-        if (bigEnough.size() > 0) {
-            return Collections.min(bigEnough, new CompareSizesByArea());
-        } else if (notBigEnough.size() > 0) {
-            return Collections.max(notBigEnough, new CompareSizesByArea());
-        } else {
-            Log.e("error", "Couldn't find any suitable preview size");
-            return choices[0];
-        }
+    public static Size chooseOptimalSize(SizeSelector<Size> choices, Size surfaceSize, Size maxPreviewSize, Size aspectRatio) {
+        return choices.selectCovering(surfaceSize.getWidth(), surfaceSize.getHeight(),
+                maxPreviewSize.getWidth(), maxPreviewSize.getHeight(),
+                aspectRatio.getWidth(), aspectRatio.getHeight());
     }
 
+    /**
+     * @param sizes {@link android.hardware.camera2.CameraCharacteristics#JPEG_AVAILABLE_THUMBNAIL_SIZES}
+     * @return the largest 16:9 thumbnail size, or the closest aspect ratio if there is none
+     */
     public static Size chooseThumbSize(Size[] sizes) {
-        Size size = sizes[sizes.length - 1];
-        for (int i = 0; i < sizes.length; i++) {
-            Size s = sizes[i];
-            int width = s.getWidth();
-            int height = s.getHeight();
-            if (height != 0 && width / height == 16 / 9) {
-                size = s;
-            }
-        }
-        return size;
+        // 0x0 (no thumbnail) is never chosen
+        Size size = index(sizes).selectLargest(0, 0, 16, 9);
+        return null == size ? sizes[sizes.length - 1] : size;
     }
 
     /**
@@ -78,32 +64,18 @@ public class SizeUtils {
      * @param customOutputSize 自定义尺寸
      * @param aspectRatio      纵横比尺寸
      * @param matchLargest     true 匹配最大尺寸,false 匹配自定义尺寸
-     * @return
+     * @return the largest size with the aspect ratio, or the smallest one that covers
+     * {@code customOutputSize} (the largest one if none does)
      */
     public static Size chooseOutputSize(Size[] sizes, Size customOutputSize, Size aspectRatio, boolean matchLargest) {
-        List<Size> largests = new ArrayList<>(6);
-        List<Size> leasts = new ArrayList<>(6);
-        int h = aspectRatio.getHeight();
-        int w = aspectRatio.getWidth();
-        for (int i = 0; i < sizes.length; i++) {
-            Size choices = sizes[i];
-            if (choices.getWidth() >= customOutputSize.getWidth() && choices.getHeight() >= customOutputSize.getHeight()) {
-                leasts.add(choices);
-            }
-            if (choices.getHeight() == choices.getWidth() * h / w) {
-                largests.add(choices);
-            }
-        }
-
-        if (!matchLargest) {
-            return Collections.min(leasts, new CompareSizesByArea());
-        }
-
-        if (!largests.isEmpty()) {
-            return Collections.max(largests, new CompareSizesByArea());
-        }
+        return chooseOutputSize(index(sizes), customOutputSize, aspectRatio, matchLargest);
+    }
 
-        return customOutputSize;
+    public static Size chooseOutputSize(SizeSelector<Size> sizes, Size customOutputSize, Size aspectRatio, boolean matchLargest) {
+        Size size = matchLargest
+                ? sizes.selectLargest(0, 0, aspectRatio.getWidth(), aspectRatio.getHeight())
+                : sizes.selectCovering(customOutputSize.getWidth(), customOutputSize.getHeight(), 0, 0, 0, 0);
+        return null == size ? customOutputSize : size;
     }
 
 }
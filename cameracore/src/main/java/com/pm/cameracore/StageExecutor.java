@@ -0,0 +1,249 @@
+package com.pm.cameracore;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A single threaded executor with a bounded queue, used for one stage of the capture pipeline.
+ * <p>
+ * When the queue is full the stage either refuses the task, so the producer can hold its data
+ * back ({@link Overflow#REJECT}), or throws away the oldest waiting task ({@link Overflow#DROP_OLDEST}).
+ * It never blocks the thread that submits.
+ * <p>
+ * The bound is kept by {@link #getInFlight()} alone, the queue of the thread itself is unbounded.
+ * A slot is free as soon as a task has finished, {@link #hasCapacity()} and {@link #trySubmit(Runnable)}
+ * always agree, also when called from the {@link #setOnSlotFreedListener(Runnable) listener}.
+ *
+ * @author pm
+ */
+public class StageExecutor {
+
+    public enum Overflow {
+        /**
+         * 队列满时拒绝新任务，由调用方负责背压
+         */
+        REJECT,
+        /**
+         * 队列满时丢弃最早的任务
+         */
+        DROP_OLDEST
+    }
+
+    private final String mName;
+    private final int mQueueDepth;
+    private final Overflow mOverflow;
+    private final ThreadPoolExecutor mExecutor;
+
+    private final AtomicInteger mInFlight = new AtomicInteger();
+    private final AtomicInteger mMaxInFlight = new AtomicInteger();
+    private final AtomicLong mCompleted = new AtomicLong();
+    private final AtomicLong mRejected = new AtomicLong();
+    private final AtomicLong mDropped = new AtomicLong();
+    private volatile Runnable mOnSlotFreed;
+
+    public StageExecutor(@NonNull String name, int queueDepth, @NonNull Overflow overflow) {
+        if (queueDepth < 1) {
+            throw new IllegalArgumentException("queueDepth must be positive: " + queueDepth);
+        }
+        mName = name;
+        mQueueDepth = queueDepth;
+        mOverflow = overflow;
+        mExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        });
+    }
+
+    /**
+     * Queues a task for this stage.
+     *
+     * @return false if the stage is full (only with {@link Overflow#REJECT}) or already shut down
+     */
+    public boolean trySubmit(@NonNull Runnable task) {
+        if (mExecutor.isShutdown()) {
+            return false;
+        }
+        if (!reserve()) {
+            mRejected.incrementAndGet();
+            return false;
+        }
+        try {
+            mExecutor.execute(new TrackedTask(task));
+        } catch (RejectedExecutionException e) {
+            // shut down in between
+            mInFlight.decrementAndGet();
+            mRejected.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Takes a slot, with {@link Overflow#DROP_OLDEST} by dropping the oldest waiting task if needed
+     *
+     * @return false if the stage is full
+     */
+    private boolean reserve() {
+        // one task may be running on top of the queued ones
+        int limit = mQueueDepth + 1;
+        while (true) {
+            int inFlight = mInFlight.get();
+            if (inFlight >= limit) {
+                if (mOverflow == Overflow.REJECT) {
+                    return false;
+                }
+                if (!dropOldest()) {
+                    //队列已空, 只剩正在运行的任务, 不再丢弃
+                    mInFlight.incrementAndGet();
+                    updateMax(inFlight + 1);
+                    return true;
+                }
+                continue;
+            }
+            if (mInFlight.compareAndSet(inFlight, inFlight + 1)) {
+                updateMax(inFlight + 1);
+                return true;
+            }
+        }
+    }
+
+    private boolean dropOldest() {
+        Runnable oldest = mExecutor.getQueue().poll();
+        if (null == oldest) {
+            return false;
+        }
+        mInFlight.decrementAndGet();
+        mDropped.incrementAndGet();
+        if (oldest instanceof TrackedTask && ((TrackedTask) oldest).mTask instanceof Droppable) {
+            ((Droppable) ((TrackedTask) oldest).mTask).onDropped();
+        }
+        return true;
+    }
+
+    /**
+     * @return true if a task submitted now would be accepted without dropping anything
+     */
+    public boolean hasCapacity() {
+        return mInFlight.get() < mQueueDepth + 1;
+    }
+
+    /**
+     * Waits until every queued task of this stage has finished, at most {@code timeoutMs}.
+     *
+     * @return true if the stage drained in time
+     */
+    public boolean awaitIdle(long timeoutMs) {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (mInFlight.get() > 0) {
+            if (System.currentTimeMillis() >= deadline) {
+                return false;
+            }
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param listener run on the stage thread every time a task finishes and its slot is free again
+     */
+    public void setOnSlotFreedListener(Runnable listener) {
+        mOnSlotFreed = listener;
+    }
+
+    public void shutdown() {
+        mExecutor.shutdown();
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public int getQueueDepth() {
+        return mQueueDepth;
+    }
+
+    public Overflow getOverflow() {
+        return mOverflow;
+    }
+
+    /**
+     * @return tasks queued or running right now
+     */
+    public int getInFlight() {
+        return mInFlight.get();
+    }
+
+    public int getMaxInFlight() {
+        return mMaxInFlight.get();
+    }
+
+    public long getCompletedCount() {
+        return mCompleted.get();
+    }
+
+    public long getRejectedCount() {
+        return mRejected.get();
+    }
+
+    public long getDroppedCount() {
+        return mDropped.get();
+    }
+
+    @Override
+    public String toString() {
+        return mName + "{inFlight=" + mInFlight.get()
+                + ", maxInFlight=" + mMaxInFlight.get()
+                + ", completed=" + mCompleted.get()
+                + ", rejected=" + mRejected.get()
+                + ", dropped=" + mDropped.get() + "}";
+    }
+
+    private void updateMax(int value) {
+        int max;
+        do {
+            max = mMaxInFlight.get();
+        } while (value > max && !mMaxInFlight.compareAndSet(max, value));
+    }
+
+    private class TrackedTask implements Runnable {
+        private final Runnable mTask;
+
+        TrackedTask(Runnable task) {
+            mTask = task;
+        }
+
+        @Override
+        public void run() {
+            try {
+                mTask.run();
+            } finally {
+                mInFlight.decrementAndGet();
+                mCompleted.incrementAndGet();
+                Runnable listener = mOnSlotFreed;
+                if (null != listener) {
+                    listener.run();
+                }
+            }
+        }
+    }
+
+    /**
+     * Implemented by tasks that hold resources which must be released when the task is dropped.
+     */
+    public interface Droppable {
+        void onDropped();
+    }
+}
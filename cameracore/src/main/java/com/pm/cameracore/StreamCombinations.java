@@ -0,0 +1,70 @@
+package com.pm.cameracore;
+
+/**
+ * Whether a preview, an encoder and a JPEG stream are guaranteed to work in one capture session,
+ * following the stream combination tables of {@code CameraDevice#createCaptureSession}:
+ * <ul>
+ * <li>LIMITED: {@code PRIV PREVIEW + PRIV RECORD + JPEG RECORD}</li>
+ * <li>FULL: {@code PRIV PREVIEW + PRIV PREVIEW + JPEG MAXIMUM}, and everything LIMITED has</li>
+ * <li>LEGACY: no such combination, the session has to be reconfigured to record</li>
+ * </ul>
+ * {@code PREVIEW} is the display size capped at 1920x1080. {@code RECORD} is the largest size the
+ * camera records, the chosen video size never exceeds it, so a JPEG up to the video size stays
+ * within {@code RECORD}.
+ * <p>
+ * Hardware levels are the values of {@code CameraMetadata#INFO_SUPPORTED_HARDWARE_LEVEL_*}.
+ *
+ * @author pm
+ */
+public final class StreamCombinations {
+    public static final int LEVEL_LIMITED = 0;
+    public static final int LEVEL_FULL = 1;
+    public static final int LEVEL_LEGACY = 2;
+    public static final int LEVEL_3 = 3;
+    public static final int LEVEL_EXTERNAL = 4;
+
+    /**
+     * No shared session, photo and video need sessions of their own
+     */
+    public static final int JPEG_NONE = 0;
+    /**
+     * Shared session with the JPEG no larger than the video
+     */
+    public static final int JPEG_RECORD = 1;
+    /**
+     * Shared session with a full size JPEG
+     */
+    public static final int JPEG_MAXIMUM = 2;
+
+    private StreamCombinations() {
+    }
+
+    /**
+     * @param previewLimitWidth  the {@code PREVIEW} size, i.e. the display size capped at 1920x1080
+     * @param previewLimitHeight in the same orientation as the video size
+     * @return {@link #JPEG_MAXIMUM}, {@link #JPEG_RECORD} or {@link #JPEG_NONE}
+     */
+    public static int sharedJpegLimit(int hardwareLevel, int videoWidth, int videoHeight,
+                                      int previewLimitWidth, int previewLimitHeight) {
+        switch (hardwareLevel) {
+            case LEVEL_FULL:
+            case LEVEL_3:
+                // the encoder then counts as a second PREVIEW stream
+                return fitsWithin(videoWidth, videoHeight, previewLimitWidth, previewLimitHeight)
+                        ? JPEG_MAXIMUM : JPEG_RECORD;
+            case LEVEL_LIMITED:
+            case LEVEL_EXTERNAL:
+                return JPEG_RECORD;
+            case LEVEL_LEGACY:
+            default:
+                return JPEG_NONE;
+        }
+    }
+
+    /**
+     * @return true if {@code width x height} fits into {@code maxWidth x maxHeight} either way round
+     */
+    public static boolean fitsWithin(int width, int height, int maxWidth, int maxHeight) {
+        return (width <= maxWidth && height <= maxHeight) || (width <= maxHeight && height <= maxWidth);
+    }
+}
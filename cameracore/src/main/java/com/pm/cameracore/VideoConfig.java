@@ -0,0 +1,204 @@
+package com.pm.cameracore;
+
+/**
+ * Encoder, bitrate, frame rate and {@code CONTROL_AE_TARGET_FPS_RANGE} of a recording.
+ * <p>
+ * {@link VideoQualityPolicy} picks one for the camera and video size. Passed as an override, every
+ * value other than {@link #AUTO} replaces the chosen one.
+ *
+ * @author pm
+ */
+public final class VideoConfig {
+    /**
+     * Left to the policy, or for the fps range, left to the camera
+     */
+    public static final int AUTO = 0;
+
+    private final int mBitRate;
+    private final int mFrameRate;
+    private final int mMinFps;
+    private final int mMaxFps;
+    /**
+     * Null for H.264 with the platform's encoder
+     */
+    private final String mMimeType;
+    private final String mEncoderName;
+    private final int mProfile;
+    private final int mLevel;
+    /**
+     * Bitrate after falling back to the platform's H.264 encoder, {@link #AUTO} to keep {@link #mBitRate}
+     */
+    private final int mDefaultEncoderBitRate;
+
+    /**
+     * @param bitRate   bits per second
+     * @param frameRate frames per second the encoder is told to expect
+     * @param minFps    lower bound of the AE target fps range
+     * @param maxFps    upper bound of the AE target fps range
+     */
+    public VideoConfig(int bitRate, int frameRate, int minFps, int maxFps) {
+        this(bitRate, frameRate, minFps, maxFps, null, null, AUTO, AUTO);
+    }
+
+    /**
+     * @param mimeType    {@link EncoderInfo#MIME_AVC} or {@link EncoderInfo#MIME_HEVC}, null for H.264
+     * @param encoderName encoder to record with, null for the first one of {@code mimeType}
+     * @param profile     {@code MediaCodecInfo.CodecProfileLevel} profile, {@link #AUTO} for the default
+     * @param level       level to go with {@code profile}
+     */
+    public VideoConfig(int bitRate, int frameRate, int minFps, int maxFps,
+                       String mimeType, String encoderName, int profile, int level) {
+        this(bitRate, frameRate, minFps, maxFps, mimeType, encoderName, profile, level, AUTO);
+    }
+
+    private VideoConfig(int bitRate, int frameRate, int minFps, int maxFps,
+                        String mimeType, String encoderName, int profile, int level, int defaultEncoderBitRate) {
+        mBitRate = bitRate;
+        mFrameRate = frameRate;
+        mMinFps = minFps;
+        mMaxFps = maxFps;
+        mMimeType = mimeType;
+        mEncoderName = encoderName;
+        mProfile = profile;
+        mLevel = level;
+        mDefaultEncoderBitRate = defaultEncoderBitRate;
+    }
+
+    public int getBitRate() {
+        return mBitRate;
+    }
+
+    public int getFrameRate() {
+        return mFrameRate;
+    }
+
+    public int getMinFps() {
+        return mMinFps;
+    }
+
+    public int getMaxFps() {
+        return mMaxFps;
+    }
+
+    /**
+     * @return the video codec, never null
+     */
+    public String getMimeType() {
+        return null == mMimeType ? EncoderInfo.MIME_AVC : mMimeType;
+    }
+
+    public boolean isHevc() {
+        return EncoderInfo.MIME_HEVC.equals(mMimeType);
+    }
+
+    /**
+     * @return encoder to record with, null for the first one of {@link #getMimeType()}
+     */
+    public String getEncoderName() {
+        return mEncoderName;
+    }
+
+    public int getProfile() {
+        return mProfile;
+    }
+
+    public int getLevel() {
+        return mLevel;
+    }
+
+    /**
+     * @return this config recorded with {@code encoder}, in its best profile
+     */
+    public VideoConfig withEncoder(EncoderInfo encoder) {
+        return new VideoConfig(mBitRate, mFrameRate, mMinFps, mMaxFps,
+                encoder.getMimeType(), encoder.getName(), encoder.getProfile(), encoder.getLevel(),
+                mDefaultEncoderBitRate);
+    }
+
+    /**
+     * @return this config recorded as H.264 by the platform's encoder, e.g. after {@link #getEncoderName()}
+     * failed to start, at the bitrate {@link VideoQualityPolicy} chose for that encoder
+     */
+    public VideoConfig withDefaultEncoder() {
+        int bitRate = AUTO != mDefaultEncoderBitRate ? mDefaultEncoderBitRate : mBitRate;
+        return new VideoConfig(bitRate, mFrameRate, mMinFps, mMaxFps, null, null, AUTO, AUTO);
+    }
+
+    /**
+     * @param bitRate what {@link #withDefaultEncoder()} records with, {@link #AUTO} for {@link #getBitRate()}
+     */
+    public VideoConfig withDefaultEncoderBitRate(int bitRate) {
+        return new VideoConfig(mBitRate, mFrameRate, mMinFps, mMaxFps,
+                mMimeType, mEncoderName, mProfile, mLevel, bitRate);
+    }
+
+    /**
+     * @return true if the AE target fps range should be set
+     */
+    public boolean hasFpsRange() {
+        return mMinFps != AUTO && mMaxFps != AUTO;
+    }
+
+    /**
+     * @return this config with every value {@code override} sets, this if {@code override} is null.
+     * A codec in {@code override} comes with its encoder, profile and level, a bitrate in
+     * {@code override} is kept by {@link #withDefaultEncoder()} too.
+     */
+    public VideoConfig withOverrides(VideoConfig override) {
+        if (null == override) {
+            return this;
+        }
+        boolean fpsRange = override.hasFpsRange();
+        boolean codec = null != override.mMimeType;
+        boolean bitRate = override.mBitRate != AUTO;
+        return new VideoConfig(
+                bitRate ? override.mBitRate : mBitRate,
+                override.mFrameRate != AUTO ? override.mFrameRate : mFrameRate,
+                fpsRange ? override.mMinFps : mMinFps,
+                fpsRange ? override.mMaxFps : mMaxFps,
+                codec ? override.mMimeType : mMimeType,
+                codec ? override.mEncoderName : mEncoderName,
+                codec ? override.mProfile : mProfile,
+                codec ? override.mLevel : mLevel,
+                bitRate ? override.mDefaultEncoderBitRate : mDefaultEncoderBitRate);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof VideoConfig)) {
+            return false;
+        }
+        VideoConfig that = (VideoConfig) o;
+        return mBitRate == that.mBitRate && mFrameRate == that.mFrameRate
+                && mMinFps == that.mMinFps && mMaxFps == that.mMaxFps
+                && equals(mMimeType, that.mMimeType) && equals(mEncoderName, that.mEncoderName)
+                && mProfile == that.mProfile && mLevel == that.mLevel
+                && mDefaultEncoderBitRate == that.mDefaultEncoderBitRate;
+    }
+
+    private static boolean equals(String a, String b) {
+        return null == a ? null == b : a.equals(b);
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = ((mBitRate * 31 + mFrameRate) * 31 + mMinFps) * 31 + mMaxFps;
+        hash = hash * 31 + (null == mMimeType ? 0 : mMimeType.hashCode());
+        hash = hash * 31 + (null == mEncoderName ? 0 : mEncoderName.hashCode());
+        return ((hash * 31 + mProfile) * 31 + mLevel) * 31 + mDefaultEncoderBitRate;
+    }
+
+    @Override
+    public String toString() {
+        return "VideoConfig{" + getMimeType()
+                + (null == mEncoderName ? "" : ", encoder=" + mEncoderName)
+                + ", profile=" + mProfile
+                + ", bitRate=" + mBitRate
+                + (AUTO == mDefaultEncoderBitRate ? "" : ", defaultEncoderBitRate=" + mDefaultEncoderBitRate)
+                + ", frameRate=" + mFrameRate
+                + ", fpsRange=[" + mMinFps + ", " + mMaxFps + "]}";
+    }
+}
@@ -0,0 +1,198 @@
+package com.pm.cameracore;
+
+import android.content.Context;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraMetadata;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.CamcorderProfile;
+import android.os.Build;
+import android.util.Log;
+import android.util.Range;
+import android.util.Size;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Reads what {@link VideoQualityPolicy} needs from the device: the AE fps ranges of the camera, the
+ * {@link CamcorderProfile} of the video size and the limits of the most efficient encoder
+ * {@link CodecProbe} finds for it.
+ *
+ * @author pm
+ */
+public final class VideoQuality {
+    private static final String TAG = "VideoQuality";
+    private static final int[] PROFILE_QUALITIES = {
+            CamcorderProfile.QUALITY_2160P,
+            CamcorderProfile.QUALITY_1080P,
+            CamcorderProfile.QUALITY_720P,
+            CamcorderProfile.QUALITY_480P,
+            CamcorderProfile.QUALITY_CIF,
+            CamcorderProfile.QUALITY_QVGA,
+            CamcorderProfile.QUALITY_QCIF,
+    };
+    private static final int[] HIGH_SPEED_PROFILE_QUALITIES = {
+            CamcorderProfile.QUALITY_HIGH_SPEED_2160P,
+            CamcorderProfile.QUALITY_HIGH_SPEED_1080P,
+            CamcorderProfile.QUALITY_HIGH_SPEED_720P,
+            CamcorderProfile.QUALITY_HIGH_SPEED_480P,
+    };
+
+    private VideoQuality() {
+    }
+
+    /**
+     * May probe the codecs, call it on the camera thread.
+     *
+     * @param override values that replace the chosen ones, may be null
+     */
+    @NonNull
+    public static VideoConfig choose(@NonNull Context context, @NonNull CameraCharacteristics characteristics,
+                                     @NonNull String cameraId, @NonNull Size videoSize,
+                                     @NonNull VideoQualityPolicy policy, @Nullable VideoConfig override) {
+        return choose(context, cameraId, videoSize, getFpsRanges(characteristics), PROFILE_QUALITIES, policy, override);
+    }
+
+    /**
+     * The config of a constrained high speed recording in {@code mode}: the encoder runs at the
+     * frame rate of the mode and the bitrate grows with it, bounded by the high speed
+     * {@link CamcorderProfile}. May probe the codecs, call it on the camera thread.
+     *
+     * @param policy   its target frame rate is replaced by the one of {@code mode}
+     * @param override values that replace the chosen ones, may be null. Its fps range is ignored,
+     *                 a high speed session only takes the fixed one of {@code mode}
+     */
+    @NonNull
+    public static VideoConfig chooseHighSpeed(@NonNull Context context, @NonNull String cameraId,
+                                              @NonNull HighSpeedMode mode, @NonNull VideoQualityPolicy policy,
+                                              @Nullable VideoConfig override) {
+        int fps = mode.getMaxFps();
+        VideoConfig config = choose(context, cameraId, new Size(mode.getWidth(), mode.getHeight()),
+                new int[][]{{fps, fps}}, HIGH_SPEED_PROFILE_QUALITIES,
+                new VideoQualityPolicy(policy.getBitsPerPixel(), fps), override);
+        //帧率和 fps 范围必须与高速模式一致
+        return config.withOverrides(new VideoConfig(VideoConfig.AUTO, fps, fps, fps));
+    }
+
+    /**
+     * @return every size and fps range of a constrained high speed session, empty if the camera has
+     * no such capability or below API 23
+     */
+    @NonNull
+    public static List<HighSpeedMode> getHighSpeedModes(@NonNull CameraCharacteristics characteristics) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M || !hasHighSpeedCapability(characteristics)) {
+            return Collections.emptyList();
+        }
+        StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        if (null == map) {
+            return Collections.emptyList();
+        }
+        List<HighSpeedMode> modes = new ArrayList<>();
+        for (Size size : map.getHighSpeedVideoSizes()) {
+            for (Range<Integer> range : map.getHighSpeedVideoFpsRangesFor(size)) {
+                modes.add(new HighSpeedMode(size.getWidth(), size.getHeight(), range.getLower(), range.getUpper()));
+            }
+        }
+        return modes;
+    }
+
+    private static boolean hasHighSpeedCapability(CameraCharacteristics characteristics) {
+        int[] capabilities = characteristics.get(CameraCharacteristics.REQUEST_AVAILABLE_CAPABILITIES);
+        if (null == capabilities) {
+            return false;
+        }
+        for (int capability : capabilities) {
+            if (CameraMetadata.REQUEST_AVAILABLE_CAPABILITIES_CONSTRAINED_HIGH_SPEED_VIDEO == capability) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static VideoConfig choose(Context context, String cameraId, Size videoSize, int[][] fpsRanges,
+                                      int[] qualities, VideoQualityPolicy policy, VideoConfig override) {
+        int width = videoSize.getWidth();
+        int height = videoSize.getHeight();
+        int profileBitRate = 0;
+        int profileFrameRate = 0;
+        CamcorderProfile profile = getProfile(cameraId, width, height, qualities);
+        if (null != profile) {
+            profileBitRate = profile.videoBitRate;
+            profileFrameRate = profile.videoFrameRate;
+        }
+        int codecMaxFrameRate = 0;
+        int codecMaxBitRate = 0;
+        CodecProbe probe = CodecProbe.get(context);
+        EncoderInfo encoder = probe.selectBest(width, height, policy.getTargetFrameRate());
+        if (null == encoder) {
+            //目标帧率都不支持时, 取支持这个尺寸的, 帧率降下来
+            encoder = probe.selectBest(width, height, 1);
+        }
+        if (null != encoder) {
+            codecMaxFrameRate = encoder.getMaxFrameRate(width, height);
+            codecMaxBitRate = encoder.getMaxBitRate();
+        }
+        EncoderInfo defaultEncoder = getDefaultEncoder(probe);
+        int defaultMaxBitRate = null == defaultEncoder ? 0 : defaultEncoder.getMaxBitRate();
+        VideoConfig config = policy.choose(width, height, fpsRanges, profileBitRate, profileFrameRate,
+                codecMaxFrameRate, codecMaxBitRate, encoder, defaultMaxBitRate).withOverrides(override);
+        Log.d(TAG, "choose: " + videoSize + " profile=" + profileBitRate + "@" + profileFrameRate
+                + " " + encoder + " " + config);
+        return config;
+    }
+
+    /**
+     * @return the H.264 encoder {@code MediaCodec.createEncoderByType} and {@code MediaRecorder} pick,
+     * null if the probe found none
+     */
+    @Nullable
+    private static EncoderInfo getDefaultEncoder(CodecProbe probe) {
+        for (EncoderInfo encoder : probe.getEncoders()) {
+            if (EncoderInfo.MIME_AVC.equals(encoder.getMimeType())) {
+                return encoder;
+            }
+        }
+        return null;
+    }
+
+    private static int[][] getFpsRanges(CameraCharacteristics characteristics) {
+        Range<Integer>[] ranges = characteristics.get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES);
+        if (null == ranges) {
+            return new int[0][];
+        }
+        int[][] result = new int[ranges.length][];
+        for (int i = 0; i < ranges.length; i++) {
+            result[i] = new int[]{ranges[i].getLower(), ranges[i].getUpper()};
+        }
+        return result;
+    }
+
+    /**
+     * @return the profile recorded at exactly this size, null if there is none
+     */
+    @Nullable
+    private static CamcorderProfile getProfile(String cameraId, int width, int height, int[] qualities) {
+        int id;
+        try {
+            id = Integer.parseInt(cameraId);
+        } catch (NumberFormatException e) {
+            //外接相机没有 CamcorderProfile
+            return null;
+        }
+        for (int quality : qualities) {
+            if (!CamcorderProfile.hasProfile(id, quality)) {
+                continue;
+            }
+            CamcorderProfile profile = CamcorderProfile.get(id, quality);
+            if (StreamCombinations.fitsWithin(width, height, profile.videoFrameWidth, profile.videoFrameHeight)
+                    && StreamCombinations.fitsWithin(profile.videoFrameWidth, profile.videoFrameHeight, width, height)) {
+                return profile;
+            }
+        }
+        return null;
+    }
+}
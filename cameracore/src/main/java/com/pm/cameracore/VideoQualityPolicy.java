@@ -0,0 +1,170 @@
+package com.pm.cameracore;
+
+/**
+ * Picks the {@link VideoConfig} for a video size from what the device can do.
+ * <ul>
+ * <li>The frame rate is the target, lowered to what the encoder manages at that size and what the
+ * camera can hold. A fixed AE fps range is preferred, it keeps the frame rate steady in low light.</li>
+ * <li>The bitrate scales with the pixel rate by a bits-per-pixel target, so 4K gets more than
+ * 1080p. HEVC gets {@link #HEVC_BITRATE_FACTOR} of it for the same picture. It stays within the
+ * {@code CamcorderProfile} of the size, the bitrate the device was tuned for, and within the
+ * encoder's bitrate range. For HEVC the H.264 bitrate is chosen as well, in case the recorder
+ * has to fall back to the platform's H.264 encoder, see {@link VideoConfig#withDefaultEncoder()}.</li>
+ * </ul>
+ * Immutable.
+ *
+ * @author pm
+ */
+public final class VideoQualityPolicy {
+    /**
+     * About 9 Mbps for 1080p at 30 fps, H.264 looks clean there
+     */
+    public static final float DEFAULT_BITS_PER_PIXEL = 0.15f;
+    public static final int DEFAULT_FRAME_RATE = 30;
+    /**
+     * HEVC needs roughly half the bits of H.264, a little more keeps fast motion clean
+     */
+    public static final float HEVC_BITRATE_FACTOR = 0.6f;
+
+    private final float mBitsPerPixel;
+    private final int mTargetFrameRate;
+
+    public VideoQualityPolicy() {
+        this(DEFAULT_BITS_PER_PIXEL, DEFAULT_FRAME_RATE);
+    }
+
+    public VideoQualityPolicy(float bitsPerPixel, int targetFrameRate) {
+        if (bitsPerPixel <= 0 || targetFrameRate <= 0) {
+            throw new IllegalArgumentException("bitsPerPixel=" + bitsPerPixel + " targetFrameRate=" + targetFrameRate);
+        }
+        mBitsPerPixel = bitsPerPixel;
+        mTargetFrameRate = targetFrameRate;
+    }
+
+    public float getBitsPerPixel() {
+        return mBitsPerPixel;
+    }
+
+    public int getTargetFrameRate() {
+        return mTargetFrameRate;
+    }
+
+    /**
+     * @param fpsRanges        {@code CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES} as {lower, upper} pairs,
+     *                         empty if unknown
+     * @param profileBitRate   bitrate of the {@code CamcorderProfile} of this size, 0 if there is none
+     * @param profileFrameRate frame rate of that profile
+     * @param codecMaxFrameRate highest frame rate the encoder supports at this size, 0 if unknown
+     * @param codecMaxBitRate  highest bitrate the encoder supports, 0 if unknown
+     */
+    public VideoConfig choose(int width, int height, int[][] fpsRanges, int profileBitRate, int profileFrameRate,
+                              int codecMaxFrameRate, int codecMaxBitRate) {
+        return choose(width, height, fpsRanges, profileBitRate, profileFrameRate, codecMaxFrameRate, codecMaxBitRate, null);
+    }
+
+    /**
+     * @param encoder the encoder that will record, null for the platform's H.264 encoder. The result
+     *                records with it.
+     * @see #choose(int, int, int[][], int, int, int, int)
+     */
+    public VideoConfig choose(int width, int height, int[][] fpsRanges, int profileBitRate, int profileFrameRate,
+                              int codecMaxFrameRate, int codecMaxBitRate, EncoderInfo encoder) {
+        return choose(width, height, fpsRanges, profileBitRate, profileFrameRate, codecMaxFrameRate, codecMaxBitRate,
+                encoder, 0);
+    }
+
+    /**
+     * @param defaultMaxBitRate highest bitrate of the platform's H.264 encoder, 0 if unknown. Bounds
+     *                          the bitrate of the H.264 fallback when {@code encoder} is HEVC.
+     * @see #choose(int, int, int[][], int, int, int, int, EncoderInfo)
+     */
+    public VideoConfig choose(int width, int height, int[][] fpsRanges, int profileBitRate, int profileFrameRate,
+                              int codecMaxFrameRate, int codecMaxBitRate, EncoderInfo encoder,
+                              int defaultMaxBitRate) {
+        int frameRate = mTargetFrameRate;
+        if (codecMaxFrameRate > 0) {
+            frameRate = Math.min(frameRate, codecMaxFrameRate);
+        }
+        int[] range = chooseFpsRange(fpsRanges, frameRate);
+        if (null != range) {
+            frameRate = Math.min(frameRate, range[1]);
+        }
+        boolean hevc = null != encoder && EncoderInfo.MIME_HEVC.equals(encoder.getMimeType());
+        float bitsPerPixel = hevc ? mBitsPerPixel * HEVC_BITRATE_FACTOR : mBitsPerPixel;
+        VideoConfig config = new VideoConfig(
+                chooseBitRate(width, height, frameRate, bitsPerPixel, profileBitRate, profileFrameRate, codecMaxBitRate),
+                frameRate,
+                null == range ? VideoConfig.AUTO : range[0],
+                null == range ? VideoConfig.AUTO : range[1]);
+        if (null == encoder) {
+            return config;
+        }
+        config = config.withEncoder(encoder);
+        if (hevc) {
+            //退回 H.264 时按 H.264 的每像素比特数重新算
+            config = config.withDefaultEncoderBitRate(chooseBitRate(width, height, frameRate, mBitsPerPixel,
+                    profileBitRate, profileFrameRate, defaultMaxBitRate));
+        }
+        return config;
+    }
+
+    private static int chooseBitRate(int width, int height, int frameRate, float bitsPerPixel,
+                                     int profileBitRate, int profileFrameRate, int codecMaxBitRate) {
+        long bitRate = (long) ((double) width * height * frameRate * bitsPerPixel);
+        if (profileBitRate > 0) {
+            //按帧率折算设备调好的码率
+            long profileLimit = profileFrameRate > 0
+                    ? (long) profileBitRate * frameRate / profileFrameRate : profileBitRate;
+            bitRate = Math.min(bitRate, profileLimit);
+        }
+        if (codecMaxBitRate > 0) {
+            bitRate = Math.min(bitRate, codecMaxBitRate);
+        }
+        return (int) Math.max(1, bitRate);
+    }
+
+    /**
+     * @param ranges {lower, upper} pairs, as the camera lists them
+     * @return the fixed range at {@code frameRate}, else the widest range ending there, else the range
+     * reaching highest below it, null if there are no ranges
+     */
+    public static int[] chooseFpsRange(int[][] ranges, int frameRate) {
+        int[] best = null;
+        for (int[] range : ranges) {
+            int[] candidate = normalize(range);
+            if (candidate[1] > frameRate) {
+                continue;
+            }
+            if (null == best || candidate[1] > best[1]
+                    || candidate[1] == best[1] && candidate[0] > best[0]) {
+                best = candidate;
+            }
+        }
+        if (null == best) {
+            //都超过目标帧率时取最低的
+            for (int[] range : ranges) {
+                int[] candidate = normalize(range);
+                if (null == best || candidate[1] < best[1]
+                        || candidate[1] == best[1] && candidate[0] > best[0]) {
+                    best = candidate;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Some LEGACY devices list ranges in units of 1/1000 fps
+     */
+    private static int[] normalize(int[] range) {
+        if (range[1] >= 1000) {
+            return new int[]{range[0] / 1000, range[1] / 1000};
+        }
+        return new int[]{range[0], range[1]};
+    }
+
+    @Override
+    public String toString() {
+        return "VideoQualityPolicy{bitsPerPixel=" + mBitsPerPixel + ", targetFrameRate=" + mTargetFrameRate + "}";
+    }
+}
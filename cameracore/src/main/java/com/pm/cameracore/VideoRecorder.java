@@ -0,0 +1,406 @@
+package com.pm.cameracore;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.media.MediaCodec;
+import android.media.MediaRecorder;
+import android.os.Build;
+import android.os.Environment;
+import android.util.Log;
+import android.util.Size;
+import android.view.Surface;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * A {@link MediaRecorder} that is prepared ahead of the recording, so that starting it is only
+ * {@link MediaRecorder#start()}.
+ * <p>
+ * From API 23 the recorder reads from a persistent input surface created by
+ * {@link MediaCodec#createPersistentInputSurface()}. That surface outlives the recorder, it can stay
+ * an output of the capture session for as long as the camera is open and every recording is
+ * started by adding it to the repeating request. Older releases record from
+ * {@link MediaRecorder#getSurface()}, which is new for every recording, so the session has to be
+ * created again.
+ * <p>
+ * From API 26 a {@link SegmentPolicy} rolls over with {@link MediaRecorder#setNextOutputFile(File)},
+ * the recorder moves to the next file when the size limit is reached without dropping a frame.
+ * <p>
+ * Not thread safe, used on the camera thread. The recorder is created there, so its
+ * {@link MediaRecorder.OnInfoListener} runs there too.
+ *
+ * @author pm
+ */
+public class VideoRecorder implements RecordingEngine {
+    private static final String TAG = "VideoRecorder";
+    private static final int VIDEO_BIT_RATE = 10000000;
+    private static final int VIDEO_FRAME_RATE = 30;
+    /**
+     * Estimate of the AAC track, to turn a segment duration into a size
+     */
+    private static final int AUDIO_BIT_RATE_ESTIMATE = 128000;
+
+    private final Context mContext;
+    private Size mVideoSize;
+    private int mOrientationHint;
+    private VideoConfig mConfig;
+    /**
+     * Persistent input surface, null below API 23
+     */
+    private Surface mInputSurface;
+    private MediaRecorder mMediaRecorder;
+    /**
+     * File the prepared recorder writes to
+     */
+    private String mOutputPath;
+    private boolean mPrepared;
+    private boolean mRecording;
+    private SegmentPolicy mSegmentPolicy;
+    private SegmentListener mSegmentListener;
+    /**
+     * File passed to {@link MediaRecorder#setNextOutputFile(File)} that the recorder has not moved to yet
+     */
+    private String mNextOutputPath;
+
+    private final MediaRecorder.OnInfoListener mInfoListener = (mr, what, extra) -> {
+        switch (what) {
+            case MediaRecorder.MEDIA_RECORDER_INFO_MAX_FILESIZE_APPROACHING:
+                setNextOutputFile();
+                break;
+            case MediaRecorder.MEDIA_RECORDER_INFO_NEXT_OUTPUT_FILE_STARTED:
+                onNextOutputFileStarted();
+                break;
+            case MediaRecorder.MEDIA_RECORDER_INFO_MAX_FILESIZE_REACHED:
+                //没能及时设置下一个文件, 录制已经停了
+                Log.w(TAG, "onInfo: max file size reached, " + mOutputPath);
+                break;
+            default:
+                break;
+        }
+    };
+
+    public VideoRecorder(@NonNull Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    /**
+     * @return true if the input surface can stay in the capture session between recordings
+     */
+    public static boolean isPersistentSurfaceSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.M;
+    }
+
+    @Override
+    public boolean supportsPersistentSurface() {
+        return isPersistentSurfaceSupported();
+    }
+
+    /**
+     * Applies to the next {@link #prepare()}.
+     *
+     * @param orientationHint see {@link CameraTransforms#getJpegOrientation(int, int)}, the same
+     *                        mapping applies to video
+     */
+    @Override
+    public void configure(@NonNull Size videoSize, int orientationHint, @NonNull VideoConfig config) {
+        mVideoSize = videoSize;
+        mOrientationHint = orientationHint;
+        mConfig = config;
+    }
+
+    @Override
+    public Size getVideoSize() {
+        return mVideoSize;
+    }
+
+    /**
+     * Below API 26 one file is recorded.
+     */
+    @Override
+    public void setSegmentPolicy(@Nullable SegmentPolicy policy, @Nullable SegmentListener listener) {
+        mSegmentPolicy = policy;
+        mSegmentListener = listener;
+    }
+
+    /**
+     * MediaRecorder writes to the file from the start, there is no pre-roll.
+     */
+    @Override
+    public void setPreRoll(long durationMs, long maxBytes) {
+        if (durationMs > 0) {
+            Log.w(TAG, "setPreRoll: not supported by MediaRecorder");
+        }
+    }
+
+    /**
+     * Sets up the recorder for a new file. Prepares again if it was prepared before but not started.
+     *
+     * @return the surface the camera has to fill while recording
+     */
+    @NonNull
+    @Override
+    public Surface prepare() throws IOException {
+        if (mRecording) {
+            throw new IllegalStateException("Recording");
+        }
+        if (null == mVideoSize) {
+            throw new IllegalStateException("configure() has not been called");
+        }
+        discardPrepared();
+        if (null == mMediaRecorder) {
+            mMediaRecorder = new MediaRecorder();
+        }
+        try {
+            return prepareRecorder();
+        } catch (IOException | RuntimeException e) {
+            if (!mConfig.isHevc() && VideoConfig.AUTO == mConfig.getProfile()) {
+                throw e;
+            }
+            //HEVC 或指定 profile 不行时退回默认 H.264
+            Log.w(TAG, "prepare: " + mConfig + ", retrying with H.264", e);
+            mConfig = mConfig.withDefaultEncoder();
+            return prepareRecorder();
+        }
+    }
+
+    private Surface prepareRecorder() throws IOException {
+        mMediaRecorder.reset();
+        mOutputPath = createVideoFilePath();
+        mMediaRecorder.setAudioSource(MediaRecorder.AudioSource.MIC);
+        mMediaRecorder.setVideoSource(MediaRecorder.VideoSource.SURFACE);
+        mMediaRecorder.setOutputFormat(MediaRecorder.OutputFormat.MPEG_4);
+        mMediaRecorder.setOutputFile(mOutputPath);
+        int bitRate = VideoConfig.AUTO != mConfig.getBitRate() ? mConfig.getBitRate() : VIDEO_BIT_RATE;
+        mMediaRecorder.setVideoEncodingBitRate(bitRate);
+        int frameRate = VideoConfig.AUTO != mConfig.getFrameRate() ? mConfig.getFrameRate() : VIDEO_FRAME_RATE;
+        mMediaRecorder.setVideoFrameRate(frameRate);
+        if (frameRate > VIDEO_FRAME_RATE) {
+            //与帧率相同的采集帧率不是慢动作, 只让编码器按高帧率运行
+            mMediaRecorder.setCaptureRate(frameRate);
+        }
+        mMediaRecorder.setVideoSize(mVideoSize.getWidth(), mVideoSize.getHeight());
+        boolean hevc = mConfig.isHevc() && Build.VERSION.SDK_INT >= Build.VERSION_CODES.N;
+        mMediaRecorder.setVideoEncoder(hevc ? MediaRecorder.VideoEncoder.HEVC : MediaRecorder.VideoEncoder.H264);
+        if (VideoConfig.AUTO != mConfig.getProfile() && hevc == mConfig.isHevc()
+                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            setProfileLevel(mMediaRecorder);
+        }
+        mMediaRecorder.setAudioEncoder(MediaRecorder.AudioEncoder.AAC);
+        mMediaRecorder.setOrientationHint(mOrientationHint);
+        setUpSegments(bitRate);
+        if (isPersistentSurfaceSupported()) {
+            setInputSurface(mMediaRecorder);
+        }
+        try {
+            mMediaRecorder.prepare();
+        } catch (IOException | IllegalStateException e) {
+            mMediaRecorder.reset();
+            deleteOutput();
+            throw e;
+        }
+        mPrepared = true;
+        return null != mInputSurface ? mInputSurface : mMediaRecorder.getSurface();
+    }
+
+    private void setUpSegments(int videoBitRate) {
+        if (null == mSegmentPolicy || Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+            if (null != mSegmentPolicy) {
+                Log.w(TAG, "prepare: segments need API 26, recording one file");
+            }
+            mMediaRecorder.setOnInfoListener(null);
+            return;
+        }
+        long maxFileSize = mSegmentPolicy.getMaxFileSize((long) videoBitRate + AUDIO_BIT_RATE_ESTIMATE);
+        mMediaRecorder.setMaxFileSize(maxFileSize);
+        mMediaRecorder.setOnInfoListener(mInfoListener);
+    }
+
+    /**
+     * Sent ahead when the size limit is about to be reached
+     */
+    @TargetApi(Build.VERSION_CODES.O)
+    private void setNextOutputFile() {
+        if (!mRecording || null != mNextOutputPath) {
+            return;
+        }
+        String path = createVideoFilePath();
+        try {
+            mMediaRecorder.setNextOutputFile(new File(path));
+            mNextOutputPath = path;
+        } catch (IOException | IllegalStateException e) {
+            Log.w(TAG, "setNextOutputFile: ", e);
+            deleteFile(path);
+        }
+    }
+
+    private void onNextOutputFileStarted() {
+        if (null == mNextOutputPath) {
+            return;
+        }
+        String finished = mOutputPath;
+        mOutputPath = mNextOutputPath;
+        mNextOutputPath = null;
+        if (null != finished && null != mSegmentListener) {
+            mSegmentListener.onSegmentFinished(finished);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.O)
+    private void setProfileLevel(MediaRecorder recorder) {
+        recorder.setVideoEncodingProfileLevel(mConfig.getProfile(), mConfig.getLevel());
+    }
+
+    @TargetApi(Build.VERSION_CODES.M)
+    private void setInputSurface(MediaRecorder recorder) {
+        if (null == mInputSurface) {
+            mInputSurface = MediaCodec.createPersistentInputSurface();
+        }
+        recorder.setInputSurface(mInputSurface);
+    }
+
+    /**
+     * @return the persistent input surface, null below API 23 or before the first {@link #prepare()}
+     */
+    @Nullable
+    @Override
+    public Surface getInputSurface() {
+        return mInputSurface;
+    }
+
+    @Override
+    public boolean isPrepared() {
+        return mPrepared;
+    }
+
+    @Override
+    public boolean isRecording() {
+        return mRecording;
+    }
+
+    @Override
+    public boolean isPreRolling() {
+        return false;
+    }
+
+    /**
+     * Starts the prepared recorder, frames sent to the surface from now on are recorded.
+     */
+    @Override
+    public void start() {
+        if (!mPrepared) {
+            throw new IllegalStateException("prepare() has not been called");
+        }
+        mMediaRecorder.start();
+        mPrepared = false;
+        mRecording = true;
+    }
+
+    /**
+     * @return the recorded file, null if nothing was recorded
+     */
+    @Nullable
+    @Override
+    public String stop() {
+        if (!mRecording) {
+            return null;
+        }
+        mRecording = false;
+        String path = mOutputPath;
+        try {
+            //MediaRecorder.stop() 可能要等编码器, 不能在主线程
+            mMediaRecorder.stop();
+        } catch (RuntimeException e) {
+            // no valid data was recorded
+            Log.w(TAG, "stop: ", e);
+            deleteOutput();
+            path = null;
+        } finally {
+            mMediaRecorder.reset();
+        }
+        mOutputPath = null;
+        if (null != mNextOutputPath) {
+            //停止时可能已经写到下一个文件, 只是还没收到通知
+            if (null != path && new File(mNextOutputPath).length() > 0) {
+                if (null != mSegmentListener) {
+                    mSegmentListener.onSegmentFinished(path);
+                }
+                path = mNextOutputPath;
+            } else {
+                deleteFile(mNextOutputPath);
+            }
+            mNextOutputPath = null;
+        }
+        return path;
+    }
+
+    /**
+     * Stops a recording still running and frees the recorder and the input surface.
+     *
+     * @return the recorded file, see {@link #stop()}
+     */
+    @Nullable
+    @Override
+    public String release() {
+        String path = stop();
+        discardPrepared();
+        if (null != mMediaRecorder) {
+            mMediaRecorder.release();
+            mMediaRecorder = null;
+        }
+        if (null != mInputSurface) {
+            mInputSurface.release();
+            mInputSurface = null;
+        }
+        return path;
+    }
+
+    /**
+     * @return null, {@link MediaRecorder} does not report encoded frames
+     */
+    @Nullable
+    @Override
+    public RecordingStats getStats() {
+        return null;
+    }
+
+    /**
+     * A prepared recorder has already created its file
+     */
+    private void discardPrepared() {
+        if (!mPrepared) {
+            return;
+        }
+        mPrepared = false;
+        mMediaRecorder.reset();
+        deleteOutput();
+    }
+
+    private void deleteOutput() {
+        if (null != mOutputPath) {
+            deleteFile(mOutputPath);
+        }
+        mOutputPath = null;
+    }
+
+    private static void deleteFile(String path) {
+        File file = new File(path);
+        if (file.exists() && !file.delete()) {
+            Log.w(TAG, "Could not delete " + path);
+        }
+    }
+
+    private String createVideoFilePath() {
+        final File dir = mContext.getExternalFilesDir(Environment.DIRECTORY_MOVIES);
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss_SSSS", Locale.getDefault());
+        String dateStr = dateFormat.format(new Date());
+        return (dir == null ? "" : (dir.getAbsolutePath() + "/"))
+                + dateStr + ".mp4";
+    }
+}
@@ -0,0 +1,186 @@
+package com.pm.cameracore;
+
+import android.hardware.camera2.CaptureResult;
+import android.hardware.camera2.TotalCaptureResult;
+import android.media.Image;
+import android.media.ImageReader;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Keeps the most recent full resolution frames of the preview stream together with the
+ * {@link TotalCaptureResult} that produced them, for zero shutter lag capture.
+ * <p>
+ * Images and results arrive independently and are paired by an {@link ImageResultMatcher}. At most
+ * {@link #getCapacity()} paired frames are held, the oldest one is closed when a new one arrives.
+ * Up to {@link #PENDING_CAPTURES} images more may wait for their result, an image whose result does
+ * not come is closed once newer captures push it out. The {@link ImageReader} feeding the buffer
+ * needs {@link #getRequiredMaxImages()} slots.
+ *
+ * @author pm
+ */
+public class ZslRingBuffer implements ImageReader.OnImageAvailableListener {
+    private static final String TAG = "ZslRingBuffer";
+
+    /**
+     * Captures that may wait for their other half, a result usually arrives within a frame of its image
+     */
+    static final int PENDING_CAPTURES = 2;
+
+    private final int mCapacity;
+    /**
+     * 按到达顺序排列, 最新的在队尾
+     */
+    private final ArrayDeque<Frame> mFrames;
+    private final ImageResultMatcher mMatcher;
+
+    /**
+     * @param capacity number of frames kept, at least 1
+     */
+    public ZslRingBuffer(int capacity) {
+        mCapacity = Math.max(1, capacity);
+        mFrames = new ArrayDeque<>(mCapacity + 1);
+        mMatcher = new ImageResultMatcher(PENDING_CAPTURES, new ImageResultMatcher.Listener() {
+            @Override
+            public void onMatched(@NonNull Image image, @NonNull TotalCaptureResult result) {
+                addFrame(new Frame(image, result));
+            }
+
+            @Override
+            public void onImageOrphaned(@NonNull Image image) {
+                // a frame without its result cannot be reprocessed
+                image.close();
+            }
+        });
+    }
+
+    /**
+     * @param maxBytes      memory the buffered frames, and those waiting for their result, may use
+     * @param bytesPerFrame size of one frame
+     * @param maxFrames     upper bound regardless of the memory limit
+     * @return the number of frames that fit, at least 1
+     */
+    public static int capacityFor(long maxBytes, long bytesPerFrame, int maxFrames) {
+        if (bytesPerFrame <= 0) {
+            return 1;
+        }
+        return (int) Math.max(1, Math.min(maxFrames, maxBytes / bytesPerFrame - PENDING_CAPTURES));
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * @return max images of the reader: the buffered frames, those waiting for their result, one
+     * being acquired and one in flight
+     */
+    public int getRequiredMaxImages() {
+        return mCapacity + PENDING_CAPTURES + 2;
+    }
+
+    @Override
+    public void onImageAvailable(ImageReader reader) {
+        Image image;
+        try {
+            image = reader.acquireNextImage();
+        } catch (IllegalStateException e) {
+            Log.w(TAG, "onImageAvailable: ", e);
+            return;
+        }
+        if (null != image) {
+            addImage(image);
+        }
+    }
+
+    public void addImage(@NonNull Image image) {
+        mMatcher.onImage(image);
+    }
+
+    public void addResult(@NonNull TotalCaptureResult result) {
+        mMatcher.onResult(result);
+    }
+
+    /**
+     * Called by the matcher on the thread that completed the pair
+     */
+    private synchronized void addFrame(Frame frame) {
+        mFrames.offer(frame);
+        while (mFrames.size() > mCapacity) {
+            mFrames.poll().image.close();
+        }
+    }
+
+    /**
+     * Takes the newest frame whose focus and exposure had converged out of the buffer.
+     * The caller owns the image of the returned frame.
+     *
+     * @return the frame or null if no buffered frame qualifies
+     */
+    @Nullable
+    public synchronized Frame takeBestFrame() {
+        Iterator<Frame> iterator = mFrames.descendingIterator();
+        while (iterator.hasNext()) {
+            Frame frame = iterator.next();
+            if (isConverged(frame.result)) {
+                iterator.remove();
+                return frame;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Closes every buffered image, those waiting for their result included.
+     */
+    public void clear() {
+        mMatcher.clear();
+        synchronized (this) {
+            Frame frame;
+            while ((frame = mFrames.poll()) != null) {
+                frame.image.close();
+            }
+        }
+    }
+
+    /**
+     * @return paired frames held now
+     */
+    public synchronized int size() {
+        return mFrames.size();
+    }
+
+    /**
+     * AF has settled (or is not available) and AE has converged (or is not reported).
+     */
+    static boolean isConverged(CaptureResult result) {
+        Integer afState = result.get(CaptureResult.CONTROL_AF_STATE);
+        Integer aeState = result.get(CaptureResult.CONTROL_AE_STATE);
+        boolean afReady = null == afState
+                || afState == CaptureResult.CONTROL_AF_STATE_INACTIVE
+                || afState == CaptureResult.CONTROL_AF_STATE_PASSIVE_FOCUSED
+                || afState == CaptureResult.CONTROL_AF_STATE_FOCUSED_LOCKED;
+        boolean aeReady = null == aeState
+                || aeState == CaptureResult.CONTROL_AE_STATE_CONVERGED
+                || aeState == CaptureResult.CONTROL_AE_STATE_LOCKED;
+        return afReady && aeReady;
+    }
+
+    /**
+     * A buffered image and the result it was captured with.
+     */
+    public static class Frame {
+        public final Image image;
+        public final TotalCaptureResult result;
+
+        Frame(Image image, TotalCaptureResult result) {
+            this.image = image;
+            this.result = result;
+        }
+    }
+}
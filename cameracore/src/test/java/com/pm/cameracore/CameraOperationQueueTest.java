@@ -0,0 +1,146 @@
+package com.pm.cameracore;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Local unit tests for {@link CameraOperationQueue} and {@link CameraFuture}.
+ */
+public class CameraOperationQueueTest {
+
+    /**
+     * Stands in for the camera thread, runs tasks only when asked to.
+     */
+    private static class ManualExecutor implements Executor {
+        final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+        boolean quit;
+
+        @Override
+        public void execute(Runnable command) {
+            if (quit) {
+                throw new RejectedExecutionException("quit");
+            }
+            tasks.add(command);
+        }
+
+        void runAll() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                task.run();
+            }
+        }
+    }
+
+    private final ManualExecutor mCamera = new ManualExecutor();
+    private final CameraOperationQueue mQueue = new CameraOperationQueue();
+
+    @Test
+    public void enqueue_runsOnExecutorInOrder() {
+        List<String> log = new ArrayList<>();
+        CameraFuture<Void> open = mQueue.enqueue(mCamera, future -> {
+            log.add("open");
+            future.complete(null);
+        });
+        CameraFuture<Void> close = mQueue.enqueue(mCamera, future -> {
+            log.add("close");
+            future.complete(null);
+        });
+        assertTrue(log.isEmpty());
+
+        mCamera.runAll();
+        assertEquals("[open, close]", log.toString());
+        assertTrue(open.isSuccessful());
+        assertTrue(close.isSuccessful());
+        assertTrue(mQueue.getTail().isDone());
+    }
+
+    @Test
+    public void enqueue_waitsForAsynchronousCompletion() {
+        List<CameraFuture<Void>> pendingOpen = new ArrayList<>();
+        mQueue.<Void>enqueue(mCamera, pendingOpen::add);
+        CameraFuture<Void> close = mQueue.enqueue(mCamera, future -> future.complete(null));
+
+        mCamera.runAll();
+        // onOpened has not arrived yet
+        assertFalse(close.isDone());
+
+        pendingOpen.get(0).complete(null);
+        mCamera.runAll();
+        assertTrue(close.isSuccessful());
+    }
+
+    @Test
+    public void enqueue_runsAfterFailedOperation() {
+        CameraFuture<Void> open = mQueue.enqueue(mCamera, future -> {
+            throw new IllegalStateException("No camera to open");
+        });
+        CameraFuture<Void> close = mQueue.enqueue(mCamera, future -> future.complete(null));
+
+        mCamera.runAll();
+        assertFalse(open.isSuccessful());
+        assertTrue(open.getFailure() instanceof IllegalStateException);
+        assertTrue(close.isSuccessful());
+    }
+
+    @Test
+    public void enqueue_rejectedOrMissingExecutorFails() {
+        mCamera.quit = true;
+        CameraFuture<Void> rejected = mQueue.enqueue(mCamera, future -> future.complete(null));
+        CameraFuture<Void> missing = mQueue.enqueue(null, future -> future.complete(null));
+
+        assertTrue(rejected.getFailure() instanceof RejectedExecutionException);
+        assertTrue(missing.getFailure() instanceof RejectedExecutionException);
+    }
+
+    @Test
+    public void cancel_skipsOperation() throws Exception {
+        List<String> log = new ArrayList<>();
+        CameraFuture<Void> open = mQueue.enqueue(mCamera, future -> log.add("open"));
+        open.cancel(false);
+
+        mCamera.runAll();
+        assertTrue(log.isEmpty());
+        assertTrue(open.isCancelled());
+        try {
+            open.get();
+            fail();
+        } catch (CancellationException expected) {
+            // cancelled futures throw CancellationException, not ExecutionException
+        }
+    }
+
+    @Test
+    public void future_completesOnceAndNotifiesLateListeners() throws Exception {
+        CameraFuture<String> future = new CameraFuture<>();
+        List<String> values = new ArrayList<>();
+        future.addListener(f -> values.add(f.getNow()), null);
+
+        assertTrue(future.complete("a"));
+        assertFalse(future.complete("b"));
+        assertFalse(future.fail(new IllegalStateException()));
+        future.addListener(f -> values.add(f.getNow()), mCamera);
+        mCamera.runAll();
+
+        assertEquals("[a, a]", values.toString());
+        assertEquals("a", future.get());
+        assertNull(future.getFailure());
+    }
+
+    @Test(expected = ExecutionException.class)
+    public void future_getThrowsFailure() throws Exception {
+        CameraFuture.failed(new IllegalStateException("Camera error 4")).get();
+    }
+}
@@ -0,0 +1,158 @@
+package com.pm.cameracore;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Local unit tests for {@link CameraTransforms}. The preview transform is checked against the
+ * {@code Matrix} calls it replaced, {@code setRectToRect}, {@code postScale} and {@code postRotate},
+ * written out on plain arrays.
+ */
+public class CameraTransformsTest {
+    private static final float EPSILON = 1e-3f;
+
+    @Test
+    public void getPreviewTransform_rotation0_isIdentity() {
+        assertArrayEquals(new float[]{0, 0, 1080, 1920}, mapView(1080, 1920, 1440, 1080, 0), EPSILON);
+    }
+
+    @Test
+    public void getPreviewTransform_rotation180_flipsAboutTheCenter() {
+        float[] values = new float[9];
+        CameraTransforms.getPreviewTransform(1080, 1920, 1440, 1080, 2, values);
+
+        // the view's top left corner ends up bottom right
+        assertArrayEquals(new float[]{1080, 1920}, map(values, 0, 0), EPSILON);
+        assertArrayEquals(new float[]{0, 0, 1080, 1920}, mapView(1080, 1920, 1440, 1080, 2), EPSILON);
+    }
+
+    @Test
+    public void getPreviewTransform_rotation90And270_fillTheViewWithThePreviewAspect() {
+        // a 4:3 buffer in a 16:9 landscape view is cropped at the top and bottom
+        float[] expected = {0, -180, 1920, 1260};
+        assertArrayEquals(expected, mapView(1920, 1080, 1440, 1080, 1), EPSILON);
+        assertArrayEquals(expected, mapView(1920, 1080, 1440, 1080, 3), EPSILON);
+    }
+
+    @Test
+    public void getPreviewTransform_rotation90And270_turnOppositeWays() {
+        float[] rotation90 = new float[9];
+        float[] rotation270 = new float[9];
+        CameraTransforms.getPreviewTransform(1920, 1080, 1440, 1080, 1, rotation90);
+        CameraTransforms.getPreviewTransform(1920, 1080, 1440, 1080, 3, rotation270);
+
+        assertArrayEquals(new float[]{0, 1260}, map(rotation90, 0, 0), EPSILON);
+        assertArrayEquals(new float[]{1920, -180}, map(rotation270, 0, 0), EPSILON);
+    }
+
+    @Test
+    public void getPreviewTransform_matchesMatrixCalls() {
+        int[][] cases = {
+                {1080, 1920, 1440, 1080},
+                {1920, 1080, 1440, 1080},
+                {2400, 1080, 1920, 1080},
+                {1280, 720, 640, 480},
+        };
+        for (int[] c : cases) {
+            for (int rotation = 0; rotation < 4; rotation++) {
+                float[] values = new float[9];
+                CameraTransforms.getPreviewTransform(c[0], c[1], c[2], c[3], rotation, values);
+
+                assertArrayEquals("case " + c[0] + "x" + c[1] + " rotation " + rotation,
+                        reference(c[0], c[1], c[2], c[3], rotation), values, EPSILON);
+            }
+        }
+    }
+
+    @Test
+    public void getJpegOrientation_backCamera() {
+        int[] expected = {90, 0, 270, 180};
+        for (int rotation = 0; rotation < 4; rotation++) {
+            assertEquals(expected[rotation], CameraTransforms.getJpegOrientation(rotation, 90));
+            assertEquals(expected[rotation], CameraTransforms.getJpegOrientation(rotation, 90, false));
+            assertEquals((expected[rotation] + 180) % 360, CameraTransforms.getJpegOrientation(rotation, 270));
+        }
+    }
+
+    @Test
+    public void getJpegOrientation_frontCamera_isMirrored() {
+        // the front sensor is usually mounted at 270, the rotation adds up instead of subtracting
+        int[] expected = {270, 0, 90, 180};
+        for (int rotation = 0; rotation < 4; rotation++) {
+            assertEquals(expected[rotation], CameraTransforms.getJpegOrientation(rotation, 270, true));
+        }
+        assertEquals(180, CameraTransforms.getJpegOrientation(1, 90, true));
+    }
+
+    /**
+     * @return the bounds of the view rectangle after the transform, left, top, right, bottom
+     */
+    private static float[] mapView(int viewWidth, int viewHeight, int previewWidth, int previewHeight, int rotation) {
+        float[] values = new float[9];
+        CameraTransforms.getPreviewTransform(viewWidth, viewHeight, previewWidth, previewHeight, rotation, values);
+        float[] a = map(values, 0, 0);
+        float[] b = map(values, viewWidth, viewHeight);
+        return new float[]{Math.min(a[0], b[0]), Math.min(a[1], b[1]), Math.max(a[0], b[0]), Math.max(a[1], b[1])};
+    }
+
+    private static float[] map(float[] m, float x, float y) {
+        return new float[]{m[0] * x + m[1] * y + m[2], m[3] * x + m[4] * y + m[5]};
+    }
+
+    /**
+     * What {@code CaptureDelegate.configureTransform} did with {@code android.graphics.Matrix}
+     */
+    private static float[] reference(int viewWidth, int viewHeight, int previewWidth, int previewHeight, int rotation) {
+        float centerX = viewWidth / 2f;
+        float centerY = viewHeight / 2f;
+        float[] m = {1, 0, 0, 0, 1, 0, 0, 0, 1};
+        if (1 == rotation || 3 == rotation) {
+            // setRectToRect(view, buffer offset to the view center, FILL)
+            float bufferLeft = centerX - previewHeight / 2f;
+            float bufferTop = centerY - previewWidth / 2f;
+            m = new float[]{(float) previewHeight / viewWidth, 0, bufferLeft,
+                    0, (float) previewWidth / viewHeight, bufferTop, 0, 0, 1};
+            float scale = Math.max((float) viewHeight / previewHeight, (float) viewWidth / previewWidth);
+            m = concat(about(new float[]{scale, 0, 0, 0, scale, 0, 0, 0, 1}, centerX, centerY), m);
+            m = concat(about(rotate(90 * (rotation - 2)), centerX, centerY), m);
+        } else if (2 == rotation) {
+            m = concat(about(rotate(180), centerX, centerY), m);
+        }
+        return m;
+    }
+
+    private static float[] rotate(int degrees) {
+        double radians = Math.toRadians(degrees);
+        float sin = (float) Math.round(Math.sin(radians));
+        float cos = (float) Math.round(Math.cos(radians));
+        return new float[]{cos, -sin, 0, sin, cos, 0, 0, 0, 1};
+    }
+
+    /**
+     * @return {@code m} applied about the point instead of the origin
+     */
+    private static float[] about(float[] m, float px, float py) {
+        float[] to = {1, 0, px, 0, 1, py, 0, 0, 1};
+        float[] back = {1, 0, -px, 0, 1, -py, 0, 0, 1};
+        return concat(to, concat(m, back));
+    }
+
+    /**
+     * @return {@code a * b}, b is applied first
+     */
+    private static float[] concat(float[] a, float[] b) {
+        float[] r = new float[9];
+        for (int row = 0; row < 3; row++) {
+            for (int col = 0; col < 3; col++) {
+                float sum = 0;
+                for (int k = 0; k < 3; k++) {
+                    sum += a[row * 3 + k] * b[k * 3 + col];
+                }
+                r[row * 3 + col] = sum;
+            }
+        }
+        return r;
+    }
+}
@@ -0,0 +1,84 @@
+package com.pm.cameracore;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit tests for {@link EncoderInfo}.
+ */
+public class EncoderInfoTest {
+    private static final long UHD_30 = 3840L * 2160 * 30;
+
+    private static final EncoderInfo HW_AVC = new EncoderInfo("OMX.qcom.video.encoder.avc", EncoderInfo.MIME_AVC,
+            true, 8, 32768, 4096, 2160, 2, 2, 120, UHD_30, 100000000);
+    private static final EncoderInfo HW_HEVC_1080 = new EncoderInfo("OMX.qcom.video.encoder.hevc", EncoderInfo.MIME_HEVC,
+            true, 1, 2097152, 1920, 1088, 2, 2, 60, 1920L * 1088 * 60, 40000000);
+    private static final EncoderInfo SW_HEVC = new EncoderInfo("c2.android.hevc.encoder", EncoderInfo.MIME_HEVC,
+            false, 1, 2097152, 4096, 2304, 2, 2, 120, 0, 10000000);
+    private static final EncoderInfo SW_AVC = new EncoderInfo("c2.android.avc.encoder", EncoderInfo.MIME_AVC,
+            false, 1, 65536, 2048, 2048, 2, 2, 60, 0, 12000000);
+
+    private static final List<EncoderInfo> ENCODERS = Arrays.asList(SW_HEVC, SW_AVC, HW_AVC, HW_HEVC_1080);
+
+    @Test
+    public void selectBest_prefersHardwareHevc() {
+        assertEquals(HW_HEVC_1080, EncoderInfo.selectBest(ENCODERS, 1920, 1080, 30));
+    }
+
+    @Test
+    public void selectBest_fallsBackToHardwareAvcForLargerSizes() {
+        assertEquals(HW_AVC, EncoderInfo.selectBest(ENCODERS, 3840, 2160, 30));
+        // the pixel rate of the encoder does not reach 4K at 60 fps
+        assertNull(EncoderInfo.selectBest(Collections.singletonList(HW_AVC), 3840, 2160, 60));
+    }
+
+    @Test
+    public void selectBest_neverPicksSoftwareHevc() {
+        assertEquals(SW_AVC, EncoderInfo.selectBest(Arrays.asList(SW_HEVC, SW_AVC), 1280, 720, 30));
+        assertNull(EncoderInfo.selectBest(Collections.singletonList(SW_HEVC), 1280, 720, 30));
+    }
+
+    @Test
+    public void getMaxFrameRate_followsSizeAndPixelRate() {
+        assertEquals(30, HW_AVC.getMaxFrameRate(3840, 2160));
+        assertEquals(120, HW_AVC.getMaxFrameRate(1920, 1080));
+        assertEquals(0, HW_AVC.getMaxFrameRate(1921, 1080));
+        assertEquals(0, HW_HEVC_1080.getMaxFrameRate(1920, 1090));
+        assertTrue(HW_HEVC_1080.supports(1280, 720, 60));
+        assertFalse(HW_HEVC_1080.supports(1280, 720, 61));
+    }
+
+    @Test
+    public void supportsSize_checksAlignment() {
+        EncoderInfo aligned = new EncoderInfo("hevc", EncoderInfo.MIME_HEVC, true, 1, 1, 1920, 1088, 16, 16, 60, 0, 0);
+
+        assertTrue(aligned.supportsSize(1920, 1088));
+        assertFalse(aligned.supportsSize(1920, 1080));
+    }
+
+    @Test
+    public void encode_decode_roundTrips() {
+        EncoderInfo decoded = EncoderInfo.decode(HW_AVC.encode());
+
+        assertEquals(HW_AVC.encode(), decoded.encode());
+        assertEquals("OMX.qcom.video.encoder.avc", decoded.getName());
+        assertTrue(decoded.isHardware());
+        assertEquals(8, decoded.getProfile());
+        assertEquals(30, decoded.getMaxFrameRate(3840, 2160));
+    }
+
+    @Test
+    public void decode_rejectsDamagedLines() {
+        assertNull(EncoderInfo.decode(""));
+        assertNull(EncoderInfo.decode("a|video/avc|1|x|0|1|1|1|1|1|1|1"));
+        assertNull(EncoderInfo.decode(HW_AVC.encode() + "|1"));
+    }
+}
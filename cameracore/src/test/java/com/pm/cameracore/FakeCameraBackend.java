@@ -0,0 +1,280 @@
+package com.pm.cameracore;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A scripted {@link CameraBackend} for running the capture sequence on the JVM.
+ * <p>
+ * Nothing happens on its own: every call to {@link #advance()} produces one frame on the caller's
+ * thread, a still while stills are queued and a preview frame otherwise. Timestamps advance by
+ * {@link #setFrameDuration(long)}. After {@link #triggerAutoFocus()} the AF state of the following
+ * frames walks through {@link #setFocusSequence(int...)}, after {@link #triggerPrecapture()} the
+ * AE state walks through {@link #setPrecaptureSequence(int...)}; the last value of a sequence is
+ * held. Every still hands the {@link #setJpeg(byte[]) JPEG payload} to the {@link JpegOutput}.
+ * <p>
+ * {@link #getTimer()} runs on the same simulated clock, {@link #advanceTime(long)} lets time pass
+ * without frames, as with a stalled camera.
+ *
+ * @author pm
+ */
+public class FakeCameraBackend implements CameraBackend {
+    private static final long DEFAULT_FRAME_DURATION = 33_333_333L;
+
+    private Listener mListener;
+    private JpegOutput mJpegOutput;
+
+    private long mFrameDuration = DEFAULT_FRAME_DURATION;
+    private long mTimestamp;
+    private int mPreviewAfState = FrameState.AF_PASSIVE_FOCUSED;
+    private int mPreviewAeState = FrameState.AE_CONVERGED;
+    private int[] mFocusSequence = {FrameState.AF_ACTIVE_SCAN, FrameState.AF_FOCUSED_LOCKED};
+    private int[] mPrecaptureSequence = {FrameState.AE_PRECAPTURE, FrameState.AE_CONVERGED};
+    private byte[] mJpeg = new byte[0];
+    /**
+     * Every n-th still fails, 0 for none
+     */
+    private int mFailureInterval;
+
+    private boolean mRepeating;
+    /**
+     * Position in the focus sequence, -1 if AF was not triggered
+     */
+    private int mFocusStep = -1;
+    private int mPrecaptureStep = -1;
+    private int mPendingStills;
+
+    private final List<Task> mTasks = new ArrayList<>();
+    private final ShutterStateMachine.Timer mTimer = new ShutterStateMachine.Timer() {
+        @Override
+        public long nanoTime() {
+            return mTimestamp;
+        }
+
+        @Override
+        public void schedule(Runnable task, long delayNanos) {
+            mTasks.add(new Task(mTimestamp + Math.max(0, delayNanos), task));
+        }
+    };
+
+    private int mPreviewFrameCount;
+    private int mStillCount;
+    private int mTriggerCount;
+
+    /**
+     * @return a timer on the simulated clock, scheduled tasks run on the thread that advances it
+     */
+    public ShutterStateMachine.Timer getTimer() {
+        return mTimer;
+    }
+
+    public void setJpegOutput(JpegOutput output) {
+        mJpegOutput = output;
+    }
+
+    public void setFrameDuration(long nanos) {
+        mFrameDuration = nanos;
+    }
+
+    /**
+     * @param afState AF state of the preview while AF is not triggered, {@link FrameState#UNKNOWN}
+     *                for a device without auto focus
+     * @param aeState AE state of the preview while precapture is not triggered
+     */
+    public void setPreviewStates(int afState, int aeState) {
+        mPreviewAfState = afState;
+        mPreviewAeState = aeState;
+    }
+
+    public void setFocusSequence(int... afStates) {
+        mFocusSequence = afStates.clone();
+    }
+
+    public void setPrecaptureSequence(int... aeStates) {
+        mPrecaptureSequence = aeStates.clone();
+    }
+
+    public void setJpeg(byte[] jpeg) {
+        mJpeg = jpeg;
+    }
+
+    /**
+     * @param interval every {@code interval}-th still fails, 0 for none
+     */
+    public void setFailureInterval(int interval) {
+        mFailureInterval = Math.max(0, interval);
+    }
+
+    @Override
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    @Override
+    public void startPreview() {
+        mRepeating = true;
+    }
+
+    @Override
+    public void triggerAutoFocus() {
+        mTriggerCount++;
+        mFocusStep = 0;
+    }
+
+    @Override
+    public void triggerPrecapture() {
+        mTriggerCount++;
+        mPrecaptureStep = 0;
+    }
+
+    @Override
+    public void captureStill(int count) {
+        mRepeating = false;
+        mPendingStills += Math.max(1, count);
+    }
+
+    @Override
+    public void cancelAutoFocus() {
+        mTriggerCount++;
+        mFocusStep = -1;
+        mPrecaptureStep = -1;
+        mRepeating = true;
+    }
+
+    @Override
+    public void close() {
+        if (mPendingStills > 0) {
+            mPendingStills = 0;
+            if (null != mListener) {
+                mListener.onSequenceCompleted(true);
+            }
+        }
+        // nothing is delivered after close, whatever the listener did above
+        mRepeating = false;
+        mFocusStep = -1;
+        mPrecaptureStep = -1;
+    }
+
+    /**
+     * Produces the next frame.
+     *
+     * @return false if there was nothing to produce: no stills queued and the preview stopped
+     */
+    public boolean advance() {
+        if (mPendingStills > 0) {
+            advanceTime(mFrameDuration);
+            mPendingStills--;
+            mStillCount++;
+            if (mFailureInterval > 0 && mStillCount % mFailureInterval == 0) {
+                mListener.onStillFailed();
+            } else {
+                mListener.onStillStarted(mTimestamp);
+                if (null != mJpegOutput) {
+                    mJpegOutput.onJpeg(mTimestamp, ByteBuffer.wrap(mJpeg).asReadOnlyBuffer());
+                }
+            }
+            if (0 == mPendingStills) {
+                mListener.onSequenceCompleted(false);
+            }
+            return true;
+        }
+        if (!mRepeating) {
+            return false;
+        }
+        advanceTime(mFrameDuration);
+        mPreviewFrameCount++;
+        int afState = mPreviewAfState;
+        if (mFocusStep >= 0) {
+            afState = step(mFocusSequence, mFocusStep);
+            mFocusStep = Math.min(mFocusStep + 1, mFocusSequence.length);
+        }
+        int aeState = mPreviewAeState;
+        if (mPrecaptureStep >= 0) {
+            aeState = step(mPrecaptureSequence, mPrecaptureStep);
+            mPrecaptureStep = Math.min(mPrecaptureStep + 1, mPrecaptureSequence.length);
+        }
+        mListener.onFrameState(new FrameState(mTimestamp, afState, aeState));
+        return true;
+    }
+
+    /**
+     * @return the number of frames produced, less than {@code frames} if production stopped
+     */
+    public int advance(int frames) {
+        int produced = 0;
+        while (produced < frames && advance()) {
+            produced++;
+        }
+        return produced;
+    }
+
+    /**
+     * Lets {@code nanos} pass without producing a frame and runs the tasks that became due.
+     */
+    public void advanceTime(long nanos) {
+        long end = mTimestamp + nanos;
+        Task task;
+        while ((task = nextDueTask(end)) != null) {
+            mTimestamp = Math.max(mTimestamp, task.due);
+            task.runnable.run();
+        }
+        mTimestamp = end;
+    }
+
+    private Task nextDueTask(long end) {
+        Task next = null;
+        for (Task task : mTasks) {
+            if (task.due <= end && (null == next || task.due < next.due)) {
+                next = task;
+            }
+        }
+        if (null != next) {
+            mTasks.remove(next);
+        }
+        return next;
+    }
+
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    public int getPreviewFrameCount() {
+        return mPreviewFrameCount;
+    }
+
+    public int getStillCount() {
+        return mStillCount;
+    }
+
+    /**
+     * @return AF, precapture and cancel requests sent so far
+     */
+    public int getTriggerCount() {
+        return mTriggerCount;
+    }
+
+    private static int step(int[] sequence, int step) {
+        if (sequence.length == 0) {
+            return FrameState.UNKNOWN;
+        }
+        return sequence[Math.min(step, sequence.length - 1)];
+    }
+
+    private static final class Task {
+        final long due;
+        final Runnable runnable;
+
+        Task(long due, Runnable runnable) {
+            this.due = due;
+            this.runnable = runnable;
+        }
+    }
+
+    public interface JpegOutput {
+        /**
+         * @param jpeg read only view of the payload, shared by every still
+         */
+        void onJpeg(long timestamp, ByteBuffer jpeg);
+    }
+}
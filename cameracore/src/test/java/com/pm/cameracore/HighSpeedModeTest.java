@@ -0,0 +1,60 @@
+package com.pm.cameracore;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit tests for {@link HighSpeedMode}.
+ */
+public class HighSpeedModeTest {
+    private static final HighSpeedMode HD_PREVIEW_120 = new HighSpeedMode(1280, 720, 30, 120);
+    private static final HighSpeedMode HD_120 = new HighSpeedMode(1280, 720, 120, 120);
+    private static final HighSpeedMode HD_240 = new HighSpeedMode(1280, 720, 240, 240);
+    private static final HighSpeedMode FHD_120 = new HighSpeedMode(1920, 1080, 120, 120);
+    private static final HighSpeedMode UHD_120 = new HighSpeedMode(3840, 2160, 120, 120);
+
+    private static final List<HighSpeedMode> MODES = Arrays.asList(HD_PREVIEW_120, HD_120, HD_240, FHD_120, UHD_120);
+
+    @Test
+    public void rank_prefersTheFrameRateThenTheLargerSize() {
+        assertEquals(Arrays.asList(FHD_120, HD_120, HD_240), HighSpeedMode.rank(MODES, 120, 1920, 1080));
+        assertEquals(Arrays.asList(HD_240, FHD_120, HD_120), HighSpeedMode.rank(MODES, 240, 1920, 1080));
+    }
+
+    @Test
+    public void rank_skipsVariableRangesAndLargerSizes() {
+        List<HighSpeedMode> ranked = HighSpeedMode.rank(MODES, 120, 1280, 720);
+        assertEquals(Arrays.asList(HD_120, HD_240), ranked);
+        assertFalse(ranked.contains(HD_PREVIEW_120));
+    }
+
+    @Test
+    public void rank_acceptsPortraitLimits() {
+        assertEquals(Collections.singletonList(HD_120),
+                HighSpeedMode.rank(Collections.singletonList(HD_120), 120, 720, 1280));
+    }
+
+    @Test
+    public void rank_prefersTheHigherRateOnATie() {
+        HighSpeedMode hd60 = new HighSpeedMode(1280, 720, 60, 60);
+        assertEquals(Arrays.asList(HD_240, hd60), HighSpeedMode.rank(Arrays.asList(hd60, HD_240), 150, 1920, 1080));
+    }
+
+    @Test
+    public void rank_isEmptyWithoutFixedModes() {
+        assertTrue(HighSpeedMode.rank(Collections.singletonList(HD_PREVIEW_120), 120, 1920, 1080).isEmpty());
+    }
+
+    @Test
+    public void getMaxFrameRate_ignoresVariableRanges() {
+        assertEquals(240, HighSpeedMode.getMaxFrameRate(MODES));
+        assertEquals(0, HighSpeedMode.getMaxFrameRate(Collections.singletonList(HD_PREVIEW_120)));
+    }
+}
@@ -0,0 +1,223 @@
+package com.pm.cameracore;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit tests for {@link JpegHeaderParser}, run on the development machine.
+ */
+public class JpegHeaderParserTest {
+
+    private static final byte[] THUMBNAIL = {(byte) 0xFF, (byte) 0xD8, 1, 2, 3, 4, (byte) 0xFF, (byte) 0xD9};
+
+    @Test
+    public void parse_readsSizeOrientationAndThumbnail_littleEndian() {
+        byte[] jpeg = buildJpeg(true, 6, THUMBNAIL, 4032, 3024);
+        JpegInfo info = new JpegInfo();
+
+        assertTrue(JpegHeaderParser.parse(ByteBuffer.wrap(jpeg), info));
+        assertEquals(4032, info.width);
+        assertEquals(3024, info.height);
+        assertEquals(JpegInfo.ORIENTATION_ROTATE_90, info.orientation);
+        assertEquals(90, info.getRotationDegrees());
+        assertTrue(info.hasThumbnail());
+        assertArrayEquals(THUMBNAIL, slice(jpeg, info.thumbnailOffset, info.thumbnailLength));
+    }
+
+    @Test
+    public void parse_readsSizeOrientationAndThumbnail_bigEndian() {
+        byte[] jpeg = buildJpeg(false, 3, THUMBNAIL, 1920, 1080);
+        JpegInfo info = new JpegInfo();
+
+        assertTrue(JpegHeaderParser.parse(ByteBuffer.wrap(jpeg), info));
+        assertEquals(1920, info.width);
+        assertEquals(1080, info.height);
+        assertEquals(180, info.getRotationDegrees());
+        assertArrayEquals(THUMBNAIL, slice(jpeg, info.thumbnailOffset, info.thumbnailLength));
+    }
+
+    @Test
+    public void parse_withoutExif_onlyReadsSize() {
+        byte[] jpeg = buildJpeg(true, -1, null, 640, 480);
+        JpegInfo info = new JpegInfo();
+
+        assertTrue(JpegHeaderParser.parse(ByteBuffer.wrap(jpeg), info));
+        assertEquals(640, info.width);
+        assertEquals(480, info.height);
+        assertEquals(JpegInfo.ORIENTATION_UNDEFINED, info.orientation);
+        assertFalse(info.hasThumbnail());
+    }
+
+    @Test
+    public void parse_offsetsAreRelativeToPositionAndBufferIsUntouched() {
+        byte[] jpeg = buildJpeg(true, 8, THUMBNAIL, 800, 600);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(jpeg.length + 16).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.position(16);
+        buffer.put(jpeg);
+        buffer.position(16);
+        JpegInfo info = new JpegInfo();
+
+        assertTrue(JpegHeaderParser.parse(buffer, info));
+        assertEquals(16, buffer.position());
+        assertEquals(jpeg.length + 16, buffer.limit());
+        assertEquals(270, info.getRotationDegrees());
+        assertArrayEquals(THUMBNAIL, slice(jpeg, info.thumbnailOffset, info.thumbnailLength));
+    }
+
+    @Test
+    public void parse_rejectsNonJpeg() {
+        JpegInfo info = new JpegInfo();
+        info.width = 1;
+
+        assertFalse(JpegHeaderParser.parse(ByteBuffer.wrap(new byte[]{(byte) 0x89, 'P', 'N', 'G'}), info));
+        assertEquals(0, info.width);
+    }
+
+    @Test
+    public void parse_truncatedSegment_keepsWhatWasRead() {
+        byte[] jpeg = buildJpeg(true, 6, THUMBNAIL, 4032, 3024);
+        byte[] truncated = slice(jpeg, 0, 20);
+        JpegInfo info = new JpegInfo();
+
+        assertTrue(JpegHeaderParser.parse(ByteBuffer.wrap(truncated), info));
+        assertFalse(info.hasSize());
+        assertFalse(info.hasThumbnail());
+    }
+
+    @Test
+    public void parse_thumbnailRangeOutsideSegment_isIgnored() {
+        int[][] ranges = {
+                // start + length wraps around in int
+                {0x7FFFFFF0, 0x20},
+                // negative as a signed offset
+                {0xFFFFFFF0, THUMBNAIL.length},
+                // runs past the APP1 segment
+                {46, 0x7FFFFFFF},
+                {46, -1},
+        };
+        for (int[] range : ranges) {
+            byte[] jpeg = buildJpeg(true, 6, THUMBNAIL, 4032, 3024);
+            setThumbnailRange(jpeg, true, range[0], range[1]);
+            JpegInfo info = new JpegInfo();
+
+            assertTrue(JpegHeaderParser.parse(ByteBuffer.wrap(jpeg), info));
+            assertEquals(4032, info.width);
+            assertEquals(JpegInfo.ORIENTATION_ROTATE_90, info.orientation);
+            assertFalse(info.hasThumbnail());
+        }
+    }
+
+    /**
+     * Overwrites the values of the two IFD1 entries written by {@link #buildTiff}
+     */
+    private static void setThumbnailRange(byte[] jpeg, boolean little, int offset, int length) {
+        // SOI, APP1 marker and length, "Exif\0\0"
+        int tiff = 2 + 4 + 6;
+        int ifd1 = tiff + 8 + 2 + 12 + 4;
+        ByteBuffer buffer = ByteBuffer.wrap(jpeg).order(little ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+        buffer.putInt(ifd1 + 2 + 8, offset);
+        buffer.putInt(ifd1 + 2 + 12 + 8, length);
+    }
+
+    private static byte[] slice(byte[] data, int offset, int length) {
+        byte[] result = new byte[length];
+        System.arraycopy(data, offset, result, 0, length);
+        return result;
+    }
+
+    /**
+     * Builds SOI, an optional APP1 EXIF segment, SOF0, SOS and EOI.
+     *
+     * @param orientation EXIF orientation, negative to leave out the APP1 segment
+     */
+    private static byte[] buildJpeg(boolean little, int orientation, byte[] thumbnail, int width, int height) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(0xFF);
+        out.write(0xD8);
+        if (orientation >= 0) {
+            byte[] tiff = buildTiff(little, orientation, thumbnail);
+            int length = 2 + 6 + tiff.length;
+            out.write(0xFF);
+            out.write(0xE1);
+            out.write(length >> 8);
+            out.write(length);
+            out.write('E');
+            out.write('x');
+            out.write('i');
+            out.write('f');
+            out.write(0);
+            out.write(0);
+            out.write(tiff, 0, tiff.length);
+        }
+        // SOF0: length, precision, height, width, one component
+        out.write(0xFF);
+        out.write(0xC0);
+        out.write(0);
+        out.write(11);
+        out.write(8);
+        out.write(height >> 8);
+        out.write(height);
+        out.write(width >> 8);
+        out.write(width);
+        out.write(1);
+        out.write(1);
+        out.write(0x11);
+        out.write(0);
+        // SOS with some entropy data that contains marker like bytes
+        out.write(0xFF);
+        out.write(0xDA);
+        out.write(0);
+        out.write(2);
+        out.write(0xFF);
+        out.write(0x00);
+        out.write(0xFF);
+        out.write(0xD9);
+        return out.toByteArray();
+    }
+
+    private static byte[] buildTiff(boolean little, int orientation, byte[] thumbnail) {
+        int ifd0 = 8;
+        int ifd0Size = 2 + 12 + 4;
+        int ifd1 = ifd0 + ifd0Size;
+        int ifd1Size = 2 + 2 * 12 + 4;
+        int thumbnailOffset = ifd1 + ifd1Size;
+        int thumbnailLength = thumbnail == null ? 0 : thumbnail.length;
+        ByteBuffer tiff = ByteBuffer.allocate(thumbnailOffset + thumbnailLength)
+                .order(little ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+        tiff.put(little ? (byte) 'I' : (byte) 'M');
+        tiff.put(little ? (byte) 'I' : (byte) 'M');
+        tiff.putShort((short) 0x2A);
+        tiff.putInt(ifd0);
+        // IFD0: orientation, SHORT, count 1, value left justified
+        tiff.putShort((short) 1);
+        tiff.putShort((short) 0x0112);
+        tiff.putShort((short) 3);
+        tiff.putInt(1);
+        tiff.putShort((short) orientation);
+        tiff.putShort((short) 0);
+        tiff.putInt(thumbnail == null ? 0 : ifd1);
+        // IFD1: thumbnail offset and length, LONG
+        tiff.putShort((short) 2);
+        tiff.putShort((short) 0x0201);
+        tiff.putShort((short) 4);
+        tiff.putInt(1);
+        tiff.putInt(thumbnailOffset);
+        tiff.putShort((short) 0x0202);
+        tiff.putShort((short) 4);
+        tiff.putInt(1);
+        tiff.putInt(thumbnailLength);
+        tiff.putInt(0);
+        if (thumbnail != null) {
+            tiff.put(thumbnail);
+        }
+        return tiff.array();
+    }
+}
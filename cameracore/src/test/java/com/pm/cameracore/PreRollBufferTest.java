@@ -0,0 +1,125 @@
+package com.pm.cameracore;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit tests for {@link PreRollBuffer}.
+ */
+public class PreRollBufferTest {
+    private static final long SECOND_US = 1000000;
+    private static final long FRAME_US = SECOND_US / 30;
+
+    /**
+     * 30 fps with a key frame every second and an audio frame between two video frames
+     */
+    private static void record(PreRollBuffer buffer, long fromUs, int frames, int frameSize) {
+        for (int i = 0; i < frames; i++) {
+            long ptsUs = fromUs + i * SECOND_US / 30;
+            buffer.add(true, ByteBuffer.allocate(frameSize), ptsUs, 0, i % 30 == 0);
+            buffer.add(false, ByteBuffer.allocate(10), ptsUs + FRAME_US / 2, 0, false);
+        }
+    }
+
+    @Test
+    public void add_rejectsSamplesBeforeTheFirstKeyFrame() {
+        PreRollBuffer buffer = new PreRollBuffer(SECOND_US, 1 << 20);
+        assertFalse(buffer.add(false, ByteBuffer.allocate(10), 0, 0, false));
+        assertFalse(buffer.add(true, ByteBuffer.allocate(10), 0, 0, false));
+        assertTrue(buffer.add(true, ByteBuffer.allocate(10), FRAME_US, 0, true));
+        assertTrue(buffer.add(false, ByteBuffer.allocate(10), FRAME_US, 0, false));
+        assertEquals(20, buffer.getBytes());
+    }
+
+    @Test
+    public void add_keepsTheWindowFromAKeyFrame() {
+        PreRollBuffer buffer = new PreRollBuffer(2 * SECOND_US, 1 << 20);
+        record(buffer, 0, 150, 100);
+        // 5 s recorded, the window starts at the key frame at 2 s
+        assertEquals(149 * SECOND_US / 30 - 2 * SECOND_US, buffer.getDurationUs());
+        assertEquals(2, buffer.getDroppedGroups());
+        List<PreRollBuffer.Sample> samples = buffer.drain();
+        assertTrue(samples.get(0).video);
+        assertTrue(samples.get(0).keyFrame);
+        assertEquals(2 * SECOND_US, samples.get(0).ptsUs);
+        assertEquals(90 * 2, samples.size());
+        assertEquals(0, buffer.getBytes());
+        assertEquals(0, buffer.getDurationUs());
+    }
+
+    @Test
+    public void add_staysWithinTheCap() {
+        // room for about 1.5 s of 1000 byte frames
+        PreRollBuffer buffer = new PreRollBuffer(10 * SECOND_US, 46000);
+        record(buffer, 0, 150, 1000);
+        assertTrue(buffer.getPeakBytes() <= 46000);
+        List<PreRollBuffer.Sample> samples = buffer.drain();
+        assertTrue(samples.get(0).keyFrame);
+        assertEquals(4 * SECOND_US, samples.get(0).ptsUs);
+    }
+
+    @Test
+    public void add_capCountsTheArraysOfMixedSizes() {
+        // large key frames, small frames in between, the arrays of dropped key frames come back
+        PreRollBuffer buffer = new PreRollBuffer(SECOND_US / 2, 100000);
+        for (int i = 0; i < 300; i++) {
+            long ptsUs = i * FRAME_US;
+            buffer.add(true, ByteBuffer.allocate(i % 10 == 0 ? 10000 : 100), ptsUs, 0, i % 10 == 0);
+            buffer.add(false, ByteBuffer.allocate(10), ptsUs + FRAME_US / 2, 0, false);
+            assertTrue(buffer.getFootprint() <= 100000);
+            assertTrue(buffer.getBytes() <= buffer.getFootprint());
+        }
+        assertTrue(buffer.getPeakBytes() <= 100000);
+        long footprint = buffer.getFootprint();
+        long arrays = 0;
+        for (PreRollBuffer.Sample sample : buffer.drain()) {
+            int capacity = sample.getData().capacity();
+            // a small frame does not hold on to the array of a key frame
+            assertTrue(capacity <= 2 * sample.getSize());
+            arrays += capacity;
+        }
+        assertTrue(arrays <= footprint);
+    }
+
+    @Test
+    public void add_dropsAGroupLargerThanTheCap() {
+        PreRollBuffer buffer = new PreRollBuffer(SECOND_US, 500);
+        record(buffer, 0, 10, 100);
+        // nothing is kept until the next key frame
+        assertEquals(0, buffer.getBytes());
+        assertFalse(buffer.add(true, ByteBuffer.allocate(10), 10 * FRAME_US, 0, false));
+        assertTrue(buffer.drain().isEmpty());
+    }
+
+    @Test
+    public void drain_leavesOutAudioBeforeTheKeyFrame() {
+        PreRollBuffer buffer = new PreRollBuffer(SECOND_US, 1 << 20);
+        buffer.add(true, ByteBuffer.allocate(10), 1000, 0, true);
+        // encoded audio may come out later than a video frame that is younger
+        buffer.add(false, ByteBuffer.allocate(10), 900, 0, false);
+        buffer.add(false, ByteBuffer.allocate(10), 1100, 0, false);
+        List<PreRollBuffer.Sample> samples = buffer.drain();
+        assertEquals(2, samples.size());
+        assertEquals(1100, samples.get(1).ptsUs);
+    }
+
+    @Test
+    public void getData_returnsTheCopiedBytes() {
+        PreRollBuffer buffer = new PreRollBuffer(SECOND_US, 1 << 20);
+        ByteBuffer data = ByteBuffer.wrap(new byte[]{9, 1, 2, 3});
+        data.position(1);
+        buffer.add(true, data, 0, 1, true);
+        PreRollBuffer.Sample sample = buffer.drain().get(0);
+        assertEquals(3, sample.getSize());
+        assertEquals(1, sample.flags);
+        byte[] bytes = new byte[3];
+        sample.getData().get(bytes);
+        org.junit.Assert.assertArrayEquals(new byte[]{1, 2, 3}, bytes);
+    }
+}
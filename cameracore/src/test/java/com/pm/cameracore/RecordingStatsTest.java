@@ -0,0 +1,74 @@
+package com.pm.cameracore;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Local unit tests for {@link RecordingStats}.
+ */
+public class RecordingStatsTest {
+
+    @Test
+    public void onVideoFrame_countsGapsAsDroppedFrames() {
+        RecordingStats stats = new RecordingStats(30);
+        stats.onVideoFrame(0, 100, -1, true);
+        stats.onVideoFrame(33333, 100, -1, false);
+        // one frame missing
+        stats.onVideoFrame(100000, 100, -1, false);
+        // jitter below half a frame interval is not a drop
+        stats.onVideoFrame(145000, 100, -1, false);
+        // three frames missing
+        stats.onVideoFrame(278333, 100, -1, false);
+
+        assertEquals(5, stats.getVideoFrames());
+        assertEquals(1, stats.getKeyFrames());
+        assertEquals(4, stats.getDroppedFrames());
+    }
+
+    @Test
+    public void getVideoBitrate_usesPresentationTimes() {
+        RecordingStats stats = new RecordingStats(25);
+        for (int i = 0; i < 25; i++) {
+            stats.onVideoFrame(i * 40000L, 5000, -1, i == 0);
+        }
+
+        assertEquals(1000000, stats.getDurationUs());
+        assertEquals(25 * 5000 * 8, stats.getVideoBitrate());
+        assertEquals(0, stats.getDroppedFrames());
+    }
+
+    @Test
+    public void latency_ignoresUnknownFrames() {
+        RecordingStats stats = new RecordingStats(30);
+        stats.onVideoFrame(0, 100, 10, true);
+        stats.onVideoFrame(33333, 100, -1, false);
+        stats.onVideoFrame(66666, 100, 30, false);
+
+        assertEquals(20, stats.getAverageLatencyNanos());
+        assertEquals(30, stats.getMaxLatencyNanos());
+    }
+
+    @Test
+    public void empty_reportsZero() {
+        RecordingStats stats = new RecordingStats(30);
+
+        assertEquals(0, stats.getDurationUs());
+        assertEquals(0, stats.getVideoBitrate());
+        assertEquals(0, stats.getAverageLatencyNanos());
+    }
+
+    @Test
+    public void preRollFrames_countWithoutLatency() {
+        RecordingStats stats = new RecordingStats(30);
+        stats.onVideoFrame(0, 100, -1, true);
+        stats.onVideoFrame(33333, 100, -1, false);
+        stats.onPreRoll(66666, 4096);
+        stats.onVideoFrame(66666, 100, 10, false);
+
+        assertEquals(3, stats.getVideoFrames());
+        assertEquals(10, stats.getAverageLatencyNanos());
+        assertEquals(66666, stats.getPreRollUs());
+        assertEquals(4096, stats.getPreRollPeakBytes());
+    }
+}
@@ -0,0 +1,58 @@
+package com.pm.cameracore;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit tests for {@link SegmentPolicy}.
+ */
+public class SegmentPolicyTest {
+
+    @Test
+    public void isDue_byDuration() {
+        SegmentPolicy policy = new SegmentPolicy(60000, SegmentPolicy.UNLIMITED, 0);
+        assertFalse(policy.isDue(59999999, Long.MAX_VALUE));
+        assertTrue(policy.isDue(60000000, 0));
+    }
+
+    @Test
+    public void isDue_bySize() {
+        SegmentPolicy policy = new SegmentPolicy(SegmentPolicy.UNLIMITED, 1000000, 0);
+        assertFalse(policy.isDue(Long.MAX_VALUE, 999999));
+        assertTrue(policy.isDue(0, 1000000));
+    }
+
+    @Test
+    public void isDue_byWhicheverComesFirst() {
+        SegmentPolicy policy = new SegmentPolicy(60000, 1000000, 0);
+        assertTrue(policy.isDue(1000, 1000000));
+        assertTrue(policy.isDue(60000000, 1000));
+        assertFalse(policy.isDue(1000, 1000));
+    }
+
+    @Test
+    public void getMaxFileSize_turnsTheDurationIntoBytes() {
+        // 60 s at 8 Mbps
+        assertEquals(60000000, new SegmentPolicy(60000, SegmentPolicy.UNLIMITED, 0).getMaxFileSize(8000000));
+        assertEquals(1000000, new SegmentPolicy(60000, 1000000, 0).getMaxFileSize(8000000));
+        assertEquals(1000000, new SegmentPolicy(SegmentPolicy.UNLIMITED, 1000000, 0).getMaxFileSize(8000000));
+    }
+
+    @Test
+    public void getMaxFileSize_withoutBitRate() {
+        assertEquals(SegmentPolicy.UNLIMITED, new SegmentPolicy(60000, SegmentPolicy.UNLIMITED, 0).getMaxFileSize(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_needsALimit() {
+        new SegmentPolicy(SegmentPolicy.UNLIMITED, SegmentPolicy.UNLIMITED, 3);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_rejectsNegativeRetention() {
+        new SegmentPolicy(60000, SegmentPolicy.UNLIMITED, -1);
+    }
+}
@@ -0,0 +1,33 @@
+package com.pm.cameracore;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit tests for {@link SegmentRetention}.
+ */
+public class SegmentRetentionTest {
+
+    @Test
+    public void add_keepsTheNewestSegments() {
+        SegmentRetention retention = new SegmentRetention(2);
+        assertTrue(retention.add("a.mp4").isEmpty());
+        assertTrue(retention.add("b.mp4").isEmpty());
+        assertEquals(Collections.singletonList("a.mp4"), retention.add("c.mp4"));
+        assertEquals(Arrays.asList("b.mp4", "c.mp4"), retention.getSegments());
+    }
+
+    @Test
+    public void add_unlimitedKeepsAll() {
+        SegmentRetention retention = new SegmentRetention(SegmentPolicy.UNLIMITED);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(retention.add(i + ".mp4").isEmpty());
+        }
+        assertEquals(100, retention.getSegments().size());
+    }
+}
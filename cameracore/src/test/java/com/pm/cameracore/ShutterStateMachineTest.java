@@ -0,0 +1,289 @@
+package com.pm.cameracore;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit tests for {@link ShutterStateMachine}, driven by a {@link FakeCameraBackend}.
+ */
+public class ShutterStateMachineTest {
+
+    private static final long FRAME = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private FakeCameraBackend mBackend;
+    private ShutterStateMachine mShutter;
+    private final List<Long> mShutters = new ArrayList<>();
+    private final List<Long> mJpegs = new ArrayList<>();
+    private int mFailures;
+    private int mCompleted;
+    private ShotTimings mTimings;
+
+    @Before
+    public void setUp() {
+        mBackend = new FakeCameraBackend();
+        mBackend.setFrameDuration(FRAME);
+        mBackend.setJpeg(new byte[]{(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xD9});
+        mBackend.setJpegOutput((timestamp, jpeg) -> mJpegs.add(timestamp));
+        mShutter = new ShutterStateMachine(mBackend, mBackend.getTimer(), new ShutterStateMachine.Callback() {
+            @Override
+            public void onShutter(long timestamp) {
+                mShutters.add(timestamp);
+            }
+
+            @Override
+            public void onStillFailed() {
+                mFailures++;
+            }
+
+            @Override
+            public void onCompleted(ShotTimings timings) {
+                mCompleted++;
+                mTimings = timings;
+            }
+        });
+        // continuous AF still scanning, the fast path does not apply
+        mBackend.setPreviewStates(FrameState.AF_PASSIVE_SCAN, FrameState.AE_CONVERGED);
+        mBackend.startPreview();
+        mBackend.advance(3);
+    }
+
+    @Test
+    public void takePicture_convergedExposure_capturesOnceFocusLocks() {
+        mBackend.setFocusSequence(FrameState.AF_ACTIVE_SCAN, FrameState.AF_ACTIVE_SCAN, FrameState.AF_FOCUSED_LOCKED);
+
+        mShutter.takePicture(1);
+        mBackend.advance(3);
+        assertEquals(ShutterStateMachine.State.STATE_PICTURE_TAKEN, mShutter.getState());
+
+        mBackend.advance(1);
+        assertEquals(1, mJpegs.size());
+        assertEquals(7 * FRAME, (long) mJpegs.get(0));
+        assertEquals(mJpegs, mShutters);
+        assertEquals(1, mCompleted);
+        assertTrue(mShutter.isIdle());
+        // trigger start and cancel
+        assertEquals(2, mBackend.getTriggerCount());
+    }
+
+    @Test
+    public void takePicture_exposureNotConverged_runsPrecaptureFirst() {
+        mBackend.setPreviewStates(FrameState.AF_PASSIVE_FOCUSED, FrameState.AE_SEARCHING);
+        mBackend.setFocusSequence(FrameState.AF_FOCUSED_LOCKED);
+        mBackend.setPrecaptureSequence(FrameState.AE_PRECAPTURE, FrameState.AE_PRECAPTURE, FrameState.AE_CONVERGED);
+
+        mShutter.takePicture(1);
+        mBackend.advance(1);
+        assertEquals(ShutterStateMachine.State.STATE_WAITING_PRECAPTURE, mShutter.getState());
+        mBackend.advance(2);
+        assertEquals(ShutterStateMachine.State.STATE_WAITING_NON_PRECAPTURE, mShutter.getState());
+        mBackend.advance(1);
+        assertEquals(ShutterStateMachine.State.STATE_PICTURE_TAKEN, mShutter.getState());
+
+        mBackend.advance(1);
+        assertEquals(1, mJpegs.size());
+        assertTrue(mShutter.isIdle());
+        // AF start, precapture start and AF cancel
+        assertEquals(3, mBackend.getTriggerCount());
+
+        assertNotNull(mTimings);
+        assertEquals(FRAME, mTimings.getStateNanos(ShutterStateMachine.State.STATE_WAITING_LOCK));
+        assertEquals(FRAME, mTimings.getStateNanos(ShutterStateMachine.State.STATE_WAITING_PRECAPTURE));
+        assertEquals(2 * FRAME, mTimings.getStateNanos(ShutterStateMachine.State.STATE_WAITING_NON_PRECAPTURE));
+        assertEquals(FRAME, mTimings.getStateNanos(ShutterStateMachine.State.STATE_PICTURE_TAKEN));
+        assertEquals(5 * FRAME, mTimings.getShutterLatencyNanos());
+        assertEquals(5 * FRAME, mTimings.getTotalNanos());
+        assertFalse(mTimings.isFastPath());
+        assertFalse(mTimings.hasTimedOut());
+    }
+
+    @Test
+    public void takePicture_withoutAutoFocus_capturesOnNextFrame() {
+        mBackend.setPreviewStates(FrameState.UNKNOWN, FrameState.UNKNOWN);
+        mBackend.setFocusSequence();
+
+        mShutter.takePicture(1);
+        mBackend.advance(2);
+
+        assertEquals(1, mJpegs.size());
+        assertTrue(mShutter.isIdle());
+    }
+
+    @Test
+    public void takePicture_burst_reportsOneShutterAndEveryFailure() {
+        mBackend.setFocusSequence(FrameState.AF_FOCUSED_LOCKED);
+        mBackend.setFailureInterval(3);
+
+        mShutter.takePicture(5);
+        mBackend.advance(6);
+
+        assertEquals(1, mShutters.size());
+        assertEquals(4, mJpegs.size());
+        assertEquals(1, mFailures);
+        assertEquals(1, mCompleted);
+        assertTrue(mShutter.isIdle());
+        assertEquals(5, mBackend.getStillCount());
+    }
+
+    @Test
+    public void takePicture_whileBusy_isRejected() {
+        mBackend.setFocusSequence(FrameState.AF_ACTIVE_SCAN);
+        assertTrue(mShutter.takePicture(1));
+        mBackend.advance(2);
+
+        assertFalse(mShutter.takePicture(1));
+        assertEquals(0, mBackend.getStillCount());
+        assertEquals(1, mBackend.getTriggerCount());
+    }
+
+    @Test
+    public void takePicture_convergedPreview_takesFastPath() {
+        mBackend.setPreviewStates(FrameState.AF_PASSIVE_FOCUSED, FrameState.AE_CONVERGED);
+        mBackend.advance(1);
+
+        mShutter.takePicture(1);
+        assertEquals(ShutterStateMachine.State.STATE_PICTURE_TAKEN, mShutter.getState());
+        mBackend.advance(1);
+
+        assertEquals(1, mJpegs.size());
+        assertTrue(mShutter.isIdle());
+        // neither AF trigger nor cancel
+        assertEquals(0, mBackend.getTriggerCount());
+        assertTrue(mTimings.isFastPath());
+        assertEquals(FRAME, mTimings.getShutterLatencyNanos());
+    }
+
+    @Test
+    public void takePicture_stalePreview_skipsFastPath() {
+        mBackend.setPreviewStates(FrameState.AF_PASSIVE_FOCUSED, FrameState.AE_CONVERGED);
+        mBackend.advance(1);
+        mBackend.advanceTime(TimeUnit.SECONDS.toNanos(1));
+
+        mShutter.takePicture(1);
+
+        assertEquals(ShutterStateMachine.State.STATE_WAITING_LOCK, mShutter.getState());
+    }
+
+    @Test
+    public void takePicture_focusNeverLocks_capturesAtDeadline() {
+        mShutter.setTimeout(ShutterStateMachine.State.STATE_WAITING_LOCK, 100);
+        mBackend.setFocusSequence(FrameState.AF_ACTIVE_SCAN);
+
+        mShutter.takePicture(1);
+        mBackend.advance(9);
+        assertEquals(ShutterStateMachine.State.STATE_WAITING_LOCK, mShutter.getState());
+        mBackend.advance(1);
+        assertEquals(ShutterStateMachine.State.STATE_PICTURE_TAKEN, mShutter.getState());
+
+        mBackend.advance(1);
+        assertEquals(1, mJpegs.size());
+        assertTrue(mTimings.hasTimedOut(ShutterStateMachine.State.STATE_WAITING_LOCK));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(100),
+                mTimings.getStateNanos(ShutterStateMachine.State.STATE_WAITING_LOCK));
+    }
+
+    @Test
+    public void takePicture_cameraStalls_deadlineStillFires() {
+        mShutter.setTimeout(ShutterStateMachine.State.STATE_WAITING_LOCK, 100);
+        mShutter.takePicture(1);
+
+        mBackend.advanceTime(TimeUnit.MILLISECONDS.toNanos(150));
+
+        assertEquals(ShutterStateMachine.State.STATE_PICTURE_TAKEN, mShutter.getState());
+        mBackend.advance(1);
+        assertEquals(1, mJpegs.size());
+    }
+
+    @Test
+    public void close_whileCapturing_abortsAndReturnsToPreview() {
+        mBackend.setFocusSequence(FrameState.AF_FOCUSED_LOCKED);
+        mShutter.takePicture(3);
+        mBackend.advance(2);
+
+        mBackend.close();
+
+        assertEquals(1, mCompleted);
+        assertTrue(mShutter.isIdle());
+        assertEquals(1, mJpegs.size());
+        assertTrue(mTimings.isAborted());
+    }
+
+    @Test
+    public void prefocus_thenRelease_capturesWithoutWaiting() {
+        mBackend.setFocusSequence(FrameState.AF_ACTIVE_SCAN, FrameState.AF_FOCUSED_LOCKED);
+
+        assertTrue(mShutter.prefocus());
+        mBackend.advance(2);
+        assertEquals(ShutterStateMachine.State.STATE_READY, mShutter.getState());
+        mBackend.advance(5);
+        assertEquals(ShutterStateMachine.State.STATE_READY, mShutter.getState());
+        assertEquals(0, mJpegs.size());
+
+        assertTrue(mShutter.takePicture(1));
+        assertEquals(ShutterStateMachine.State.STATE_PICTURE_TAKEN, mShutter.getState());
+        mBackend.advance(1);
+        assertEquals(1, mJpegs.size());
+        assertTrue(mShutter.isIdle());
+        assertTrue(mTimings.isPrefocus());
+        // measured from the release, not from the press
+        assertEquals(FRAME, mTimings.getShutterLatencyNanos());
+        assertEquals(8 * FRAME, mTimings.getTotalNanos());
+    }
+
+    @Test
+    public void prefocus_releasedWhileLocking_capturesOnceLocked() {
+        mBackend.setFocusSequence(FrameState.AF_ACTIVE_SCAN, FrameState.AF_ACTIVE_SCAN, FrameState.AF_FOCUSED_LOCKED);
+
+        mShutter.prefocus();
+        mBackend.advance(1);
+        assertTrue(mShutter.takePicture(3));
+        assertEquals(ShutterStateMachine.State.STATE_WAITING_LOCK, mShutter.getState());
+        assertFalse(mShutter.takePicture(1));
+
+        mBackend.advance(2);
+        assertEquals(ShutterStateMachine.State.STATE_PICTURE_TAKEN, mShutter.getState());
+        mBackend.advance(3);
+        assertEquals(3, mJpegs.size());
+        assertEquals(3, mTimings.getCount());
+        assertTrue(mShutter.isIdle());
+    }
+
+    @Test
+    public void cancelPrefocus_unlocksWithoutShot() {
+        mBackend.setFocusSequence(FrameState.AF_ACTIVE_SCAN, FrameState.AF_FOCUSED_LOCKED);
+
+        mShutter.prefocus();
+        mBackend.advance(2);
+        mShutter.cancelPrefocus();
+        assertTrue(mShutter.isIdle());
+        // trigger start and cancel
+        assertEquals(2, mBackend.getTriggerCount());
+
+        mBackend.advance(3);
+        assertEquals(0, mJpegs.size());
+        assertEquals(0, mCompleted);
+        // a released shutter is not cancelled
+        mShutter.prefocus();
+        mShutter.takePicture(1);
+        mShutter.cancelPrefocus();
+        assertFalse(mShutter.isIdle());
+    }
+
+    @Test
+    public void prefocus_convergedPreview_leavesItToTheFastPath() {
+        mBackend.setPreviewStates(FrameState.AF_PASSIVE_FOCUSED, FrameState.AE_CONVERGED);
+        mBackend.advance(1);
+
+        assertFalse(mShutter.prefocus());
+        assertTrue(mShutter.isIdle());
+        assertEquals(0, mBackend.getTriggerCount());
+    }
+}
@@ -0,0 +1,83 @@
+package com.pm.cameracore;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Local unit tests for {@link SizeSelector}, the sizes are indexed as "WxH" strings.
+ */
+public class SizeSelectorTest {
+
+    @Test
+    public void selectCovering_aspectWithinTolerance_matches() {
+        // 1920x1088 is 16:9 off by 0.7%, an exact comparison rejected it
+        SizeSelector<String> selector = index("1280x960", "2048x1536", "1920x1088");
+
+        assertEquals("1920x1088", selector.selectCovering(1920, 1080, 0, 0, 16, 9));
+    }
+
+    @Test
+    public void selectCovering_aspectOutsideTolerance_losesToSmallerMatch() {
+        SizeSelector<String> selector = index("1920x1440", "1280x720", "1920x1200");
+
+        assertEquals("1280x720", selector.selectCovering(1920, 1080, 0, 0, 16, 9));
+    }
+
+    @Test
+    public void selectCovering_displayCap_largestUnderTheCap() {
+        SizeSelector<String> selector = index("3840x2160", "1280x720", "1920x1080");
+
+        assertEquals("1920x1080", selector.selectCovering(2560, 1440, 1920, 1080, 16, 9));
+    }
+
+    @Test
+    public void selectCovering_everythingOverTheCap_smallestWins() {
+        SizeSelector<String> selector = index("3840x2160", "2560x1440");
+
+        assertEquals("2560x1440", selector.selectCovering(1280, 720, 1920, 1080, 16, 9));
+    }
+
+    @Test
+    public void selectCovering_nothingCovers_fallsBackToLargest() {
+        // the list based version threw NoSuchElementException here
+        SizeSelector<String> selector = index("1280x720", "1920x1080", "640x480");
+
+        assertEquals("1920x1080", selector.selectCovering(4000, 3000, 0, 0, 0, 0));
+    }
+
+    @Test
+    public void selectLargest_noAspectMatch_fallsBackToClosestAspect() {
+        SizeSelector<String> selector = index("1080x1080", "1440x1080");
+
+        assertEquals("1440x1080", selector.selectLargest(0, 0, 16, 9));
+    }
+
+    @Test
+    public void selectLargest_thumbnail_picks16by9AndSkipsEmpty() {
+        // width / height == 16 / 9 in ints took any ratio from 1:1 to 2:1
+        SizeSelector<String> selector = index("0x0", "320x180", "320x240");
+
+        assertEquals("320x180", selector.selectLargest(0, 0, 16, 9));
+    }
+
+    @Test
+    public void select_emptyIndex_returnsNull() {
+        SizeSelector<String> selector = index("0x0");
+
+        assertEquals(0, selector.size());
+        assertNull(selector.selectCovering(1920, 1080, 0, 0, 16, 9));
+    }
+
+    private static SizeSelector<String> index(String... sizes) {
+        int[] widths = new int[sizes.length];
+        int[] heights = new int[sizes.length];
+        for (int i = 0; i < sizes.length; i++) {
+            String[] parts = sizes[i].split("x");
+            widths[i] = Integer.parseInt(parts[0]);
+            heights[i] = Integer.parseInt(parts[1]);
+        }
+        return new SizeSelector<>(sizes, widths, heights);
+    }
+}
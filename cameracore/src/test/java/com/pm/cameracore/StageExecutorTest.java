@@ -0,0 +1,109 @@
+package com.pm.cameracore;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit tests for {@link StageExecutor}.
+ */
+public class StageExecutorTest {
+
+    @Test
+    public void trySubmit_fromTheSlotFreedListener_isNeverRejectedWithCapacity() throws InterruptedException {
+        final int tasks = 2000;
+        StageExecutor stage = new StageExecutor("test", 2, StageExecutor.Overflow.REJECT);
+        AtomicInteger remaining = new AtomicInteger(tasks);
+        AtomicInteger rejected = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(tasks);
+        Runnable task = done::countDown;
+        stage.setOnSlotFreedListener(() -> {
+            while (stage.hasCapacity() && remaining.getAndDecrement() > 0) {
+                if (!stage.trySubmit(task)) {
+                    rejected.incrementAndGet();
+                    done.countDown();
+                }
+            }
+        });
+        // one running and two queued
+        for (int i = 0; i < 3; i++) {
+            remaining.decrementAndGet();
+            assertTrue(stage.trySubmit(task));
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(0, rejected.get());
+        assertEquals(0, stage.getRejectedCount());
+        assertTrue(stage.getMaxInFlight() <= 3);
+        stage.shutdown();
+    }
+
+    @Test
+    public void trySubmit_reject_refusesOnceFull() throws InterruptedException {
+        StageExecutor stage = new StageExecutor("test", 2, StageExecutor.Overflow.REJECT);
+        CountDownLatch release = new CountDownLatch(1);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(stage.trySubmit(() -> await(release)));
+        }
+
+        assertFalse(stage.hasCapacity());
+        assertFalse(stage.trySubmit(() -> {
+        }));
+        assertEquals(1, stage.getRejectedCount());
+        release.countDown();
+        assertTrue(stage.awaitIdle(1000));
+        assertTrue(stage.hasCapacity());
+        stage.shutdown();
+    }
+
+    @Test
+    public void trySubmit_dropOldest_dropsTheOldestWaitingTask() throws InterruptedException {
+        StageExecutor stage = new StageExecutor("test", 2, StageExecutor.Overflow.DROP_OLDEST);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger droppedTask = new AtomicInteger();
+        assertTrue(stage.trySubmit(() -> await(release)));
+        assertTrue(stage.trySubmit(new DroppableTask(droppedTask, 1)));
+        assertTrue(stage.trySubmit(new DroppableTask(droppedTask, 2)));
+        assertTrue(stage.trySubmit(new DroppableTask(droppedTask, 3)));
+
+        assertEquals(1, stage.getDroppedCount());
+        assertEquals(1, droppedTask.get());
+        assertEquals(3, stage.getInFlight());
+        release.countDown();
+        assertTrue(stage.awaitIdle(1000));
+        stage.shutdown();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class DroppableTask implements Runnable, StageExecutor.Droppable {
+        private final AtomicInteger mDropped;
+        private final int mId;
+
+        DroppableTask(AtomicInteger dropped, int id) {
+            mDropped = dropped;
+            mId = id;
+        }
+
+        @Override
+        public void run() {
+        }
+
+        @Override
+        public void onDropped() {
+            mDropped.set(mId);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.pm.cameracore;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit tests for {@link StreamCombinations}.
+ */
+public class StreamCombinationsTest {
+
+    @Test
+    public void sharedJpegLimit_full_keepsFullSizeJpegWhileVideoFitsPreview() {
+        assertEquals(StreamCombinations.JPEG_MAXIMUM,
+                StreamCombinations.sharedJpegLimit(StreamCombinations.LEVEL_FULL, 1920, 1080, 1920, 1080));
+        assertEquals(StreamCombinations.JPEG_MAXIMUM,
+                StreamCombinations.sharedJpegLimit(StreamCombinations.LEVEL_3, 1280, 720, 1080, 1920));
+    }
+
+    @Test
+    public void sharedJpegLimit_full_fallsBackToRecordForLargeVideo() {
+        assertEquals(StreamCombinations.JPEG_RECORD,
+                StreamCombinations.sharedJpegLimit(StreamCombinations.LEVEL_FULL, 3840, 2160, 1920, 1080));
+        // a display smaller than 1080p makes PREVIEW smaller as well
+        assertEquals(StreamCombinations.JPEG_RECORD,
+                StreamCombinations.sharedJpegLimit(StreamCombinations.LEVEL_FULL, 1920, 1080, 1280, 720));
+    }
+
+    @Test
+    public void sharedJpegLimit_limitedAndExternal_capJpegAtRecord() {
+        assertEquals(StreamCombinations.JPEG_RECORD,
+                StreamCombinations.sharedJpegLimit(StreamCombinations.LEVEL_LIMITED, 1280, 720, 1920, 1080));
+        assertEquals(StreamCombinations.JPEG_RECORD,
+                StreamCombinations.sharedJpegLimit(StreamCombinations.LEVEL_EXTERNAL, 1280, 720, 1920, 1080));
+    }
+
+    @Test
+    public void sharedJpegLimit_legacyOrUnknown_needsSeparateSessions() {
+        assertEquals(StreamCombinations.JPEG_NONE,
+                StreamCombinations.sharedJpegLimit(StreamCombinations.LEVEL_LEGACY, 1280, 720, 1920, 1080));
+        assertEquals(StreamCombinations.JPEG_NONE,
+                StreamCombinations.sharedJpegLimit(-1, 1280, 720, 1920, 1080));
+    }
+
+    @Test
+    public void fitsWithin_ignoresOrientation() {
+        assertTrue(StreamCombinations.fitsWithin(1080, 1920, 1920, 1080));
+        assertTrue(StreamCombinations.fitsWithin(1920, 1080, 1920, 1080));
+        assertFalse(StreamCombinations.fitsWithin(1920, 1088, 1920, 1080));
+    }
+}
@@ -0,0 +1,114 @@
+package com.pm.cameracore;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Local unit tests for {@link VideoQualityPolicy} and {@link VideoConfig}.
+ */
+public class VideoQualityPolicyTest {
+    private static final int[][] FPS_RANGES = {{15, 15}, {7, 30}, {15, 30}, {30, 30}, {30, 60}};
+
+    @Test
+    public void chooseFpsRange_prefersFixedRange() {
+        assertArrayEquals(new int[]{30, 30}, VideoQualityPolicy.chooseFpsRange(FPS_RANGES, 30));
+        assertArrayEquals(new int[]{15, 30}, VideoQualityPolicy.chooseFpsRange(new int[][]{{7, 30}, {15, 30}}, 30));
+    }
+
+    @Test
+    public void chooseFpsRange_fallsBelowOrAboveTarget() {
+        assertArrayEquals(new int[]{15, 15}, VideoQualityPolicy.chooseFpsRange(FPS_RANGES, 24));
+        assertArrayEquals(new int[]{30, 60}, VideoQualityPolicy.chooseFpsRange(new int[][]{{30, 60}, {60, 120}}, 24));
+        assertNull(VideoQualityPolicy.chooseFpsRange(new int[0][], 30));
+    }
+
+    @Test
+    public void chooseFpsRange_normalizesLegacyUnits() {
+        assertArrayEquals(new int[]{15, 30}, VideoQualityPolicy.chooseFpsRange(new int[][]{{15000, 30000}}, 30));
+    }
+
+    @Test
+    public void choose_scalesBitrateWithPixels() {
+        VideoQualityPolicy policy = new VideoQualityPolicy(0.1f, 30);
+        VideoConfig fullHd = policy.choose(1920, 1080, FPS_RANGES, 0, 0, 0, 0);
+        VideoConfig uhd = policy.choose(3840, 2160, FPS_RANGES, 0, 0, 0, 0);
+
+        assertEquals(6220800, fullHd.getBitRate());
+        assertEquals(4 * fullHd.getBitRate(), uhd.getBitRate());
+        assertEquals(30, fullHd.getFrameRate());
+        assertEquals(30, fullHd.getMinFps());
+        assertEquals(30, fullHd.getMaxFps());
+    }
+
+    @Test
+    public void choose_staysWithinProfileAndCodec() {
+        VideoQualityPolicy policy = new VideoQualityPolicy(0.2f, 30);
+        // a low end device tuned 720p for 4 Mbps
+        assertEquals(4000000, policy.choose(1280, 720, FPS_RANGES, 4000000, 30, 0, 0).getBitRate());
+        assertEquals(3000000, policy.choose(1280, 720, FPS_RANGES, 4000000, 30, 0, 3000000).getBitRate());
+    }
+
+    @Test
+    public void choose_lowersFrameRateToEncoderAndCamera() {
+        VideoQualityPolicy policy = new VideoQualityPolicy(0.1f, 30);
+        VideoConfig config = policy.choose(3840, 2160, FPS_RANGES, 0, 0, 24, 0);
+
+        assertEquals(15, config.getFrameRate());
+        assertEquals(15, config.getMaxFps());
+
+        VideoConfig noRanges = policy.choose(1920, 1080, new int[0][], 0, 0, 0, 0);
+        assertEquals(30, noRanges.getFrameRate());
+        assertEquals(VideoConfig.AUTO, noRanges.getMinFps());
+    }
+
+    @Test
+    public void choose_givesHevcFewerBits() {
+        VideoQualityPolicy policy = new VideoQualityPolicy(0.1f, 30);
+        EncoderInfo hevc = new EncoderInfo("hevc", EncoderInfo.MIME_HEVC, true, 1, 1, 4096, 2160, 2, 2, 60, 0, 0);
+        VideoConfig config = policy.choose(1920, 1080, FPS_RANGES, 0, 0, 0, 0, hevc);
+
+        assertEquals(3732480, config.getBitRate());
+        assertEquals(EncoderInfo.MIME_HEVC, config.getMimeType());
+        assertEquals("hevc", config.getEncoderName());
+        assertEquals(EncoderInfo.MIME_AVC, config.withDefaultEncoder().getMimeType());
+    }
+
+    @Test
+    public void withDefaultEncoder_choosesTheH264BitrateAgain() {
+        VideoQualityPolicy policy = new VideoQualityPolicy(0.1f, 30);
+        EncoderInfo hevc = new EncoderInfo("hevc", EncoderInfo.MIME_HEVC, true, 1, 1, 4096, 2160, 2, 2, 60, 0, 0);
+        VideoConfig avc = policy.choose(1920, 1080, FPS_RANGES, 0, 0, 0, 0);
+        VideoConfig fallback = policy.choose(1920, 1080, FPS_RANGES, 0, 0, 0, 0, hevc).withDefaultEncoder();
+
+        assertEquals(avc.getBitRate(), fallback.getBitRate());
+        assertEquals(avc, fallback);
+        // within the profile and the H.264 encoder, not the HEVC one
+        assertEquals(5000000, policy.choose(1920, 1080, FPS_RANGES, 5000000, 30, 0, 0, hevc)
+                .withDefaultEncoder().getBitRate());
+        assertEquals(4000000, policy.choose(1920, 1080, FPS_RANGES, 0, 0, 0, 2000000, hevc, 4000000)
+                .withDefaultEncoder().getBitRate());
+    }
+
+    @Test
+    public void withDefaultEncoder_keepsAnOverriddenBitrate() {
+        VideoQualityPolicy policy = new VideoQualityPolicy(0.1f, 30);
+        EncoderInfo hevc = new EncoderInfo("hevc", EncoderInfo.MIME_HEVC, true, 1, 1, 4096, 2160, 2, 2, 60, 0, 0);
+        VideoConfig config = policy.choose(1920, 1080, FPS_RANGES, 0, 0, 0, 0, hevc)
+                .withOverrides(new VideoConfig(8000000, VideoConfig.AUTO, VideoConfig.AUTO, VideoConfig.AUTO));
+
+        assertEquals(8000000, config.withDefaultEncoder().getBitRate());
+    }
+
+    @Test
+    public void withOverrides_replacesSetValues() {
+        VideoConfig chosen = new VideoConfig(6000000, 30, 30, 30);
+
+        assertEquals(new VideoConfig(8000000, 30, 30, 30),
+                chosen.withOverrides(new VideoConfig(8000000, VideoConfig.AUTO, VideoConfig.AUTO, VideoConfig.AUTO)));
+        assertEquals(new VideoConfig(6000000, 24, 24, 24), chosen.withOverrides(new VideoConfig(0, 24, 24, 24)));
+        assertEquals(chosen, chosen.withOverrides(null));
+    }
+}
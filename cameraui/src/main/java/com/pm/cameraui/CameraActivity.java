@@ -17,6 +17,10 @@ public class CameraActivity extends AppCompatActivity {
     private static final String CAMERA_TYPE_INTENT_NAME = "camera_type";
     public static final String TYPE_PICTURE = "picture";
     public static final String TYPE_VIDEO = "video";
+    /**
+     * 拍照和录像共用一个相机, 切换时不重开相机
+     */
+    public static final String TYPE_BOTH = "both";
 
     public static Intent newIntent(Context context, String cameraType) {
         Intent intent = new Intent(context, CameraActivity.class);
@@ -33,11 +37,21 @@ public class CameraActivity extends AppCompatActivity {
         String cameraType = getIntent().getStringExtra(CAMERA_TYPE_INTENT_NAME);
         if (null == savedInstanceState) {
             getSupportFragmentManager().beginTransaction()
-                    .replace(R.id.container, cameraType.equals(TYPE_PICTURE) ? PictureFragment.newInstance() : VideoFragment.newInstance())
+                    .replace(R.id.container, newFragment(cameraType))
                     .commit();
         }
     }
 
+    private static BaseCameraFragment newFragment(String cameraType) {
+        if (TYPE_PICTURE.equals(cameraType)) {
+            return PictureFragment.newInstance();
+        }
+        if (TYPE_BOTH.equals(cameraType)) {
+            return CameraFragment.newInstance();
+        }
+        return VideoFragment.newInstance();
+    }
+
     @Override
     protected void onStart() {
         super.onStart();
@@ -0,0 +1,280 @@
+package com.pm.cameraui;
+
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.graphics.Matrix;
+import android.graphics.SurfaceTexture;
+import android.os.Bundle;
+import android.util.Log;
+import android.util.Size;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+
+import com.pm.cameracore.CameraFuture;
+import com.pm.cameracore.CaptureDelegate;
+import com.pm.cameracore.DelegateCallback;
+import com.pm.cameraui.widget.AutoFitTextureView;
+import com.pm.cameraui.widget.CameraController;
+import com.pm.cameraui.widget.CaptureButton;
+import com.pm.cameraui.widget.VideoViewController;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * 拍照和录像共用一次打开的相机: 轻触拍照, 长按录像.
+ * 设备支持时预览, 拍照和编码器在同一个会话里, 开始录像只换重复请求
+ *
+ * @author pm
+ */
+public class CameraFragment extends BaseCameraFragment implements DelegateCallback {
+    private static final String TAG = "CameraFragment";
+    private AutoFitTextureView mTextureView;
+    private ImageView mImageView;
+    private VideoViewController mVideoViewController;
+
+    private CaptureDelegate mDelegate;
+    private CameraController mController;
+    /**
+     * 是否正在显示拍照结果
+     */
+    private boolean mReviewShowing;
+    /**
+     * 是否在等待拍照结果，取消后到达的结果会被忽略
+     */
+    private boolean mAwaitingResult;
+    /**
+     * 最近一次拍照，只有它失败时才清除{@link #mAwaitingResult}
+     */
+    private CameraFuture<Void> mShot;
+    /**
+     * 当前显示的结果图，不再显示时归还给BitmapPool
+     */
+    private Bitmap mReviewBitmap;
+
+    /**
+     * Use this factory method to create a new instance of
+     * this fragment using the provided parameters.
+     *
+     * @return A new instance of fragment CameraFragment.
+     */
+    public static CameraFragment newInstance() {
+        CameraFragment fragment = new CameraFragment();
+        Bundle args = new Bundle();
+        fragment.setArguments(args);
+        return fragment;
+    }
+
+    public CameraFragment() {
+        super(true);
+    }
+
+    @Override
+    protected void openCamera(int width, int height) {
+        mDelegate.openCamera(width, height).addListener(future -> {
+            if (!future.isSuccessful()) {
+                Log.w(TAG, "openCamera: ", future.getFailure());
+            }
+        }, null);
+    }
+
+    @Override
+    protected void closeCamera() {
+        mDelegate.closeCamera();
+    }
+
+    @Nullable
+    @Override
+    public View onCreateView(@NonNull LayoutInflater inflater, @Nullable ViewGroup container, @Nullable Bundle savedInstanceState) {
+        return inflater.inflate(R.layout.fragment_camera, container, false);
+    }
+
+    @Override
+    public void onViewCreated(@NonNull View view, @Nullable Bundle savedInstanceState) {
+        super.onViewCreated(view, savedInstanceState);
+        mTextureView = (AutoFitTextureView) view.findViewById(R.id.texture);
+        mImageView = view.findViewById(R.id.iv_result);
+        mVideoViewController = view.findViewById(R.id.vv_controller);
+        mController = view.findViewById(R.id.controller);
+
+        mController.setAction(CaptureButton.Action.TAKE_PIC_OR_RECORD);
+        mController.setTip("轻触拍照，长按录像");
+        mController.setDuration(10);
+        mDelegate = new CaptureDelegate(getActivity(), this);
+        mDelegate.setVideoEnabled(true);
+        mController.setControllerCallback(new CameraController.ControllerCallback() {
+            @Override
+            public void preparePicture() {
+                mDelegate.preparePicture();
+            }
+
+            @Override
+            public void cancelPreparePicture() {
+                mDelegate.cancelPreparePicture();
+            }
+
+            @Override
+            public void takePicture() {
+                mAwaitingResult = true;
+                CameraFuture<Void> shot = mDelegate.takePicture();
+                mShot = shot;
+                shot.addListener(future -> {
+                    //拍照失败, 不会再有结果回来
+                    if (!future.isSuccessful() && mShot == shot) {
+                        Log.w(TAG, "takePicture: failed", future.getFailure());
+                        mAwaitingResult = false;
+                    }
+                }, mController::post);
+            }
+
+            @Override
+            public void recordStart() {
+                mDelegate.startRecordingVideo().addListener(future -> {
+                    if (!future.isSuccessful()) {
+                        Log.w(TAG, "recordStart: ", future.getFailure());
+                    }
+                }, null);
+            }
+
+            @Override
+            public void recordStop() {
+                mDelegate.stopRecordingVideo();
+            }
+
+            @Override
+            public void onCancel() {
+                showResultImage(false, null);
+                mVideoViewController.hide();
+            }
+
+            @Override
+            public void onConfirm() {
+                showResultImage(false, null);
+                mVideoViewController.hide();
+            }
+
+            @Override
+            public void onClose() {
+                if (getActivity() != null) {
+                    getActivity().finishAfterTransition();
+                }
+            }
+        });
+    }
+
+    private void showResultImage(boolean visible, Bitmap bitmap) {
+        mReviewShowing = visible;
+        if (!visible) {
+            mAwaitingResult = false;
+        }
+        mImageView.setVisibility(visible ? View.VISIBLE : View.INVISIBLE);
+        setReviewBitmap(bitmap);
+    }
+
+    private void setReviewBitmap(Bitmap bitmap) {
+        mImageView.setImageBitmap(bitmap);
+        if (null != mReviewBitmap && mReviewBitmap != bitmap) {
+            mDelegate.getBitmapPool().put(mReviewBitmap);
+        }
+        mReviewBitmap = bitmap;
+    }
+
+    @Override
+    public void onResume() {
+        super.onResume();
+        mDelegate.startBackgroundThread();
+        if (mTextureView.isAvailable()) {
+            onPrepareCamera(mTextureView.getWidth(), mTextureView.getHeight());
+        } else {
+            mTextureView.setSurfaceTextureListener(this);
+        }
+    }
+
+    @Override
+    public void onPause() {
+        super.onPause();
+        //关闭相机时会停止录制, 都在相机线程完成, 这里不等
+        closeCamera();
+        mDelegate.stopBackgroundThread();
+        mVideoViewController.hide();
+    }
+
+    @Override
+    public void onSurfaceTextureAvailable(SurfaceTexture surface, int width, int height) {
+        onPrepareCamera(width, height);
+    }
+
+    @Override
+    public void onSurfaceTextureSizeChanged(SurfaceTexture surface, int width, int height) {
+
+    }
+
+    @Override
+    public boolean onSurfaceTextureDestroyed(SurfaceTexture surface) {
+        return false;
+    }
+
+    @Override
+    public void onSurfaceTextureUpdated(SurfaceTexture surface) {
+
+    }
+
+    @Override
+    public void onChangeViewSize(Size size) {
+        // We fit the aspect ratio of TextureView to the size of preview we picked.
+        int orientation = getResources().getConfiguration().orientation;
+        if (orientation == Configuration.ORIENTATION_LANDSCAPE) {
+            mTextureView.setAspectRatio(size.getWidth(), size.getHeight());
+        } else {
+            mTextureView.setAspectRatio(size.getHeight(), size.getWidth());
+        }
+    }
+
+    @Override
+    public void onTransformView(Matrix matrix) {
+        mTextureView.setTransform(matrix);
+    }
+
+    @Override
+    public SurfaceTexture getSurfaceTexture() {
+        return mTextureView.getSurfaceTexture();
+    }
+
+    @Override
+    public void onCaptureThumbnail(Bitmap thumbnail) {
+        if (!mAwaitingResult || mReviewShowing) {
+            mDelegate.getBitmapPool().put(thumbnail);
+            return;
+        }
+        showResultImage(true, thumbnail);
+        mController.startAlphaAnimation();
+        mController.startTypeBtnAnimator();
+    }
+
+    @Override
+    public void onCaptureResult(Bitmap bitmap) {
+        if (!mAwaitingResult) {
+            mDelegate.getBitmapPool().put(bitmap);
+            return;
+        }
+        mAwaitingResult = false;
+        if (mReviewShowing) {
+            //替换缩略图
+            setReviewBitmap(bitmap);
+            return;
+        }
+        showResultImage(true, bitmap);
+        mController.startAlphaAnimation();
+        mController.startTypeBtnAnimator();
+    }
+
+    @Override
+    public void onRecordResult(Bitmap coverBitmap, String videoAbsolutePath) {
+        if (null == videoAbsolutePath || !isResumed()) {
+            return;
+        }
+        mVideoViewController.show(coverBitmap, videoAbsolutePath);
+    }
+}
@@ -13,6 +13,7 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ImageView;
 
+import com.pm.cameracore.CameraFuture;
 import com.pm.cameracore.CaptureDelegate;
 import com.pm.cameracore.DelegateCallback;
 import com.pm.cameraui.widget.AutoFitTextureView;
@@ -34,6 +35,22 @@ public class PictureFragment extends BaseCameraFragment implements DelegateCallb
 
     private CaptureDelegate mDelegate;
     private CameraController mController;
+    /**
+     * 是否正在显示拍照结果
+     */
+    private boolean mReviewShowing;
+    /**
+     * 是否在等待拍照结果，取消后到达的结果会被忽略
+     */
+    private boolean mAwaitingResult;
+    /**
+     * 最近一次拍照，只有它失败时才清除{@link #mAwaitingResult}
+     */
+    private CameraFuture<Void> mShot;
+    /**
+     * 当前显示的结果图，不再显示时归还给BitmapPool
+     */
+    private Bitmap mReviewBitmap;
 
     /**
      * Use this factory method to create a new instance of
@@ -59,7 +76,11 @@ public class PictureFragment extends BaseCameraFragment implements DelegateCallb
 
     @Override
     protected void openCamera(int width, int height) {
-        mDelegate.openCamera(width, height);
+        mDelegate.openCamera(width, height).addListener(future -> {
+            if (!future.isSuccessful()) {
+                Log.w(TAG, "openCamera: ", future.getFailure());
+            }
+        }, null);
     }
 
     @Override
@@ -89,9 +110,28 @@ public class PictureFragment extends BaseCameraFragment implements DelegateCallb
         mController.setTip("点击拍照");
         mDelegate = new CaptureDelegate(getActivity(), this);
         mController.setControllerCallback(new CameraController.ControllerCallback() {
+            @Override
+            public void preparePicture() {
+                mDelegate.preparePicture();
+            }
+
+            @Override
+            public void cancelPreparePicture() {
+                mDelegate.cancelPreparePicture();
+            }
+
             @Override
             public void takePicture() {
-                mDelegate.takePicture();
+                mAwaitingResult = true;
+                CameraFuture<Void> shot = mDelegate.takePicture();
+                mShot = shot;
+                shot.addListener(future -> {
+                    //拍照失败, 不会再有结果回来
+                    if (!future.isSuccessful() && mShot == shot) {
+                        Log.w(TAG, "takePicture: failed", future.getFailure());
+                        mAwaitingResult = false;
+                    }
+                }, mController::post);
             }
 
             @Override
@@ -122,8 +162,20 @@ public class PictureFragment extends BaseCameraFragment implements DelegateCallb
     }
 
     private void showResultImage(boolean visible, Bitmap bitmap) {
+        mReviewShowing = visible;
+        if (!visible) {
+            mAwaitingResult = false;
+        }
         mImageView.setVisibility(visible ? View.VISIBLE : View.INVISIBLE);
+        setReviewBitmap(bitmap);
+    }
+
+    private void setReviewBitmap(Bitmap bitmap) {
         mImageView.setImageBitmap(bitmap);
+        if (null != mReviewBitmap && mReviewBitmap != bitmap) {
+            mDelegate.getBitmapPool().put(mReviewBitmap);
+        }
+        mReviewBitmap = bitmap;
     }
 
     @Override
@@ -145,6 +197,7 @@ public class PictureFragment extends BaseCameraFragment implements DelegateCallb
     @Override
     public void onPause() {
         super.onPause();
+        //关闭在相机线程完成, 这里不等
         closeCamera();
         mDelegate.stopBackgroundThread();
     }
@@ -210,9 +263,31 @@ public class PictureFragment extends BaseCameraFragment implements DelegateCallb
         return mTextureView.getSurfaceTexture();
     }
 
+    @Override
+    public void onCaptureThumbnail(Bitmap thumbnail) {
+        Log.d(TAG, "onCaptureThumbnail: thumbnail=" + thumbnail);
+        if (!mAwaitingResult || mReviewShowing) {
+            mDelegate.getBitmapPool().put(thumbnail);
+            return;
+        }
+        showResultImage(true, thumbnail);
+        mController.startAlphaAnimation();
+        mController.startTypeBtnAnimator();
+    }
+
     @Override
     public void onCaptureResult(Bitmap bitmap) {
         Log.d(TAG, "onCaptureResult: bitmap=" + bitmap);
+        if (!mAwaitingResult) {
+            mDelegate.getBitmapPool().put(bitmap);
+            return;
+        }
+        mAwaitingResult = false;
+        if (mReviewShowing) {
+            //替换缩略图
+            setReviewBitmap(bitmap);
+            return;
+        }
         showResultImage(true, bitmap);
         mController.startAlphaAnimation();
         mController.startTypeBtnAnimator();
@@ -5,6 +5,7 @@ import android.graphics.Bitmap;
 import android.graphics.Matrix;
 import android.graphics.SurfaceTexture;
 import android.os.Bundle;
+import android.util.Log;
 import android.util.Size;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -13,6 +14,7 @@ import android.widget.ImageView;
 import android.widget.VideoView;
 
 import com.pm.cameracore.DelegateCallback;
+import com.pm.cameracore.HighSpeedMode;
 import com.pm.cameracore.RecordDelegate;
 import com.pm.cameraui.widget.AutoFitTextureView;
 import com.pm.cameraui.widget.CameraController;
@@ -28,6 +30,7 @@ import androidx.annotation.Nullable;
  * @email puming@zdsoft.cn
  */
 public class VideoFragment extends BaseCameraFragment implements DelegateCallback {
+    private static final String TAG = "VideoFragment";
 
     private AutoFitTextureView mTextureView;
     private VideoViewController mVideoViewController;
@@ -75,6 +78,14 @@ public class VideoFragment extends BaseCameraFragment implements DelegateCallbac
         mController.setAction(CaptureButton.Action.RECORD_VIDEO);
         mController.setRecordPressMode(CaptureButton.PressMode.CLICK);
         mController.setControllerCallback(new CameraController.ControllerCallback() {
+            @Override
+            public void preparePicture() {
+            }
+
+            @Override
+            public void cancelPreparePicture() {
+            }
+
             @Override
             public void takePicture() {
             }
@@ -106,6 +117,12 @@ public class VideoFragment extends BaseCameraFragment implements DelegateCallbac
                 }
             }
         });
+        mController.setOnRecordModeChangeListener(highSpeed -> {
+            //高速会话要重新打开相机
+            mRecordDelegate.setHighSpeedFrameRate(highSpeed ? HighSpeedMode.FRAME_RATE_120 : 0);
+            closeCamera();
+            onPrepareCamera(mTextureView.getWidth(), mTextureView.getHeight());
+        });
     }
 
     @Override
@@ -122,6 +139,7 @@ public class VideoFragment extends BaseCameraFragment implements DelegateCallbac
     @Override
     public void onPause() {
         super.onPause();
+        //停止录制和关闭相机都在相机线程完成, 这里不等
         mRecordDelegate.stopRecordingVideo(true);
         closeCamera();
         mRecordDelegate.stopBackgroundThread();
@@ -130,7 +148,16 @@ public class VideoFragment extends BaseCameraFragment implements DelegateCallbac
 
     @Override
     protected void openCamera(int width, int height) {
-        mRecordDelegate.openCamera(width, height);
+        mRecordDelegate.openCamera(width, height).addListener(future -> {
+            if (!future.isSuccessful()) {
+                Log.w(TAG, "openCamera: ", future.getFailure());
+                return;
+            }
+            HighSpeedMode mode = mRecordDelegate.getHighSpeedMode();
+            int frameRate = null != mode ? mode.getMaxFps()
+                    : Math.min(mRecordDelegate.getMaxHighSpeedFrameRate(), HighSpeedMode.FRAME_RATE_120);
+            mController.post(() -> mController.setHighSpeedFrameRate(frameRate));
+        }, null);
     }
 
     @Override
@@ -178,6 +205,11 @@ public class VideoFragment extends BaseCameraFragment implements DelegateCallbac
         return mTextureView.getSurfaceTexture();
     }
 
+    @Override
+    public void onCaptureThumbnail(Bitmap thumbnail) {
+
+    }
+
     @Override
     public void onCaptureResult(Bitmap bitmap) {
 
@@ -50,6 +50,16 @@ public class CameraController extends FrameLayout {
      * 提示文本
      */
     private TextView mTxtTip;
+    /**
+     * 录制模式切换, 普通或高帧率
+     */
+    private TextView mTxtRecordMode;
+    private OnRecordModeChangeListener mRecordModeListener;
+    /**
+     * 高帧率模式的帧率, 0 不显示模式切换
+     */
+    private int mHighSpeedFrameRate;
+    private boolean mHighSpeed;
 
     private int layoutWidth;
     private int layoutHeight;
@@ -58,6 +68,10 @@ public class CameraController extends FrameLayout {
     private int iconRight = 0;
 
     private boolean isFirst = true;
+    /**
+     * 已经通知开始录制, 录制过短时也要停下
+     */
+    private boolean mRecordStarted;
 
     public CameraController(Context context) {
         this(context, null);
@@ -153,6 +167,16 @@ public class CameraController extends FrameLayout {
         mTxtTip.setGravity(Gravity.CENTER);
         mTxtTip.setLayoutParams(txtParam);
 
+        //录制模式
+        mTxtRecordMode = new TextView(getContext());
+        LayoutParams txtModeParam = new LayoutParams(LayoutParams.WRAP_CONTENT, LayoutParams.WRAP_CONTENT);
+        txtModeParam.gravity = Gravity.CENTER_VERTICAL | Gravity.RIGHT;
+        txtModeParam.setMargins(0, 0, layoutWidth / 6, 0);
+        mTxtRecordMode.setTextColor(0xFFFFFFFF);
+        mTxtRecordMode.setGravity(Gravity.CENTER);
+        mTxtRecordMode.setLayoutParams(txtModeParam);
+        mTxtRecordMode.setVisibility(GONE);
+
         this.addView(mBtnCapture);
         this.addView(mBtnCancel);
         this.addView(mBtnConfirm);
@@ -160,12 +184,27 @@ public class CameraController extends FrameLayout {
 //        this.addView(mIvCustomLeft);
 //        this.addView(mivCustomRight);
         this.addView(mTxtTip);
+        this.addView(mTxtRecordMode);
 
         registerListener();
     }
 
     private void registerListener() {
         mBtnCapture.setCaptureListener(new CaptureButton.CaptureListener() {
+            @Override
+            public void onPressDown() {
+                if (mCallback != null) {
+                    mCallback.preparePicture();
+                }
+            }
+
+            @Override
+            public void onPressCancel() {
+                if (mCallback != null) {
+                    mCallback.cancelPreparePicture();
+                }
+            }
+
             @Override
             public void onTakePicture() {
                 if (mCallback != null) {
@@ -177,19 +216,30 @@ public class CameraController extends FrameLayout {
             public void onRecordShort(long time) {
                 // TODO: 2019/9/18
                 startAlphaAnimation();
+                if (mRecordStarted) {
+                    mRecordStarted = false;
+                    if (mCallback != null) {
+                        mCallback.recordStop();
+                    }
+                    startTypeBtnAnimator();
+                }
             }
 
             @Override
             public void onRecordStart() {
+                mRecordStarted = true;
                 if (mCallback != null) {
                     mCallback.recordStart();
                 }
                 startAlphaAnimation();
                 mBtnClose.setVisibility(GONE);
+                //录制中不能切换模式
+                mTxtRecordMode.setVisibility(GONE);
             }
 
             @Override
             public void onRecordStop(long time) {
+                mRecordStarted = false;
                 if (mCallback != null) {
                     mCallback.recordStop();
                 }
@@ -227,6 +277,14 @@ public class CameraController extends FrameLayout {
                 mCallback.onClose();
             }
         });
+
+        mTxtRecordMode.setOnClickListener(v -> {
+            mHighSpeed = !mHighSpeed;
+            updateRecordMode();
+            if (mRecordModeListener != null) {
+                mRecordModeListener.onRecordModeChanged(mHighSpeed);
+            }
+        });
     }
 
     public void setControllerCallback(ControllerCallback callback) {
@@ -241,6 +299,39 @@ public class CameraController extends FrameLayout {
         mBtnCapture.setRecordPressMode(pressMode);
     }
 
+    /**
+     * 显示录制模式切换, 在普通录制和高帧率录制之间切换
+     *
+     * @param frameRate 高帧率模式的帧率, 0 隐藏模式切换并回到普通录制
+     */
+    public void setHighSpeedFrameRate(int frameRate) {
+        mHighSpeedFrameRate = frameRate;
+        if (frameRate <= 0) {
+            mHighSpeed = false;
+        }
+        updateRecordMode();
+    }
+
+    /**
+     * @return true 当前选中高帧率录制
+     */
+    public boolean isHighSpeed() {
+        return mHighSpeed;
+    }
+
+    public void setOnRecordModeChangeListener(OnRecordModeChangeListener listener) {
+        mRecordModeListener = listener;
+    }
+
+    private void updateRecordMode() {
+        if (mHighSpeedFrameRate <= 0) {
+            mTxtRecordMode.setVisibility(GONE);
+            return;
+        }
+        mTxtRecordMode.setText(mHighSpeed ? mHighSpeedFrameRate + "fps" : "普通");
+        mTxtRecordMode.setVisibility(mBtnCapture.getVisibility());
+    }
+
     public void resetCaptureLayout() {
         mBtnCapture.resetState();
         mBtnCancel.setVisibility(GONE);
@@ -254,6 +345,7 @@ public class CameraController extends FrameLayout {
         if (this.iconRight != 0) {
             mivCustomRight.setVisibility(VISIBLE);
         }
+        updateRecordMode();
     }
 
     public void startTypeBtnAnimator() {
@@ -267,6 +359,7 @@ public class CameraController extends FrameLayout {
             mivCustomRight.setVisibility(GONE);
         }
         mBtnCapture.setVisibility(GONE);
+        mTxtRecordMode.setVisibility(GONE);
         mBtnCancel.setVisibility(VISIBLE);
         mBtnConfirm.setVisibility(VISIBLE);
         mBtnCancel.setClickable(false);
@@ -360,7 +453,24 @@ public class CameraController extends FrameLayout {
         mivCustomRight.setOnClickListener(rightClickListener);
     }
 
+    public interface OnRecordModeChangeListener {
+        /**
+         * @param highSpeed true 切换到高帧率录制
+         */
+        void onRecordModeChanged(boolean highSpeed);
+    }
+
     public interface ControllerCallback {
+        /**
+         * 拍照按钮按下, 提前对焦测光
+         */
+        void preparePicture();
+
+        /**
+         * 按下后没有拍照
+         */
+        void cancelPreparePicture();
+
         void takePicture();
 
         void recordStart();
@@ -139,6 +139,8 @@ public class CaptureButton extends View {
     private LongPressRunnable longPressRunnable;
     //按钮回调接口
     private CaptureListener captureListener;
+    //按下时已通知预对焦, 松开前要么拍照要么取消
+    private boolean mPressSignaled;
     //计时器
     private RecordCountDownTimer timer;
 
@@ -163,7 +165,11 @@ public class CaptureButton extends View {
         /**
          * 录像
          */
-        RECORD_VIDEO
+        RECORD_VIDEO,
+        /**
+         * 轻触拍照，长按录像
+         */
+        TAKE_PIC_OR_RECORD
     }
 
     private Action mAction = Action.TAKE_PIC;
@@ -269,6 +275,8 @@ public class CaptureButton extends View {
     }
 
     private void startRecord() {
+        //长按变成录像, 预对焦不再需要
+        cancelPress();
         mButtonState = STATE_LONG_PRESS;
         //没有录制权限
         if (Utility.getRecordState() != Utility.STATE_SUCCESS) {
@@ -296,8 +304,18 @@ public class CaptureButton extends View {
                 event_Y = event.getY();
                 //修改当前状态为点击按下
                 mButtonState = STATE_PRESS;
-                if (mAction == Action.TAKE_PIC) {
-
+                if (isTakePicture()) {
+                    //按下就开始对焦测光, 松开时少等或不等
+                    if (captureListener != null && (mButtonFeatures == BUTTON_FEATURES_ONLY_CAPTURE
+                            || mButtonFeatures == BUTTON_FEATURES_BOTH)) {
+                        mPressSignaled = true;
+                        captureListener.onPressDown();
+                    }
+                    if (mAction == Action.TAKE_PIC_OR_RECORD && (mButtonFeatures == BUTTON_FEATURES_ONLY_RECORDER
+                            || mButtonFeatures == BUTTON_FEATURES_BOTH)) {
+                        //长按转为录像
+                        postDelayed(longPressRunnable, 500);
+                    }
                 } else if (mAction == Action.RECORD_VIDEO) {
                     //判断按钮是否具有录制特性
                     if ((mButtonFeatures == BUTTON_FEATURES_ONLY_RECORDER || mButtonFeatures == BUTTON_FEATURES_BOTH)) {
@@ -312,12 +330,27 @@ public class CaptureButton extends View {
                         && (mButtonFeatures == BUTTON_FEATURES_ONLY_RECORDER || mButtonFeatures == BUTTON_FEATURES_BOTH)) {
                     //记录当前Y值与按下时候Y值的差值，调用缩放回调接口
                     captureListener.onRecordZoom(event_Y - event.getY());
+                } else if (isTakePicture() && mButtonState == STATE_PRESS && !isInside(event)) {
+                    //手指滑出按钮, 放弃这次拍照
+                    removeCallbacks(longPressRunnable);
+                    cancelPress();
+                    mButtonState = STATE_IDLE;
                 }
                 break;
             case MotionEvent.ACTION_UP:
                 //根据当前按钮的状态进行相应的处理
                 handlerUpByState();
                 break;
+            case MotionEvent.ACTION_CANCEL:
+                //手势被父布局拦截
+                if (isTakePicture() && mButtonState == STATE_PRESS) {
+                    removeCallbacks(longPressRunnable);
+                    cancelPress();
+                    mButtonState = STATE_IDLE;
+                } else if (mAction == Action.TAKE_PIC_OR_RECORD) {
+                    handlerUpByState();
+                }
+                break;
 
             default:
                 break;
@@ -325,13 +358,51 @@ public class CaptureButton extends View {
         return true;
     }
 
+    /**
+     * @return true if a tap takes a picture
+     */
+    private boolean isTakePicture() {
+        return mAction == Action.TAKE_PIC || mAction == Action.TAKE_PIC_OR_RECORD;
+    }
+
+    private boolean isInside(MotionEvent event) {
+        return event.getX() >= 0 && event.getX() <= getWidth()
+                && event.getY() >= 0 && event.getY() <= getHeight();
+    }
+
+    /**
+     * 取消按下时通知的预对焦
+     */
+    private void cancelPress() {
+        if (mPressSignaled) {
+            mPressSignaled = false;
+            if (captureListener != null) {
+                captureListener.onPressCancel();
+            }
+        }
+    }
+
     /**
      * 当手指松开按钮时候处理的逻辑
      */
     private void handlerUpByState() {
-        if (mAction == Action.TAKE_PIC) {
+        if (mAction == Action.TAKE_PIC_OR_RECORD && (mButtonState == STATE_LONG_PRESS
+                || mButtonState == STATE_RECORDERING)) {
+            //长按已经转为录像, 松开就结束
+            timer.cancel();
+            recordEnd();
+            mButtonState = STATE_IDLE;
+        } else if (isTakePicture()) {
+            //还没到长按
+            removeCallbacks(longPressRunnable);
+            if (mButtonState != STATE_PRESS) {
+                //已经滑出按钮
+                return;
+            }
             if (captureListener != null && (mButtonFeatures == BUTTON_FEATURES_ONLY_CAPTURE || mButtonFeatures ==
                     BUTTON_FEATURES_BOTH)) {
+                //预对焦交给拍照收尾
+                mPressSignaled = false;
                 startCaptureAnimation(mButtonInsideRadius);
             } else {
                 mButtonState = STATE_IDLE;
@@ -501,6 +572,7 @@ public class CaptureButton extends View {
      * 重置状态
      */
     public void resetState() {
+        cancelPress();
         mButtonState = STATE_IDLE;
         if(null != timer){
             timer.cancel();
@@ -554,6 +626,16 @@ public class CaptureButton extends View {
     }
 
     public interface CaptureListener {
+        /**
+         * 拍照按钮按下, 可以开始对焦测光, 之后一定会有 {@link #onTakePicture()} 或 {@link #onPressCancel()}
+         */
+        void onPressDown();
+
+        /**
+         * 按下后没有拍照: 滑出按钮或转为录像
+         */
+        void onPressCancel();
+
         void onTakePicture();
 
         void onRecordShort(long time);
@@ -0,0 +1,60 @@
+package com.pm.cameraui.widget;
+
+/**
+ * 手势计算中与Android类型无关的部分, 供 {@link PinchImageView.MathUtils} 使用,
+ * 也可以直接在JVM上测量.
+ *
+ * @author pm
+ */
+public final class GestureMath {
+
+    private GestureMath() {
+    }
+
+    /**
+     * 获取两点之间距离
+     *
+     * @param x1 点1
+     * @param y1 点1
+     * @param x2 点2
+     * @param y2 点2
+     * @return 距离
+     */
+    public static float getDistance(float x1, float y1, float x2, float y2) {
+        float x = x1 - x2;
+        float y = y1 - y2;
+        return (float) Math.sqrt(x * x + y * y);
+    }
+
+    /**
+     * 获取两点的中点, 写入 {@code out}
+     *
+     * @param out 长度至少为2, out[0]为x, out[1]为y
+     * @return out
+     */
+    public static float[] getCenterPoint(float x1, float y1, float x2, float y2, float[] out) {
+        out[0] = (x1 + x2) / 2f;
+        out[1] = (y1 + y2) / 2f;
+        return out;
+    }
+
+    /**
+     * CENTER_CROP 的缩放值: 图片铺满容器
+     */
+    public static float getCenterCropScale(float containerWidth, float containerHeight, float srcWidth, float srcHeight) {
+        if (srcWidth * containerHeight > containerWidth * srcHeight) {
+            return containerHeight / srcHeight;
+        }
+        return containerWidth / srcWidth;
+    }
+
+    /**
+     * CENTER_INSIDE 的缩放值: 图片完整显示在容器内, 不放大
+     */
+    public static float getCenterInsideScale(float containerWidth, float containerHeight, float srcWidth, float srcHeight) {
+        if (srcWidth <= containerWidth && srcHeight <= containerHeight) {
+            return 1f;
+        }
+        return Math.min(containerWidth / srcWidth, containerHeight / srcHeight);
+    }
+}
@@ -1531,9 +1531,7 @@ public class PinchImageView extends AppCompatImageView {
          * @return 距离
          */
         public static float getDistance(float x1, float y1, float x2, float y2) {
-            float x = x1 - x2;
-            float y = y1 - y2;
-            return (float) Math.sqrt(x * x + y * y);
+            return GestureMath.getDistance(x1, y1, x2, y2);
         }
 
         /**
@@ -1546,7 +1544,7 @@ public class PinchImageView extends AppCompatImageView {
          * @return float[]{x, y}
          */
         public static float[] getCenterPoint(float x1, float y1, float x2, float y2) {
-            return new float[]{(x1 + x2) / 2f, (y1 + y2) / 2f};
+            return GestureMath.getCenterPoint(x1, y1, x2, y2, new float[2]);
         }
 
         /**
@@ -1651,14 +1649,12 @@ public class PinchImageView extends AppCompatImageView {
             } else if (ScaleType.CENTER_CROP.equals(scaleType)) {
                 Matrix matrix = matrixTake();
                 RectF rect = rectFTake(0, 0, srcWidth, srcHeight);
-                float scale;
+                float scale = GestureMath.getCenterCropScale(container.width(), container.height(), srcWidth, srcHeight);
                 float dx = 0;
                 float dy = 0;
                 if (srcWidth * container.height() > container.width() * srcHeight) {
-                    scale = container.height() / srcHeight;
                     dx = (container.width() - srcWidth * scale) * 0.5f;
                 } else {
-                    scale = container.width() / srcWidth;
                     dy = (container.height() - srcHeight * scale) * 0.5f;
                 }
                 matrix.setScale(scale, scale);
@@ -1673,14 +1669,9 @@ public class PinchImageView extends AppCompatImageView {
             } else if (ScaleType.CENTER_INSIDE.equals(scaleType)) {
                 Matrix matrix = matrixTake();
                 RectF rect = rectFTake(0, 0, srcWidth, srcHeight);
-                float scale;
+                float scale = GestureMath.getCenterInsideScale(container.width(), container.height(), srcWidth, srcHeight);
                 float dx;
                 float dy;
-                if (srcWidth <= container.width() && srcHeight <= container.height()) {
-                    scale = 1f;
-                } else {
-                    scale = Math.min(container.width() / srcWidth, container.height() / srcHeight);
-                }
                 dx = (container.width() - srcWidth * scale) * 0.5f;
                 dy = (container.height() - srcHeight * scale) * 0.5f;
                 matrix.setScale(scale, scale);
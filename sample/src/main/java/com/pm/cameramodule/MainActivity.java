@@ -29,6 +29,10 @@ public class MainActivity extends AppCompatActivity
      * 录像
      */
     private Button mBtnRecord;
+    /**
+     * 拍照和录像
+     */
+    private Button mBtnBoth;
     private FloatingActionButton mFab;
     private NavigationView mNavView;
     private DrawerLayout mDrawerLayout;
@@ -122,6 +126,8 @@ public class MainActivity extends AppCompatActivity
         mBtnCapture.setOnClickListener(this);
         mBtnRecord = (Button) findViewById(R.id.btn_record);
         mBtnRecord.setOnClickListener(this);
+        mBtnBoth = (Button) findViewById(R.id.btn_both);
+        mBtnBoth.setOnClickListener(this);
         mFab = (FloatingActionButton) findViewById(R.id.fab);
         mNavView = (NavigationView) findViewById(R.id.nav_view);
         mDrawerLayout = (DrawerLayout) findViewById(R.id.drawer_layout);
@@ -138,6 +144,9 @@ public class MainActivity extends AppCompatActivity
             case R.id.btn_record:
                 startActivity(CameraActivity.newIntent(this,CameraActivity.TYPE_VIDEO));
                 break;
+            case R.id.btn_both:
+                startActivity(CameraActivity.newIntent(this,CameraActivity.TYPE_BOTH));
+                break;
         }
     }
 }